@@ -0,0 +1,522 @@
+package net.sharewire.googlemapsclustering;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The clustering of the items of an index, which the algorithms of the library share. Each algorithm
+ * implements the optional interfaces its index supports, e.g. {@link IncrementalAlgorithm},
+ * and makes the corresponding methods of this class public.
+ *
+ * @param <T> the type of an item to be clustered
+ */
+abstract class BaseClusterAlgorithm<T extends ClusterItem> implements ClusteringAlgorithm<T>, BudgetedAlgorithm<T>,
+        QuantizedAlgorithm, SearchableAlgorithm<T>, TrimmableAlgorithm {
+
+    private static final int DEFAULT_MIN_CLUSTER_SIZE = 1;
+    private static final int DEFAULT_MAX_MARKERS = Integer.MAX_VALUE;
+    private static final long MIN_TILE_COUNT = 2;
+    private static final int NEAREST_ITEMS_CAPACITY = 64;
+
+    private final ClusterIndex<T> mIndex;
+    // The buffers of getClusters, which are reused between calls. Concurrent calls, e.g. from
+    // the threads of a tile overlay, each take buffers of their own, so that clustering is reentrant.
+    private final ArrayDeque<ClusterBuffers<T>> mBuffers = new ArrayDeque<>();
+    // Incremented before the items change, so that the lazy item lists of clusters computed before
+    // fail instead of returning items that don't match their sizes.
+    private final AtomicInteger mModificationCount = new AtomicInteger();
+    private int mMinClusterSize;
+    private int mMaxMarkers;
+    private Comparator<T> mItemPriority;
+    private ItemFilter mFilter;
+    private ClusterReducer<T, Object> mReducer;
+    private volatile int mLastClusterCount;
+
+    // Clustering on discrete zoom levels, disabled if the step is 0.
+    private double mZoomStep;
+    private double mZoomHysteresis;
+    private volatile double mLastZoomLevel = Double.NaN;
+
+    // The last result, which is reused as long as nothing that affects it has changed.
+    private volatile int mGeneration;
+    private volatile LastClusters<T> mLastClusters;
+
+    BaseClusterAlgorithm(@NonNull ClusterIndex<T> index) {
+        this.mMinClusterSize = DEFAULT_MIN_CLUSTER_SIZE;
+        this.mMaxMarkers = DEFAULT_MAX_MARKERS;
+        this.mFilter = ItemFilter.ALL;
+        mIndex = index;
+    }
+
+    @NonNull
+    ClusterIndex<T> getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Sets the reducer of the values of items. The index must be a {@link ReducingIndex}.
+     */
+    @SuppressWarnings("unchecked")
+    void setReducer(@Nullable ClusterReducer<T, ?> reducer) {
+        ((ReducingIndex<T>) mIndex).setReducer((ClusterReducer<T, Object>) reducer);
+        mReducer = (ClusterReducer<T, Object>) reducer;
+        mGeneration++;
+    }
+
+    /**
+     * Replaces the items. The items of clusters and selections computed before, which haven't been
+     * accessed yet, can't be accessed afterwards.
+     */
+    @Override
+    public void setItems(List<T> items) {
+        mModificationCount.incrementAndGet();
+        mIndex.setItems(items);
+        mGeneration++;
+    }
+
+    /**
+     * Adds items. The items of clusters and selections computed before, which haven't been
+     * accessed yet, can't be accessed afterwards.
+     */
+    void addItems(List<T> items) {
+        mModificationCount.incrementAndGet();
+        mIndex.addItems(items);
+        mGeneration++;
+    }
+
+    @Override
+    public List<MarkerCluster<T>> getClusters(LatLngBounds latLngBounds, double zoomLevel) {
+        int generation = mGeneration;
+        if (mZoomStep > 0) {
+            zoomLevel = quantizeZoomLevel(zoomLevel);
+
+            // The clusters of the same zoom level still cover the bounds, e.g. after a small pinch.
+            LastClusters<T> lastClusters = mLastClusters;
+            if (lastClusters != null && generation == lastClusters.generation
+                    && zoomLevel == lastClusters.zoomLevel && isInside(latLngBounds, lastClusters.bounds)) {
+                return lastClusters.clusters;
+            }
+        }
+
+        List<MarkerCluster<T>> clusters = getClustersForZoomLevel(latLngBounds, zoomLevel);
+
+        if (mZoomStep > 0) {
+            mLastClusters = new LastClusters<>(generation, zoomLevel, latLngBounds, clusters);
+        }
+
+        return clusters;
+    }
+
+    @NonNull
+    private List<MarkerCluster<T>> getClustersForZoomLevel(@NonNull LatLngBounds latLngBounds, double zoomLevel) {
+        long tileCount = (long) (Math.pow(2, zoomLevel) * 2);
+
+        ClusterBuffers<T> buffers = acquireBuffers();
+        try {
+            List<MarkerCluster<T>> clusters = getClustersForTileCount(buffers, latLngBounds, tileCount);
+
+            // Merge neighboring tiles until the result fits into the marker budget.
+            while (clusters.size() > mMaxMarkers && tileCount > MIN_TILE_COUNT) {
+                tileCount = Math.max(tileCount / 2, MIN_TILE_COUNT);
+                clusters = getClustersForTileCount(buffers, latLngBounds, tileCount);
+            }
+
+            if (clusters.size() > mMaxMarkers) {
+                dropLowestPriorityClusters(clusters);
+            }
+
+            return clusters;
+        } finally {
+            releaseBuffers(buffers);
+        }
+    }
+
+    /**
+     * Returns up to the given number of items nearest to the given position, from the nearest
+     * to the farthest one. Only the items that pass the category filter and the time window are returned.
+     *
+     * @param maxDistance the maximum distance of items in meters, measured along the great circle
+     */
+    @Override
+    public List<T> getNearestItems(LatLng position, int count, double maxDistance) {
+        List<T> items = new ArrayList<>(Math.min(count, NEAREST_ITEMS_CAPACITY));
+        mIndex.queryNearest(position.latitude, position.longitude, count, maxDistance, mFilter, items);
+        return items;
+    }
+
+    /**
+     * Returns the items within the given distance of the given position, from the nearest
+     * to the farthest one. Only the items that pass the category filter and the time window are returned.
+     *
+     * @param distance the distance in meters, measured along the great circle
+     */
+    @Override
+    public List<T> getItemsWithinDistance(LatLng position, double distance) {
+        return getNearestItems(position, Integer.MAX_VALUE, distance);
+    }
+
+    /**
+     * Selects the items within the given distance of the given center. Only the items
+     * that pass the category filter and the time window are selected.
+     *
+     * @param radius the radius of the circle in meters, measured along the great circle
+     */
+    @Override
+    public ItemSelection<T> selectItemsInCircle(LatLng center, double radius) {
+        return selectItems(new CircleRegion(center.latitude, center.longitude, radius));
+    }
+
+    /**
+     * Selects the items inside the given polygon. Only the items that pass the category filter
+     * and the time window are selected.
+     *
+     * @param vertices the vertices of a simple polygon whose edges don't cross the 180th meridian
+     */
+    @Override
+    public ItemSelection<T> selectItemsInPolygon(List<LatLng> vertices) {
+        return selectItems(new PolygonRegion(vertices));
+    }
+
+    @NonNull
+    private ItemSelection<T> selectItems(@NonNull final Region region) {
+        final ItemFilter filter = mFilter;
+        int modificationCount = mModificationCount.get();
+        int count = mIndex.countRegion(region, filter);
+        LazyItemList<T> items = new LazyItemList<T>(count) {
+            @Override
+            void queryItems(@NonNull List<T> items) {
+                mIndex.queryRegion(region, filter, items);
+            }
+        };
+        items.checkModifications(mModificationCount, modificationCount);
+        return new ItemSelection<>(count, items);
+    }
+
+    @NonNull
+    private ClusterBuffers<T> acquireBuffers() {
+        ClusterBuffers<T> buffers;
+        synchronized (mBuffers) {
+            buffers = mBuffers.poll();
+        }
+        if (buffers == null) {
+            buffers = new ClusterBuffers<>();
+        }
+        buffers.tileBuckets.setReducer(mReducer);
+        return buffers;
+    }
+
+    private void releaseBuffers(@NonNull ClusterBuffers<T> buffers) {
+        buffers.points.clear();
+        synchronized (mBuffers) {
+            mBuffers.push(buffers);
+        }
+    }
+
+    @NonNull
+    private List<MarkerCluster<T>> getClustersForTileCount(@NonNull ClusterBuffers<T> buffers,
+                                                           @NonNull LatLngBounds latLngBounds, long tileCount) {
+        // The result is handed over to the renderer, so it can't be reused,
+        // but sizing it after the previous result avoids growing it.
+        List<MarkerCluster<T>> clusters = new ArrayList<>(mLastClusterCount);
+        // Read before the index is queried, so that lists computed from changing items fail.
+        int modificationCount = mModificationCount.get();
+
+        double startLatitude = latLngBounds.northeast.latitude;
+        double endLatitude = latLngBounds.southwest.latitude;
+
+        double startLongitude = latLngBounds.southwest.longitude;
+        double endLongitude = latLngBounds.northeast.longitude;
+
+        double stepLatitude = 180.0 / tileCount;
+        double stepLongitude = 360.0 / tileCount;
+
+        if (startLongitude > endLongitude) { // Longitude +180°/-180° overlap.
+            // [start longitude; 180]
+            getClustersInsideBounds(buffers, clusters, modificationCount, startLatitude, endLatitude,
+                    startLongitude, 180.0, stepLatitude, stepLongitude);
+            // [-180; end longitude]
+            getClustersInsideBounds(buffers, clusters, modificationCount, startLatitude, endLatitude,
+                    -180.0, endLongitude, stepLatitude, stepLongitude);
+        } else {
+            getClustersInsideBounds(buffers, clusters, modificationCount, startLatitude, endLatitude,
+                    startLongitude, endLongitude, stepLatitude, stepLongitude);
+        }
+
+        mLastClusterCount = clusters.size();
+
+        return clusters;
+    }
+
+    private void getClustersInsideBounds(@NonNull ClusterBuffers<T> buffers, @NonNull List<MarkerCluster<T>> clusters,
+                                         int modificationCount, double startLatitude, double endLatitude,
+                                         double startLongitude, double endLongitude,
+                                         double stepLatitude, double stepLongitude) {
+        long startX = (long) ((startLongitude + 180.0) / stepLongitude);
+        long startY = (long) ((90.0 - startLatitude) / stepLatitude);
+
+        long endX = (long) ((endLongitude + 180.0) / stepLongitude) + 1;
+        long endY = (long) ((90.0 - endLatitude) / stepLatitude) + 1;
+
+        // Aggregate all tiles in a single traversal of the tree.
+        TileBuckets tileBuckets = buffers.tileBuckets;
+        tileBuckets.reset(startX, startY, endX, endY, stepLatitude, stepLongitude);
+        mIndex.aggregateTiles(tileBuckets, mFilter);
+
+        for (long tileX = startX; tileX <= endX; tileX++) {
+            for (long tileY = startY; tileY <= endY; tileY++) {
+                int count = tileBuckets.getCount(tileX, tileY);
+                if (count == 0) {
+                    continue;
+                }
+
+                double north = 90.0 - tileY * stepLatitude;
+                double west = tileX * stepLongitude - 180.0;
+                double south = north - stepLatitude;
+                double east = west + stepLongitude;
+
+                // A single item is queried right away, since the renderer reads it for the icon of its marker.
+                if (count >= mMinClusterSize && count > 1) {
+                    double latitude = tileBuckets.getLatitudeSum(tileX, tileY) / count;
+                    double longitude = tileBuckets.getLongitudeSum(tileX, tileY) / count;
+
+                    List<T> items = mIndex.tileView(stepLatitude, stepLongitude, tileX, tileY, mFilter, count);
+                    if (items instanceof LazyItemList) {
+                        ((LazyItemList<T>) items).checkModifications(mModificationCount, modificationCount);
+                    }
+                    clusters.add(new MapCluster<>(latitude, longitude, count, items,
+                            mReducer, tileBuckets.getAggregate(tileX, tileY), north, west, south, east));
+                } else {
+                    ArrayList<T> points = buffers.points;
+                    points.clear();
+                    mIndex.queryTile(stepLatitude, stepLongitude, tileX, tileY, mFilter, points);
+                    for (int i = 0, size = points.size(); i < size; i++) {
+                        T item = points.get(i);
+                        Object aggregate = mReducer != null ? mReducer.extract(item) : null;
+                        clusters.add(new MapCluster<>(item, mReducer, aggregate, north, west, south, east));
+                    }
+                }
+            }
+        }
+    }
+
+    private void dropLowestPriorityClusters(@NonNull List<MarkerCluster<T>> clusters) {
+        List<MarkerCluster<T>> multiItemClusters = new ArrayList<>();
+        List<MarkerCluster<T>> singleItemClusters = new ArrayList<>();
+
+        for (MarkerCluster<T> cluster : clusters) {
+            if (cluster.getSize() > 1) {
+                multiItemClusters.add(cluster);
+            } else {
+                singleItemClusters.add(cluster);
+            }
+        }
+
+        clusters.clear();
+
+        // Clusters represent more items than individual markers, so they are kept first.
+        if (multiItemClusters.size() > mMaxMarkers) {
+            Collections.sort(multiItemClusters, new ClusterSizeComparator<T>());
+        }
+        clusters.addAll(multiItemClusters.subList(0, Math.min(multiItemClusters.size(), mMaxMarkers)));
+
+        int remainingMarkers = mMaxMarkers - clusters.size();
+        if (remainingMarkers <= 0) {
+            return;
+        }
+
+        if (mItemPriority != null) {
+            Collections.sort(singleItemClusters, new ItemPriorityComparator<>(mItemPriority));
+        }
+        clusters.addAll(singleItemClusters.subList(0, Math.min(singleItemClusters.size(), remainingMarkers)));
+    }
+
+    /**
+     * Returns the zoom level to cluster on: the zoom level rounded down to a multiple of the step,
+     * or the previous one, if the zoom level hasn't left it by more than the hysteresis.
+     */
+    private double quantizeZoomLevel(double zoomLevel) {
+        double lastZoomLevel = mLastZoomLevel;
+        if (!Double.isNaN(lastZoomLevel) && zoomLevel >= lastZoomLevel - mZoomHysteresis
+                && zoomLevel < lastZoomLevel + mZoomStep + mZoomHysteresis) {
+            return lastZoomLevel;
+        }
+        lastZoomLevel = Math.floor(zoomLevel / mZoomStep) * mZoomStep;
+        mLastZoomLevel = lastZoomLevel;
+        return lastZoomLevel;
+    }
+
+    /**
+     * Returns whether the inner bounds lie inside the outer ones,
+     * including bounds that cross the 180th meridian.
+     */
+    private static boolean isInside(@NonNull LatLngBounds inner, @NonNull LatLngBounds outer) {
+        if (inner.southwest.latitude < outer.southwest.latitude
+                || inner.northeast.latitude > outer.northeast.latitude) {
+            return false;
+        }
+
+        double innerWest = inner.southwest.longitude;
+        double innerEast = inner.northeast.longitude;
+        if (innerEast < innerWest) {
+            innerEast += 360.0;
+        }
+        double outerWest = outer.southwest.longitude;
+        double outerEast = outer.northeast.longitude;
+        if (outerEast < outerWest) {
+            outerEast += 360.0;
+        }
+
+        // Compare the longitudes of the inner bounds shifted to the same turn as the outer ones.
+        if (innerWest < outerWest) {
+            innerWest += 360.0;
+            innerEast += 360.0;
+        }
+        return innerEast <= outerEast;
+    }
+
+    @Override
+    public void setMinClusterSize(int minClusterSize) {
+        mMinClusterSize = minClusterSize;
+        mGeneration++;
+    }
+
+    @Override
+    public void setMaxMarkers(int maxMarkers) {
+        mMaxMarkers = maxMarkers;
+        mGeneration++;
+    }
+
+    @Override
+    public void setItemPriority(@Nullable Comparator<T> itemPriority) {
+        mItemPriority = itemPriority;
+        mGeneration++;
+    }
+
+    void setCategoryFilter(long categoryFilter) {
+        mFilter = mFilter.withCategories(categoryFilter);
+        mGeneration++;
+    }
+
+    void setTimeWindow(long startTime, long endTime) {
+        mFilter = mFilter.withTimeWindow(startTime, endTime);
+        mGeneration++;
+    }
+
+    void clearTimeWindow() {
+        mFilter = mFilter.withoutTimeWindow();
+        mGeneration++;
+    }
+
+    /**
+     * Clusters items on discrete zoom levels, so that small zoom changes keep the same tiles.
+     * As long as the camera stays within the hysteresis around the current zoom level
+     * and inside the bounds that were clustered last, the previous clusters are reused.
+     *
+     * @param zoomStep   the difference between two zoom levels clustered on, e.g. 0.5,
+     *                   or 0 to cluster on the exact zoom level of the camera
+     * @param hysteresis how far the camera zoom may leave the current zoom level before
+     *                   the next one is used, less than half of the step
+     */
+    @Override
+    public void setZoomQuantization(double zoomStep, double hysteresis) {
+        mZoomStep = zoomStep;
+        mZoomHysteresis = hysteresis;
+        mLastZoomLevel = Double.NaN;
+        mLastClusters = null;
+        mGeneration++;
+    }
+
+    /**
+     * Releases memory in stages of the given level of {@link ComponentCallbacks2}. From
+     * {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL} on, the buffers and the last result
+     * are dropped. From {@link ComponentCallbacks2#TRIM_MEMORY_BACKGROUND} on, the index is compacted
+     * and, from {@link ComponentCallbacks2#TRIM_MEMORY_MODERATE} on, released down to the references
+     * to the items. Everything is restored when it's needed again, the index when the items are
+     * clustered or added, at the cost of rebuilding it.
+     *
+     * @return the estimated number of bytes freed
+     */
+    @Override
+    public long trimMemory(int level) {
+        long freedBytes = 0;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Buffers in use by a call are returned to the pool afterwards and dropped by the next trim.
+            synchronized (mBuffers) {
+                for (ClusterBuffers<T> buffers : mBuffers) {
+                    freedBytes += buffers.tileBuckets.release();
+                }
+                mBuffers.clear();
+            }
+            mLastClusters = null;
+            mLastClusterCount = 0;
+        }
+        return freedBytes + mIndex.trimMemory(level);
+    }
+
+    /**
+     * The buffers of a call of getClusters.
+     */
+    private static final class ClusterBuffers<T extends ClusterItem> {
+
+        final TileBuckets tileBuckets = new TileBuckets();
+        final ArrayList<T> points = new ArrayList<>();
+    }
+
+    /**
+     * The clusters last computed and what they were computed for.
+     */
+    private static final class LastClusters<T extends ClusterItem> {
+
+        final int generation;
+        final double zoomLevel;
+        final LatLngBounds bounds;
+        final List<MarkerCluster<T>> clusters;
+
+        LastClusters(int generation, double zoomLevel, @NonNull LatLngBounds bounds,
+                     @NonNull List<MarkerCluster<T>> clusters) {
+            this.generation = generation;
+            this.zoomLevel = zoomLevel;
+            this.bounds = bounds;
+            this.clusters = clusters;
+        }
+    }
+
+    /**
+     * Orders clusters from the largest to the smallest.
+     */
+    private static class ClusterSizeComparator<T extends ClusterItem> implements Comparator<MarkerCluster<T>> {
+
+        @Override
+        public int compare(MarkerCluster<T> first, MarkerCluster<T> second) {
+            return second.getSize() - first.getSize();
+        }
+    }
+
+    /**
+     * Orders single item clusters from the highest to the lowest item priority.
+     */
+    private static class ItemPriorityComparator<T extends ClusterItem> implements Comparator<MarkerCluster<T>> {
+
+        private final Comparator<T> mItemPriority;
+
+        private ItemPriorityComparator(@NonNull Comparator<T> itemPriority) {
+            mItemPriority = itemPriority;
+        }
+
+        @Override
+        public int compare(MarkerCluster<T> first, MarkerCluster<T> second) {
+            return mItemPriority.compare(second.getItems().get(0), first.getItems().get(0));
+        }
+    }
+}
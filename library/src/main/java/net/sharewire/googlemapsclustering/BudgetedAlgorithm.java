@@ -0,0 +1,29 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.Nullable;
+
+import java.util.Comparator;
+
+/**
+ * A clustering algorithm that limits the number of markers it produces.
+ * {@link ClusterLayer} checks for this interface, so it's optional for custom algorithms.
+ *
+ * @param <T> the type of an item to be clustered
+ * @see ClusterLayer#setMaxMarkers(int)
+ */
+public interface BudgetedAlgorithm<T extends ClusterItem> {
+    /**
+     * Sets the maximum number of markers produced at once.
+     *
+     * @param maxMarkers the maximum number of markers
+     */
+    void setMaxMarkers(int maxMarkers);
+
+    /**
+     * Sets the comparator that defines the priority of individual items, which are dropped
+     * from the lowest priority on when the marker limit is exceeded.
+     *
+     * @param itemPriority the comparator that defines the priority of items, or <code>null</code>
+     */
+    void setItemPriority(@Nullable Comparator<T> itemPriority);
+}
@@ -0,0 +1,20 @@
+package net.sharewire.googlemapsclustering;
+
+/**
+ * A cluster item that belongs to categories, so it can be shown or hidden
+ * by a category filter without rebuilding the index.
+ *
+ * @see ClusterManager#setCategoryFilter(long)
+ */
+public interface CategorizedClusterItem extends ClusterItem {
+
+    /**
+     * The filter that matches all items.
+     */
+    long ALL_CATEGORIES = -1L;
+
+    /**
+     * Returns the categories of the item as a bit mask, so there can be up to 64 categories.
+     */
+    long getCategories();
+}
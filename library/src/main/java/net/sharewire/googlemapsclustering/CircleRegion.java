@@ -0,0 +1,41 @@
+package net.sharewire.googlemapsclustering;
+
+/**
+ * The region within a great-circle distance of a center.
+ */
+final class CircleRegion implements Region {
+
+    private final double latitude;
+    private final double longitude;
+    private final double radius;
+
+    /**
+     * @param radius the radius in meters
+     */
+    CircleRegion(double latitude, double longitude, double radius) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+    }
+
+    @Override
+    public int classify(double north, double west, double south, double east) {
+        if (Distances.distanceToRect(latitude, longitude, north, west, south, east) > radius) {
+            return OUTSIDE;
+        }
+
+        // Within 90 degrees of longitude, the farthest point of a rectangle is one of its corners.
+        if (Math.abs(west - longitude) <= 90.0 && Math.abs(east - longitude) <= 90.0
+                && contains(north, west) && contains(north, east)
+                && contains(south, west) && contains(south, east)) {
+            return INSIDE;
+        }
+
+        return PARTIAL;
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        return Distances.distance(this.latitude, this.longitude, latitude, longitude) <= radius;
+    }
+}
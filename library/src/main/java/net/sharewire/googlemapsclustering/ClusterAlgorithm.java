@@ -1,114 +1,101 @@
 package net.sharewire.googlemapsclustering;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-import com.google.android.gms.maps.model.LatLngBounds;
-
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-public class ClusterAlgorithm<T extends ClusterItem> implements ClusteringAlgorithm<T> {
+import static net.sharewire.googlemapsclustering.Preconditions.checkArgument;
 
-    private static final int QUAD_TREE_BUCKET_CAPACITY = 4;
-    private static final int DEFAULT_MIN_CLUSTER_SIZE = 1;
+/**
+ * The clustering algorithm that keeps items in a quad tree in memory. Items can be added,
+ * filtered by their categories and timestamps, and their values can be reduced.
+ *
+ * @param <T> the type of an item to be clustered
+ */
+public class ClusterAlgorithm<T extends ClusterItem> extends BaseClusterAlgorithm<T>
+        implements IncrementalAlgorithm<T>, FilterableAlgorithm {
 
-    private final QuadTree<T> mQuadTree;
-    private int mMinClusterSize;
+    static final int QUAD_TREE_BUCKET_CAPACITY = 4;
 
+    /**
+     * Creates a new algorithm that chooses the bucket capacity of its quad tree
+     * from the number of items set.
+     */
     @SuppressWarnings("WeakerAccess")
     public ClusterAlgorithm() {
-        this.mMinClusterSize = DEFAULT_MIN_CLUSTER_SIZE;
-        mQuadTree = new QuadTree<>(QUAD_TREE_BUCKET_CAPACITY);
+        this(new QuadTree<T>(QuadTree.AUTO_BUCKET_SIZE));
     }
 
-    @Override
-    public void setItems(List<T> items) {
-        mQuadTree.clear();
-        for (T clusterItem : items) {
-            mQuadTree.insert(clusterItem);
+    /**
+     * Creates a new algorithm with the given quad tree parameters.
+     *
+     * @param bucketCapacity the number of items a node holds before it's subdivided
+     * @param maxDepth       the depth of the nodes that are never subdivided and hold
+     *                       all their items instead, e.g. items at the same address.
+     *                       A node at the depth of 24 is about a meter high.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public ClusterAlgorithm(int bucketCapacity, int maxDepth) {
+        this(new QuadTree<T>(checkPositive(bucketCapacity), checkNotNegative(maxDepth)));
+    }
+
+    ClusterAlgorithm(@NonNull ReducingIndex<T> index) {
+        super(index);
+    }
+
+    /**
+     * Sets whether {@link #setItems(List)} builds the quad tree of a large set of items on all cores
+     * of devices with API 21 and higher. The tree is the same as the one built on a single thread.
+     * Algorithms that don't keep their items in a quad tree ignore the setting.
+     */
+    public void setParallelIndexing(boolean parallelIndexing) {
+        if (getIndex() instanceof QuadTree) {
+            ((QuadTree<T>) getIndex()).setParallelBuild(parallelIndexing);
         }
     }
 
+    /**
+     * Sets the reducer of the values of items, e.g. to display the total of some value of the items
+     * of a cluster on its icon. The index keeps the reduced values of its nodes up to date,
+     * so {@link MapCluster#getAggregate(ClusterReducer)} returns the value of a cluster without accessing its items.
+     * Setting a reducer reduces the values of the items that are already indexed.
+     *
+     * @param reducer the reducer of the values of items, or <code>null</code> to stop reducing them
+     * @see MapCluster#getAggregate(ClusterReducer)
+     */
     @Override
-    public List<MarkerCluster<T>> getClusters(LatLngBounds latLngBounds, double zoomLevel) {
-        List<MarkerCluster<T>> clusters = new ArrayList<>();
-
-        long tileCount = (long) (Math.pow(2, zoomLevel) * 2);
-
-        double startLatitude = latLngBounds.northeast.latitude;
-        double endLatitude = latLngBounds.southwest.latitude;
-
-        double startLongitude = latLngBounds.southwest.longitude;
-        double endLongitude = latLngBounds.northeast.longitude;
-
-        double stepLatitude = 180.0 / tileCount;
-        double stepLongitude = 360.0 / tileCount;
-
-        if (startLongitude > endLongitude) { // Longitude +180°/-180° overlap.
-            // [start longitude; 180]
-            getClustersInsideBounds(clusters, startLatitude, endLatitude,
-                    startLongitude, 180.0, stepLatitude, stepLongitude);
-            // [-180; end longitude]
-            getClustersInsideBounds(clusters, startLatitude, endLatitude,
-                    -180.0, endLongitude, stepLatitude, stepLongitude);
-        } else {
-            getClustersInsideBounds(clusters, startLatitude, endLatitude,
-                    startLongitude, endLongitude, stepLatitude, stepLongitude);
-        }
+    public void setReducer(@Nullable ClusterReducer<T, ?> reducer) {
+        super.setReducer(reducer);
+    }
 
-        return clusters;
+    @Override
+    public void addItems(List<T> items) {
+        super.addItems(items);
     }
 
-    private void getClustersInsideBounds(@NonNull List<MarkerCluster<T>> clusters,
-                                         double startLatitude, double endLatitude,
-                                         double startLongitude, double endLongitude,
-                                         double stepLatitude, double stepLongitude) {
-        long startX = (long) ((startLongitude + 180.0) / stepLongitude);
-        long startY = (long) ((90.0 - startLatitude) / stepLatitude);
-
-        long endX = (long) ((endLongitude + 180.0) / stepLongitude) + 1;
-        long endY = (long) ((90.0 - endLatitude) / stepLatitude) + 1;
-
-        for (long tileX = startX; tileX <= endX; tileX++) {
-            for (long tileY = startY; tileY <= endY; tileY++) {
-                double north = 90.0 - tileY * stepLatitude;
-                double west = tileX * stepLongitude - 180.0;
-                double south = north - stepLatitude;
-                double east = west + stepLongitude;
-
-                List<T> points = mQuadTree.queryRange(north, west, south, east);
-
-                if (points.isEmpty()) {
-                    continue;
-                }
-
-                if (points.size() >= mMinClusterSize) {
-                    double totalLatitude = 0;
-                    double totalLongitude = 0;
-
-                    for (T point : points) {
-                        totalLatitude += point.getPosition().latitude;
-                        totalLongitude += point.getPosition().longitude;
-                    }
-
-                    double latitude = totalLatitude / points.size();
-                    double longitude = totalLongitude / points.size();
-
-                    clusters.add(new MapCluster<>(latitude, longitude,
-                            points, north, west, south, east));
-                } else {
-                    for (T point : points) {
-                        clusters.add(new MapCluster<>(point.getPosition().latitude, point.getPosition().longitude,
-                                Collections.singletonList(point), north, west, south, east));
-                    }
-                }
-            }
-        }
+    @Override
+    public void setCategoryFilter(long categoryFilter) {
+        super.setCategoryFilter(categoryFilter);
+    }
+
+    @Override
+    public void setTimeWindow(long startTime, long endTime) {
+        super.setTimeWindow(startTime, endTime);
     }
 
     @Override
-    public void setMinClusterSize(int minClusterSize) {
-        mMinClusterSize = minClusterSize;
+    public void clearTimeWindow() {
+        super.clearTimeWindow();
+    }
+
+    private static int checkPositive(int value) {
+        checkArgument(value > 0);
+        return value;
+    }
+
+    private static int checkNotNegative(int value) {
+        checkArgument(value >= 0);
+        return value;
     }
 }
@@ -0,0 +1,71 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * A spatial index of cluster items that can aggregate them into the tiles of a grid.
+ */
+interface ClusterIndex<T extends ClusterItem> {
+
+    /**
+     * Replaces the indexed items with the given ones.
+     */
+    void setItems(@NonNull List<T> items);
+
+    /**
+     * Adds the given items to the indexed ones.
+     */
+    void addItems(@NonNull List<T> items);
+
+    /**
+     * Releases memory depending on the given level of {@link android.content.ComponentCallbacks2}.
+     * The index keeps answering queries and restores what it released when it's needed again.
+     *
+     * @return the estimated number of bytes freed
+     */
+    long trimMemory(int level);
+
+    /**
+     * Adds the number of items that match the filter in each tile
+     * and the sums of their coordinates to the given buckets, and reduces the values of the items
+     * if the buckets have a reducer, see {@link ReducingIndex}.
+     *
+     * @see ItemFilter
+     */
+    void aggregateTiles(@NonNull TileBuckets buckets, @NonNull ItemFilter filter);
+
+    /**
+     * Adds the items that match the filter and belong to the given tile to the given list.
+     */
+    void queryTile(double stepLatitude, double stepLongitude, long tileX, long tileY, @NonNull ItemFilter filter,
+                   @NonNull List<T> items);
+
+    /**
+     * Returns a view of the items that match the filter and belong to the given tile
+     * that is queried lazily from the current state of the index.
+     */
+    @NonNull
+    List<T> tileView(double stepLatitude, double stepLongitude, long tileX, long tileY, @NonNull ItemFilter filter,
+                     int expectedSize);
+
+    /**
+     * Adds up to the given number of items that match the filter and lie within the given distance
+     * of the given position to the given list, from the nearest to the farthest one.
+     *
+     * @param maxDistance the maximum distance in meters
+     */
+    void queryNearest(double latitude, double longitude, int count, double maxDistance,
+                      @NonNull ItemFilter filter, @NonNull List<T> items);
+
+    /**
+     * Returns the number of items that match the filter and lie inside the given region.
+     */
+    int countRegion(@NonNull Region region, @NonNull ItemFilter filter);
+
+    /**
+     * Adds the items that match the filter and lie inside the given region to the given list.
+     */
+    void queryRegion(@NonNull Region region, @NonNull ItemFilter filter, @NonNull List<T> items);
+}
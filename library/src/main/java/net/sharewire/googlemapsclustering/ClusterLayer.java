@@ -0,0 +1,668 @@
+package net.sharewire.googlemapsclustering;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import static net.sharewire.googlemapsclustering.Preconditions.checkArgument;
+import static net.sharewire.googlemapsclustering.Preconditions.checkNotNull;
+
+/**
+ * A set of items that are clustered and rendered independently of other layers of the same
+ * {@link ClusterManager}, using its own algorithm, icon generator and callbacks. All layers of
+ * a manager share its background thread and are clustered together when the camera changes,
+ * and their markers are updated at once.
+ *
+ * @param <T> the type of an item to be clustered
+ * @see ClusterManager#addLayer()
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ClusterLayer<T extends ClusterItem> {
+
+    private static final String TAG = ClusterLayer.class.getSimpleName();
+
+    private static final int INGEST_CHUNK_SIZE = 1000;
+
+    // A snapshot saved at a very different zoom level would show clusters of the wrong size.
+    private static final float MAX_SNAPSHOT_ZOOM_DIFFERENCE = 1.0F;
+
+    private static final long DEFAULT_PUBLISH_INTERVAL_MILLIS = 250;
+
+    private final ClusterManager<?> mClusterManager;
+
+    private final ClusterRenderer<T> mRenderer;
+
+    private ClusteringAlgorithm<T> mAlgorithm;
+
+    private AsyncTask mQuadTreeTask;
+
+    private volatile int mItemsGeneration;
+
+    private long mPublishIntervalMillis = DEFAULT_PUBLISH_INTERVAL_MILLIS;
+
+    private long mLastPublishTime;
+
+    private ClusterSnapshot<T> mLastClusters;
+
+    ClusterLayer(@NonNull Context context, @NonNull GoogleMap googleMap, @NonNull ClusterManager<?> clusterManager) {
+        mClusterManager = clusterManager;
+        mRenderer = new ClusterRenderer<>(context, googleMap);
+        mAlgorithm = new ClusterAlgorithm<>();
+    }
+
+    /**
+     * Sets a custom icon generator thus replacing the default one.
+     *
+     * @param iconGenerator the custom icon generator that's used for generating marker icons
+     */
+    public void setIconGenerator(@NonNull IconGenerator<T> iconGenerator) {
+        checkNotNull(iconGenerator);
+        mRenderer.setIconGenerator(iconGenerator);
+    }
+
+    /**
+     * Sets a callback that's invoked when a cluster or a cluster item of this layer is clicked.
+     *
+     * @param callbacks the callback that's invoked when a cluster or an individual item is clicked.
+     *                  To unset the callback, use <code>null</code>.
+     */
+    public void setCallbacks(@Nullable ClusterManager.Callbacks<T> callbacks) {
+        mRenderer.setCallbacks(callbacks);
+    }
+
+    /**
+     * Sets items to be clustered thus replacing the old ones.
+     *
+     * @param clusterItems the items to be clustered
+     */
+    public void setItems(@NonNull List<T> clusterItems) {
+        buildQuadTree(checkNotNull(clusterItems));
+    }
+
+    /**
+     * Sets items to be clustered thus replacing the old ones. Unlike {@link #setItems(List)},
+     * the items are read from the iterator and indexed in chunks on a background thread,
+     * and intermediate clusters are displayed while the items are still being read.
+     *
+     * @param clusterItems the items to be clustered
+     * @throws UnsupportedOperationException if the algorithm isn't an {@link IncrementalAlgorithm}
+     * @see #setPublishInterval(long)
+     */
+    public void setItems(@NonNull Iterator<T> clusterItems) {
+        checkNotNull(clusterItems);
+        checkIncrementalAlgorithm();
+        mItemsGeneration++;
+        mLastPublishTime = 0;
+        ingestItems(clusterItems, true, mAlgorithm);
+    }
+
+    /**
+     * Adds items to be clustered to the existing ones. The items are indexed in chunks
+     * and intermediate clusters are displayed while the items are being indexed.
+     *
+     * @param clusterItems the items to be added
+     * @throws UnsupportedOperationException if the algorithm isn't an {@link IncrementalAlgorithm}
+     * @see #setPublishInterval(long)
+     */
+    public void appendItems(@NonNull List<T> clusterItems) {
+        checkNotNull(clusterItems);
+        checkIncrementalAlgorithm();
+        mLastPublishTime = 0;
+        ingestItems(clusterItems.iterator(), false, mAlgorithm);
+    }
+
+    /**
+     * Sets the minimum interval between displaying intermediate clusters while items
+     * are being added using {@link #setItems(Iterator)} or {@link #appendItems(List)}.
+     * The clusters are always displayed after the first chunk and after the last one.
+     *
+     * @param publishIntervalMillis the minimum interval in milliseconds
+     */
+    public void setPublishInterval(long publishIntervalMillis) {
+        checkArgument(publishIntervalMillis >= 0);
+        mPublishIntervalMillis = publishIntervalMillis;
+    }
+
+    /**
+     * Sets the minimum size of a cluster. If the cluster size
+     * is less than this value, display individual markers.
+     */
+    public void setMinClusterSize(int minClusterSize) {
+        checkArgument(minClusterSize > 0);
+        mAlgorithm.setMinClusterSize(minClusterSize);
+    }
+
+    /**
+     * Sets the maximum number of markers of this layer displayed at once. If clustering produces
+     * more markers, neighboring tiles are merged into larger clusters and, if that is not enough,
+     * individual markers with the lowest priority are dropped.
+     *
+     * @param maxMarkers the maximum number of markers displayed at once
+     * @throws UnsupportedOperationException if the algorithm isn't a {@link BudgetedAlgorithm}
+     * @see #setItemPriority(Comparator)
+     */
+    public void setMaxMarkers(int maxMarkers) {
+        checkArgument(maxMarkers > 0);
+        getBudgetedAlgorithm().setMaxMarkers(maxMarkers);
+    }
+
+    /**
+     * Clusters the items of this layer on discrete zoom levels with the given step, so that
+     * a pinch that changes the zoom by less than the step keeps the markers. The camera zoom
+     * has to leave a zoom level by more than the hysteresis before the next one is used.
+     *
+     * @param zoomStep   the difference between two zoom levels clustered on, e.g. 0.5,
+     *                   or 0 to cluster on the exact zoom level of the camera
+     * @param hysteresis the hysteresis in zoom levels, less than half of the step
+     * @throws UnsupportedOperationException if the algorithm isn't a {@link QuantizedAlgorithm}
+     */
+    public void setZoomQuantization(double zoomStep, double hysteresis) {
+        checkArgument(zoomStep >= 0);
+        checkArgument(hysteresis >= 0 && (hysteresis == 0 || hysteresis < zoomStep / 2));
+        if (!(mAlgorithm instanceof QuantizedAlgorithm)) {
+            throw new UnsupportedOperationException(getAlgorithmName() + " doesn't quantize zoom levels");
+        }
+        ((QuantizedAlgorithm) mAlgorithm).setZoomQuantization(zoomStep, hysteresis);
+    }
+
+    /**
+     * Sets the comparator that defines the priority of individual items. Items that compare
+     * greater have a higher priority and are kept when the marker limit is exceeded.
+     *
+     * @param itemPriority the comparator that defines the priority of items.
+     *                     To keep items in an arbitrary order, use <code>null</code>.
+     * @throws UnsupportedOperationException if the algorithm isn't a {@link BudgetedAlgorithm}
+     * @see #setMaxMarkers(int)
+     */
+    public void setItemPriority(@Nullable Comparator<T> itemPriority) {
+        getBudgetedAlgorithm().setItemPriority(itemPriority);
+    }
+
+    /**
+     * Sets the categories of items to be displayed. Items that belong to at least one
+     * of the given categories are clustered, the others are hidden. Changing the filter
+     * only clusters the items again, it doesn't rebuild the index.
+     *
+     * @param categoryFilter the bit mask of the categories to be displayed.
+     *                       To display all items, use {@link CategorizedClusterItem#ALL_CATEGORIES}.
+     * @throws UnsupportedOperationException if the algorithm isn't a {@link FilterableAlgorithm}
+     * @see CategorizedClusterItem
+     */
+    public void setCategoryFilter(long categoryFilter) {
+        getFilterableAlgorithm().setCategoryFilter(categoryFilter);
+        mClusterManager.cluster();
+    }
+
+    /**
+     * Sets the time window of items to be displayed. Items whose timestamp lies inside the window
+     * are clustered, the others are hidden. Changing the window only clusters the items again,
+     * so it can be used for playback. For large data sets, use {@link TemporalClusterAlgorithm}.
+     *
+     * @param startTime the start of the window, inclusive
+     * @param endTime   the end of the window, exclusive
+     * @throws UnsupportedOperationException if the algorithm isn't a {@link FilterableAlgorithm}
+     * @see TimedClusterItem
+     * @see #clearTimeWindow()
+     */
+    public void setTimeWindow(long startTime, long endTime) {
+        checkArgument(startTime <= endTime);
+        getFilterableAlgorithm().setTimeWindow(startTime, endTime);
+        mClusterManager.cluster();
+    }
+
+    /**
+     * Displays items regardless of their timestamps.
+     *
+     * @throws UnsupportedOperationException if the algorithm isn't a {@link FilterableAlgorithm}
+     * @see #setTimeWindow(long, long)
+     */
+    public void clearTimeWindow() {
+        getFilterableAlgorithm().clearTimeWindow();
+        mClusterManager.cluster();
+    }
+
+    /**
+     * Finds up to the given number of items nearest to the given position. The search runs on
+     * the background thread of the manager, after the items that are being set have been indexed,
+     * and uses the same category filter and time window as clustering.
+     *
+     * @param position    the position to search from
+     * @param count       the maximum number of items to be found
+     * @param maxDistance the maximum distance of items in meters, measured along the great circle
+     * @param callback    the callback that receives the items found, from the nearest to the farthest one
+     * @throws UnsupportedOperationException if the algorithm isn't a {@link SearchableAlgorithm}
+     */
+    public void findNearestItems(@NonNull LatLng position, int count, double maxDistance,
+                                 @NonNull ClusterManager.SearchCallback<T> callback) {
+        checkNotNull(position);
+        checkArgument(count > 0);
+        checkArgument(maxDistance >= 0);
+        new SearchTask<>(position, count, maxDistance, checkNotNull(callback), getSearchableAlgorithm())
+                .executeOnExecutor(mClusterManager.getExecutor());
+    }
+
+    /**
+     * Finds the items within the given distance of the given position.
+     *
+     * @param position the position to search from
+     * @param distance the distance in meters, measured along the great circle
+     * @param callback the callback that receives the items found, from the nearest to the farthest one
+     * @see #findNearestItems(LatLng, int, double, ClusterManager.SearchCallback)
+     */
+    public void findItemsWithinDistance(@NonNull LatLng position, double distance,
+                                        @NonNull ClusterManager.SearchCallback<T> callback) {
+        findNearestItems(position, Integer.MAX_VALUE, distance, callback);
+    }
+
+    /**
+     * Selects the items within the given distance of the given center. The items are counted
+     * on the background thread of the manager, after the items that are being set have been indexed,
+     * using the same category filter and time window as clustering.
+     *
+     * @param center   the center of the circle
+     * @param radius   the radius of the circle in meters, measured along the great circle
+     * @param callback the callback that receives the selection
+     * @throws UnsupportedOperationException if the algorithm isn't a {@link SearchableAlgorithm}
+     */
+    public void selectItemsInCircle(@NonNull LatLng center, double radius,
+                                    @NonNull ClusterManager.SelectionCallback<T> callback) {
+        checkNotNull(center);
+        checkArgument(radius >= 0);
+        new SelectionTask<>(center, radius, null, checkNotNull(callback), getSearchableAlgorithm())
+                .executeOnExecutor(mClusterManager.getExecutor());
+    }
+
+    /**
+     * Selects the items inside the given polygon.
+     *
+     * @param vertices the vertices of a simple polygon whose edges don't cross the 180th meridian
+     * @param callback the callback that receives the selection
+     * @see #selectItemsInCircle(LatLng, double, ClusterManager.SelectionCallback)
+     */
+    public void selectItemsInPolygon(@NonNull List<LatLng> vertices,
+                                     @NonNull ClusterManager.SelectionCallback<T> callback) {
+        checkArgument(checkNotNull(vertices).size() >= 3);
+        new SelectionTask<>(null, 0, new ArrayList<>(vertices), checkNotNull(callback), getSearchableAlgorithm())
+                .executeOnExecutor(mClusterManager.getExecutor());
+    }
+
+    /**
+     * Sets the algorithm that clusters the items of this layer. The algorithm may implement
+     * the optional interfaces, e.g. {@link FilterableAlgorithm}, that the corresponding methods
+     * of the layer need. Items that are still being added to the previous algorithm are dropped.
+     *
+     * @param algorithm the algorithm that clusters the items
+     */
+    public void setAlgorithm(@NonNull ClusteringAlgorithm<T> algorithm) {
+        mAlgorithm = checkNotNull(algorithm);
+        mItemsGeneration++;
+    }
+
+    /**
+     * Saves the displayed clusters and the camera they were computed for to the given file
+     * on a background thread, so that they can be displayed right away using
+     * {@link #restoreSnapshot(File)} when the map is recreated. Only clusters with more than
+     * one item are saved, since individual markers need the items themselves. The snapshot is
+     * written after the tasks of the layer that are already pending, which are dropped, like
+     * the snapshot, if the manager is destroyed in the meantime.
+     *
+     * @param file the file to save the snapshot to
+     */
+    public void saveSnapshot(@NonNull File file) {
+        checkNotNull(file);
+        if (mLastClusters != null) {
+            new SaveSnapshotTask<>(mLastClusters, file).executeOnExecutor(mClusterManager.getExecutor());
+        }
+    }
+
+    /**
+     * Displays the clusters saved using {@link #saveSnapshot(File)}, unless clusters have already
+     * been computed from the items or the camera is too different. The restored clusters
+     * are placeholders without items, whose clicks aren't passed to the callbacks. They are
+     * replaced as soon as clusters are computed from the items, which keeps the markers
+     * of unchanged clusters.
+     *
+     * @param file the file to restore the snapshot from
+     */
+    public void restoreSnapshot(@NonNull File file) {
+        new RestoreSnapshotTask<>(checkNotNull(file), this).executeOnExecutor(mClusterManager.getExecutor());
+    }
+
+    public Collection<Marker> getMarkerCollection() {
+        return mRenderer.getMarkers();
+    }
+
+    public void refreshMarkerIcons() {
+        mRenderer.refreshMarkers();
+    }
+
+    @NonNull
+    List<MarkerCluster<T>> getClusters(@NonNull LatLngBounds latLngBounds, float zoomLevel) {
+        return mAlgorithm.getClusters(latLngBounds, zoomLevel);
+    }
+
+    void render(@NonNull LatLngBounds latLngBounds, float zoomLevel, @NonNull List<MarkerCluster<T>> clusters) {
+        mRenderer.render(clusters);
+        mLastClusters = new ClusterSnapshot<>(latLngBounds, zoomLevel, clusters);
+    }
+
+    /**
+     * Removes the markers of this layer and stops adding the items that are being indexed.
+     */
+    void clear() {
+        if (mQuadTreeTask != null) {
+            mQuadTreeTask.cancel(true);
+        }
+        mItemsGeneration++;
+        mRenderer.render(Collections.<MarkerCluster<T>>emptyList());
+    }
+
+    /**
+     * Drops the cached icons of this layer.
+     *
+     * @return the estimated number of bytes freed
+     */
+    long clearIconCache() {
+        return mRenderer.clearIconCache();
+    }
+
+    /**
+     * Removes the markers of this layer, which are added again when the layer is clustered.
+     */
+    void removeMarkers() {
+        mRenderer.render(Collections.<MarkerCluster<T>>emptyList());
+    }
+
+    /**
+     * Trims the memory of the algorithm, if it's a {@link TrimmableAlgorithm}.
+     * Must be called on the background thread of the manager.
+     *
+     * @return the estimated number of bytes freed
+     */
+    long trimAlgorithmMemory(int level) {
+        ClusteringAlgorithm<T> algorithm = mAlgorithm;
+        return algorithm instanceof TrimmableAlgorithm ? ((TrimmableAlgorithm) algorithm).trimMemory(level) : 0;
+    }
+
+    boolean onMarkerClick(@NonNull Marker marker) {
+        return mRenderer.onMarkerClick(marker);
+    }
+
+    boolean hasMarker(@NonNull Marker marker) {
+        return mRenderer.hasMarker(marker);
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private BudgetedAlgorithm<T> getBudgetedAlgorithm() {
+        if (!(mAlgorithm instanceof BudgetedAlgorithm)) {
+            throw new UnsupportedOperationException(getAlgorithmName() + " has no marker budget");
+        }
+        return (BudgetedAlgorithm<T>) mAlgorithm;
+    }
+
+    @NonNull
+    private FilterableAlgorithm getFilterableAlgorithm() {
+        if (!(mAlgorithm instanceof FilterableAlgorithm)) {
+            throw new UnsupportedOperationException(getAlgorithmName() + " doesn't filter items");
+        }
+        return (FilterableAlgorithm) mAlgorithm;
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private SearchableAlgorithm<T> getSearchableAlgorithm() {
+        if (!(mAlgorithm instanceof SearchableAlgorithm)) {
+            throw new UnsupportedOperationException(getAlgorithmName() + " doesn't search items");
+        }
+        return (SearchableAlgorithm<T>) mAlgorithm;
+    }
+
+    private void checkIncrementalAlgorithm() {
+        if (!(mAlgorithm instanceof IncrementalAlgorithm)) {
+            throw new UnsupportedOperationException(getAlgorithmName() + " can't add items");
+        }
+    }
+
+    @NonNull
+    private String getAlgorithmName() {
+        return mAlgorithm.getClass().getSimpleName();
+    }
+
+    private void buildQuadTree(@NonNull List<T> clusterItems) {
+        if (mQuadTreeTask != null) {
+            mQuadTreeTask.cancel(true);
+        }
+
+        // Stop adding the items that are being streamed.
+        mItemsGeneration++;
+
+        mQuadTreeTask = new QuadTreeTask<>(clusterItems, this).executeOnExecutor(mClusterManager.getExecutor());
+    }
+
+    private void ingestItems(@NonNull Iterator<T> clusterItems, boolean replaceItems,
+                             @NonNull ClusteringAlgorithm<T> algorithm) {
+        new IngestTask<>(clusterItems, replaceItems, mItemsGeneration, algorithm, this)
+                .executeOnExecutor(mClusterManager.getExecutor());
+    }
+
+    private void onItemsIngested(@NonNull Iterator<T> clusterItems, boolean hasMoreItems,
+                                 @NonNull ClusteringAlgorithm<T> algorithm) {
+        long now = SystemClock.uptimeMillis();
+        if (!hasMoreItems || now - mLastPublishTime >= mPublishIntervalMillis) {
+            mLastPublishTime = now;
+            mClusterManager.cluster();
+        }
+
+        // The next chunk is queued after clustering, so the clusters are computed in between.
+        if (hasMoreItems) {
+            ingestItems(clusterItems, false, algorithm);
+        }
+    }
+
+    private static class QuadTreeTask<T extends ClusterItem> extends AsyncTask<Void, Void, Void> {
+
+        private final List<T> mClusterItems;
+        private final ClusterLayer<T> mClusterLayer;
+
+        private QuadTreeTask(@NonNull List<T> clusterItems, ClusterLayer<T> clusterLayer) {
+            mClusterItems = clusterItems;
+            mClusterLayer = clusterLayer;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            mClusterLayer.mAlgorithm.setItems(mClusterItems);
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            mClusterLayer.mClusterManager.cluster();
+            mClusterLayer.mQuadTreeTask = null;
+        }
+    }
+
+    private static class IngestTask<T extends ClusterItem> extends AsyncTask<Void, Void, Boolean> {
+
+        private final Iterator<T> mClusterItems;
+        private final boolean mReplaceItems;
+        private final int mItemsGeneration;
+        // The algorithm the items were checked to be addable to, which the generation guards.
+        private final ClusteringAlgorithm<T> mAlgorithm;
+        private final ClusterLayer<T> mClusterLayer;
+
+        private IngestTask(@NonNull Iterator<T> clusterItems, boolean replaceItems, int itemsGeneration,
+                           @NonNull ClusteringAlgorithm<T> algorithm, ClusterLayer<T> clusterLayer) {
+            mClusterItems = clusterItems;
+            mReplaceItems = replaceItems;
+            mItemsGeneration = itemsGeneration;
+            mAlgorithm = algorithm;
+            mClusterLayer = clusterLayer;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            // Skip the chunk, if the items have been replaced in the meantime.
+            if (mItemsGeneration != mClusterLayer.mItemsGeneration) {
+                return false;
+            }
+
+            List<T> chunk = new ArrayList<>(INGEST_CHUNK_SIZE);
+            while (chunk.size() < INGEST_CHUNK_SIZE && mClusterItems.hasNext()) {
+                chunk.add(mClusterItems.next());
+            }
+
+            if (mReplaceItems) {
+                mAlgorithm.setItems(chunk);
+            } else {
+                //noinspection unchecked
+                ((IncrementalAlgorithm<T>) mAlgorithm).addItems(chunk);
+            }
+
+            return mClusterItems.hasNext();
+        }
+
+        @Override
+        protected void onPostExecute(@NonNull Boolean hasMoreItems) {
+            if (mItemsGeneration == mClusterLayer.mItemsGeneration) {
+                mClusterLayer.onItemsIngested(mClusterItems, hasMoreItems, mAlgorithm);
+            }
+        }
+    }
+
+    private static class SearchTask<T extends ClusterItem> extends AsyncTask<Void, Void, List<T>> {
+
+        private final LatLng mPosition;
+        private final int mCount;
+        private final double mMaxDistance;
+        private final ClusterManager.SearchCallback<T> mCallback;
+        private final SearchableAlgorithm<T> mAlgorithm;
+
+        private SearchTask(@NonNull LatLng position, int count, double maxDistance,
+                           @NonNull ClusterManager.SearchCallback<T> callback, SearchableAlgorithm<T> algorithm) {
+            mPosition = position;
+            mCount = count;
+            mMaxDistance = maxDistance;
+            mCallback = callback;
+            mAlgorithm = algorithm;
+        }
+
+        @Override
+        protected List<T> doInBackground(Void... params) {
+            return mAlgorithm.getNearestItems(mPosition, mCount, mMaxDistance);
+        }
+
+        @Override
+        protected void onPostExecute(@NonNull List<T> items) {
+            mCallback.onItemsFound(items);
+        }
+    }
+
+    private static class SelectionTask<T extends ClusterItem> extends AsyncTask<Void, Void, ItemSelection<T>> {
+
+        private final LatLng mCenter;
+        private final double mRadius;
+        private final List<LatLng> mVertices;
+        private final ClusterManager.SelectionCallback<T> mCallback;
+        private final SearchableAlgorithm<T> mAlgorithm;
+
+        private SelectionTask(@Nullable LatLng center, double radius, @Nullable List<LatLng> vertices,
+                              @NonNull ClusterManager.SelectionCallback<T> callback, SearchableAlgorithm<T> algorithm) {
+            mCenter = center;
+            mRadius = radius;
+            mVertices = vertices;
+            mCallback = callback;
+            mAlgorithm = algorithm;
+        }
+
+        @Override
+        protected ItemSelection<T> doInBackground(Void... params) {
+            return mVertices != null
+                    ? mAlgorithm.selectItemsInPolygon(mVertices)
+                    : mAlgorithm.selectItemsInCircle(mCenter, mRadius);
+        }
+
+        @Override
+        protected void onPostExecute(@NonNull ItemSelection<T> selection) {
+            mCallback.onItemsSelected(selection);
+        }
+    }
+
+    private static class SaveSnapshotTask<T extends ClusterItem> extends AsyncTask<Void, Void, Void> {
+
+        private final ClusterSnapshot<T> mSnapshot;
+        private final File mFile;
+
+        private SaveSnapshotTask(@NonNull ClusterSnapshot<T> snapshot, @NonNull File file) {
+            mSnapshot = snapshot;
+            mFile = file;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            try {
+                mSnapshot.write(mFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to save the cluster snapshot", e);
+            }
+            return null;
+        }
+    }
+
+    private static class RestoreSnapshotTask<T extends ClusterItem> extends AsyncTask<Void, Void, ClusterSnapshot<T>> {
+
+        private final File mFile;
+        private final ClusterLayer<T> mClusterLayer;
+
+        private RestoreSnapshotTask(@NonNull File file, ClusterLayer<T> clusterLayer) {
+            mFile = file;
+            mClusterLayer = clusterLayer;
+        }
+
+        @Override
+        protected ClusterSnapshot<T> doInBackground(Void... params) {
+            if (!mFile.exists()) {
+                return null;
+            }
+
+            try {
+                return ClusterSnapshot.read(mFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to restore the cluster snapshot", e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(@Nullable ClusterSnapshot<T> snapshot) {
+            if (snapshot == null || mClusterLayer.mLastClusters != null) {
+                return;
+            }
+
+            // The snapshot must cover the center of the camera, or most of the map would stay empty.
+            ClusterManager<?> clusterManager = mClusterLayer.mClusterManager;
+            if (Math.abs(clusterManager.getZoomLevel() - snapshot.zoomLevel) <= MAX_SNAPSHOT_ZOOM_DIFFERENCE
+                    && snapshot.latLngBounds.contains(clusterManager.getLatLngBounds().getCenter())) {
+                mClusterLayer.mRenderer.render(snapshot.clusters);
+            }
+        }
+    }
+}
@@ -1,18 +1,24 @@
 package net.sharewire.googlemapsclustering;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
 import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import static net.sharewire.googlemapsclustering.Preconditions.checkArgument;
 import static net.sharewire.googlemapsclustering.Preconditions.checkNotNull;
@@ -21,24 +27,41 @@ import static net.sharewire.googlemapsclustering.Preconditions.checkNotNull;
  * Groups multiple items on a map into clusters based on the current zoom level.
  * Clustering occurs when the map becomes idle, so an instance of this class
  * must be set as a camera idle listener using {@link GoogleMap#setOnCameraIdleListener}.
+ * <p>
+ * The items of the manager itself are kept in its primary layer. More sets of items
+ * with their own algorithms, icons and callbacks can be added using {@link #addLayer()}.
+ * All layers are clustered in one pass per camera change on a thread of the shared
+ * {@link ClusterWorkerPool}, and their markers are updated at once. The manager sets itself as the marker click
+ * listener of the map and dispatches clicks to the layer of the marker.
+ * <p>
+ * The manager should be notified when its map is shown or hidden using {@link #onStart()}
+ * and {@link #onStop()}, the same as a {@code MapView}, of memory pressure using
+ * {@link #onTrimMemory(int)}, and destroyed using {@link #destroy()} when the map is no longer used.
  *
  * @param <T> the type of an item to be clustered
  */
 @SuppressWarnings({"unused", "WeakerAccess"})
-public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCameraIdleListener {
+public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCameraIdleListener,
+        GoogleMap.OnMarkerClickListener {
 
-    private final GoogleMap mGoogleMap;
+    private static final String TAG = ClusterManager.class.getSimpleName();
+
+    private final Context mContext;
 
-    private final ClusterRenderer<T> mRenderer;
+    private final GoogleMap mGoogleMap;
 
-    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    private final SerialExecutor mExecutor = new SerialExecutor();
 
-    private ClusteringAlgorithm<T> mAlgorithm;
+    private final ClusterLayer<T> mPrimaryLayer;
 
-    private AsyncTask mQuadTreeTask;
+    private final List<ClusterLayer<?>> mLayers = new ArrayList<>();
 
     private AsyncTask mClusterTask;
 
+    private boolean mMarkersRemoved;
+
+    private boolean mDestroyed;
+
     /**
      * Defines signatures for methods that are called when a cluster or a cluster item is clicked.
      *
@@ -66,6 +89,47 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
         boolean onClusterItemClick(@NonNull T clusterItem);
     }
 
+    /**
+     * Defines the signature of the method that's called when a search for items has completed.
+     *
+     * @param <T> the type of an item managed by {@link ClusterManager}.
+     */
+    public interface SearchCallback<T extends ClusterItem> {
+        /**
+         * Called on the main thread when a search for items has completed.
+         *
+         * @param items the items found, from the nearest to the farthest one
+         */
+        void onItemsFound(@NonNull List<T> items);
+    }
+
+    /**
+     * Defines the signature of the method that's called when a selection of items has completed.
+     *
+     * @param <T> the type of an item managed by {@link ClusterManager}.
+     */
+    public interface SelectionCallback<T extends ClusterItem> {
+        /**
+         * Called on the main thread when a selection of items has completed.
+         *
+         * @param selection the number of selected items and a lazy list of them
+         */
+        void onItemsSelected(@NonNull ItemSelection<T> selection);
+    }
+
+    /**
+     * Defines the signature of the method that's called when memory has been trimmed.
+     */
+    public interface TrimMemoryCallback {
+        /**
+         * Called on the main thread when the memory of all layers has been trimmed.
+         *
+         * @param level      the level of {@link ComponentCallbacks2} the memory has been trimmed for
+         * @param freedBytes the estimated number of bytes freed
+         */
+        void onMemoryTrimmed(int level, long freedBytes);
+    }
+
     /**
      * Creates a new cluster manager using the default icon generator.
      * To customize marker icons, set a custom icon generator using
@@ -74,10 +138,45 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
      * @param googleMap the map instance where markers will be rendered
      */
     public ClusterManager(@NonNull Context context, @NonNull GoogleMap googleMap) {
-        checkNotNull(context);
+        mContext = checkNotNull(context);
         mGoogleMap = checkNotNull(googleMap);
-        mRenderer = new ClusterRenderer<>(context, googleMap);
-        mAlgorithm = new ClusterAlgorithm<>();
+        mGoogleMap.setOnMarkerClickListener(this);
+        mPrimaryLayer = new ClusterLayer<>(context, googleMap, this);
+        mLayers.add(mPrimaryLayer);
+    }
+
+    /**
+     * Adds a new layer of items that are clustered and rendered independently of the items
+     * of other layers, but on the same background thread and in the same pass.
+     *
+     * @param <L> the type of an item of the layer
+     * @return the new layer
+     */
+    @NonNull
+    public <L extends ClusterItem> ClusterLayer<L> addLayer() {
+        ClusterLayer<L> layer = new ClusterLayer<>(mContext, mGoogleMap, this);
+        mLayers.add(layer);
+        return layer;
+    }
+
+    /**
+     * Removes a layer added using {@link #addLayer()} together with its markers.
+     *
+     * @param layer the layer to be removed
+     */
+    public void removeLayer(@NonNull ClusterLayer<?> layer) {
+        checkArgument(layer != mPrimaryLayer);
+        if (mLayers.remove(checkNotNull(layer))) {
+            layer.clear();
+        }
+    }
+
+    /**
+     * Returns the layer that keeps the items of the manager itself.
+     */
+    @NonNull
+    public ClusterLayer<T> getPrimaryLayer() {
+        return mPrimaryLayer;
     }
 
     /**
@@ -86,8 +185,7 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
      * @param iconGenerator the custom icon generator that's used for generating marker icons
      */
     public void setIconGenerator(@NonNull IconGenerator<T> iconGenerator) {
-        checkNotNull(iconGenerator);
-        mRenderer.setIconGenerator(iconGenerator);
+        mPrimaryLayer.setIconGenerator(iconGenerator);
     }
 
     /**
@@ -97,7 +195,7 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
      *                  To unset the callback, use <code>null</code>.
      */
     public void setCallbacks(@Nullable Callbacks<T> callbacks) {
-        mRenderer.setCallbacks(callbacks);
+        mPrimaryLayer.setCallbacks(callbacks);
     }
 
     /**
@@ -106,7 +204,41 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
      * @param clusterItems the items to be clustered
      */
     public void setItems(@NonNull List<T> clusterItems) {
-        buildQuadTree(checkNotNull(clusterItems));
+        mPrimaryLayer.setItems(clusterItems);
+    }
+
+    /**
+     * Sets items to be clustered thus replacing the old ones. Unlike {@link #setItems(List)},
+     * the items are read from the iterator and indexed in chunks on a background thread,
+     * and intermediate clusters are displayed while the items are still being read.
+     *
+     * @param clusterItems the items to be clustered
+     * @see #setPublishInterval(long)
+     */
+    public void setItems(@NonNull Iterator<T> clusterItems) {
+        mPrimaryLayer.setItems(clusterItems);
+    }
+
+    /**
+     * Adds items to be clustered to the existing ones. The items are indexed in chunks
+     * and intermediate clusters are displayed while the items are being indexed.
+     *
+     * @param clusterItems the items to be added
+     * @see #setPublishInterval(long)
+     */
+    public void appendItems(@NonNull List<T> clusterItems) {
+        mPrimaryLayer.appendItems(clusterItems);
+    }
+
+    /**
+     * Sets the minimum interval between displaying intermediate clusters while items
+     * are being added using {@link #setItems(Iterator)} or {@link #appendItems(List)}.
+     * The clusters are always displayed after the first chunk and after the last one.
+     *
+     * @param publishIntervalMillis the minimum interval in milliseconds
+     */
+    public void setPublishInterval(long publishIntervalMillis) {
+        mPrimaryLayer.setPublishInterval(publishIntervalMillis);
     }
 
     /**
@@ -114,12 +246,134 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
      * is less than this value, display individual markers.
      */
     public void setMinClusterSize(int minClusterSize) {
-        checkArgument(minClusterSize > 0);
-        mAlgorithm.setMinClusterSize(minClusterSize);
+        mPrimaryLayer.setMinClusterSize(minClusterSize);
+    }
+
+    /**
+     * Sets the maximum number of markers displayed at once. If clustering produces more
+     * markers, neighboring tiles are merged into larger clusters and, if that is not enough,
+     * individual markers with the lowest priority are dropped.
+     *
+     * @param maxMarkers the maximum number of markers displayed at once
+     * @see #setItemPriority(Comparator)
+     */
+    public void setMaxMarkers(int maxMarkers) {
+        mPrimaryLayer.setMaxMarkers(maxMarkers);
+    }
+
+    /**
+     * Clusters items on discrete zoom levels with the given step, so that a pinch that
+     * changes the zoom by less than the step keeps the markers.
+     *
+     * @param zoomStep   the difference between two zoom levels clustered on, or 0 to disable
+     * @param hysteresis the hysteresis in zoom levels, less than half of the step
+     * @see ClusterLayer#setZoomQuantization(double, double)
+     */
+    public void setZoomQuantization(double zoomStep, double hysteresis) {
+        mPrimaryLayer.setZoomQuantization(zoomStep, hysteresis);
+    }
+
+    /**
+     * Sets the comparator that defines the priority of individual items. Items that compare
+     * greater have a higher priority and are kept when the marker limit is exceeded.
+     *
+     * @param itemPriority the comparator that defines the priority of items.
+     *                     To keep items in an arbitrary order, use <code>null</code>.
+     * @see #setMaxMarkers(int)
+     */
+    public void setItemPriority(@Nullable Comparator<T> itemPriority) {
+        mPrimaryLayer.setItemPriority(itemPriority);
+    }
+
+    /**
+     * Sets the categories of items to be displayed. Items that belong to at least one
+     * of the given categories are clustered, the others are hidden. Changing the filter
+     * only clusters the items again, it doesn't rebuild the index.
+     *
+     * @param categoryFilter the bit mask of the categories to be displayed.
+     *                       To display all items, use {@link CategorizedClusterItem#ALL_CATEGORIES}.
+     * @see CategorizedClusterItem
+     */
+    public void setCategoryFilter(long categoryFilter) {
+        mPrimaryLayer.setCategoryFilter(categoryFilter);
+    }
+
+    /**
+     * Sets the time window of items to be displayed. Items whose timestamp lies inside the window
+     * are clustered, the others are hidden. Changing the window only clusters the items again,
+     * so it can be used for playback. For large data sets, use {@link TemporalClusterAlgorithm}.
+     *
+     * @param startTime the start of the window, inclusive
+     * @param endTime   the end of the window, exclusive
+     * @see TimedClusterItem
+     * @see #clearTimeWindow()
+     */
+    public void setTimeWindow(long startTime, long endTime) {
+        mPrimaryLayer.setTimeWindow(startTime, endTime);
+    }
+
+    /**
+     * Displays items regardless of their timestamps.
+     *
+     * @see #setTimeWindow(long, long)
+     */
+    public void clearTimeWindow() {
+        mPrimaryLayer.clearTimeWindow();
+    }
+
+    /**
+     * Finds up to the given number of items nearest to the given position on the background thread.
+     *
+     * @param position    the position to search from
+     * @param count       the maximum number of items to be found
+     * @param maxDistance the maximum distance of items in meters
+     * @param callback    the callback that receives the items found
+     * @see ClusterLayer#findNearestItems(LatLng, int, double, SearchCallback)
+     */
+    public void findNearestItems(@NonNull LatLng position, int count, double maxDistance,
+                                 @NonNull SearchCallback<T> callback) {
+        mPrimaryLayer.findNearestItems(position, count, maxDistance, callback);
+    }
+
+    /**
+     * Finds the items within the given distance of the given position on the background thread.
+     *
+     * @param position the position to search from
+     * @param distance the distance in meters
+     * @param callback the callback that receives the items found
+     * @see ClusterLayer#findItemsWithinDistance(LatLng, double, SearchCallback)
+     */
+    public void findItemsWithinDistance(@NonNull LatLng position, double distance,
+                                        @NonNull SearchCallback<T> callback) {
+        mPrimaryLayer.findItemsWithinDistance(position, distance, callback);
+    }
+
+    /**
+     * Selects the items within the given distance of the given center on the background thread.
+     *
+     * @param center   the center of the circle
+     * @param radius   the radius of the circle in meters
+     * @param callback the callback that receives the selection
+     * @see ClusterLayer#selectItemsInCircle(LatLng, double, SelectionCallback)
+     */
+    public void selectItemsInCircle(@NonNull LatLng center, double radius,
+                                    @NonNull SelectionCallback<T> callback) {
+        mPrimaryLayer.selectItemsInCircle(center, radius, callback);
+    }
+
+    /**
+     * Selects the items inside the given polygon on the background thread.
+     *
+     * @param vertices the vertices of the polygon
+     * @param callback the callback that receives the selection
+     * @see ClusterLayer#selectItemsInPolygon(List, SelectionCallback)
+     */
+    public void selectItemsInPolygon(@NonNull List<LatLng> vertices, @NonNull SelectionCallback<T> callback) {
+        mPrimaryLayer.selectItemsInPolygon(vertices, callback);
     }
 
     public void setAlgorithm(@NonNull ClusteringAlgorithm<T> algorithm) {
-        mAlgorithm = checkNotNull(algorithm);
+        mPrimaryLayer.setAlgorithm(algorithm);
     }
 
     @Override
@@ -127,77 +381,283 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
         cluster();
     }
 
+    @Override
+    public boolean onMarkerClick(Marker marker) {
+        for (ClusterLayer<?> layer : mLayers) {
+            if (layer.hasMarker(marker)) {
+                return layer.onMarkerClick(marker);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Saves the displayed clusters and the camera they were computed for to the given file
+     * on a background thread, so that they can be displayed right away using
+     * {@link #restoreSnapshot(File)} when the map is recreated. Only clusters with more than
+     * one item are saved, since individual markers need the items themselves.
+     *
+     * @param file the file to save the snapshot to
+     */
+    public void saveSnapshot(@NonNull File file) {
+        mPrimaryLayer.saveSnapshot(file);
+    }
+
+    /**
+     * Displays the clusters saved using {@link #saveSnapshot(File)}, unless clusters have already
+     * been computed from the items or the camera is too different. The restored clusters
+     * are placeholders without items, whose clicks aren't passed to the callbacks. They are
+     * replaced as soon as clusters are computed from the items, which keeps the markers
+     * of unchanged clusters.
+     *
+     * @param file the file to restore the snapshot from
+     */
+    public void restoreSnapshot(@NonNull File file) {
+        mPrimaryLayer.restoreSnapshot(file);
+    }
+
     public Collection<Marker> getMarkerCollection() {
-        return this.mRenderer.getMarkers();
+        return mPrimaryLayer.getMarkerCollection();
     }
 
     public void refreshMarkerIcons() {
-        mRenderer.refreshMarkers();
+        mPrimaryLayer.refreshMarkerIcons();
+    }
+
+    /**
+     * Gives the tasks of this manager priority over the tasks of managers whose maps are
+     * in the background. Should be called from {@code onStart()} of the activity or fragment
+     * that contains the map. A new manager is in the foreground.
+     */
+    public void onStart() {
+        mExecutor.setForeground(true);
+        if (mMarkersRemoved) {
+            mMarkersRemoved = false;
+            cluster();
+        }
     }
 
-    private void buildQuadTree(@NonNull List<T> clusterItems) {
-        if (mQuadTreeTask != null) {
-            mQuadTreeTask.cancel(true);
+    /**
+     * Lets the tasks of managers whose maps are in the foreground run first. Should be called
+     * from {@code onStop()} of the activity or fragment that contains the map.
+     */
+    public void onStop() {
+        mExecutor.setForeground(false);
+    }
+
+    /**
+     * Releases memory depending on the given level of {@link ComponentCallbacks2}.
+     * Should be called from {@code onTrimMemory()} of the activity or fragment that contains the map.
+     *
+     * @see #onTrimMemory(int, TrimMemoryCallback)
+     */
+    public void onTrimMemory(int level) {
+        onTrimMemory(level, null);
+    }
+
+    /**
+     * Releases memory in stages depending on the given level of {@link ComponentCallbacks2}:
+     * <ul>
+     * <li>{@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW}: drops the cached icons of the default
+     * icon generators</li>
+     * <li>{@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL} and
+     * {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN}: drops the buffers and cached results of the algorithms</li>
+     * <li>{@link ComponentCallbacks2#TRIM_MEMORY_BACKGROUND}: compacts the quad trees into a smaller index,
+     * which still answers searches and selections</li>
+     * <li>{@link ComponentCallbacks2#TRIM_MEMORY_MODERATE} and higher: removes the markers and
+     * releases the indexes down to the references to the items</li>
+     * </ul>
+     * Everything is restored lazily: icons when markers need them, indexes when items are clustered
+     * again and markers when the map is shown again using {@link #onStart()}. The indexes are trimmed on
+     * the background thread after the pending tasks, and the estimated number of bytes freed is logged
+     * and passed to the callback.
+     *
+     * @param level    the level passed to {@code onTrimMemory()}
+     * @param callback the callback that receives the number of bytes freed, or <code>null</code>
+     */
+    public void onTrimMemory(int level, @Nullable TrimMemoryCallback callback) {
+        if (mDestroyed) {
+            return;
+        }
+
+        long freedBytes = 0;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            for (ClusterLayer<?> layer : mLayers) {
+                freedBytes += layer.clearIconCache();
+            }
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            if (mClusterTask != null) {
+                mClusterTask.cancel(true);
+                mClusterTask = null;
+            }
+            for (ClusterLayer<?> layer : mLayers) {
+                layer.removeMarkers();
+            }
+            mMarkersRemoved = true;
         }
 
-        mQuadTreeTask = new QuadTreeTask<>(clusterItems, this).executeOnExecutor(mExecutor);
+        new TrimMemoryTask(level, freedBytes, new ArrayList<>(mLayers), callback).executeOnExecutor(mExecutor);
     }
 
-    private void cluster() {
+    /**
+     * Stops clustering, drops the pending tasks of all layers and removes their markers, so that
+     * the shared worker threads no longer keep the manager and the map reachable. Should be called
+     * from {@code onDestroy()} of the activity or fragment that contains the map. The manager
+     * can't be used after it has been destroyed.
+     */
+    public void destroy() {
+        if (mDestroyed) {
+            return;
+        }
+        mDestroyed = true;
+
         if (mClusterTask != null) {
             mClusterTask.cancel(true);
+            mClusterTask = null;
+        }
+        for (ClusterLayer<?> layer : mLayers) {
+            layer.clear();
         }
+        mExecutor.shutdown();
+        mGoogleMap.setOnMarkerClickListener(null);
+    }
+
+    /**
+     * Returns the number of tasks of this manager that are waiting to run,
+     * e.g. to check that clustering keeps up with camera changes.
+     *
+     * @see ClusterWorkerPool#getQueueSize()
+     */
+    public int getPendingTaskCount() {
+        return mExecutor.getQueueSize();
+    }
 
-        mClusterTask = new ClusterTask<>(mGoogleMap.getProjection().getVisibleRegion().latLngBounds,
-                mGoogleMap.getCameraPosition().zoom, this).executeOnExecutor(mExecutor);
+    @NonNull
+    Executor getExecutor() {
+        return mExecutor;
     }
 
-    private static class QuadTreeTask<T extends ClusterItem> extends AsyncTask<Void, Void, Void> {
+    float getZoomLevel() {
+        return mGoogleMap.getCameraPosition().zoom;
+    }
 
-        private final List<T> mClusterItems;
-        private final ClusterManager<T> mClusterManager;
+    @NonNull
+    LatLngBounds getLatLngBounds() {
+        return mGoogleMap.getProjection().getVisibleRegion().latLngBounds;
+    }
 
-        private QuadTreeTask(@NonNull List<T> clusterItems, ClusterManager<T> clusterManager) {
-            mClusterItems = clusterItems;
-            mClusterManager = clusterManager;
+    void cluster() {
+        if (mDestroyed) {
+            return;
         }
 
-        @Override
-        protected Void doInBackground(Void... params) {
-            mClusterManager.mAlgorithm.setItems(mClusterItems);
-            return null;
+        if (mClusterTask != null) {
+            mClusterTask.cancel(true);
         }
 
-        @Override
-        protected void onPostExecute(Void aVoid) {
-            mClusterManager.cluster();
-            mClusterManager.mQuadTreeTask = null;
-        }
+        mClusterTask = new ClusterTask(getLatLngBounds(), getZoomLevel(), new ArrayList<>(mLayers), this).executeOnExecutor(mExecutor);
     }
 
-    private static class ClusterTask<T extends ClusterItem> extends AsyncTask<Void, Void, List<MarkerCluster<T>>> {
+    /**
+     * Clusters the items of all layers and then renders the clusters of all layers at once.
+     */
+    private static class ClusterTask extends AsyncTask<Void, Void, List<LayerClusters<?>>> {
 
         private final LatLngBounds mLatLngBounds;
         private final float mZoomLevel;
-        private final ClusterManager<T> mClusterManager;
+        private final List<ClusterLayer<?>> mLayers;
+        private final ClusterManager<?> mClusterManager;
 
         private ClusterTask(@NonNull LatLngBounds latLngBounds,
                             float zoomLevel,
-                            ClusterManager<T> clusterManager) {
+                            @NonNull List<ClusterLayer<?>> layers,
+                            ClusterManager<?> clusterManager) {
             mLatLngBounds = latLngBounds;
             mZoomLevel = zoomLevel;
+            mLayers = layers;
             mClusterManager = clusterManager;
         }
 
         @Override
-        protected List<MarkerCluster<T>> doInBackground(Void... params) {
-            return mClusterManager.mAlgorithm.getClusters(mLatLngBounds, mZoomLevel);
+        protected List<LayerClusters<?>> doInBackground(Void... params) {
+            List<LayerClusters<?>> layerClusters = new ArrayList<>(mLayers.size());
+            for (ClusterLayer<?> layer : mLayers) {
+                layerClusters.add(LayerClusters.cluster(layer, mLatLngBounds, mZoomLevel));
+            }
+            return layerClusters;
         }
 
         @Override
-        protected void onPostExecute(@NonNull List<MarkerCluster<T>> clusters) {
-            mClusterManager.mRenderer.render(clusters);
+        protected void onPostExecute(@NonNull List<LayerClusters<?>> layerClusters) {
+            for (LayerClusters<?> clusters : layerClusters) {
+                // A layer might have been removed in the meantime.
+                if (mClusterManager.mLayers.contains(clusters.mLayer)) {
+                    clusters.render(mLatLngBounds, mZoomLevel);
+                }
+            }
             mClusterManager.mClusterTask = null;
         }
     }
+
+    /**
+     * Trims the memory of the algorithms of all layers.
+     */
+    private static class TrimMemoryTask extends AsyncTask<Void, Void, Long> {
+
+        private final int mLevel;
+        private final long mFreedBytes;
+        private final List<ClusterLayer<?>> mLayers;
+        private final TrimMemoryCallback mCallback;
+
+        private TrimMemoryTask(int level, long freedBytes, @NonNull List<ClusterLayer<?>> layers,
+                               @Nullable TrimMemoryCallback callback) {
+            mLevel = level;
+            mFreedBytes = freedBytes;
+            mLayers = layers;
+            mCallback = callback;
+        }
+
+        @Override
+        protected Long doInBackground(Void... params) {
+            long freedBytes = mFreedBytes;
+            for (ClusterLayer<?> layer : mLayers) {
+                freedBytes += layer.trimAlgorithmMemory(mLevel);
+            }
+            return freedBytes;
+        }
+
+        @Override
+        protected void onPostExecute(@NonNull Long freedBytes) {
+            Log.d(TAG, "Trimmed memory for level " + mLevel + ", freed about " + freedBytes + " bytes");
+            if (mCallback != null) {
+                mCallback.onMemoryTrimmed(mLevel, freedBytes);
+            }
+        }
+    }
+
+    /**
+     * The clusters of a layer.
+     */
+    private static class LayerClusters<T extends ClusterItem> {
+
+        private final ClusterLayer<T> mLayer;
+        private final List<MarkerCluster<T>> mClusters;
+
+        private LayerClusters(@NonNull ClusterLayer<T> layer, @NonNull List<MarkerCluster<T>> clusters) {
+            mLayer = layer;
+            mClusters = clusters;
+        }
+
+        @NonNull
+        static <T extends ClusterItem> LayerClusters<T> cluster(@NonNull ClusterLayer<T> layer,
+                                                                 @NonNull LatLngBounds latLngBounds,
+                                                                 float zoomLevel) {
+            return new LayerClusters<>(layer, layer.getClusters(latLngBounds, zoomLevel));
+        }
+
+        void render(@NonNull LatLngBounds latLngBounds, float zoomLevel) {
+            mLayer.render(latLngBounds, zoomLevel, mClusters);
+        }
+    }
 }
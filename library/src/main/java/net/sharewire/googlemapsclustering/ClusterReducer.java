@@ -0,0 +1,50 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Reduces the items of a cluster to a single value, e.g. the total number of available parking
+ * spaces or the worst alert severity, so that icons can show statistics of a cluster without
+ * accessing its items. The value of a cluster is available using {@link MapCluster#getAggregate(ClusterReducer)}.
+ * <p>
+ * Indexes keep the values of their nodes up to date as items are added and combine them
+ * in any order, so {@link #combine} must be associative and commutative and the values
+ * should be immutable. The methods are called on the thread that indexes or clusters the items.
+ * <p>
+ * For example, a reducer that sums up the parking spaces of items:
+ * <pre>
+ * new ClusterReducer&lt;ParkingLot, Integer&gt;() {
+ *     public Integer identity() {
+ *         return 0;
+ *     }
+ *
+ *     public Integer extract(ParkingLot item) {
+ *         return item.getAvailableSpaces();
+ *     }
+ *
+ *     public Integer combine(Integer first, Integer second) {
+ *         return first + second;
+ *     }
+ * }
+ * </pre>
+ *
+ * @param <T> the type of an item to be clustered
+ * @param <A> the type of the reduced value
+ */
+public interface ClusterReducer<T extends ClusterItem, A> {
+
+    /**
+     * Returns the value of no items, which doesn't change a value it's combined with.
+     */
+    A identity();
+
+    /**
+     * Returns the value of the given item.
+     */
+    A extract(@NonNull T item);
+
+    /**
+     * Returns the value of the items of both given values.
+     */
+    A combine(A first, A second);
+}
@@ -23,7 +23,7 @@ import java.util.Map;
 
 import static net.sharewire.googlemapsclustering.Preconditions.checkNotNull;
 
-class ClusterRenderer<T extends ClusterItem> implements GoogleMap.OnMarkerClickListener {
+class ClusterRenderer<T extends ClusterItem> {
 
     private static final int BACKGROUND_MARKER_Z_INDEX = 0;
 
@@ -41,22 +41,19 @@ class ClusterRenderer<T extends ClusterItem> implements GoogleMap.OnMarkerClickL
 
     ClusterRenderer(@NonNull Context context, @NonNull GoogleMap googleMap) {
         mGoogleMap = googleMap;
-        mGoogleMap.setOnMarkerClickListener(this);
         mIconGenerator = new DefaultIconGenerator<>(context);
     }
 
-    @Override
-    public boolean onMarkerClick(Marker marker) {
+    boolean onMarkerClick(@NonNull Marker marker) {
         Object markerTag = marker.getTag();
         if (markerTag instanceof MarkerCluster) {
             //noinspection unchecked
             MarkerCluster<T> cluster = (MarkerCluster<T>) markerTag;
-            //noinspection ConstantConditions
-            List<T> clusterItems = cluster.getItems();
 
-            if (mCallbacks != null) {
-                return clusterItems.size() == 1 ?
-                        mCallbacks.onClusterItemClick(clusterItems.get(0)) :
+            // The items of a restored cluster aren't known yet.
+            if (mCallbacks != null && !(cluster instanceof MapCluster && ((MapCluster<T>) cluster).isPlaceholder())) {
+                return cluster.getSize() == 1 ?
+                        mCallbacks.onClusterItemClick(cluster.getItems().get(0)) :
                         mCallbacks.onClusterClick(cluster);
             }
         }
@@ -64,6 +61,12 @@ class ClusterRenderer<T extends ClusterItem> implements GoogleMap.OnMarkerClickL
         return false;
     }
 
+    boolean hasMarker(@NonNull Marker marker) {
+        Object markerTag = marker.getTag();
+        //noinspection SuspiciousMethodCalls
+        return markerTag instanceof MarkerCluster && marker.equals(mMarkers.get(markerTag));
+    }
+
     void setCallbacks(@Nullable ClusterManager.Callbacks<T> listener) {
         mCallbacks = listener;
     }
@@ -72,55 +75,64 @@ class ClusterRenderer<T extends ClusterItem> implements GoogleMap.OnMarkerClickL
         mIconGenerator = iconGenerator;
     }
 
+    /**
+     * Drops the cached icons of the default icon generator. Custom icon generators manage their caches themselves.
+     *
+     * @return the estimated number of bytes freed
+     */
+    long clearIconCache() {
+        if (mIconGenerator instanceof DefaultIconGenerator) {
+            return ((DefaultIconGenerator<T>) mIconGenerator).clearIconCache();
+        }
+        return 0;
+    }
+
     void render(@NonNull List<MarkerCluster<T>> clusters) {
         synchronized (clusters) {
-            List<MarkerCluster<T>> clustersToAdd = new ArrayList<>();
-            List<MarkerCluster<T>> clustersToRemove = new ArrayList<>();
-
-            for (MarkerCluster<T> cluster : clusters) {
-                if (!mMarkers.containsKey(cluster)) {
-                    clustersToAdd.add(cluster);
+            RenderDiff<T> diff = RenderDiff.compute(mMarkers.keySet(), clusters);
+
+            // Keep the markers, but point them to the new clusters with up-to-date items
+            // and update the markers whose clusters have changed.
+            for (MarkerCluster<T> cluster : diff.kept) {
+                Marker marker = mMarkers.remove(cluster);
+                //noinspection unchecked
+                MarkerCluster<T> displayedCluster = (MarkerCluster<T>) marker.getTag();
+                if (RenderDiff.needsNewPosition(displayedCluster, cluster)) {
+                    marker.setPosition(cluster.getPosition());
                 }
-            }
-
-            for (MarkerCluster<T> cluster : mMarkers.keySet()) {
-                if (!clusters.contains(cluster)) {
-                    clustersToRemove.add(cluster);
+                if (RenderDiff.needsNewIcon(displayedCluster, cluster)) {
+                    marker.setIcon(getMarkerIcon(cluster));
                 }
+                marker.setTag(cluster);
+                mMarkers.put(cluster, marker);
             }
 
-            mClusters.addAll(clustersToAdd);
-            mClusters.removeAll(clustersToRemove);
+            mClusters.clear();
+            mClusters.addAll(clusters);
 
             // Remove the old clusters.
-            for (MarkerCluster<T> clusterToRemove : clustersToRemove) {
-                Marker markerToRemove = mMarkers.get(clusterToRemove);
+            for (int i = 0; i < diff.removed.size(); i++) {
+                Marker markerToRemove = mMarkers.remove(diff.removed.get(i));
                 markerToRemove.setZIndex(BACKGROUND_MARKER_Z_INDEX);
 
-                MarkerCluster<T> parentCluster = findParentCluster(mClusters,
-                        clusterToRemove.getPosition().latitude,
-                        clusterToRemove.getPosition().longitude);
-
+                MarkerCluster<T> parentCluster = diff.removedParents.get(i);
                 if (parentCluster != null) {
                     animateMarkerToLocation(markerToRemove, parentCluster.getPosition(), true);
                 } else {
                     markerToRemove.remove();
                 }
-
-                mMarkers.remove(clusterToRemove);
             }
 
             // Add the new clusters.
-            for (MarkerCluster<T> clusterToAdd : clustersToAdd) {
+            for (int i = 0; i < diff.added.size(); i++) {
+                MarkerCluster<T> clusterToAdd = diff.added.get(i);
                 Marker markerToAdd;
 
                 BitmapDescriptor markerIcon = getMarkerIcon(clusterToAdd);
                 String markerTitle = getMarkerTitle(clusterToAdd);
                 String markerSnippet = getMarkerSnippet(clusterToAdd);
 
-                MarkerCluster parentCluster = findParentCluster(clustersToRemove,
-                        clusterToAdd.getPosition().latitude,
-                        clusterToAdd.getPosition().longitude);
+                MarkerCluster<T> parentCluster = diff.addedParents.get(i);
                 if (parentCluster != null) {
                     markerToAdd = mGoogleMap.addMarker(new MarkerOptions()
                             .position(parentCluster.getPosition())
@@ -164,9 +176,8 @@ class ClusterRenderer<T extends ClusterItem> implements GoogleMap.OnMarkerClickL
     private BitmapDescriptor getMarkerIcon(@NonNull MarkerCluster<T> cluster) {
         BitmapDescriptor clusterIcon;
 
-        List<T> clusterItems = cluster.getItems();
-        clusterIcon = clusterItems.size() == 1 ?
-                mIconGenerator.getClusterItemIcon(clusterItems.get(0)) :
+        clusterIcon = cluster.getSize() == 1 ?
+                mIconGenerator.getClusterItemIcon(cluster.getItems().get(0)) :
                 mIconGenerator.getClusterIcon(cluster);
 
         return checkNotNull(clusterIcon);
@@ -174,26 +185,12 @@ class ClusterRenderer<T extends ClusterItem> implements GoogleMap.OnMarkerClickL
 
     @Nullable
     private String getMarkerTitle(@NonNull MarkerCluster<T> cluster) {
-        List<T> clusterItems = cluster.getItems();
-        return clusterItems.size() == 1 ? clusterItems.get(0).getTitle() : null;
+        return cluster.getSize() == 1 ? cluster.getItems().get(0).getTitle() : null;
     }
 
     @Nullable
     private String getMarkerSnippet(@NonNull MarkerCluster<T> cluster) {
-        List<T> clusterItems = cluster.getItems();
-        return clusterItems.size() == 1 ? clusterItems.get(0).getSnippet() : null;
-    }
-
-    @Nullable
-    private MarkerCluster<T> findParentCluster(@NonNull List<MarkerCluster<T>> clusters,
-                                            double latitude, double longitude) {
-        for (MarkerCluster<T> cluster : clusters) {
-            if (cluster.contains(latitude, longitude)) {
-                return cluster;
-            }
-        }
-
-        return null;
+        return cluster.getSize() == 1 ? cluster.getItems().get(0).getSnippet() : null;
     }
 
     private void animateMarkerToLocation(@NonNull final Marker marker, @NonNull LatLng targetLocation,
@@ -0,0 +1,114 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The clusters displayed for a camera position, which can be saved to a file
+ * and displayed right away when the map is recreated.
+ * <p>
+ * Only the position, the size and the bounds of clusters with more than one item
+ * are saved, since individual markers need the items themselves. Restored clusters
+ * are placeholders without items, which are replaced by the clusters computed from the items.
+ * Since the size is saved as is, restored clusters get the icons the computed ones get, unless
+ * the icons show values reduced from the items, which aren't saved. The icons of such clusters
+ * are replaced when the clusters are computed.
+ */
+class ClusterSnapshot<T extends ClusterItem> {
+
+    private static final int MAGIC = 0x474D4353;
+    private static final int VERSION = 1;
+
+    final LatLngBounds latLngBounds;
+    final float zoomLevel;
+    final List<MarkerCluster<T>> clusters;
+
+    ClusterSnapshot(@NonNull LatLngBounds latLngBounds, float zoomLevel,
+                    @NonNull List<MarkerCluster<T>> clusters) {
+        this.latLngBounds = latLngBounds;
+        this.zoomLevel = zoomLevel;
+        this.clusters = clusters;
+    }
+
+    void write(@NonNull File file) throws IOException {
+        List<MapCluster<T>> clustersToWrite = new ArrayList<>();
+        for (MarkerCluster<T> cluster : clusters) {
+            if (cluster instanceof MapCluster && cluster.getSize() > 1) {
+                clustersToWrite.add((MapCluster<T>) cluster);
+            }
+        }
+
+        // Write to a temporary file first, so that a failed write doesn't corrupt an existing snapshot.
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeDouble(latLngBounds.southwest.latitude);
+            output.writeDouble(latLngBounds.southwest.longitude);
+            output.writeDouble(latLngBounds.northeast.latitude);
+            output.writeDouble(latLngBounds.northeast.longitude);
+            output.writeFloat(zoomLevel);
+            output.writeInt(clustersToWrite.size());
+            for (MapCluster<T> cluster : clustersToWrite) {
+                output.writeDouble(cluster.getLatitude());
+                output.writeDouble(cluster.getLongitude());
+                output.writeInt(cluster.getSize());
+                output.writeDouble(cluster.getNorth());
+                output.writeDouble(cluster.getWest());
+                output.writeDouble(cluster.getSouth());
+                output.writeDouble(cluster.getEast());
+            }
+        } finally {
+            output.close();
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + temporaryFile + " to " + file);
+        }
+    }
+
+    @NonNull
+    static <T extends ClusterItem> ClusterSnapshot<T> read(@NonNull File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unsupported snapshot " + file);
+            }
+
+            LatLng southwest = new LatLng(input.readDouble(), input.readDouble());
+            LatLng northeast = new LatLng(input.readDouble(), input.readDouble());
+            float zoomLevel = input.readFloat();
+
+            int clusterCount = input.readInt();
+            List<MarkerCluster<T>> clusters = new ArrayList<>(clusterCount);
+            for (int i = 0; i < clusterCount; i++) {
+                double latitude = input.readDouble();
+                double longitude = input.readDouble();
+                int size = input.readInt();
+                double north = input.readDouble();
+                double west = input.readDouble();
+                double south = input.readDouble();
+                double east = input.readDouble();
+                clusters.add(MapCluster.<T>placeholder(latitude, longitude, size, north, west, south, east));
+            }
+
+            return new ClusterSnapshot<>(new LatLngBounds(southwest, northeast), zoomLevel, clusters);
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package net.sharewire.googlemapsclustering;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
+
+import java.util.List;
+
+import static net.sharewire.googlemapsclustering.Preconditions.checkArgument;
+import static net.sharewire.googlemapsclustering.Preconditions.checkNotNull;
+
+/**
+ * Displays clusters of items as a tile overlay instead of markers. The clusters are drawn
+ * into tile images on background threads of the map, so that the number of clusters displayed
+ * at once is not limited by the cost of markers, which is what limits {@link ClusterManager}
+ * to a few thousand markers. Tiles are cached and drawn again only when the items change.
+ * <p>
+ * Since tiles can't be clicked, the overlay must be set as a map click listener using
+ * {@link GoogleMap#setOnMapClickListener}. The clicked cluster is found in the background, then
+ * a click on a cluster calls the callbacks and, unless they consume the click, the clicked cluster
+ * is selected and shown as a marker on top of the tiles.
+ * <p>
+ * The overlay should be destroyed using {@link #destroy()} when the map is no longer used.
+ *
+ * @param <T> the type of an item to be clustered
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ClusterTileOverlay<T extends ClusterItem> implements GoogleMap.OnMapClickListener {
+
+    private static final String TAG = ClusterTileOverlay.class.getSimpleName();
+
+    private static final int SELECTED_MARKER_Z_INDEX = 1;
+
+    private final GoogleMap mGoogleMap;
+
+    private final SerialExecutor mExecutor = new SerialExecutor();
+
+    private final ClusterTileProvider<T> mTileProvider;
+
+    private final TileOverlay mTileOverlay;
+
+    private IconGenerator<T> mIconGenerator;
+
+    private ClusterManager.Callbacks<T> mCallbacks;
+
+    private Marker mSelectedMarker;
+
+    // Only the result of the last click is handled, if the map is clicked again while the cluster is being found.
+    private int mClickCount;
+
+    private boolean mDestroyed;
+
+    /**
+     * Creates a new tile overlay on the given map using the default icon style.
+     *
+     * @param googleMap the map instance where clusters will be rendered
+     */
+    public ClusterTileOverlay(@NonNull Context context, @NonNull GoogleMap googleMap) {
+        this(context, googleMap, new ClusterAlgorithm<T>());
+    }
+
+    /**
+     * Creates a new tile overlay on the given map that clusters items using the given algorithm.
+     * The algorithm is used only by the overlay, from the threads that draw tiles.
+     *
+     * @param googleMap the map instance where clusters will be rendered
+     * @param algorithm the algorithm that clusters the items
+     */
+    public ClusterTileOverlay(@NonNull Context context, @NonNull GoogleMap googleMap,
+                              @NonNull ClusteringAlgorithm<T> algorithm) {
+        checkNotNull(context);
+        mGoogleMap = checkNotNull(googleMap);
+        mTileProvider = new ClusterTileProvider<>(context, checkNotNull(algorithm),
+                new IconStyle.Builder(context).build());
+        mTileOverlay = mGoogleMap.addTileOverlay(new TileOverlayOptions().tileProvider(mTileProvider));
+        mIconGenerator = new DefaultIconGenerator<>(context);
+    }
+
+    /**
+     * Sets the style of the clusters and items drawn into tiles.
+     *
+     * @param iconStyle the style of the clusters and items
+     */
+    public void setIconStyle(@NonNull IconStyle iconStyle) {
+        mTileProvider.setIconStyle(checkNotNull(iconStyle));
+        mTileOverlay.clearTileCache();
+    }
+
+    /**
+     * Sets a custom icon generator for the marker of the selected cluster.
+     *
+     * @param iconGenerator the icon generator of the marker of the selected cluster
+     */
+    public void setIconGenerator(@NonNull IconGenerator<T> iconGenerator) {
+        mIconGenerator = checkNotNull(iconGenerator);
+    }
+
+    /**
+     * Sets a callback that's invoked when a cluster or a cluster item is clicked.
+     *
+     * @param callbacks the callback that's invoked when a cluster or an individual item is clicked.
+     *                  To unset the callback, use <code>null</code>.
+     */
+    public void setCallbacks(@Nullable ClusterManager.Callbacks<T> callbacks) {
+        mCallbacks = callbacks;
+    }
+
+    /**
+     * Sets items to be clustered thus replacing the old ones. The items are indexed
+     * on the shared {@link ClusterWorkerPool} and the tiles are drawn again afterwards.
+     *
+     * @param clusterItems the items to be clustered
+     */
+    public void setItems(@NonNull final List<T> clusterItems) {
+        checkNotNull(clusterItems);
+        new UpdateTask<>(this, new Runnable() {
+            @Override
+            public void run() {
+                mTileProvider.setItems(clusterItems);
+            }
+        }).executeOnExecutor(mExecutor);
+    }
+
+    /**
+     * Sets the minimum size of a cluster. If the cluster size
+     * is less than this value, display individual items.
+     */
+    public void setMinClusterSize(final int minClusterSize) {
+        checkArgument(minClusterSize > 0);
+        new UpdateTask<>(this, new Runnable() {
+            @Override
+            public void run() {
+                mTileProvider.setMinClusterSize(minClusterSize);
+            }
+        }).executeOnExecutor(mExecutor);
+    }
+
+    /**
+     * Sets the categories of items to be displayed.
+     *
+     * @param categoryFilter the bit mask of the categories to be displayed.
+     *                       To display all items, use {@link CategorizedClusterItem#ALL_CATEGORIES}.
+     * @throws UnsupportedOperationException if the algorithm isn't a {@link FilterableAlgorithm}
+     * @see ClusterLayer#setCategoryFilter(long)
+     */
+    public void setCategoryFilter(final long categoryFilter) {
+        if (!mTileProvider.canFilterItems()) {
+            throw new UnsupportedOperationException("The algorithm doesn't filter items");
+        }
+        new UpdateTask<>(this, new Runnable() {
+            @Override
+            public void run() {
+                mTileProvider.setCategoryFilter(categoryFilter);
+            }
+        }).executeOnExecutor(mExecutor);
+    }
+
+    /**
+     * Shows or hides the clusters and the selected marker.
+     */
+    public void setVisible(boolean visible) {
+        mTileOverlay.setVisible(visible);
+        if (mSelectedMarker != null) {
+            mSelectedMarker.setVisible(visible);
+        }
+    }
+
+    /**
+     * Returns the marker of the selected cluster.
+     *
+     * @return the marker, or <code>null</code> if no cluster is selected
+     */
+    @Nullable
+    public Marker getSelectedMarker() {
+        return mSelectedMarker;
+    }
+
+    /**
+     * Removes the marker of the selected cluster.
+     */
+    public void clearSelection() {
+        if (mSelectedMarker != null) {
+            mSelectedMarker.remove();
+            mSelectedMarker = null;
+        }
+    }
+
+    @Override
+    public void onMapClick(LatLng position) {
+        clearSelection();
+        if (mDestroyed) {
+            return;
+        }
+
+        // The map displays the tiles of the zoom level below the camera zoom, scaled up.
+        int zoom = (int) Math.floor(mGoogleMap.getCameraPosition().zoom);
+        new FindClusterTask<>(this, ++mClickCount, position, zoom).executeOnExecutor(mExecutor);
+    }
+
+    private void onClusterFound(int clickCount, @Nullable MarkerCluster<T> cluster) {
+        if (mDestroyed || clickCount != mClickCount || cluster == null) {
+            return;
+        }
+
+        if (mCallbacks != null) {
+            boolean consumed = cluster.getSize() == 1 ?
+                    mCallbacks.onClusterItemClick(cluster.getItems().get(0)) :
+                    mCallbacks.onClusterClick(cluster);
+            if (consumed) {
+                return;
+            }
+        }
+
+        mSelectedMarker = mGoogleMap.addMarker(new MarkerOptions()
+                .position(cluster.getPosition())
+                .icon(cluster.getSize() == 1 ?
+                        mIconGenerator.getClusterItemIcon(cluster.getItems().get(0)) :
+                        mIconGenerator.getClusterIcon(cluster))
+                .zIndex(SELECTED_MARKER_Z_INDEX));
+        mSelectedMarker.setTag(cluster);
+    }
+
+    /**
+     * Releases memory depending on the given level of {@link ComponentCallbacks2}, the same as
+     * {@link ClusterManager#onTrimMemory(int)}. From {@link ComponentCallbacks2#TRIM_MEMORY_MODERATE} on,
+     * the tiles cached by the map are cleared as well and drawn again when the map is shown.
+     * Should be called from {@code onTrimMemory()} of the activity or fragment that contains the map.
+     */
+    public void onTrimMemory(final int level) {
+        if (mDestroyed) {
+            return;
+        }
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            clearSelection();
+            mTileOverlay.clearTileCache();
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long freedBytes = mTileProvider.trimMemory(level);
+                Log.d(TAG, "Trimmed memory for level " + level + ", freed about " + freedBytes + " bytes");
+            }
+        });
+    }
+
+    /**
+     * Removes the overlay and the selected marker from the map and drops the pending tasks.
+     * The overlay can't be used after it has been destroyed.
+     */
+    public void destroy() {
+        if (mDestroyed) {
+            return;
+        }
+        mDestroyed = true;
+
+        mExecutor.shutdown();
+        clearSelection();
+        mTileOverlay.remove();
+    }
+
+    private void onUpdated() {
+        if (!mDestroyed) {
+            clearSelection();
+            mTileOverlay.clearTileCache();
+        }
+    }
+
+    private static class FindClusterTask<T extends ClusterItem> extends AsyncTask<Void, Void, MarkerCluster<T>> {
+
+        private final ClusterTileOverlay<T> mTileOverlay;
+        private final int mClickCount;
+        private final LatLng mPosition;
+        private final int mZoom;
+
+        private FindClusterTask(@NonNull ClusterTileOverlay<T> tileOverlay, int clickCount,
+                                @NonNull LatLng position, int zoom) {
+            mTileOverlay = tileOverlay;
+            mClickCount = clickCount;
+            mPosition = position;
+            mZoom = zoom;
+        }
+
+        @Override
+        protected MarkerCluster<T> doInBackground(Void... params) {
+            MarkerCluster<T> cluster = mTileOverlay.mTileProvider.findCluster(mPosition, mZoom);
+            if (cluster != null) {
+                // The items of a lazy list are queried here rather than by the callbacks on the main thread.
+                cluster.getItems().size();
+            }
+            return cluster;
+        }
+
+        @Override
+        protected void onPostExecute(MarkerCluster<T> cluster) {
+            mTileOverlay.onClusterFound(mClickCount, cluster);
+        }
+    }
+
+    private static class UpdateTask<T extends ClusterItem> extends AsyncTask<Void, Void, Void> {
+
+        private final ClusterTileOverlay<T> mTileOverlay;
+        private final Runnable mUpdate;
+
+        private UpdateTask(@NonNull ClusterTileOverlay<T> tileOverlay, @NonNull Runnable update) {
+            mTileOverlay = tileOverlay;
+            mUpdate = update;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            mUpdate.run();
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            mTileOverlay.onUpdated();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package net.sharewire.googlemapsclustering;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Draws the clusters of an algorithm into map tiles, so that any number of clusters costs
+ * the map no more than a few tile images. The map requests tiles on its own background threads,
+ * which share the algorithm and the cache of encoded tiles. The algorithms of the library cluster the tiles
+ * concurrently and only changes to them are exclusive, while custom algorithms cluster one tile at a time.
+ * <p>
+ * Clusters are drawn as circles with the label of {@link DefaultIconGenerator} and individual items
+ * as the item icon of the style, with their bottom center at the position of the item like markers.
+ * A cluster is clustered on the zoom level of its tile, so it may be drawn by several tiles
+ * and the tiles are requested with a margin of the largest circle.
+ */
+class ClusterTileProvider<T extends ClusterItem> implements TileProvider {
+
+    private static final int TILE_SIZE = 256;
+
+    private static final int MAX_CACHE_SIZE_BYTES = 4 * 1024 * 1024;
+
+    // The map doesn't display tiles beyond the latitude of a square world.
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    // LatLng turns the longitude 180 into -180.
+    private static final double MAX_LONGITUDE = 180.0 - 1e-9;
+
+    private final Context mContext;
+
+    private final ClusteringAlgorithm<T> mAlgorithm;
+
+    // Changes to the algorithm take the write lock, clustering takes the read lock of algorithms
+    // whose getClusters is reentrant and the write lock of any others.
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final Lock mClusteringLock;
+
+    private final LruCache<String, Tile> mTileCache = new LruCache<String, Tile>(MAX_CACHE_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Tile tile) {
+            return tile.data != null ? tile.data.length : 1;
+        }
+    };
+
+    // The density of tile pixels relative to the 256 density-independent pixels of a tile.
+    private final int mTileScale;
+
+    // The size of a tile pixel in screen pixels, in which the style is given.
+    private final float mPixelScale;
+
+    private final float mMinRadius;
+
+    private final float mPadding;
+
+    private volatile Style mStyle;
+
+    // Tiles drawn for older items are cached under different keys.
+    private volatile int mGeneration;
+
+    ClusterTileProvider(@NonNull Context context, @NonNull ClusteringAlgorithm<T> algorithm,
+                        @NonNull IconStyle iconStyle) {
+        this(context, algorithm, context.getResources().getDisplayMetrics().density,
+                context.getResources().getDimensionPixelSize(R.dimen.cluster_icon_min_size),
+                context.getResources().getDimensionPixelSize(R.dimen.cluster_icon_padding));
+        setIconStyle(iconStyle);
+    }
+
+    /**
+     * Creates a provider for the given screen density and sizes in screen pixels, which draws
+     * clusters without labels or item icons until a style is set.
+     *
+     * @param context the context to decode the item icons of styles with
+     */
+    ClusterTileProvider(@Nullable Context context, @NonNull ClusteringAlgorithm<T> algorithm,
+                        float density, int minIconSize, int iconPadding) {
+        mContext = context;
+        mAlgorithm = algorithm;
+        mClusteringLock = algorithm instanceof BaseClusterAlgorithm ? mLock.readLock() : mLock.writeLock();
+
+        mTileScale = density >= 2.0F ? 2 : 1;
+        mPixelScale = mTileScale / density;
+        mMinRadius = minIconSize * mPixelScale / 2;
+        mPadding = iconPadding * mPixelScale;
+        mStyle = new Style(0, 0, 0, 0.0F, 0.0F, null);
+    }
+
+    void setIconStyle(@NonNull IconStyle iconStyle) {
+        Bitmap itemIcon = BitmapFactory.decodeResource(mContext.getResources(), iconStyle.getClusterIconResId());
+        if (itemIcon != null && mPixelScale != 1.0F) {
+            itemIcon = Bitmap.createScaledBitmap(itemIcon, Math.max(1, Math.round(itemIcon.getWidth() * mPixelScale)),
+                    Math.max(1, Math.round(itemIcon.getHeight() * mPixelScale)), true);
+        }
+        mStyle = new Style(iconStyle.getClusterBackgroundColor(), iconStyle.getClusterTextColor(),
+                iconStyle.getClusterStrokeColor(), iconStyle.getClusterStrokeWidth() * mPixelScale,
+                iconStyle.getClusterTextSize() * mPixelScale, itemIcon);
+        invalidate();
+    }
+
+    void setItems(@NonNull List<T> items) {
+        mLock.writeLock().lock();
+        try {
+            mAlgorithm.setItems(items);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        invalidate();
+    }
+
+    void setMinClusterSize(int minClusterSize) {
+        mLock.writeLock().lock();
+        try {
+            mAlgorithm.setMinClusterSize(minClusterSize);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        invalidate();
+    }
+
+    boolean canFilterItems() {
+        return mAlgorithm instanceof FilterableAlgorithm;
+    }
+
+    void setCategoryFilter(long categoryFilter) {
+        mLock.writeLock().lock();
+        try {
+            ((FilterableAlgorithm) mAlgorithm).setCategoryFilter(categoryFilter);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        invalidate();
+    }
+
+    /**
+     * Drops the cached tiles, which have to be requested again by clearing the tile cache of the overlay.
+     */
+    void invalidate() {
+        mGeneration++;
+        mTileCache.evictAll();
+    }
+
+    /**
+     * Drops the cached tiles from {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL} on,
+     * since the map keeps the tiles it displays itself, and trims the memory of the algorithm,
+     * if it's a {@link TrimmableAlgorithm}.
+     *
+     * @return the estimated number of bytes freed
+     */
+    long trimMemory(int level) {
+        long freedBytes = 0;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            freedBytes += mTileCache.size();
+            mTileCache.evictAll();
+        }
+        if (mAlgorithm instanceof TrimmableAlgorithm) {
+            mLock.writeLock().lock();
+            try {
+                freedBytes += ((TrimmableAlgorithm) mAlgorithm).trimMemory(level);
+            } finally {
+                mLock.writeLock().unlock();
+            }
+        }
+        return freedBytes;
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        String key = getTileKey(x, y, zoom);
+        Tile tile = mTileCache.get(key);
+        if (tile == null) {
+            tile = drawTile(x, y, zoom);
+            mTileCache.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Returns the key of the given tile in the cache, which changes whenever the tile has to be drawn again.
+     */
+    @NonNull
+    String getTileKey(int x, int y, int zoom) {
+        return mGeneration + "/" + zoom + "/" + x + "/" + y;
+    }
+
+    /**
+     * Finds the topmost cluster drawn at the given position of the tiles of the given zoom level.
+     * Clusters the area around the position, so it should be called on a background thread.
+     *
+     * @return the cluster, or <code>null</code> if there is no cluster at the position
+     */
+    @Nullable
+    MarkerCluster<T> findCluster(@NonNull LatLng position, int zoom) {
+        Style style = mStyle;
+        double worldSize = TILE_SIZE * mTileScale * (double) (1L << zoom);
+        double x = toWorldX(position.longitude) * worldSize;
+        double y = toWorldY(position.latitude) * worldSize;
+
+        double margin = getMaxExtent(style);
+        List<MarkerCluster<T>> clusters = getClusters(
+                (y - margin) / worldSize, (x - margin) / worldSize,
+                (y + margin) / worldSize, (x + margin) / worldSize, zoom);
+
+        // Clusters drawn later are on top.
+        Paint paint = style.createTextPaint();
+        for (int i = clusters.size() - 1; i >= 0; i--) {
+            MarkerCluster<T> cluster = clusters.get(i);
+            double clusterX = toWorldX(cluster.getPosition().longitude) * worldSize;
+            double clusterY = toWorldY(cluster.getPosition().latitude) * worldSize;
+            if (cluster.getSize() == 1 && style.itemIcon != null) {
+                double halfWidth = style.itemIcon.getWidth() / 2.0;
+                if (x >= clusterX - halfWidth && x <= clusterX + halfWidth
+                        && y >= clusterY - style.itemIcon.getHeight() && y <= clusterY) {
+                    return cluster;
+                }
+            } else {
+                double radius = getRadius(paint, getLabel(cluster));
+                if ((x - clusterX) * (x - clusterX) + (y - clusterY) * (y - clusterY) <= radius * radius) {
+                    return cluster;
+                }
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    private Tile drawTile(int x, int y, int zoom) {
+        Style style = mStyle;
+        int tileSize = TILE_SIZE * mTileScale;
+        int tileCount = 1 << zoom;
+        double margin = getMaxExtent(style) / tileSize;
+        List<MarkerCluster<T>> clusters = getClusters(
+                (y - margin) / tileCount, (x - margin) / tileCount,
+                (y + 1 + margin) / tileCount, (x + 1 + margin) / tileCount, zoom);
+        if (clusters.isEmpty()) {
+            return NO_TILE;
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint fillPaint = style.createFillPaint();
+        Paint strokePaint = style.createStrokePaint();
+        Paint textPaint = style.createTextPaint();
+        float textOffset = (textPaint.descent() + textPaint.ascent()) / 2;
+
+        for (MarkerCluster<T> cluster : clusters) {
+            LatLng position = cluster.getPosition();
+            float clusterX = (float) ((toWorldX(position.longitude) * tileCount - x) * tileSize);
+            float clusterY = (float) ((toWorldY(position.latitude) * tileCount - y) * tileSize);
+            if (cluster.getSize() == 1 && style.itemIcon != null) {
+                canvas.drawBitmap(style.itemIcon, clusterX - style.itemIcon.getWidth() / 2.0F,
+                        clusterY - style.itemIcon.getHeight(), null);
+            } else {
+                String label = getLabel(cluster);
+                float radius = getRadius(textPaint, label);
+                canvas.drawCircle(clusterX, clusterY, radius, fillPaint);
+                if (style.strokeWidth > 0) {
+                    canvas.drawCircle(clusterX, clusterY, radius - style.strokeWidth / 2, strokePaint);
+                }
+                canvas.drawText(label, clusterX, clusterY - textOffset, textPaint);
+            }
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+        bitmap.recycle();
+        return new Tile(tileSize, tileSize, output.toByteArray());
+    }
+
+    /**
+     * Returns the clusters of the given zoom level inside the given rectangle,
+     * given as fractions of the width and the height of the world.
+     */
+    @NonNull
+    private List<MarkerCluster<T>> getClusters(double north, double west, double south, double east, int zoom) {
+        LatLngBounds bounds = new LatLngBounds(
+                new LatLng(toLatitude(Math.min(south, 1.0)), toLongitude(Math.max(west, 0.0))),
+                new LatLng(toLatitude(Math.max(north, 0.0)), Math.min(toLongitude(east), MAX_LONGITUDE)));
+        mClusteringLock.lock();
+        try {
+            return mAlgorithm.getClusters(bounds, zoom);
+        } finally {
+            mClusteringLock.unlock();
+        }
+    }
+
+    private float getRadius(@NonNull Paint textPaint, @NonNull String label) {
+        return Math.max(mMinRadius, textPaint.measureText(label) / 2 + mPadding);
+    }
+
+    /**
+     * Returns how far a cluster or an item may be drawn from its position, in tile pixels.
+     */
+    private float getMaxExtent(@NonNull Style style) {
+        float extent = getRadius(style.createTextPaint(), Style.MAX_LABEL);
+        if (style.itemIcon != null) {
+            extent = Math.max(extent, Math.max(style.itemIcon.getWidth(), style.itemIcon.getHeight()));
+        }
+        return extent;
+    }
+
+    @NonNull
+    private static String getLabel(@NonNull MarkerCluster<?> cluster) {
+        return DefaultIconGenerator.getClusterIconText(DefaultIconGenerator.getClusterIconBucket(cluster.getSize()));
+    }
+
+    private static double toWorldX(double longitude) {
+        return (longitude + 180.0) / 360.0;
+    }
+
+    private static double toWorldY(double latitude) {
+        double sin = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(latitude, MAX_LATITUDE))));
+        return 0.5 - Math.log((1.0 + sin) / (1.0 - sin)) / (4.0 * Math.PI);
+    }
+
+    private static double toLongitude(double worldX) {
+        return worldX * 360.0 - 180.0;
+    }
+
+    private static double toLatitude(double worldY) {
+        double y = Math.PI * (1.0 - 2.0 * worldY);
+        return Math.toDegrees(Math.atan(0.5 * (Math.exp(y) - Math.exp(-y))));
+    }
+
+    /**
+     * The colors, sizes and item icon used to draw tiles, in tile pixels.
+     */
+    private static final class Style {
+
+        // The widest label, used to find the largest circle.
+        private static final String MAX_LABEL = "20000+";
+
+        final int backgroundColor;
+        final int textColor;
+        final int strokeColor;
+        final float strokeWidth;
+        final float textSize;
+        @Nullable
+        final Bitmap itemIcon;
+
+        Style(int backgroundColor, int textColor, int strokeColor, float strokeWidth, float textSize,
+              @Nullable Bitmap itemIcon) {
+            this.backgroundColor = backgroundColor;
+            this.textColor = textColor;
+            this.strokeColor = strokeColor;
+            this.strokeWidth = strokeWidth;
+            this.textSize = textSize;
+            this.itemIcon = itemIcon;
+        }
+
+        @NonNull
+        Paint createFillPaint() {
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paint.setStyle(Paint.Style.FILL);
+            paint.setColor(backgroundColor);
+            return paint;
+        }
+
+        @NonNull
+        Paint createStrokePaint() {
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setColor(strokeColor);
+            paint.setStrokeWidth(strokeWidth);
+            return paint;
+        }
+
+        @NonNull
+        Paint createTextPaint() {
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paint.setColor(textColor);
+            paint.setTextSize(textSize);
+            paint.setTextAlign(Paint.Align.CENTER);
+            return paint;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package net.sharewire.googlemapsclustering;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bounded pool of background threads shared by all cluster managers. Each manager runs
+ * its tasks one at a time in the order they were submitted, while the tasks of managers
+ * whose maps are in the foreground run before the tasks of the others. Idle threads
+ * are stopped, so the pool keeps no threads when no map is being clustered.
+ */
+public final class ClusterWorkerPool {
+
+    private static final int MAX_THREAD_COUNT =
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 2));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private ClusterWorkerPool() {
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread.
+     */
+    public static int getQueueSize() {
+        return EXECUTOR.getQueue().size();
+    }
+
+    /**
+     * Returns the number of threads that are running tasks.
+     */
+    public static int getActiveThreadCount() {
+        return EXECUTOR.getActiveCount();
+    }
+
+    /**
+     * Returns the number of threads in the pool, including idle ones.
+     */
+    public static int getThreadCount() {
+        return EXECUTOR.getPoolSize();
+    }
+
+    /**
+     * Returns the maximum number of threads in the pool.
+     */
+    public static int getMaxThreadCount() {
+        return MAX_THREAD_COUNT;
+    }
+
+    /**
+     * Returns the number of tasks that have been completed since the app started.
+     */
+    public static long getCompletedTaskCount() {
+        return EXECUTOR.getCompletedTaskCount();
+    }
+
+    static void execute(@NonNull Runnable task, boolean foreground) {
+        EXECUTOR.execute(new PrioritizedTask(task, foreground, SEQUENCE.getAndIncrement()));
+    }
+
+    @NonNull
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREAD_COUNT, MAX_THREAD_COUNT,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * A task that's ordered by the priority of its manager and then by the time it was submitted.
+     */
+    private static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+
+        private final Runnable mTask;
+        private final boolean mForeground;
+        private final long mSequence;
+
+        private PrioritizedTask(@NonNull Runnable task, boolean foreground, long sequence) {
+            mTask = task;
+            mForeground = foreground;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mTask.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull PrioritizedTask other) {
+            if (mForeground != other.mForeground) {
+                return mForeground ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ClusterWorker #" + mThreadCount.incrementAndGet());
+        }
+    }
+}
@@ -35,6 +35,8 @@ public class DefaultIconGenerator<T extends ClusterItem> implements IconGenerato
 
     private final SparseArray<BitmapDescriptor> mClusterIcons = new SparseArray<>();
 
+    private long mClusterIconBytes;
+
     /**
      * Creates an icon generator with the default icon style.
      */
@@ -54,7 +56,7 @@ public class DefaultIconGenerator<T extends ClusterItem> implements IconGenerato
 
     @NonNull
     public BitmapDescriptor getClusterIcon(@NonNull MarkerCluster<T> cluster) {
-        int clusterBucket = getClusterIconBucket(cluster);
+        int clusterBucket = getClusterIconBucket(cluster.getSize());
         BitmapDescriptor clusterIcon = mClusterIcons.get(clusterBucket);
 
         if (clusterIcon == null) {
@@ -74,6 +76,18 @@ public class DefaultIconGenerator<T extends ClusterItem> implements IconGenerato
         return mClusterItemIcon;
     }
 
+    /**
+     * Drops the cached cluster icons, which are generated again when they are needed.
+     *
+     * @return the estimated number of bytes of the dropped bitmaps
+     */
+    long clearIconCache() {
+        long bytes = mClusterIconBytes;
+        mClusterIcons.clear();
+        mClusterIconBytes = 0;
+        return bytes;
+    }
+
     @NonNull
     private IconStyle createDefaultIconStyle() {
         return new IconStyle.Builder(mContext).build();
@@ -100,6 +114,7 @@ public class DefaultIconGenerator<T extends ClusterItem> implements IconGenerato
 
         Canvas canvas = new Canvas(iconBitmap);
         clusterIconView.draw(canvas);
+        mClusterIconBytes += iconBitmap.getByteCount();
 
         return BitmapDescriptorFactory.fromBitmap(iconBitmap);
     }
@@ -119,8 +134,7 @@ public class DefaultIconGenerator<T extends ClusterItem> implements IconGenerato
         return BitmapDescriptorFactory.fromResource(mIconStyle.getClusterIconResId());
     }
 
-    private int getClusterIconBucket(@NonNull MarkerCluster<T> cluster) {
-        int itemCount = cluster.getItems().size();
+    static int getClusterIconBucket(int itemCount) {
         if (itemCount <= CLUSTER_ICON_BUCKETS[0]) {
             return itemCount;
         }
@@ -135,7 +149,7 @@ public class DefaultIconGenerator<T extends ClusterItem> implements IconGenerato
     }
 
     @NonNull
-    private String getClusterIconText(int clusterIconBucket) {
+    static String getClusterIconText(int clusterIconBucket) {
         return (clusterIconBucket < CLUSTER_ICON_BUCKETS[0]) ?
                 String.valueOf(clusterIconBucket) : String.valueOf(clusterIconBucket) + "+";
     }
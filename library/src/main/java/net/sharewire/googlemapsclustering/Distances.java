@@ -0,0 +1,65 @@
+package net.sharewire.googlemapsclustering;
+
+/**
+ * Great-circle distances on a spherical Earth.
+ */
+final class Distances {
+
+    // The mean radius of the Earth.
+    static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    private Distances() {
+    }
+
+    /**
+     * Returns the haversine distance between the given positions in meters.
+     */
+    static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double sinHalfLatitude = Math.sin(Math.toRadians(latitude2 - latitude1) / 2.0);
+        double sinHalfLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2.0);
+        double a = sinHalfLatitude * sinHalfLatitude + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2)) * sinHalfLongitude * sinHalfLongitude;
+        return 2.0 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Returns the distance between the given position and the closest point
+     * of the given rectangle in meters, 0 if the position lies inside it.
+     */
+    static double distanceToRect(double latitude, double longitude,
+                                 double north, double west, double south, double east) {
+        if (longitude >= west && longitude <= east) {
+            if (latitude > north) {
+                return distance(latitude, longitude, north, longitude);
+            } else if (latitude < south) {
+                return distance(latitude, longitude, south, longitude);
+            }
+            return 0.0;
+        }
+
+        // For every latitude, the closer meridian is closer, so only the closer edge matters.
+        double westDelta = longitudeDelta(longitude, west);
+        double eastDelta = longitudeDelta(longitude, east);
+        double edgeLongitude = westDelta < eastDelta ? west : east;
+        double delta = Math.min(westDelta, eastDelta);
+
+        // The latitude of the closest point of the whole meridian, which exists for the near half of it.
+        if (delta < 90.0) {
+            double phi = Math.toRadians(latitude);
+            double closestLatitude = Math.toDegrees(Math.atan2(Math.sin(phi),
+                    Math.cos(phi) * Math.cos(Math.toRadians(delta))));
+            if (closestLatitude >= south && closestLatitude <= north) {
+                return distance(latitude, longitude, closestLatitude, edgeLongitude);
+            }
+        }
+
+        // Otherwise, the distance along the edge grows towards one of its ends.
+        return Math.min(distance(latitude, longitude, north, edgeLongitude),
+                distance(latitude, longitude, south, edgeLongitude));
+    }
+
+    private static double longitudeDelta(double longitude1, double longitude2) {
+        double delta = Math.abs(longitude1 - longitude2) % 360.0;
+        return delta > 180.0 ? 360.0 - delta : delta;
+    }
+}
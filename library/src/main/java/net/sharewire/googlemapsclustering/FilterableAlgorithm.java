@@ -0,0 +1,30 @@
+package net.sharewire.googlemapsclustering;
+
+/**
+ * A clustering algorithm that clusters only the items in the given categories and time window.
+ * {@link ClusterLayer} checks for this interface, so it's optional for custom algorithms.
+ *
+ * @see CategorizedClusterItem
+ * @see TimedClusterItem
+ */
+public interface FilterableAlgorithm {
+    /**
+     * Sets the bit mask of the categories of items to be clustered.
+     *
+     * @param categoryFilter the bit mask of the categories to be clustered
+     */
+    void setCategoryFilter(long categoryFilter);
+
+    /**
+     * Sets the time window of items to be clustered.
+     *
+     * @param startTime the start of the window, inclusive
+     * @param endTime   the end of the window, exclusive
+     */
+    void setTimeWindow(long startTime, long endTime);
+
+    /**
+     * Clusters items regardless of their timestamps.
+     */
+    void clearTimeWindow();
+}
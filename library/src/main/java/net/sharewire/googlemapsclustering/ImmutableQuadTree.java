@@ -0,0 +1,121 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * A quad tree that is built once and never modified afterwards, so that any number of threads
+ * can query it at the same time without locking. Its nodes are published through a final field,
+ * which makes the whole tree visible to the threads that receive the index.
+ */
+final class ImmutableQuadTree<T extends ClusterItem> implements ReducingIndex<T> {
+
+    private final QuadTreeNode<T> root;
+    private final ClusterReducer<T, Object> reducer;
+    private final int size;
+
+    /**
+     * Builds the tree of the given items, on all cores of devices with API 21 and higher.
+     */
+    ImmutableQuadTree(@NonNull List<T> items, @Nullable ClusterReducer<T, Object> reducer) {
+        QuadTree<T> tree = new QuadTree<>(QuadTree.AUTO_BUCKET_SIZE);
+        tree.setReducer(reducer);
+        tree.setParallelBuild(true);
+        tree.setItems(items);
+        this.root = tree.getRoot();
+        this.reducer = reducer;
+        this.size = items.size();
+    }
+
+    @Nullable
+    ClusterReducer<T, Object> getReducer() {
+        return reducer;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Not supported, because the tree is immutable.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setItems(@NonNull List<T> items) {
+        throw new UnsupportedOperationException("A shared index is immutable");
+    }
+
+    /**
+     * Not supported, because the tree is immutable.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void addItems(@NonNull List<T> items) {
+        throw new UnsupportedOperationException("A shared index is immutable");
+    }
+
+    /**
+     * Does nothing, if the given reducer is the one the tree has been built with.
+     *
+     * @throws UnsupportedOperationException if the reducer is a different one
+     */
+    @Override
+    public void setReducer(@Nullable ClusterReducer<T, Object> reducer) {
+        if (reducer != this.reducer) {
+            throw new UnsupportedOperationException("A shared index is reduced when it's built");
+        }
+    }
+
+    /**
+     * Does nothing, because other algorithms may still query the tree.
+     */
+    @Override
+    public long trimMemory(int level) {
+        return 0;
+    }
+
+    @Override
+    public void aggregateTiles(@NonNull TileBuckets buckets, @NonNull ItemFilter filter) {
+        root.aggregateTiles(buckets, filter);
+    }
+
+    @Override
+    public void queryTile(double stepLatitude, double stepLongitude, long tileX, long tileY, @NonNull ItemFilter filter,
+                          @NonNull List<T> items) {
+        QuadTreeTileList.queryTile(root, stepLatitude, stepLongitude, tileX, tileY, filter, items);
+    }
+
+    @NonNull
+    @Override
+    public List<T> tileView(final double stepLatitude, final double stepLongitude,
+                            final long tileX, final long tileY, @NonNull final ItemFilter filter, int expectedSize) {
+        return new LazyItemList<T>(expectedSize) {
+            @Override
+            void queryItems(@NonNull List<T> items) {
+                QuadTreeTileList.queryTile(root, stepLatitude, stepLongitude, tileX, tileY, filter, items);
+            }
+        };
+    }
+
+    @Override
+    public void queryNearest(double latitude, double longitude, int count, double maxDistance,
+                             @NonNull ItemFilter filter, @NonNull List<T> items) {
+        NearestSearch<T> search = QuadTreeNode.nearestSearch(latitude, longitude, count, maxDistance, filter);
+        root.addToSearch(search, filter);
+        search.run(items);
+    }
+
+    @Override
+    public int countRegion(@NonNull Region region, @NonNull ItemFilter filter) {
+        return root.countRegion(region, filter);
+    }
+
+    @Override
+    public void queryRegion(@NonNull Region region, @NonNull ItemFilter filter, @NonNull List<T> items) {
+        root.queryRegion(region, filter, items);
+    }
+}
@@ -0,0 +1,19 @@
+package net.sharewire.googlemapsclustering;
+
+import java.util.List;
+
+/**
+ * A clustering algorithm that items can be added to without replacing the existing ones.
+ * {@link ClusterLayer} checks for this interface, so it's optional for custom algorithms.
+ *
+ * @param <T> the type of an item to be clustered
+ * @see ClusterLayer#appendItems(List)
+ */
+public interface IncrementalAlgorithm<T extends ClusterItem> {
+    /**
+     * Adds the given items to the existing ones.
+     *
+     * @param items the items to be added
+     */
+    void addItems(List<T> items);
+}
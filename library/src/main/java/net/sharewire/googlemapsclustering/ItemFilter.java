@@ -0,0 +1,107 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import static net.sharewire.googlemapsclustering.CategorizedClusterItem.ALL_CATEGORIES;
+
+/**
+ * The filter of items to be clustered. An item matches the filter if it belongs to at least
+ * one of the categories of the filter and its timestamp lies inside the time window of the filter.
+ * Items that are not categorized belong to all categories and items without a timestamp
+ * are inside any time window.
+ * <p>
+ * Indexes keep the categories that some and that all of their items belong to and the range
+ * of their timestamps per node, so they can skip whole nodes or use their aggregates.
+ */
+final class ItemFilter {
+
+    static final ItemFilter ALL = new ItemFilter(ALL_CATEGORIES, Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final long categories;
+    private final long startTime;
+    private final long endTime;
+
+    private ItemFilter(long categories, long startTime, long endTime) {
+        this.categories = categories;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    @NonNull
+    ItemFilter withCategories(long categories) {
+        return new ItemFilter(categories, startTime, endTime);
+    }
+
+    /**
+     * Returns a filter with the time window [startTime, endTime).
+     */
+    @NonNull
+    ItemFilter withTimeWindow(long startTime, long endTime) {
+        return new ItemFilter(categories, startTime, endTime);
+    }
+
+    @NonNull
+    ItemFilter withoutTimeWindow() {
+        return new ItemFilter(categories, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    boolean isAll() {
+        return categories == ALL_CATEGORIES && !hasTimeWindow();
+    }
+
+    boolean hasTimeWindow() {
+        return startTime != Long.MIN_VALUE || endTime != Long.MAX_VALUE;
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    long getEndTime() {
+        return endTime;
+    }
+
+    boolean matches(@NonNull ClusterItem item) {
+        return matchesCategories(categoriesOf(item))
+                && (!hasTimeWindow() || !(item instanceof TimedClusterItem)
+                || matchesTimestamp(((TimedClusterItem) item).getTimestamp()));
+    }
+
+    boolean matchesCategories(long itemCategories) {
+        return categories == ALL_CATEGORIES || (itemCategories & categories) != 0;
+    }
+
+    boolean matchesTimestamp(long timestamp) {
+        return timestamp >= startTime && timestamp < endTime;
+    }
+
+    /**
+     * Checks whether some of the items with the given categories and range of timestamps may match the filter.
+     */
+    boolean matchesSome(long someCategories, long minTimestamp, long maxTimestamp) {
+        return matchesCategories(someCategories)
+                && (!hasTimeWindow() || (maxTimestamp >= startTime && minTimestamp < endTime));
+    }
+
+    /**
+     * Checks whether all items with the given categories and range of timestamps match the filter.
+     */
+    boolean matchesAll(long allCategories, long minTimestamp, long maxTimestamp) {
+        return matchesCategories(allCategories)
+                && (!hasTimeWindow() || (minTimestamp >= startTime && maxTimestamp < endTime));
+    }
+
+    static long categoriesOf(@NonNull ClusterItem item) {
+        return item instanceof CategorizedClusterItem
+                ? ((CategorizedClusterItem) item).getCategories() : ALL_CATEGORIES;
+    }
+
+    // Items without a timestamp are inside any time window, as if they had all timestamps.
+    static long minTimestampOf(@NonNull ClusterItem item) {
+        return item instanceof TimedClusterItem ? ((TimedClusterItem) item).getTimestamp() : Long.MIN_VALUE;
+    }
+
+    static long maxTimestampOf(@NonNull ClusterItem item) {
+        return item instanceof TimedClusterItem ? ((TimedClusterItem) item).getTimestamp() : Long.MAX_VALUE;
+    }
+}
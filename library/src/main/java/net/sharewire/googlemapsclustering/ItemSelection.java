@@ -0,0 +1,40 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * The items selected by a region of the map. The number of items is known right away,
+ * while the items themselves are queried from the index only when they are accessed
+ * for the first time, so counting large selections doesn't copy them.
+ *
+ * @param <T> the type of a selected item
+ */
+public final class ItemSelection<T extends ClusterItem> {
+
+    private final int mCount;
+    private final List<T> mItems;
+
+    ItemSelection(int count, @NonNull List<T> items) {
+        mCount = count;
+        mItems = items;
+    }
+
+    /**
+     * Returns the number of selected items.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns a read-only list of the selected items. The items are queried on the calling
+     * thread when the list is accessed for the first time, which fails if the items of the
+     * algorithm have been set or added since they were selected.
+     */
+    @NonNull
+    public List<T> getItems() {
+        return mItems;
+    }
+}
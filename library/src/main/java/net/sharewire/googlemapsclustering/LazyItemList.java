@@ -0,0 +1,77 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A read-only list of items that are queried from an index only when the list
+ * is accessed for the first time, so the items of clusters that are never
+ * inspected are not copied. Like the iterators of collections, a list fails fast
+ * if the items of the index have changed before it's accessed for the first time.
+ */
+abstract class LazyItemList<T extends ClusterItem> extends AbstractList<T> {
+
+    private final int expectedSize;
+    private List<T> items;
+    // The count of modifications of the index and its value when the list was computed.
+    private AtomicInteger modificationCount;
+    private int expectedModificationCount;
+
+    LazyItemList(int expectedSize) {
+        this.expectedSize = expectedSize;
+    }
+
+    @Override
+    public T get(int index) {
+        return materialize().get(index);
+    }
+
+    @Override
+    public int size() {
+        return materialize().size();
+    }
+
+    /**
+     * Adds the items of this list to the given list.
+     */
+    abstract void queryItems(@NonNull List<T> items);
+
+    /**
+     * Makes the list fail when it's accessed for the first time, unless the given count
+     * still has the given value. The count must be incremented before the index changes.
+     */
+    void checkModifications(@NonNull AtomicInteger modificationCount, int expectedModificationCount) {
+        this.modificationCount = modificationCount;
+        this.expectedModificationCount = expectedModificationCount;
+    }
+
+    /**
+     * Queries the items, unless they have been queried already, and returns them.
+     *
+     * @throws ConcurrentModificationException if the items of the index have changed
+     *                                         since the list was computed
+     */
+    @NonNull
+    synchronized List<T> materialize() {
+        if (items == null) {
+            checkUnmodified();
+            List<T> queriedItems = new ArrayList<>(expectedSize);
+            queryItems(queriedItems);
+            // The index may have changed while it was being queried.
+            checkUnmodified();
+            items = queriedItems;
+        }
+        return items;
+    }
+
+    private void checkUnmodified() {
+        if (modificationCount != null && modificationCount.get() != expectedModificationCount) {
+            throw new ConcurrentModificationException("The items have changed since the list was computed");
+        }
+    }
+}
@@ -1,28 +1,79 @@
 package net.sharewire.googlemapsclustering;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.google.android.gms.maps.model.LatLng;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
  * An object representing a cluster of items (markers) on the map.
+ * <p>
+ * A cluster is identified by the tile it was computed for and, for a single item, by the item,
+ * not by its position. A cluster whose items have changed since the last camera change
+ * is equal to the previous one, so that its marker is updated instead of being replaced.
  */
 public class MapCluster<T extends ClusterItem> implements MarkerCluster<T> {
 
-    private final LatLng position;
+    private final double latitude;
+    private final double longitude;
+    private final int size;
+    private final T item;
     private final List<T> items;
+    private final ClusterReducer<T, ?> reducer;
+    private final Object aggregate;
     private final double north;
     private final double west;
     private final double south;
     private final double east;
+    private boolean placeholder;
+    private LatLng position;
 
     @SuppressWarnings("WeakerAccess")
     public MapCluster(double latitude, double longitude, @NonNull List<T> items,
                       double north, double west, double south, double east) {
-        position = new LatLng(latitude, longitude);
+        this(latitude, longitude, items.size(), items, null, null, north, west, south, east);
+    }
+
+    MapCluster(double latitude, double longitude, int size, @NonNull List<T> items,
+               @Nullable ClusterReducer<T, ?> reducer, @Nullable Object aggregate,
+               double north, double west, double south, double east) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.size = size;
+        this.item = null;
         this.items = items;
+        this.reducer = reducer;
+        this.aggregate = aggregate;
+        this.north = north;
+        this.west = west;
+        this.south = south;
+        this.east = east;
+    }
+
+    /**
+     * Creates a cluster restored from a snapshot, which has a size but no items.
+     */
+    @NonNull
+    static <T extends ClusterItem> MapCluster<T> placeholder(double latitude, double longitude, int size,
+                                                             double north, double west, double south, double east) {
+        MapCluster<T> cluster = new MapCluster<>(latitude, longitude, size, Collections.<T>emptyList(), null, null,
+                north, west, south, east);
+        cluster.placeholder = true;
+        return cluster;
+    }
+
+    MapCluster(@NonNull T item, @Nullable ClusterReducer<T, ?> reducer, @Nullable Object aggregate,
+               double north, double west, double south, double east) {
+        this.latitude = item.getPosition().latitude;
+        this.longitude = item.getPosition().longitude;
+        this.size = 1;
+        this.item = item;
+        this.items = null;
+        this.reducer = reducer;
+        this.aggregate = aggregate;
         this.north = north;
         this.west = west;
         this.south = south;
@@ -35,7 +86,7 @@ public class MapCluster<T extends ClusterItem> implements MarkerCluster<T> {
      * @return the latitude of the cluster
      */
     public double getLatitude() {
-        return position.latitude;
+        return latitude;
     }
 
     /**
@@ -44,27 +95,88 @@ public class MapCluster<T extends ClusterItem> implements MarkerCluster<T> {
      * @return the longitude of the cluster
      */
     public double getLongitude() {
-        return position.longitude;
+        return longitude;
     }
 
     @Override
     public LatLng getPosition() {
+        if (position == null) {
+            position = new LatLng(latitude, longitude);
+        }
         return position;
     }
 
     /**
-     * The items contained in the cluster.
+     * The items contained in the cluster. The items may be queried from the index
+     * on first access, so use {@link #getSize()} if only the number of items is needed.
+     * A list that hasn't been accessed before the items of the algorithm are set or added
+     * fails on access afterwards, since its items would no longer match the size of the cluster.
      *
      * @return the items contained in the cluster
      */
     @NonNull
     public List<T> getItems() {
-        return items;
+        return item != null ? Collections.singletonList(item) : items;
     }
 
+    /**
+     * The number of items contained in the cluster. Unlike {@link #getItems()},
+     * never queries the items.
+     *
+     * @return the number of items contained in the cluster
+     */
     @Override
     public int getSize() {
-        return 0;
+        return size;
+    }
+
+    /**
+     * The value the items contained in the cluster are reduced to by the given reducer of the algorithm.
+     * Like {@link #getSize()}, it's computed by the index and never queries the items.
+     *
+     * @param reducer the reducer set on the algorithm that computed the cluster
+     * @return the reduced value, or <code>null</code> if the cluster was computed without the given reducer
+     * @see ClusterAlgorithm#setReducer(ClusterReducer)
+     */
+    @Nullable
+    public <A> A getAggregate(@NonNull ClusterReducer<T, A> reducer) {
+        if (reducer != this.reducer) {
+            return null;
+        }
+        //noinspection unchecked
+        return (A) aggregate;
+    }
+
+    /**
+     * Returns whether the given cluster has been reduced by the same reducer to an equal value.
+     */
+    boolean hasSameAggregate(@NonNull MapCluster<?> cluster) {
+        return reducer == cluster.reducer
+                && (aggregate != null ? aggregate.equals(cluster.aggregate) : cluster.aggregate == null);
+    }
+
+    double getNorth() {
+        return north;
+    }
+
+    double getWest() {
+        return west;
+    }
+
+    double getSouth() {
+        return south;
+    }
+
+    double getEast() {
+        return east;
+    }
+
+    /**
+     * Returns whether the cluster has been restored from a snapshot and has no items yet.
+     * Clicks on the marker of such a cluster aren't passed to the callbacks.
+     */
+    public boolean isPlaceholder() {
+        return placeholder;
     }
 
     @Override
@@ -78,18 +190,26 @@ public class MapCluster<T extends ClusterItem> implements MarkerCluster<T> {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         MapCluster cluster = (MapCluster) o;
-        return Double.compare(cluster.position.latitude, position.latitude) == 0 &&
-                Double.compare(cluster.position.longitude, position.longitude) == 0;
+        return Double.compare(cluster.north, north) == 0 &&
+                Double.compare(cluster.west, west) == 0 &&
+                Double.compare(cluster.south, south) == 0 &&
+                Double.compare(cluster.east, east) == 0 &&
+                (item != null ? item.equals(cluster.item) : cluster.item == null);
     }
 
     @Override
     public int hashCode() {
         int result;
         long temp;
-        temp = Double.doubleToLongBits(position.latitude);
+        temp = Double.doubleToLongBits(north);
         result = (int) (temp ^ (temp >>> 32));
-        temp = Double.doubleToLongBits(position.longitude);
+        temp = Double.doubleToLongBits(west);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(south);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(east);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
+        result = 31 * result + (item != null ? item.hashCode() : 0);
         return result;
     }
 }
@@ -0,0 +1,66 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static net.sharewire.googlemapsclustering.Preconditions.checkNotNull;
+
+/**
+ * The clustering algorithm that queries a prebuilt index file directly from memory,
+ * so that large static data sets can be clustered right after the app starts, without
+ * rebuilding the index or keeping the items on the heap. Write the index once, at build
+ * time or on the first run, using {@link #writeIndex(List, File)}.
+ * <p>
+ * The index stores only the positions and ids of items. Items are loaded with
+ * {@link ItemLoader} when a cluster needs them, e.g. to display an individual marker
+ * or when the items of a cluster are accessed. Items can't be added to a prebuilt index,
+ * filtered by their categories or timestamps, or have their values reduced.
+ *
+ * @param <T> the type of an item to be clustered
+ */
+public class MappedClusterAlgorithm<T extends ClusterItem> extends BaseClusterAlgorithm<T> {
+
+    /**
+     * Loads items by their ids.
+     *
+     * @param <T> the type of an item to be clustered
+     */
+    public interface ItemLoader<T extends ClusterItem> {
+        /**
+         * Returns the item with the given id.
+         *
+         * @param id the index of the item in the list the index file was written from
+         * @return the item with the given id
+         */
+        @NonNull
+        T loadItem(int id);
+    }
+
+    /**
+     * Creates a new algorithm that queries the given index file. If the file doesn't exist yet,
+     * it's written when items are set using {@link #setItems(List)}.
+     *
+     * @param indexFile  the index file written by {@link #writeIndex(List, File)}
+     * @param itemLoader the loader of items by their ids
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MappedClusterAlgorithm(@NonNull File indexFile, @NonNull ItemLoader<T> itemLoader) {
+        super(new MappedIndex<>(checkNotNull(indexFile), checkNotNull(itemLoader)));
+    }
+
+    /**
+     * Writes the index of the given items to the given file. The id of an item
+     * is its index in the given list.
+     *
+     * @param items     the items to be indexed
+     * @param indexFile the file to write the index to
+     * @throws IOException if the file can't be written
+     */
+    public static void writeIndex(@NonNull List<? extends ClusterItem> items,
+                                  @NonNull File indexFile) throws IOException {
+        MappedIndex.write(checkNotNull(items), checkNotNull(indexFile));
+    }
+}
@@ -0,0 +1,538 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.sharewire.googlemapsclustering.MortonCodes.BITS;
+import static net.sharewire.googlemapsclustering.MortonCodes.decodeLatitude;
+import static net.sharewire.googlemapsclustering.MortonCodes.decodeLongitude;
+import static net.sharewire.googlemapsclustering.MortonCodes.interleave;
+import static net.sharewire.googlemapsclustering.MortonCodes.lowerBound;
+
+/**
+ * An index that is stored in a file and queried directly from the memory-mapped file,
+ * so opening it needs neither deserialization nor per-item objects. Items are stored
+ * as ids and loaded with {@link MappedClusterAlgorithm.ItemLoader} only when a cluster
+ * needs them.
+ * <p>
+ * The file consists of the following big-endian values:
+ * <pre>
+ * int      magic number "GMCI"
+ * int      format version
+ * int      item count n
+ * int      node count m
+ * long[n]  Morton codes of the items in ascending order (see {@link MortonCodes})
+ * int[n]   ids of the items in the same order
+ * node[m]  quad tree nodes, starting with the root
+ * </pre>
+ * Each node takes 40 bytes: <code>int level, int x, int y</code> (the origin of the quad
+ * in quantized coordinates), <code>int from, int to</code> (the interval of the codes inside
+ * the quad), <code>int firstChild</code> (the index of the first of four consecutive
+ * children, or -1 for leaves), <code>double latitudeSum, double longitudeSum</code>.
+ */
+class MappedIndex<T extends ClusterItem> implements ClusterIndex<T> {
+
+    private static final int MAGIC = 0x474D4349;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int CODE_SIZE = 8;
+    private static final int ID_SIZE = 4;
+    private static final int NODE_SIZE = 40;
+
+    // Quads with fewer items are not split further.
+    private static final int LEAF_CAPACITY = 16;
+
+    private final File file;
+    private final MappedClusterAlgorithm.ItemLoader<T> itemLoader;
+
+    private volatile MappedFile mappedFile;
+
+    MappedIndex(@NonNull File file, @NonNull MappedClusterAlgorithm.ItemLoader<T> itemLoader) {
+        this.file = file;
+        this.itemLoader = itemLoader;
+    }
+
+    /**
+     * Writes the index of the given items to the given file. The id of an item
+     * is its index in the given list.
+     */
+    static void write(@NonNull List<? extends ClusterItem> items, @NonNull File file) throws IOException {
+        long[] codes = new long[items.size()];
+
+        int index = 0;
+        for (ClusterItem item : items) {
+            codes[index++] = MortonCodes.encode(item.getPosition().latitude, item.getPosition().longitude);
+        }
+
+        int[] ids = MortonCodes.sort(codes);
+
+        NodeWriter nodes = new NodeWriter();
+        nodes.build(codes, nodes.reserve(1), 0, 0, 0, 0, codes.length);
+
+        // Write to a temporary file first, so that a failed write doesn't corrupt an existing index.
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(codes.length);
+            output.writeInt(nodes.count);
+            for (long code : codes) {
+                output.writeLong(code);
+            }
+            for (int id : ids) {
+                output.writeInt(id);
+            }
+            nodes.writeTo(output);
+        } finally {
+            output.close();
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + temporaryFile + " to " + file);
+        }
+    }
+
+    @Override
+    public void setItems(@NonNull List<T> items) {
+        try {
+            write(items, file);
+            mappedFile = MappedFile.open(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write the index to " + file, e);
+        }
+    }
+
+    @Override
+    public void addItems(@NonNull List<T> items) {
+        throw new UnsupportedOperationException("A mapped index can't be modified, write a new one instead");
+    }
+
+    /**
+     * Does nothing, because the pages of the mapped file are released by the system.
+     */
+    @Override
+    public long trimMemory(int level) {
+        return 0;
+    }
+
+    @Override
+    public void aggregateTiles(@NonNull TileBuckets buckets, @NonNull ItemFilter filter) {
+        // The index file doesn't store categories or timestamps, so MappedClusterAlgorithm doesn't filter items.
+        MappedFile mappedFile = getMappedFile();
+        if (mappedFile != null) {
+            mappedFile.aggregateNode(buckets, 0);
+        }
+    }
+
+    @Override
+    public void queryTile(double stepLatitude, double stepLongitude, long tileX, long tileY, @NonNull ItemFilter filter,
+                          @NonNull List<T> items) {
+        MappedFile mappedFile = getMappedFile();
+        if (mappedFile != null) {
+            mappedFile.queryNode(stepLatitude, stepLongitude, tileX, tileY, itemLoader, items, 0);
+        }
+    }
+
+    @NonNull
+    @Override
+    public List<T> tileView(final double stepLatitude, final double stepLongitude,
+                            final long tileX, final long tileY, @NonNull ItemFilter filter, int expectedSize) {
+        final MappedFile mappedFile = getMappedFile();
+        return new LazyItemList<T>(expectedSize) {
+            @Override
+            void queryItems(@NonNull List<T> items) {
+                if (mappedFile != null) {
+                    mappedFile.queryNode(stepLatitude, stepLongitude, tileX, tileY, itemLoader, items, 0);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void queryNearest(double latitude, double longitude, int count, double maxDistance,
+                             @NonNull ItemFilter filter, @NonNull List<T> items) {
+        final MappedFile mappedFile = getMappedFile();
+        if (mappedFile == null) {
+            return;
+        }
+
+        NearestSearch<T> search = new NearestSearch<T>(latitude, longitude, count, maxDistance) {
+            @Override
+            void expand(@NonNull Object node) {
+                mappedFile.expandNearest(this, (Integer) node);
+            }
+
+            @NonNull
+            @Override
+            T toItem(@NonNull Object value) {
+                return itemLoader.loadItem((Integer) value);
+            }
+        };
+        mappedFile.addToSearch(search, 0);
+        search.run(items);
+    }
+
+    @Override
+    public int countRegion(@NonNull Region region, @NonNull ItemFilter filter) {
+        MappedFile mappedFile = getMappedFile();
+        return mappedFile != null ? mappedFile.queryRegion(region, itemLoader, null, 0) : 0;
+    }
+
+    @Override
+    public void queryRegion(@NonNull Region region, @NonNull ItemFilter filter, @NonNull List<T> items) {
+        MappedFile mappedFile = getMappedFile();
+        if (mappedFile != null) {
+            mappedFile.queryRegion(region, itemLoader, items, 0);
+        }
+    }
+
+    /**
+     * Maps the index file on first use, so that the file is never touched on the main thread.
+     */
+    @Nullable
+    private MappedFile getMappedFile() {
+        MappedFile mappedFile = this.mappedFile;
+        if (mappedFile == null && file.exists()) {
+            synchronized (this) {
+                mappedFile = this.mappedFile;
+                if (mappedFile == null) {
+                    try {
+                        mappedFile = MappedFile.open(file);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Failed to open the index " + file, e);
+                    }
+                    this.mappedFile = mappedFile;
+                }
+            }
+        }
+        return mappedFile;
+    }
+
+    /**
+     * The memory-mapped contents of an index file.
+     */
+    private static final class MappedFile {
+
+        private final ByteBuffer buffer;
+        private final int itemCount;
+        private final int codesOffset;
+        private final int idsOffset;
+        private final int nodesOffset;
+
+        private MappedFile(@NonNull ByteBuffer buffer) throws IOException {
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not an index file");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported index version " + buffer.getInt(4));
+            }
+
+            this.buffer = buffer;
+            this.itemCount = buffer.getInt(8);
+            this.codesOffset = HEADER_SIZE;
+            this.idsOffset = codesOffset + itemCount * CODE_SIZE;
+            this.nodesOffset = idsOffset + itemCount * ID_SIZE;
+
+            if (buffer.capacity() != nodesOffset + buffer.getInt(12) * NODE_SIZE) {
+                throw new IOException("Truncated index file");
+            }
+        }
+
+        @NonNull
+        static MappedFile open(@NonNull File file) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                // The mapping stays valid after the file is closed.
+                return new MappedFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        void aggregateNode(@NonNull TileBuckets buckets, int node) {
+            int offset = nodesOffset + node * NODE_SIZE;
+            int level = buffer.getInt(offset);
+            long quadX = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+            long quadY = buffer.getInt(offset + 8) & 0xFFFFFFFFL;
+            int from = buffer.getInt(offset + 12);
+            int to = buffer.getInt(offset + 16);
+            int firstChild = buffer.getInt(offset + 20);
+
+            if (from >= to) {
+                return;
+            }
+
+            double west = MortonCodes.quadWest(quadX);
+            double east = MortonCodes.quadEast(quadX, level);
+            double south = MortonCodes.quadSouth(quadY);
+            double north = MortonCodes.quadNorth(quadY, level);
+
+            // Automatically abort if the quad does not intersect the tiles.
+            if (west > buckets.east || east < buckets.west || north < buckets.south || south > buckets.north) {
+                return;
+            }
+
+            // Use the aggregates of the node, if the quad lies inside a single tile.
+            if (buckets.addIfInsideTile(north, west, south, east, to - from,
+                    buffer.getDouble(offset + 24), buffer.getDouble(offset + 32), null)) {
+                return;
+            }
+
+            // Add the items of leaves to their tiles one by one.
+            if (firstChild < 0) {
+                for (int i = from; i < to; i++) {
+                    long code = getCode(i);
+                    buckets.add(decodeLatitude(code), decodeLongitude(code));
+                }
+                return;
+            }
+
+            for (int child = firstChild; child < firstChild + 4; child++) {
+                aggregateNode(buckets, child);
+            }
+        }
+
+        <T extends ClusterItem> void queryNode(double stepLatitude, double stepLongitude, long tileX, long tileY,
+                                               @NonNull MappedClusterAlgorithm.ItemLoader<T> itemLoader,
+                                               @NonNull List<T> items, int node) {
+            int offset = nodesOffset + node * NODE_SIZE;
+            int level = buffer.getInt(offset);
+            long quadX = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+            long quadY = buffer.getInt(offset + 8) & 0xFFFFFFFFL;
+            int from = buffer.getInt(offset + 12);
+            int to = buffer.getInt(offset + 16);
+            int firstChild = buffer.getInt(offset + 20);
+
+            if (from >= to) {
+                return;
+            }
+
+            long westTileX = TileBuckets.tileX(MortonCodes.quadWest(quadX), stepLongitude);
+            long eastTileX = TileBuckets.tileX(MortonCodes.quadEast(quadX, level), stepLongitude);
+            long northTileY = TileBuckets.tileY(MortonCodes.quadNorth(quadY, level), stepLatitude);
+            long southTileY = TileBuckets.tileY(MortonCodes.quadSouth(quadY), stepLatitude);
+
+            // Automatically abort if the quad does not overlap the tile.
+            if (westTileX > tileX || eastTileX < tileX || northTileY > tileY || southTileY < tileY) {
+                return;
+            }
+
+            // Add the whole interval, if the quad lies inside the tile.
+            if (westTileX == eastTileX && northTileY == southTileY) {
+                for (int i = from; i < to; i++) {
+                    items.add(itemLoader.loadItem(getId(i)));
+                }
+                return;
+            }
+
+            // Check the items of leaves one by one.
+            if (firstChild < 0) {
+                for (int i = from; i < to; i++) {
+                    long code = getCode(i);
+                    if (TileBuckets.tileX(decodeLongitude(code), stepLongitude) == tileX
+                            && TileBuckets.tileY(decodeLatitude(code), stepLatitude) == tileY) {
+                        items.add(itemLoader.loadItem(getId(i)));
+                    }
+                }
+                return;
+            }
+
+            for (int child = firstChild; child < firstChild + 4; child++) {
+                queryNode(stepLatitude, stepLongitude, tileX, tileY, itemLoader, items, child);
+            }
+        }
+
+        /**
+         * Counts the items of the given node or its children that lie inside the region
+         * and loads them into the given list, if any.
+         */
+        <T extends ClusterItem> int queryRegion(@NonNull Region region,
+                                                @NonNull MappedClusterAlgorithm.ItemLoader<T> itemLoader,
+                                                @Nullable List<T> items, int node) {
+            int offset = nodesOffset + node * NODE_SIZE;
+            int level = buffer.getInt(offset);
+            long quadX = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+            long quadY = buffer.getInt(offset + 8) & 0xFFFFFFFFL;
+            int from = buffer.getInt(offset + 12);
+            int to = buffer.getInt(offset + 16);
+            int firstChild = buffer.getInt(offset + 20);
+
+            if (from >= to) {
+                return 0;
+            }
+
+            int location = region.classify(MortonCodes.quadNorth(quadY, level), MortonCodes.quadWest(quadX),
+                    MortonCodes.quadSouth(quadY), MortonCodes.quadEast(quadX, level));
+            if (location == Region.OUTSIDE) {
+                return 0;
+            }
+
+            // Use the count of the node, if the quad lies inside the region.
+            if (location == Region.INSIDE) {
+                if (items != null) {
+                    for (int i = from; i < to; i++) {
+                        items.add(itemLoader.loadItem(getId(i)));
+                    }
+                }
+                return to - from;
+            }
+
+            // Check the items of leaves one by one.
+            if (firstChild < 0) {
+                int count = 0;
+                for (int i = from; i < to; i++) {
+                    long code = getCode(i);
+                    if (region.contains(decodeLatitude(code), decodeLongitude(code))) {
+                        count++;
+                        if (items != null) {
+                            items.add(itemLoader.loadItem(getId(i)));
+                        }
+                    }
+                }
+                return count;
+            }
+
+            int count = 0;
+            for (int child = firstChild; child < firstChild + 4; child++) {
+                count += queryRegion(region, itemLoader, items, child);
+            }
+            return count;
+        }
+
+        /**
+         * Adds the items of the given node or its children to the search. Items are added
+         * by their ids, so only the nearest ones are loaded.
+         */
+        void expandNearest(@NonNull NearestSearch<?> search, int node) {
+            int offset = nodesOffset + node * NODE_SIZE;
+            int from = buffer.getInt(offset + 12);
+            int to = buffer.getInt(offset + 16);
+            int firstChild = buffer.getInt(offset + 20);
+
+            if (firstChild < 0) {
+                for (int i = from; i < to; i++) {
+                    long code = getCode(i);
+                    search.addItem(getId(i), decodeLatitude(code), decodeLongitude(code));
+                }
+                return;
+            }
+
+            for (int child = firstChild; child < firstChild + 4; child++) {
+                addToSearch(search, child);
+            }
+        }
+
+        void addToSearch(@NonNull NearestSearch<?> search, int node) {
+            int offset = nodesOffset + node * NODE_SIZE;
+            int level = buffer.getInt(offset);
+            long quadX = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+            long quadY = buffer.getInt(offset + 8) & 0xFFFFFFFFL;
+            if (buffer.getInt(offset + 12) < buffer.getInt(offset + 16)) {
+                search.addNode(node, MortonCodes.quadNorth(quadY, level), MortonCodes.quadWest(quadX),
+                        MortonCodes.quadSouth(quadY), MortonCodes.quadEast(quadX, level));
+            }
+        }
+
+        private long getCode(int index) {
+            return buffer.getLong(codesOffset + index * CODE_SIZE);
+        }
+
+        private int getId(int index) {
+            return buffer.getInt(idsOffset + index * ID_SIZE);
+        }
+    }
+
+    /**
+     * Builds the nodes of an index file in memory.
+     */
+    private static final class NodeWriter {
+
+        private static final int INTS_PER_NODE = 6;
+        private static final int DOUBLES_PER_NODE = 2;
+
+        private int[] ints = new int[64 * INTS_PER_NODE];
+        private double[] doubles = new double[64 * DOUBLES_PER_NODE];
+        private int count;
+
+        /**
+         * Reserves the given number of consecutive nodes and returns the index of the first one.
+         */
+        int reserve(int nodeCount) {
+            int first = count;
+            count += nodeCount;
+            if (count * INTS_PER_NODE > ints.length) {
+                int capacity = Math.max(count, count * 3 / 2);
+                ints = Arrays.copyOf(ints, capacity * INTS_PER_NODE);
+                doubles = Arrays.copyOf(doubles, capacity * DOUBLES_PER_NODE);
+            }
+            return first;
+        }
+
+        /**
+         * Builds the given node for the codes in [from, to) inside the quad with the given level and origin.
+         */
+        void build(@NonNull long[] codes, int node, int level, long quadX, long quadY, int from, int to) {
+            int firstChild = -1;
+            double latitudeSum = 0;
+            double longitudeSum = 0;
+
+            if (to - from <= LEAF_CAPACITY || level == BITS) {
+                for (int i = from; i < to; i++) {
+                    latitudeSum += decodeLatitude(codes[i]);
+                    longitudeSum += decodeLongitude(codes[i]);
+                }
+            } else {
+                long half = MortonCodes.quadSize(level) >>> 1;
+                int southEastFrom = lowerBound(codes, from, to, interleave(quadX + half, quadY));
+                int northWestFrom = lowerBound(codes, southEastFrom, to, interleave(quadX, quadY + half));
+                int northEastFrom = lowerBound(codes, northWestFrom, to, interleave(quadX + half, quadY + half));
+
+                firstChild = reserve(4);
+                build(codes, firstChild, level + 1, quadX, quadY, from, southEastFrom);
+                build(codes, firstChild + 1, level + 1, quadX + half, quadY, southEastFrom, northWestFrom);
+                build(codes, firstChild + 2, level + 1, quadX, quadY + half, northWestFrom, northEastFrom);
+                build(codes, firstChild + 3, level + 1, quadX + half, quadY + half, northEastFrom, to);
+
+                for (int child = firstChild; child < firstChild + 4; child++) {
+                    latitudeSum += doubles[child * DOUBLES_PER_NODE];
+                    longitudeSum += doubles[child * DOUBLES_PER_NODE + 1];
+                }
+            }
+
+            int intOffset = node * INTS_PER_NODE;
+            ints[intOffset] = level;
+            ints[intOffset + 1] = (int) quadX;
+            ints[intOffset + 2] = (int) quadY;
+            ints[intOffset + 3] = from;
+            ints[intOffset + 4] = to;
+            ints[intOffset + 5] = firstChild;
+            doubles[node * DOUBLES_PER_NODE] = latitudeSum;
+            doubles[node * DOUBLES_PER_NODE + 1] = longitudeSum;
+        }
+
+        void writeTo(@NonNull DataOutputStream output) throws IOException {
+            for (int node = 0; node < count; node++) {
+                for (int i = 0; i < INTS_PER_NODE; i++) {
+                    output.writeInt(ints[node * INTS_PER_NODE + i]);
+                }
+                for (int i = 0; i < DOUBLES_PER_NODE; i++) {
+                    output.writeDouble(doubles[node * DOUBLES_PER_NODE + i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package net.sharewire.googlemapsclustering;
+
+/**
+ * Estimated sizes of objects on the heap of ART, which uses 32-bit references,
+ * used to report how much memory is freed when memory is trimmed.
+ */
+final class MemorySizes {
+
+    static final int REFERENCE_BYTES = 4;
+    static final int ARRAY_HEADER_BYTES = 16;
+    static final int ARRAY_LIST_BYTES = 24;
+
+    /**
+     * Returns the estimated size of an array of the given length and element size.
+     */
+    static long arrayBytes(int length, int elementBytes) {
+        return ARRAY_HEADER_BYTES + (long) length * elementBytes;
+    }
+
+    private MemorySizes() {
+    }
+}
@@ -0,0 +1,22 @@
+package net.sharewire.googlemapsclustering;
+
+/**
+ * The clustering algorithm that keeps items in a compact index of Morton-coded,
+ * fixed-point coordinates instead of a quad tree. It needs much less memory and
+ * builds the index faster for large data sets, but it has to scan the items of
+ * large tiles, so clustering at low zoom levels is slower. Cluster positions are
+ * computed from coordinates rounded to less than a centimeter.
+ * <p>
+ * The index costs about 12 bytes per item, a <code>long</code> code and a reference, on top of
+ * the items themselves. Setting items temporarily needs about twice as much, and adding items
+ * copies the whole index.
+ *
+ * @param <T> the type of an item to be clustered
+ */
+public class MortonClusterAlgorithm<T extends ClusterItem> extends ClusterAlgorithm<T> {
+
+    @SuppressWarnings("WeakerAccess")
+    public MortonClusterAlgorithm() {
+        super(new MortonIndex<T>());
+    }
+}
@@ -0,0 +1,176 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Morton codes (Z-order) of fixed-point coordinates.
+ * <p>
+ * Latitude and longitude are quantized into 32-bit fixed-point integers, which gives
+ * a precision of 180 / 2^32 degrees (about 4.7 mm) for latitude and 360 / 2^32 degrees
+ * (about 9.3 mm at the equator) for longitude. Both integers are interleaved into
+ * a 64-bit code, so that every quad of the implicit quad tree over the quantized
+ * coordinates is a contiguous interval of the sorted codes. The sign bit of the codes
+ * is flipped, so that the signed order of the codes matches the Z-order.
+ */
+final class MortonCodes {
+
+    static final int BITS = 32;
+    static final double LATITUDE_SCALE = 180.0 / (1L << BITS);
+    static final double LONGITUDE_SCALE = 360.0 / (1L << BITS);
+
+    private static final long MAX_QUANTIZED = (1L << BITS) - 1;
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    static long encode(double latitude, double longitude) {
+        return interleave(quantize((longitude + 180.0) / LONGITUDE_SCALE),
+                quantize((latitude + 90.0) / LATITUDE_SCALE));
+    }
+
+    /**
+     * Returns the code of the point with the given quantized coordinates.
+     */
+    static long interleave(long x, long y) {
+        return (spread(x) | (spread(y) << 1)) ^ Long.MIN_VALUE;
+    }
+
+    static double decodeLatitude(long code) {
+        return compact((code ^ Long.MIN_VALUE) >>> 1) * LATITUDE_SCALE - 90.0;
+    }
+
+    static double decodeLongitude(long code) {
+        return compact(code ^ Long.MIN_VALUE) * LONGITUDE_SCALE - 180.0;
+    }
+
+    /**
+     * Returns the size of a quad at the given level, in quantized units.
+     */
+    static long quadSize(int level) {
+        return 1L << (BITS - level);
+    }
+
+    static double quadWest(long quadX) {
+        return quadX * LONGITUDE_SCALE - 180.0;
+    }
+
+    static double quadEast(long quadX, int level) {
+        return (quadX + quadSize(level) - 1) * LONGITUDE_SCALE - 180.0;
+    }
+
+    static double quadSouth(long quadY) {
+        return quadY * LATITUDE_SCALE - 90.0;
+    }
+
+    static double quadNorth(long quadY, int level) {
+        return (quadY + quadSize(level) - 1) * LATITUDE_SCALE - 90.0;
+    }
+
+    /**
+     * Returns the index of the first code in [from, to) that is not less than the given one.
+     */
+    static int lowerBound(@NonNull long[] codes, int from, int to, long code) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (codes[middle] < code) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Sorts the codes using a three-way quicksort, which handles many items with the same
+     * position well, and returns the original indices of the sorted codes.
+     */
+    @NonNull
+    static int[] sort(@NonNull long[] codes) {
+        int[] order = new int[codes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        sort(codes, order, 0, codes.length - 1);
+        return order;
+    }
+
+    private static long quantize(double value) {
+        long quantized = (long) value;
+        return quantized < 0 ? 0 : quantized > MAX_QUANTIZED ? MAX_QUANTIZED : quantized;
+    }
+
+    private static long spread(long value) {
+        value &= 0x00000000FFFFFFFFL;
+        value = (value | (value << 16)) & 0x0000FFFF0000FFFFL;
+        value = (value | (value << 8)) & 0x00FF00FF00FF00FFL;
+        value = (value | (value << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | (value << 2)) & 0x3333333333333333L;
+        value = (value | (value << 1)) & 0x5555555555555555L;
+        return value;
+    }
+
+    private static long compact(long value) {
+        value &= 0x5555555555555555L;
+        value = (value | (value >>> 1)) & 0x3333333333333333L;
+        value = (value | (value >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | (value >>> 4)) & 0x00FF00FF00FF00FFL;
+        value = (value | (value >>> 8)) & 0x0000FFFF0000FFFFL;
+        value = (value | (value >>> 16)) & 0x00000000FFFFFFFFL;
+        return value;
+    }
+
+    private static void sort(long[] codes, int[] order, int low, int high) {
+        while (high - low > INSERTION_SORT_THRESHOLD) {
+            long pivot = median(codes[low], codes[(low + high) >>> 1], codes[high]);
+
+            int lessThan = low;
+            int greaterThan = high;
+            int i = low;
+            while (i <= greaterThan) {
+                if (codes[i] < pivot) {
+                    swap(codes, order, lessThan++, i++);
+                } else if (codes[i] > pivot) {
+                    swap(codes, order, i, greaterThan--);
+                } else {
+                    i++;
+                }
+            }
+
+            // Recurse into the smaller part to bound the stack depth.
+            if (lessThan - low < high - greaterThan) {
+                sort(codes, order, low, lessThan - 1);
+                low = greaterThan + 1;
+            } else {
+                sort(codes, order, greaterThan + 1, high);
+                high = lessThan - 1;
+            }
+        }
+
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && codes[j - 1] > codes[j]; j--) {
+                swap(codes, order, j - 1, j);
+            }
+        }
+    }
+
+    private static long median(long first, long second, long third) {
+        if (first < second) {
+            return second < third ? second : first < third ? third : first;
+        } else {
+            return first < third ? first : second < third ? third : second;
+        }
+    }
+
+    private static void swap(long[] codes, int[] order, int first, int second) {
+        long code = codes[first];
+        codes[first] = codes[second];
+        codes[second] = code;
+
+        int index = order[first];
+        order[first] = order[second];
+        order[second] = index;
+    }
+
+    private MortonCodes() {
+    }
+}
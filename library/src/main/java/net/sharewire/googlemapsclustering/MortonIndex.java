@@ -0,0 +1,432 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.sharewire.googlemapsclustering.MortonCodes.BITS;
+import static net.sharewire.googlemapsclustering.MortonCodes.decodeLatitude;
+import static net.sharewire.googlemapsclustering.MortonCodes.decodeLongitude;
+import static net.sharewire.googlemapsclustering.MortonCodes.interleave;
+import static net.sharewire.googlemapsclustering.MortonCodes.lowerBound;
+
+/**
+ * A compact index that keeps items sorted by the Morton code of their position
+ * (see {@link MortonCodes}). Range queries become binary searches and integer scans
+ * that never call {@link ClusterItem#getPosition()}. An indexed item costs
+ * a <code>long</code> code and a reference to the item, and there are no per-node objects.
+ * Filtered queries check the items one by one.
+ */
+class MortonIndex<T extends ClusterItem> implements ReducingIndex<T> {
+
+    // Quads with fewer items are scanned instead of being split further.
+    private static final int SCAN_THRESHOLD = 16;
+
+    private volatile Snapshot<T> snapshot = new Snapshot<>(new long[0], new Object[0]);
+
+    @Override
+    public void setItems(@NonNull List<T> items) {
+        long[] codes = new long[items.size()];
+
+        int index = 0;
+        for (T item : items) {
+            codes[index++] = MortonCodes.encode(item.getPosition().latitude, item.getPosition().longitude);
+        }
+
+        int[] order = MortonCodes.sort(codes);
+
+        Object[] unsortedItems = items.toArray();
+        Object[] sortedItems = new Object[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedItems[i] = unsortedItems[order[i]];
+        }
+
+        snapshot = new Snapshot<>(codes, sortedItems);
+    }
+
+    @Override
+    public void addItems(@NonNull List<T> items) {
+        long[] codes = new long[items.size()];
+
+        int index = 0;
+        for (T item : items) {
+            codes[index++] = MortonCodes.encode(item.getPosition().latitude, item.getPosition().longitude);
+        }
+
+        int[] order = MortonCodes.sort(codes);
+        Object[] unsortedItems = items.toArray();
+
+        // Merge the sorted new items into a new snapshot.
+        Snapshot<T> snapshot = this.snapshot;
+        int size = snapshot.codes.length + codes.length;
+        long[] mergedCodes = new long[size];
+        Object[] mergedItems = new Object[size];
+
+        int oldIndex = 0;
+        int newIndex = 0;
+        for (int i = 0; i < size; i++) {
+            if (newIndex == codes.length
+                    || (oldIndex < snapshot.codes.length && snapshot.codes[oldIndex] <= codes[newIndex])) {
+                mergedCodes[i] = snapshot.codes[oldIndex];
+                mergedItems[i] = snapshot.items[oldIndex];
+                oldIndex++;
+            } else {
+                mergedCodes[i] = codes[newIndex];
+                mergedItems[i] = unsortedItems[order[newIndex]];
+                newIndex++;
+            }
+        }
+
+        this.snapshot = new Snapshot<>(mergedCodes, mergedItems);
+    }
+
+    /**
+     * Does nothing, because the index has no nodes and reduces the items of an interval
+     * when they are aggregated, the same as it sums up their coordinates.
+     */
+    @Override
+    public void setReducer(@Nullable ClusterReducer<T, Object> reducer) {
+    }
+
+    /**
+     * Does nothing, because the index is already compact and keeps no caches.
+     */
+    @Override
+    public long trimMemory(int level) {
+        return 0;
+    }
+
+    /**
+     * Returns the indexed items in the order of their codes.
+     */
+    @NonNull
+    List<T> getItems() {
+        Snapshot<T> snapshot = this.snapshot;
+        List<T> items = new ArrayList<>(snapshot.items.length);
+        for (Object item : snapshot.items) {
+            //noinspection unchecked
+            items.add((T) item);
+        }
+        return items;
+    }
+
+    /**
+     * Returns the estimated size of the codes and of the references to the items.
+     */
+    long estimateBytes() {
+        int size = snapshot.codes.length;
+        return MemorySizes.arrayBytes(size, 8) + MemorySizes.arrayBytes(size, MemorySizes.REFERENCE_BYTES);
+    }
+
+    @Override
+    public void aggregateTiles(@NonNull TileBuckets buckets, @NonNull ItemFilter filter) {
+        Snapshot<T> snapshot = this.snapshot;
+        snapshot.aggregateQuad(buckets, filter, 0, 0, 0, 0, snapshot.codes.length);
+    }
+
+    @Override
+    public void queryTile(double stepLatitude, double stepLongitude, long tileX, long tileY, @NonNull ItemFilter filter,
+                          @NonNull List<T> items) {
+        Snapshot<T> snapshot = this.snapshot;
+        snapshot.queryTile(stepLatitude, stepLongitude, tileX, tileY, filter, items);
+    }
+
+    @NonNull
+    @Override
+    public List<T> tileView(final double stepLatitude, final double stepLongitude,
+                            final long tileX, final long tileY, @NonNull final ItemFilter filter, int expectedSize) {
+        final Snapshot<T> snapshot = this.snapshot;
+        return new LazyItemList<T>(expectedSize) {
+            @Override
+            void queryItems(@NonNull List<T> items) {
+                snapshot.queryTile(stepLatitude, stepLongitude, tileX, tileY, filter, items);
+            }
+        };
+    }
+
+    @Override
+    public void queryNearest(double latitude, double longitude, int count, double maxDistance,
+                             @NonNull ItemFilter filter, @NonNull List<T> items) {
+        Snapshot<T> snapshot = this.snapshot;
+        snapshot.queryNearest(latitude, longitude, count, maxDistance, filter, items);
+    }
+
+    @Override
+    public int countRegion(@NonNull Region region, @NonNull ItemFilter filter) {
+        Snapshot<T> snapshot = this.snapshot;
+        return snapshot.queryRegion(region, filter, null, 0, 0, 0, 0, snapshot.codes.length);
+    }
+
+    @Override
+    public void queryRegion(@NonNull Region region, @NonNull ItemFilter filter, @NonNull List<T> items) {
+        Snapshot<T> snapshot = this.snapshot;
+        snapshot.queryRegion(region, filter, items, 0, 0, 0, 0, snapshot.codes.length);
+    }
+
+    /**
+     * The sorted codes and items. A snapshot is never modified, so lazy views
+     * keep working after the items are replaced.
+     */
+    private static final class Snapshot<T extends ClusterItem> {
+
+        final long[] codes;
+        final Object[] items;
+
+        Snapshot(@NonNull long[] codes, @NonNull Object[] items) {
+            this.codes = codes;
+            this.items = items;
+        }
+
+        private boolean matches(int index, @NonNull ItemFilter filter) {
+            return filter.isAll() || filter.matches((ClusterItem) items[index]);
+        }
+
+        /**
+         * Aggregates the codes in [from, to) that lie in the quad with the given level and origin.
+         */
+        void aggregateQuad(@NonNull TileBuckets buckets, @NonNull ItemFilter filter,
+                           int level, long quadX, long quadY, int from, int to) {
+            if (from >= to) {
+                return;
+            }
+
+            double west = MortonCodes.quadWest(quadX);
+            double east = MortonCodes.quadEast(quadX, level);
+            double south = MortonCodes.quadSouth(quadY);
+            double north = MortonCodes.quadNorth(quadY, level);
+
+            // Automatically abort if the quad does not intersect the tiles.
+            if (west > buckets.east || east < buckets.west || north < buckets.south || south > buckets.north) {
+                return;
+            }
+
+            // Sum up the interval, if the quad lies inside a single tile.
+            if (buckets.isInsideTile(north, west, south, east)) {
+                int count = 0;
+                double latitudeSum = 0;
+                double longitudeSum = 0;
+                Object aggregate = buckets.identity();
+                for (int i = from; i < to; i++) {
+                    if (matches(i, filter)) {
+                        count++;
+                        latitudeSum += decodeLatitude(codes[i]);
+                        longitudeSum += decodeLongitude(codes[i]);
+                        if (buckets.hasReducer()) {
+                            aggregate = buckets.reduce(aggregate, (ClusterItem) items[i]);
+                        }
+                    }
+                }
+                buckets.addIfInsideTile(north, west, south, east, count, latitudeSum, longitudeSum, aggregate);
+                return;
+            }
+
+            // Add the items of small quads to their tiles one by one.
+            if (to - from <= SCAN_THRESHOLD || level == BITS) {
+                for (int i = from; i < to; i++) {
+                    if (matches(i, filter)) {
+                        buckets.add((ClusterItem) items[i], decodeLatitude(codes[i]), decodeLongitude(codes[i]));
+                    }
+                }
+                return;
+            }
+
+            // Otherwise, split the interval between the children.
+            long half = MortonCodes.quadSize(level) >>> 1;
+            int southEastFrom = lowerBound(codes, from, to, interleave(quadX + half, quadY));
+            int northWestFrom = lowerBound(codes, southEastFrom, to, interleave(quadX, quadY + half));
+            int northEastFrom = lowerBound(codes, northWestFrom, to, interleave(quadX + half, quadY + half));
+
+            aggregateQuad(buckets, filter, level + 1, quadX, quadY, from, southEastFrom);
+            aggregateQuad(buckets, filter, level + 1, quadX + half, quadY, southEastFrom, northWestFrom);
+            aggregateQuad(buckets, filter, level + 1, quadX, quadY + half, northWestFrom, northEastFrom);
+            aggregateQuad(buckets, filter, level + 1, quadX + half, quadY + half, northEastFrom, to);
+        }
+
+        void queryNearest(double latitude, double longitude, int count, double maxDistance,
+                          @NonNull final ItemFilter filter, @NonNull List<T> items) {
+            NearestSearch<T> search = new NearestSearch<T>(latitude, longitude, count, maxDistance) {
+                @Override
+                void expand(@NonNull Object node) {
+                    expandNearest(this, filter, (Quad) node);
+                }
+            };
+            addToSearch(search, new Quad(0, 0, 0, 0, codes.length));
+            search.run(items);
+        }
+
+        private void expandNearest(@NonNull NearestSearch<T> search, @NonNull ItemFilter filter, @NonNull Quad quad) {
+            // Add the items of small quads one by one.
+            if (quad.to - quad.from <= SCAN_THRESHOLD || quad.level == BITS) {
+                for (int i = quad.from; i < quad.to; i++) {
+                    if (matches(i, filter)) {
+                        search.addItem(items[i], decodeLatitude(codes[i]), decodeLongitude(codes[i]));
+                    }
+                }
+                return;
+            }
+
+            // Otherwise, split the interval between the children.
+            long half = MortonCodes.quadSize(quad.level) >>> 1;
+            int southEastFrom = lowerBound(codes, quad.from, quad.to, interleave(quad.x + half, quad.y));
+            int northWestFrom = lowerBound(codes, southEastFrom, quad.to, interleave(quad.x, quad.y + half));
+            int northEastFrom = lowerBound(codes, northWestFrom, quad.to, interleave(quad.x + half, quad.y + half));
+
+            int level = quad.level + 1;
+            addToSearch(search, new Quad(level, quad.x, quad.y, quad.from, southEastFrom));
+            addToSearch(search, new Quad(level, quad.x + half, quad.y, southEastFrom, northWestFrom));
+            addToSearch(search, new Quad(level, quad.x, quad.y + half, northWestFrom, northEastFrom));
+            addToSearch(search, new Quad(level, quad.x + half, quad.y + half, northEastFrom, quad.to));
+        }
+
+        private void addToSearch(@NonNull NearestSearch<T> search, @NonNull Quad quad) {
+            if (quad.from < quad.to) {
+                search.addNode(quad, MortonCodes.quadNorth(quad.y, quad.level), MortonCodes.quadWest(quad.x),
+                        MortonCodes.quadSouth(quad.y), MortonCodes.quadEast(quad.x, quad.level));
+            }
+        }
+
+        /**
+         * Counts the items in [from, to) that lie in the quad with the given level and origin,
+         * lie inside the region and match the filter, and adds them to the given list, if any.
+         */
+        int queryRegion(@NonNull Region region, @NonNull ItemFilter filter, @Nullable List<T> items,
+                        int level, long quadX, long quadY, int from, int to) {
+            if (from >= to) {
+                return 0;
+            }
+
+            int location = region.classify(MortonCodes.quadNorth(quadY, level), MortonCodes.quadWest(quadX),
+                    MortonCodes.quadSouth(quadY), MortonCodes.quadEast(quadX, level));
+            if (location == Region.OUTSIDE) {
+                return 0;
+            }
+
+            // Count the whole interval, if the quad lies inside the region and no item is filtered out.
+            if (location == Region.INSIDE && filter.isAll()) {
+                if (items != null) {
+                    for (int i = from; i < to; i++) {
+                        //noinspection unchecked
+                        items.add((T) this.items[i]);
+                    }
+                }
+                return to - from;
+            }
+
+            // Check the items one by one, if the quad lies inside the region or is small.
+            if (location == Region.INSIDE || to - from <= SCAN_THRESHOLD || level == BITS) {
+                int count = 0;
+                for (int i = from; i < to; i++) {
+                    if (matches(i, filter) && (location == Region.INSIDE
+                            || region.contains(decodeLatitude(codes[i]), decodeLongitude(codes[i])))) {
+                        count++;
+                        if (items != null) {
+                            //noinspection unchecked
+                            items.add((T) this.items[i]);
+                        }
+                    }
+                }
+                return count;
+            }
+
+            // Otherwise, split the interval between the children.
+            long half = MortonCodes.quadSize(level) >>> 1;
+            int southEastFrom = lowerBound(codes, from, to, interleave(quadX + half, quadY));
+            int northWestFrom = lowerBound(codes, southEastFrom, to, interleave(quadX, quadY + half));
+            int northEastFrom = lowerBound(codes, northWestFrom, to, interleave(quadX + half, quadY + half));
+
+            return queryRegion(region, filter, items, level + 1, quadX, quadY, from, southEastFrom)
+                    + queryRegion(region, filter, items, level + 1, quadX + half, quadY, southEastFrom, northWestFrom)
+                    + queryRegion(region, filter, items, level + 1, quadX, quadY + half, northWestFrom, northEastFrom)
+                    + queryRegion(region, filter, items, level + 1, quadX + half, quadY + half, northEastFrom, to);
+        }
+
+        void queryTile(double stepLatitude, double stepLongitude, long tileX, long tileY, @NonNull ItemFilter filter,
+                       @NonNull List<T> items) {
+            queryQuad(stepLatitude, stepLongitude, tileX, tileY, filter, items, 0, 0, 0, 0, codes.length);
+        }
+
+        /**
+         * Adds the items in [from, to) that lie in the given quad, belong to the given tile
+         * and match the filter.
+         */
+        private void queryQuad(double stepLatitude, double stepLongitude, long tileX, long tileY,
+                               @NonNull ItemFilter filter, @NonNull List<T> items,
+                               int level, long quadX, long quadY, int from, int to) {
+            if (from >= to) {
+                return;
+            }
+
+            long westTileX = TileBuckets.tileX(MortonCodes.quadWest(quadX), stepLongitude);
+            long eastTileX = TileBuckets.tileX(MortonCodes.quadEast(quadX, level), stepLongitude);
+            long northTileY = TileBuckets.tileY(MortonCodes.quadNorth(quadY, level), stepLatitude);
+            long southTileY = TileBuckets.tileY(MortonCodes.quadSouth(quadY), stepLatitude);
+
+            // Automatically abort if the quad does not overlap the tile.
+            if (westTileX > tileX || eastTileX < tileX || northTileY > tileY || southTileY < tileY) {
+                return;
+            }
+
+            // Add the whole interval, if the quad lies inside the tile.
+            if (westTileX == eastTileX && northTileY == southTileY) {
+                for (int i = from; i < to; i++) {
+                    if (matches(i, filter)) {
+                        //noinspection unchecked
+                        items.add((T) this.items[i]);
+                    }
+                }
+                return;
+            }
+
+            // Check the items of small quads one by one.
+            if (to - from <= SCAN_THRESHOLD || level == BITS) {
+                for (int i = from; i < to; i++) {
+                    long code = codes[i];
+                    if (TileBuckets.tileX(decodeLongitude(code), stepLongitude) == tileX
+                            && TileBuckets.tileY(decodeLatitude(code), stepLatitude) == tileY
+                            && matches(i, filter)) {
+                        //noinspection unchecked
+                        items.add((T) this.items[i]);
+                    }
+                }
+                return;
+            }
+
+            // Otherwise, split the interval between the children.
+            long half = MortonCodes.quadSize(level) >>> 1;
+            int southEastFrom = lowerBound(codes, from, to, interleave(quadX + half, quadY));
+            int northWestFrom = lowerBound(codes, southEastFrom, to, interleave(quadX, quadY + half));
+            int northEastFrom = lowerBound(codes, northWestFrom, to, interleave(quadX + half, quadY + half));
+
+            queryQuad(stepLatitude, stepLongitude, tileX, tileY, filter, items,
+                    level + 1, quadX, quadY, from, southEastFrom);
+            queryQuad(stepLatitude, stepLongitude, tileX, tileY, filter, items,
+                    level + 1, quadX + half, quadY, southEastFrom, northWestFrom);
+            queryQuad(stepLatitude, stepLongitude, tileX, tileY, filter, items,
+                    level + 1, quadX, quadY + half, northWestFrom, northEastFrom);
+            queryQuad(stepLatitude, stepLongitude, tileX, tileY, filter, items,
+                    level + 1, quadX + half, quadY + half, northEastFrom, to);
+        }
+    }
+
+    /**
+     * A quad and the interval of its codes, expanded by a nearest search.
+     */
+    private static final class Quad {
+
+        final int level;
+        final long x;
+        final long y;
+        final int from;
+        final int to;
+
+        Quad(int level, long x, long y, int from, int to) {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A best-first search for the items nearest to a position. An index adds its nodes with
+ * the distance to their bounds, which no item inside can be closer than, and the items
+ * of a node when it's expanded. Nodes and items are taken from a queue in the order
+ * of their distance, so the first items taken are the nearest ones, and nodes farther
+ * than the last item needed are never expanded.
+ *
+ * @param <T> the type of an item to be found
+ */
+abstract class NearestSearch<T extends ClusterItem> {
+
+    final double latitude;
+    final double longitude;
+    private final int count;
+    private final double maxDistance;
+    private final PriorityQueue<Candidate> queue = new PriorityQueue<>(64, new CandidateComparator());
+
+    /**
+     * @param count       the maximum number of items to be found
+     * @param maxDistance the maximum distance of items in meters
+     */
+    NearestSearch(double latitude, double longitude, int count, double maxDistance) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.count = count;
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * Adds the items of the given node and its children using {@link #addNode} and {@link #addItem}.
+     */
+    abstract void expand(@NonNull Object node);
+
+    /**
+     * Returns the item that was added with the given value.
+     */
+    @NonNull
+    T toItem(@NonNull Object value) {
+        //noinspection unchecked
+        return (T) value;
+    }
+
+    void addNode(@NonNull Object node, double north, double west, double south, double east) {
+        double distance = Distances.distanceToRect(latitude, longitude, north, west, south, east);
+        if (distance <= maxDistance) {
+            queue.add(new Candidate(distance, node, true));
+        }
+    }
+
+    void addItem(@NonNull Object item, double itemLatitude, double itemLongitude) {
+        double distance = Distances.distance(latitude, longitude, itemLatitude, itemLongitude);
+        if (distance <= maxDistance) {
+            queue.add(new Candidate(distance, item, false));
+        }
+    }
+
+    /**
+     * Adds the items found to the given list, from the nearest to the farthest one.
+     * The nodes to start from must have been added already.
+     */
+    void run(@NonNull List<T> items) {
+        int found = 0;
+        while (found < count && !queue.isEmpty()) {
+            Candidate candidate = queue.poll();
+            if (candidate.isNode) {
+                expand(candidate.value);
+            } else {
+                items.add(toItem(candidate.value));
+                found++;
+            }
+        }
+        queue.clear();
+    }
+
+    private static final class Candidate {
+
+        final double distance;
+        final Object value;
+        final boolean isNode;
+
+        Candidate(double distance, @NonNull Object value, boolean isNode) {
+            this.distance = distance;
+            this.value = value;
+            this.isNode = isNode;
+        }
+    }
+
+    private static final class CandidateComparator implements Comparator<Candidate> {
+
+        @Override
+        public int compare(Candidate first, Candidate second) {
+            // Items come before nodes at the same distance, so that they are returned first.
+            int result = Double.compare(first.distance, second.distance);
+            if (result == 0 && first.isNode != second.isNode) {
+                result = first.isNode ? 1 : -1;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.List;
+
+/**
+ * The region inside a simple polygon whose edges are straight lines in latitude and longitude
+ * and don't cross the 180th meridian.
+ */
+final class PolygonRegion implements Region {
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    // The bounding box of the polygon.
+    private double north = -90.0;
+    private double west = 180.0;
+    private double south = 90.0;
+    private double east = -180.0;
+
+    PolygonRegion(@NonNull List<LatLng> vertices) {
+        int size = vertices.size();
+        latitudes = new double[size];
+        longitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            LatLng vertex = vertices.get(i);
+            latitudes[i] = vertex.latitude;
+            longitudes[i] = vertex.longitude;
+            north = Math.max(north, vertex.latitude);
+            west = Math.min(west, vertex.longitude);
+            south = Math.min(south, vertex.latitude);
+            east = Math.max(east, vertex.longitude);
+        }
+    }
+
+    @Override
+    public int classify(double north, double west, double south, double east) {
+        if (west > this.east || east < this.west || north < this.south || south > this.north) {
+            return OUTSIDE;
+        }
+
+        // The rectangle is on one side of the border, unless an edge touches it.
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            if (intersects(longitudes[j], latitudes[j], longitudes[i], latitudes[i], north, west, south, east)) {
+                return PARTIAL;
+            }
+        }
+
+        return contains((north + south) / 2.0, (west + east) / 2.0) ? INSIDE : OUTSIDE;
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (longitude < west || longitude > east || latitude < south || latitude > north) {
+            return false;
+        }
+
+        // Count the edges crossed by a ray to the east of the point.
+        boolean inside = false;
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            if ((latitudes[i] > latitude) != (latitudes[j] > latitude)
+                    && longitude < (longitudes[j] - longitudes[i]) * (latitude - latitudes[i])
+                    / (latitudes[j] - latitudes[i]) + longitudes[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Checks whether the segment from (x1, y1) to (x2, y2) intersects the given rectangle,
+     * by intersecting the parameter ranges of the segment between both pairs of sides.
+     */
+    private static boolean intersects(double x1, double y1, double x2, double y2,
+                                      double north, double west, double south, double east) {
+        double start = 0.0;
+        double end = 1.0;
+
+        double dx = x2 - x1;
+        if (dx == 0.0) {
+            if (x1 < west || x1 > east) {
+                return false;
+            }
+        } else {
+            double westT = (west - x1) / dx;
+            double eastT = (east - x1) / dx;
+            start = Math.max(start, Math.min(westT, eastT));
+            end = Math.min(end, Math.max(westT, eastT));
+        }
+
+        double dy = y2 - y1;
+        if (dy == 0.0) {
+            if (y1 < south || y1 > north) {
+                return false;
+            }
+        } else {
+            double southT = (south - y1) / dy;
+            double northT = (north - y1) / dy;
+            start = Math.max(start, Math.min(southT, northT));
+            end = Math.min(end, Math.max(southT, northT));
+        }
+
+        return start <= end;
+    }
+}
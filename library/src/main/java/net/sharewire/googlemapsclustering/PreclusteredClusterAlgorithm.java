@@ -0,0 +1,50 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.io.File;
+import java.util.List;
+
+import static net.sharewire.googlemapsclustering.Preconditions.checkNotNull;
+
+/**
+ * The clustering algorithm that reads clusters written by the precluster tool for low
+ * zoom levels and clusters items on the device only for the other zoom levels.
+ * <p>
+ * The tool writes the clusters of integer zoom levels, so for these zoom levels the camera zoom
+ * is rounded down. Items must still be set to display individual markers and to access the items
+ * of clusters. The clusters are only read while the items set have the same positions as the points
+ * preclustered, in any order, so that the clusters of other items are never displayed.
+ *
+ * @param <T> the type of an item to be clustered
+ */
+public class PreclusteredClusterAlgorithm<T extends ClusterItem> extends ClusterAlgorithm<T> {
+
+    private final PreclusteredIndex<T> mIndex;
+
+    /**
+     * Creates a new algorithm that reads clusters from the given directory.
+     *
+     * @param directory the output directory of the precluster tool
+     */
+    @SuppressWarnings("WeakerAccess")
+    public PreclusteredClusterAlgorithm(@NonNull File directory) {
+        this(new PreclusteredIndex<>(checkNotNull(directory), new QuadTree<T>(QuadTree.AUTO_BUCKET_SIZE)));
+    }
+
+    private PreclusteredClusterAlgorithm(@NonNull PreclusteredIndex<T> index) {
+        super(index);
+        mIndex = index;
+    }
+
+    @Override
+    public List<MarkerCluster<T>> getClusters(LatLngBounds latLngBounds, double zoomLevel) {
+        int preclusteredZoomLevel = (int) Math.floor(zoomLevel);
+        if (mIndex.isPreclustered(preclusteredZoomLevel)) {
+            return super.getClusters(latLngBounds, preclusteredZoomLevel);
+        }
+        return super.getClusters(latLngBounds, zoomLevel);
+    }
+}
@@ -0,0 +1,345 @@
+package net.sharewire.googlemapsclustering;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An index that reads the aggregates of tiles from cluster files written by the precluster
+ * tool for integer zoom levels, and delegates everything else to another index.
+ * <p>
+ * The tool writes a manifest named <code>manifest.bin</code> after all cluster files,
+ * which consists of the following big-endian values:
+ * <pre>
+ * int      magic number "GMCM"
+ * int      format version
+ * long     point count
+ * long     fingerprint of the positions
+ * int      zoom level count n
+ * int[n]   zoom levels
+ * </pre>
+ * The fingerprint is the sum of {@link #hashPosition(double, double)} of all points, so it doesn't
+ * depend on their order. The cluster files are only read for the zoom levels listed in the manifest,
+ * and only while the number and the fingerprint of the items set match the ones of the manifest.
+ * The manifest is read again whenever items are set, so that clusters written since then are used.
+ * <p>
+ * The tiles of a zoom level are the same as the ones {@link ClusterAlgorithm} uses for that zoom
+ * level. They are grouped into files of 64 x 64 tiles named <code>zoom/x/y.bin</code>, where
+ * x and y are the tile coordinates divided by 64. A file consists of the following big-endian values:
+ * <pre>
+ * int      magic number "GMCT"
+ * int      format version
+ * int      zoom level
+ * int      tile count n
+ * tile[n]  non-empty tiles
+ * </pre>
+ * Each tile consists of <code>int x, int y, int count, double latitude, double longitude</code>,
+ * where the latitude and the longitude are the average of the positions inside the tile.
+ */
+class PreclusteredIndex<T extends ClusterItem> implements ReducingIndex<T> {
+
+    private static final int MAGIC = 0x474D4354;
+    private static final int VERSION = 1;
+
+    private static final String MANIFEST_NAME = "manifest.bin";
+    private static final int MANIFEST_MAGIC = 0x474D434D;
+    private static final int MANIFEST_VERSION = 2;
+
+    private static final int FILE_TILE_SHIFT = 6;
+
+    private static final int MAX_CACHED_FILES = 64;
+
+    private static final int MAX_ZOOM_LEVEL = 30;
+
+    private final File directory;
+    private final ReducingIndex<T> index;
+    private final LruCache<String, TileFile> tileFiles = new LruCache<>(MAX_CACHED_FILES);
+    // The zoom levels, the point count and the fingerprint of the manifest, read when they are needed first.
+    private boolean[] preclusteredZoomLevels;
+    private long preclusteredItemCount;
+    private long preclusteredFingerprint;
+    private long itemCount;
+    private long itemFingerprint;
+
+    PreclusteredIndex(@NonNull File directory, @NonNull ReducingIndex<T> index) {
+        this.directory = directory;
+        this.index = index;
+    }
+
+    /**
+     * Checks whether the manifest lists the given zoom level and the items set are the ones preclustered.
+     */
+    synchronized boolean isPreclustered(int zoomLevel) {
+        if (zoomLevel < 0 || zoomLevel > MAX_ZOOM_LEVEL) {
+            return false;
+        }
+        if (preclusteredZoomLevels == null) {
+            readManifest();
+        }
+        return preclusteredZoomLevels[zoomLevel] && itemCount == preclusteredItemCount
+                && itemFingerprint == preclusteredFingerprint;
+    }
+
+    /**
+     * Sets the items and reads the manifest and the cluster files again when they are needed,
+     * in case the tool has been run again.
+     */
+    @Override
+    public void setItems(@NonNull List<T> items) {
+        index.setItems(items);
+        long fingerprint = fingerprint(items);
+        synchronized (this) {
+            itemCount = items.size();
+            itemFingerprint = fingerprint;
+            preclusteredZoomLevels = null;
+        }
+        tileFiles.evictAll();
+    }
+
+    @Override
+    public void addItems(@NonNull List<T> items) {
+        index.addItems(items);
+        long fingerprint = fingerprint(items);
+        synchronized (this) {
+            itemCount += items.size();
+            itemFingerprint += fingerprint;
+        }
+    }
+
+    /**
+     * Drops the cached cluster files and trims the index of the items.
+     */
+    @Override
+    public long trimMemory(int level) {
+        long freedBytes = 0;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            for (TileFile tileFile : tileFiles.snapshot().values()) {
+                freedBytes += tileFile.estimateBytes();
+            }
+            tileFiles.evictAll();
+        }
+        return freedBytes + index.trimMemory(level);
+    }
+
+    @Override
+    public void setReducer(@Nullable ClusterReducer<T, Object> reducer) {
+        index.setReducer(reducer);
+    }
+
+    @Override
+    public void aggregateTiles(@NonNull TileBuckets buckets, @NonNull ItemFilter filter) {
+        // Cluster files don't store categories, timestamps or reduced values,
+        // so filtered and reduced clusters are always computed on the device.
+        int zoomLevel = getZoomLevel(buckets.getStepLatitude());
+        if (!filter.isAll() || buckets.hasReducer() || !isPreclustered(zoomLevel)) {
+            index.aggregateTiles(buckets, filter);
+            return;
+        }
+
+        for (long fileX = buckets.getStartX() >> FILE_TILE_SHIFT;
+             fileX <= buckets.getEndX() >> FILE_TILE_SHIFT; fileX++) {
+            for (long fileY = buckets.getStartY() >> FILE_TILE_SHIFT;
+                 fileY <= buckets.getEndY() >> FILE_TILE_SHIFT; fileY++) {
+                TileFile tileFile = getTileFile(zoomLevel, fileX, fileY);
+                if (tileFile != null) {
+                    tileFile.addTo(buckets);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void queryTile(double stepLatitude, double stepLongitude, long tileX, long tileY, @NonNull ItemFilter filter,
+                          @NonNull List<T> items) {
+        index.queryTile(stepLatitude, stepLongitude, tileX, tileY, filter, items);
+    }
+
+    @NonNull
+    @Override
+    public List<T> tileView(double stepLatitude, double stepLongitude, long tileX, long tileY, @NonNull ItemFilter filter,
+                            int expectedSize) {
+        return index.tileView(stepLatitude, stepLongitude, tileX, tileY, filter, expectedSize);
+    }
+
+    @Override
+    public void queryNearest(double latitude, double longitude, int count, double maxDistance,
+                             @NonNull ItemFilter filter, @NonNull List<T> items) {
+        index.queryNearest(latitude, longitude, count, maxDistance, filter, items);
+    }
+
+    @Override
+    public int countRegion(@NonNull Region region, @NonNull ItemFilter filter) {
+        return index.countRegion(region, filter);
+    }
+
+    @Override
+    public void queryRegion(@NonNull Region region, @NonNull ItemFilter filter, @NonNull List<T> items) {
+        index.queryRegion(region, filter, items);
+    }
+
+    /**
+     * Returns the sum of the hashes of the positions of the given items.
+     */
+    private static long fingerprint(@NonNull List<? extends ClusterItem> items) {
+        long fingerprint = 0;
+        for (int i = 0, size = items.size(); i < size; i++) {
+            LatLng position = items.get(i).getPosition();
+            fingerprint += hashPosition(position.latitude, position.longitude);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the hash of a position, the same as the precluster tool computes for a point.
+     * Adding up the hashes of positions changes the sum if any of the positions changes.
+     */
+    static long hashPosition(double latitude, double longitude) {
+        // Adding 0.0 turns -0.0 into 0.0, which is the same position.
+        long hash = Double.doubleToLongBits(latitude + 0.0) * 0x9E3779B97F4A7C15L
+                + Double.doubleToLongBits(longitude + 0.0);
+        // The finalizer of MurmurHash3 spreads every bit of the position over the whole hash.
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB93FE5C6BE53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Returns the zoom level of the grid with the given step,
+     * or -1 if the grid doesn't match any integer zoom level.
+     */
+    private static int getZoomLevel(double stepLatitude) {
+        long tileCount = Math.round(180.0 / stepLatitude);
+        if (tileCount < 2 || Long.bitCount(tileCount) != 1 || 180.0 / tileCount != stepLatitude) {
+            return -1;
+        }
+        return Long.numberOfTrailingZeros(tileCount) - 1;
+    }
+
+    /**
+     * Reads the manifest. Without one, either nothing has been preclustered
+     * or the tool hasn't finished writing, so no zoom level is preclustered.
+     * The manifests of other versions, e.g. of an older tool without fingerprints, are ignored as well.
+     */
+    private void readManifest() {
+        preclusteredZoomLevels = new boolean[MAX_ZOOM_LEVEL + 1];
+        File file = new File(directory, MANIFEST_NAME);
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (input.readInt() != MANIFEST_MAGIC) {
+                    throw new IOException("Not a manifest");
+                }
+                if (input.readInt() != MANIFEST_VERSION) {
+                    return;
+                }
+                preclusteredItemCount = input.readLong();
+                preclusteredFingerprint = input.readLong();
+                for (int i = input.readInt(); i > 0; i--) {
+                    int zoomLevel = input.readInt();
+                    if (zoomLevel >= 0 && zoomLevel <= MAX_ZOOM_LEVEL) {
+                        preclusteredZoomLevels[zoomLevel] = true;
+                    }
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read the manifest " + file, e);
+        }
+    }
+
+    @Nullable
+    private TileFile getTileFile(int zoomLevel, long fileX, long fileY) {
+        String path = zoomLevel + File.separator + fileX + File.separator + fileY + ".bin";
+        TileFile tileFile = tileFiles.get(path);
+        if (tileFile == null) {
+            File file = new File(directory, path);
+            // The tool writes no files for empty areas.
+            tileFile = file.exists() ? TileFile.read(file) : TileFile.EMPTY;
+            tileFiles.put(path, tileFile);
+        }
+        return tileFile;
+    }
+
+    /**
+     * The tiles of a cluster file.
+     */
+    private static final class TileFile {
+
+        static final TileFile EMPTY = new TileFile(new int[0], new int[0], new int[0], new double[0], new double[0]);
+
+        private final int[] tileX;
+        private final int[] tileY;
+        private final int[] counts;
+        private final double[] latitudes;
+        private final double[] longitudes;
+
+        private TileFile(int[] tileX, int[] tileY, int[] counts, double[] latitudes, double[] longitudes) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.counts = counts;
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+        }
+
+        long estimateBytes() {
+            return 3 * MemorySizes.arrayBytes(counts.length, 4) + 2 * MemorySizes.arrayBytes(counts.length, 8);
+        }
+
+        @NonNull
+        static TileFile read(@NonNull File file) {
+            try {
+                DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                        throw new IOException("Not a cluster file");
+                    }
+                    input.readInt(); // The zoom level is already known from the path.
+
+                    int tileCount = input.readInt();
+                    int[] tileX = new int[tileCount];
+                    int[] tileY = new int[tileCount];
+                    int[] counts = new int[tileCount];
+                    double[] latitudes = new double[tileCount];
+                    double[] longitudes = new double[tileCount];
+                    for (int i = 0; i < tileCount; i++) {
+                        tileX[i] = input.readInt();
+                        tileY[i] = input.readInt();
+                        counts[i] = input.readInt();
+                        latitudes[i] = input.readDouble();
+                        longitudes[i] = input.readDouble();
+                    }
+                    return new TileFile(tileX, tileY, counts, latitudes, longitudes);
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read the cluster file " + file, e);
+            }
+        }
+
+        void addTo(@NonNull TileBuckets buckets) {
+            for (int i = 0; i < counts.length; i++) {
+                buckets.addToTile(tileX[i], tileY[i], counts[i],
+                        latitudes[i] * counts[i], longitudes[i] * counts[i]);
+            }
+        }
+    }
+}
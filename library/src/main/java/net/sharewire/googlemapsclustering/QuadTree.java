@@ -1,38 +1,274 @@
 package net.sharewire.googlemapsclustering;
 
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.os.Build;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
 
-class QuadTree<T extends ClusterItem> {
+class QuadTree<T extends ClusterItem> implements ReducingIndex<T> {
 
-    private final int bucketSize;
+    /**
+     * The bucket size that makes the tree choose the size from the number of items set.
+     */
+    static final int AUTO_BUCKET_SIZE = 0;
+
+    // The depth of the root is 0, so the nodes at the maximum depth are about a meter high.
+    static final int DEFAULT_MAX_DEPTH = 24;
+
+    private static final int MIN_BUCKET_SIZE = 4;
+    private static final int MAX_BUCKET_SIZE = 16;
+    // The bucket size doubles for every fourfold increase of the number of items above this one.
+    private static final int ITEMS_PER_BUCKET_STEP = 100000;
+
+    private final boolean autoBucketSize;
+    private final int maxDepth;
+    private int bucketSize;
+    private boolean parallelBuild;
+    private ClusterReducer<T, Object> reducer;
 
     private QuadTreeNode<T> root;
 
+    // The items of a tree whose memory has been trimmed, either in a compact index that keeps
+    // answering searches or as a plain list. The tree is rebuilt from them when it's needed again.
+    private volatile MortonIndex<T> compactItems;
+    private volatile List<T> releasedItems;
+
     QuadTree(int bucketSize) {
-        this.bucketSize = bucketSize;
-        this.root = createRootNode(bucketSize);
+        this(bucketSize, DEFAULT_MAX_DEPTH);
+    }
+
+    QuadTree(int bucketSize, int maxDepth) {
+        this.autoBucketSize = bucketSize == AUTO_BUCKET_SIZE;
+        this.bucketSize = autoBucketSize ? MIN_BUCKET_SIZE : bucketSize;
+        this.maxDepth = maxDepth;
+        this.root = createRootNode();
+    }
+
+    /**
+     * Sets whether {@link #setItems(List)} builds the subtrees of large sets of items concurrently.
+     * Fork/join pools are only available on API 21 and higher, so older devices build on a single thread.
+     */
+    void setParallelBuild(boolean parallelBuild) {
+        this.parallelBuild = parallelBuild;
+    }
+
+    // Lazy views may query the tree from another thread while items are being added.
+    @Override
+    public synchronized void setItems(@NonNull List<T> items) {
+        if (parallelBuild && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && items.size() >= QuadTreeBuildTask.SEQUENTIAL_THRESHOLD) {
+            buildInParallel(items);
+            return;
+        }
+
+        if (autoBucketSize) {
+            bucketSize = getBucketSize(items.size());
+        }
+        clear();
+        addItems(items);
+    }
+
+    /**
+     * Replaces the items, building the subtrees of the quadrants concurrently.
+     * The tree is identical to the one built by inserting the items one by one.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    synchronized void buildInParallel(@NonNull List<T> items) {
+        if (autoBucketSize) {
+            bucketSize = getBucketSize(items.size());
+        }
+        clear();
+        QuadTreeBuildTask.build(root, items);
+    }
+
+    @Override
+    public synchronized void setReducer(@Nullable ClusterReducer<T, Object> reducer) {
+        this.reducer = reducer;
+        root.setReducer(reducer);
+    }
+
+    @Override
+    public synchronized void addItems(@NonNull List<T> items) {
+        for (T item : items) {
+            insert(item);
+        }
     }
 
     void insert(@NonNull T point) {
-        root.insert(point);
+        restore().insert(point);
+    }
+
+    /**
+     * Adds the points inside the given range to the given list.
+     */
+    void queryRange(double north, double west, double south, double east, @NonNull ItemFilter filter,
+                    @NonNull List<T> points) {
+        restore().queryRange(north, west, south, east, filter, points);
+    }
+
+    /**
+     * Compacts the tree into a {@link MortonIndex}, which keeps answering searches and selections,
+     * on {@link ComponentCallbacks2#TRIM_MEMORY_BACKGROUND} and keeps only a list of the items
+     * on {@link ComponentCallbacks2#TRIM_MEMORY_MODERATE} and higher. The tree is rebuilt
+     * when the items are clustered or added again.
+     */
+    @Override
+    public synchronized long trimMemory(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || releasedItems != null
+                || (compactItems != null && level < ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+                || (compactItems == null && root.getCount() == 0)) {
+            return 0;
+        }
+
+        long bytes = estimateBytes();
+        List<T> items = getItems();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            releasedItems = items;
+            compactItems = null;
+        } else {
+            MortonIndex<T> compactIndex = new MortonIndex<>();
+            compactIndex.setItems(items);
+            compactItems = compactIndex;
+        }
+        root = createRootNode();
+        return bytes - estimateBytes();
+    }
+
+    @Override
+    public void aggregateTiles(@NonNull TileBuckets buckets, @NonNull ItemFilter filter) {
+        restore().aggregateTiles(buckets, filter);
+    }
+
+    @Override
+    public void queryTile(double stepLatitude, double stepLongitude, long tileX, long tileY, @NonNull ItemFilter filter,
+                          @NonNull List<T> points) {
+        QuadTreeTileList.queryTile(restore(), stepLatitude, stepLongitude, tileX, tileY, filter, points);
     }
 
     @NonNull
-    List<T> queryRange(double north, double west, double south, double east) {
-        List<T> points = new ArrayList<>();
-        root.queryRange(new QuadTreeRect(north, west, south, east), points);
-        return points;
+    @Override
+    public List<T> tileView(double stepLatitude, double stepLongitude, long tileX, long tileY, @NonNull ItemFilter filter,
+                            int expectedSize) {
+        return new QuadTreeTileList<>(this, stepLatitude, stepLongitude, tileX, tileY, filter, expectedSize);
+    }
+
+    @Override
+    public void queryNearest(double latitude, double longitude, int count, double maxDistance,
+                             @NonNull ItemFilter filter, @NonNull List<T> points) {
+        MortonIndex<T> compactIndex = compactItems;
+        if (compactIndex != null) {
+            compactIndex.queryNearest(latitude, longitude, count, maxDistance, filter, points);
+            return;
+        }
+
+        NearestSearch<T> search = QuadTreeNode.nearestSearch(latitude, longitude, count, maxDistance, filter);
+        addToSearch(search, filter);
+        search.run(points);
+    }
+
+    @Override
+    public int countRegion(@NonNull Region region, @NonNull ItemFilter filter) {
+        MortonIndex<T> compactIndex = compactItems;
+        if (compactIndex != null) {
+            return compactIndex.countRegion(region, filter);
+        }
+
+        return restore().countRegion(region, filter);
+    }
+
+    // The items of a selection are queried lazily, possibly while items are being added.
+    @Override
+    public synchronized void queryRegion(@NonNull Region region, @NonNull ItemFilter filter,
+                                         @NonNull List<T> points) {
+        if (compactItems != null) {
+            compactItems.queryRegion(region, filter, points);
+            return;
+        }
+
+        restore().queryRegion(region, filter, points);
+    }
+
+    void addToSearch(@NonNull NearestSearch<T> search, @NonNull ItemFilter filter) {
+        restore().addToSearch(search, filter);
+    }
+
+    /**
+     * Returns the root of the tree, rebuilding the tree if its memory has been trimmed.
+     */
+    @NonNull
+    QuadTreeNode<T> getRoot() {
+        return restore();
     }
 
     void clear() {
-        root = createRootNode(bucketSize);
+        root = createRootNode();
+        compactItems = null;
+        releasedItems = null;
+    }
+
+    /**
+     * Rebuilds the tree, if its memory has been trimmed, and returns its root. The root is only
+     * read under the lock, so that a query neither sees the empty root that {@link #trimMemory(int)}
+     * replaces the tree with nor the nodes of a root that another thread hasn't published yet.
+     * The query then runs on the returned root, which trimming never modifies.
+     */
+    @NonNull
+    private synchronized QuadTreeNode<T> restore() {
+        if (compactItems != null || releasedItems != null) {
+            setItems(getItems());
+        }
+        return root;
+    }
+
+    /**
+     * Returns the items of the tree or the ones it has been trimmed to.
+     */
+    @NonNull
+    private List<T> getItems() {
+        if (releasedItems != null) {
+            return releasedItems;
+        }
+        if (compactItems != null) {
+            return compactItems.getItems();
+        }
+        List<T> items = new ArrayList<>(root.getCount());
+        root.queryRange(90.0, -180.0, -90.0, 180.0, ItemFilter.ALL, items);
+        return items;
+    }
+
+    /**
+     * Returns the estimated size of the tree and the items it has been trimmed to.
+     */
+    private long estimateBytes() {
+        long bytes = root.estimateBytes();
+        if (compactItems != null) {
+            bytes += compactItems.estimateBytes();
+        }
+        if (releasedItems != null) {
+            bytes += MemorySizes.ARRAY_LIST_BYTES
+                    + MemorySizes.arrayBytes(releasedItems.size(), MemorySizes.REFERENCE_BYTES);
+        }
+        return bytes;
     }
 
     @NonNull
-    private QuadTreeNode<T> createRootNode(int bucketSize) {
-        return new QuadTreeNode<>(90.0, -180.0, -90.0, 180.0, bucketSize);
+    private QuadTreeNode<T> createRootNode() {
+        return new QuadTreeNode<>(90.0, -180.0, -90.0, 180.0, bucketSize, maxDepth, reducer);
+    }
+
+    /**
+     * Returns the bucket size for the given number of items. Larger buckets make the tree
+     * shallower and cheaper to build, while small sets are queried faster with small buckets.
+     */
+    static int getBucketSize(int itemCount) {
+        int bucketSize = MIN_BUCKET_SIZE;
+        for (int steps = itemCount / ITEMS_PER_BUCKET_STEP; steps > 0 && bucketSize < MAX_BUCKET_SIZE; steps /= 4) {
+            bucketSize *= 2;
+        }
+        return bucketSize;
     }
 }
@@ -0,0 +1,196 @@
+package net.sharewire.googlemapsclustering;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds the subtree of an empty quad tree node from a list of points on a fork/join pool.
+ * <p>
+ * The tree has to be identical to the one built by inserting the points one by one, so every node
+ * keeps the first points that reach it and sums up the coordinates of its points in their order.
+ * The sums of a node are a separate task, so a large subtree is built as concurrent tasks for
+ * the sums of its root and for the subtrees of the children. Points are split among the children
+ * in their order, and while all of them lie inside the same child, e.g. near the root of a tree
+ * of items in one country, they are passed on without being split at all.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class QuadTreeBuildTask<T extends ClusterItem> extends RecursiveAction {
+
+    // Subtrees with fewer points are not worth the overhead of more tasks.
+    static final int SEQUENTIAL_THRESHOLD = 8192;
+
+    private final QuadTreeNode<T> node;
+    private final List<T> points;
+
+    // The bounding box of the points.
+    private final double north;
+    private final double west;
+    private final double south;
+    private final double east;
+
+    private QuadTreeBuildTask(@NonNull QuadTreeNode<T> node, @NonNull List<T> points,
+                              double north, double west, double south, double east) {
+        this.node = node;
+        this.points = points;
+        this.north = north;
+        this.west = west;
+        this.south = south;
+        this.east = east;
+    }
+
+    /**
+     * Inserts the given points into the given empty node and waits for the subtree to be built.
+     */
+    static <T extends ClusterItem> void build(@NonNull QuadTreeNode<T> node, @NonNull List<T> points) {
+        if (!(points instanceof RandomAccess)) {
+            points = new ArrayList<>(points);
+        }
+
+        double north = -90.0;
+        double west = 180.0;
+        double south = 90.0;
+        double east = -180.0;
+        for (int i = 0, size = points.size(); i < size; i++) {
+            T point = points.get(i);
+            north = Math.max(north, point.getPosition().latitude);
+            west = Math.min(west, point.getPosition().longitude);
+            south = Math.min(south, point.getPosition().latitude);
+            east = Math.max(east, point.getPosition().longitude);
+        }
+
+        // The node ignores points outside of it, which only inserting them one by one takes care of.
+        if (!points.isEmpty() && !contains(node.getBounds(), north, west, south, east)) {
+            for (int i = 0, size = points.size(); i < size; i++) {
+                node.insert(points.get(i));
+            }
+            return;
+        }
+
+        PoolHolder.POOL.invoke(new QuadTreeBuildTask<>(node, points, north, west, south, east));
+    }
+
+    @Override
+    protected void compute() {
+        if (points.size() < SEQUENTIAL_THRESHOLD) {
+            for (int i = 0, size = points.size(); i < size; i++) {
+                node.insert(points.get(i));
+            }
+            return;
+        }
+
+        int kept = node.keepPoints(points);
+        ForkJoinTask<?> aggregates = new AggregateTask<>(node, points).fork();
+        if (kept < points.size()) {
+            List<T> childPoints = points.subList(kept, points.size());
+            List<QuadTreeNode<T>> children = node.getChildren();
+            int child = getChildContainingAll(children);
+            if (child >= 0) {
+                new QuadTreeBuildTask<>(children.get(child), childPoints, north, west, south, east).invoke();
+            } else {
+                invokeAll(split(children, childPoints));
+            }
+        }
+        aggregates.join();
+    }
+
+    /**
+     * Returns the index of the child that all points are inserted into, or -1 if they are split.
+     * A point on the border of two children belongs to the first one.
+     */
+    private int getChildContainingAll(@NonNull List<QuadTreeNode<T>> children) {
+        for (int i = 0; i < children.size(); i++) {
+            QuadTreeRect bounds = children.get(i).getBounds();
+            if (contains(bounds, north, west, south, east)) {
+                return i;
+            }
+            if (bounds.intersects(north, west, south, east)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits the points among the children in their order and returns the tasks that build the children.
+     */
+    @NonNull
+    private List<QuadTreeBuildTask<T>> split(@NonNull List<QuadTreeNode<T>> children, @NonNull List<T> childPoints) {
+        int childCount = children.size();
+        List<List<T>> pointsOfChildren = new ArrayList<>(childCount);
+        double[] norths = new double[childCount];
+        double[] wests = new double[childCount];
+        double[] souths = new double[childCount];
+        double[] easts = new double[childCount];
+        for (int j = 0; j < childCount; j++) {
+            pointsOfChildren.add(new ArrayList<T>());
+            norths[j] = -90.0;
+            wests[j] = 180.0;
+            souths[j] = 90.0;
+            easts[j] = -180.0;
+        }
+
+        for (int i = 0, size = childPoints.size(); i < size; i++) {
+            T point = childPoints.get(i);
+            double latitude = point.getPosition().latitude;
+            double longitude = point.getPosition().longitude;
+            for (int j = 0; j < childCount; j++) {
+                if (children.get(j).getBounds().contains(latitude, longitude)) {
+                    pointsOfChildren.get(j).add(point);
+                    norths[j] = Math.max(norths[j], latitude);
+                    wests[j] = Math.min(wests[j], longitude);
+                    souths[j] = Math.min(souths[j], latitude);
+                    easts[j] = Math.max(easts[j], longitude);
+                    break;
+                }
+            }
+        }
+
+        List<QuadTreeBuildTask<T>> tasks = new ArrayList<>(childCount);
+        for (int j = 0; j < childCount; j++) {
+            if (!pointsOfChildren.get(j).isEmpty()) {
+                tasks.add(new QuadTreeBuildTask<>(children.get(j), pointsOfChildren.get(j),
+                        norths[j], wests[j], souths[j], easts[j]));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Checks whether the given rectangle contains the given bounding box.
+     */
+    private static boolean contains(@NonNull QuadTreeRect bounds,
+                                    double north, double west, double south, double east) {
+        return bounds.contains(north, west) && bounds.contains(south, east);
+    }
+
+    private static final class AggregateTask<T extends ClusterItem> extends RecursiveAction {
+
+        private final QuadTreeNode<T> node;
+        private final List<T> points;
+
+        AggregateTask(@NonNull QuadTreeNode<T> node, @NonNull List<T> points) {
+            this.node = node;
+            this.points = points;
+        }
+
+        @Override
+        protected void compute() {
+            node.addToAggregates(points);
+        }
+    }
+
+    /**
+     * Creates the pool on first use. Its idle threads exit after a few seconds.
+     */
+    private static final class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+}
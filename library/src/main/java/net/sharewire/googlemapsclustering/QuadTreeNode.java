@@ -1,34 +1,66 @@
 package net.sharewire.googlemapsclustering;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 class QuadTreeNode<T extends ClusterItem> {
 
+    // The estimated size of a node, its bounds and the list of its points, without the array of the list.
+    private static final int NODE_BYTES = 176;
+
     private final QuadTreeRect bounds;
     private final List<T> points;
     private final int bucketSize;
+    // The number of levels this node may still be subdivided into.
+    private final int remainingDepth;
     private QuadTreeNode<T> northWest;
     private QuadTreeNode<T> northEast;
     private QuadTreeNode<T> southWest;
     private QuadTreeNode<T> southEast;
+    private ClusterReducer<T, Object> reducer;
+
+    // Aggregates of all points in this node and its children.
+    private int count;
+    private double latitudeSum;
+    private double longitudeSum;
+    // Categories that some and that all points in this node and its children belong to,
+    // and the range of their timestamps.
+    private long someCategories;
+    private long allCategories = CategorizedClusterItem.ALL_CATEGORIES;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    // The reduced value of all points in this node and its children, if there is a reducer.
+    private Object aggregate;
 
-    QuadTreeNode(double north, double west, double south, double east, int bucketSize) {
+    QuadTreeNode(double north, double west, double south, double east, int bucketSize, int remainingDepth,
+                 @Nullable ClusterReducer<T, Object> reducer) {
         this.bounds = new QuadTreeRect(north, west, south, east);
         this.points = new ArrayList<>(bucketSize);
         this.bucketSize = bucketSize;
+        this.remainingDepth = remainingDepth;
+        this.reducer = reducer;
+        this.aggregate = reducer != null ? reducer.identity() : null;
     }
 
     boolean insert(@NonNull T point) {
+        double latitude = point.getPosition().latitude;
+        double longitude = point.getPosition().longitude;
+
         // Ignore objects that do not belong in this quad tree.
-        if (!bounds.contains(point.getPosition().latitude, point.getPosition().longitude)) {
+        if (!bounds.contains(latitude, longitude)) {
             return false;
         }
 
-        // If there is space in this quad tree, add the object here.
-        if (points.size() < bucketSize) {
+        // The children cover the whole quad, so the point ends up in this subtree.
+        addToAggregates(point, latitude, longitude);
+
+        // If there is space in this quad tree, add the object here. Nodes at the maximum depth
+        // keep all their points, so that points at the same position don't subdivide them endlessly.
+        if (points.size() < bucketSize || remainingDepth == 0) {
             points.add(point);
             return true;
         }
@@ -44,15 +76,120 @@ class QuadTreeNode<T extends ClusterItem> {
                 southEast.insert(point);
     }
 
-    void queryRange(@NonNull QuadTreeRect range, @NonNull List<T> pointsInRange) {
-        // Automatically abort if the range does not intersect this quad.
-        if (!bounds.intersects(range)) {
+    /**
+     * Keeps as many of the given points in this empty quad as inserting them one by one would,
+     * and subdivides the quad if there are more. The points must lie inside the quad.
+     *
+     * @return the number of points kept, which are the first ones
+     */
+    int keepPoints(@NonNull List<T> newPoints) {
+        int kept = remainingDepth == 0 ? newPoints.size() : Math.min(bucketSize, newPoints.size());
+        points.addAll(newPoints.subList(0, kept));
+        if (kept < newPoints.size()) {
+            subdivide();
+        }
+        return kept;
+    }
+
+    /**
+     * Adds the given points to the aggregates of this quad in their order, the same as inserting
+     * them one by one does, without adding the points themselves. The points must lie inside the quad.
+     */
+    void addToAggregates(@NonNull List<T> newPoints) {
+        for (int i = 0, size = newPoints.size(); i < size; i++) {
+            T point = newPoints.get(i);
+            addToAggregates(point, point.getPosition().latitude, point.getPosition().longitude);
+        }
+    }
+
+    /**
+     * Replaces the reducer of this quad and its children and reduces the values of their points again.
+     */
+    void setReducer(@Nullable ClusterReducer<T, Object> reducer) {
+        this.reducer = reducer;
+        if (northWest != null) {
+            northWest.setReducer(reducer);
+            northEast.setReducer(reducer);
+            southWest.setReducer(reducer);
+            southEast.setReducer(reducer);
+        }
+
+        if (reducer == null) {
+            aggregate = null;
+            return;
+        }
+
+        aggregate = reducer.identity();
+        for (int i = 0, size = points.size(); i < size; i++) {
+            aggregate = reducer.combine(aggregate, reducer.extract(points.get(i)));
+        }
+        if (northWest != null) {
+            aggregate = reducer.combine(aggregate, northWest.aggregate);
+            aggregate = reducer.combine(aggregate, northEast.aggregate);
+            aggregate = reducer.combine(aggregate, southWest.aggregate);
+            aggregate = reducer.combine(aggregate, southEast.aggregate);
+        }
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the estimated size of this quad and its children, without the points themselves.
+     */
+    long estimateBytes() {
+        long bytes = NODE_BYTES + MemorySizes.arrayBytes(Math.max(bucketSize, points.size()),
+                MemorySizes.REFERENCE_BYTES);
+        if (northWest != null) {
+            bytes += northWest.estimateBytes() + northEast.estimateBytes()
+                    + southWest.estimateBytes() + southEast.estimateBytes();
+        }
+        return bytes;
+    }
+
+    @NonNull
+    QuadTreeRect getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Returns the northwest, northeast, southwest and southeast child, or an empty list for a leaf.
+     */
+    @NonNull
+    List<QuadTreeNode<T>> getChildren() {
+        if (northWest == null) {
+            return Collections.emptyList();
+        }
+        List<QuadTreeNode<T>> children = new ArrayList<>(4);
+        children.add(northWest);
+        children.add(northEast);
+        children.add(southWest);
+        children.add(southEast);
+        return children;
+    }
+
+    void queryRange(double north, double west, double south, double east, @NonNull ItemFilter filter,
+                    @NonNull List<T> pointsInRange) {
+        // Automatically abort if the range does not intersect this quad or no point matches the filter.
+        if (!bounds.intersects(north, west, south, east)
+                || !filter.matchesSome(someCategories, minTimestamp, maxTimestamp)) {
+            return;
+        }
+
+        // Add the whole subtree, if the range contains this quad and all points match the filter.
+        boolean allMatch = filter.matchesAll(allCategories, minTimestamp, maxTimestamp);
+        if (allMatch && bounds.isInside(north, west, south, east)) {
+            collectPoints(pointsInRange);
             return;
         }
 
         // Check objects at this quad level.
-        for (T point : points) {
-            if (range.contains(point.getPosition().latitude, point.getPosition().longitude)) {
+        for (int i = 0, size = points.size(); i < size; i++) {
+            T point = points.get(i);
+            if (QuadTreeRect.contains(north, west, south, east,
+                    point.getPosition().latitude, point.getPosition().longitude)
+                    && (allMatch || filter.matches(point))) {
                 pointsInRange.add(point);
             }
         }
@@ -63,19 +200,199 @@ class QuadTreeNode<T extends ClusterItem> {
         }
 
         // Otherwise, add the points from the children.
-        northWest.queryRange(range, pointsInRange);
-        northEast.queryRange(range, pointsInRange);
-        southWest.queryRange(range, pointsInRange);
-        southEast.queryRange(range, pointsInRange);
+        northWest.queryRange(north, west, south, east, filter, pointsInRange);
+        northEast.queryRange(north, west, south, east, filter, pointsInRange);
+        southWest.queryRange(north, west, south, east, filter, pointsInRange);
+        southEast.queryRange(north, west, south, east, filter, pointsInRange);
+    }
+
+    void aggregateTiles(@NonNull TileBuckets buckets, @NonNull ItemFilter filter) {
+        // Automatically abort if no point in this quad matches the filter
+        // or the quad does not intersect the tiles.
+        if (count == 0 || !filter.matchesSome(someCategories, minTimestamp, maxTimestamp)
+                || !bounds.intersects(buckets.north, buckets.west, buckets.south, buckets.east)) {
+            return;
+        }
+
+        // Use the aggregates of the whole subtree, if all points match the filter
+        // and this quad lies inside a single tile.
+        boolean allMatch = filter.matchesAll(allCategories, minTimestamp, maxTimestamp);
+        if (allMatch && buckets.addIfInsideTile(bounds.north, bounds.west, bounds.south, bounds.east,
+                count, latitudeSum, longitudeSum, aggregate)) {
+            return;
+        }
+
+        // Otherwise, add objects at this quad level to their tiles.
+        for (int i = 0, size = points.size(); i < size; i++) {
+            T point = points.get(i);
+            if (allMatch || filter.matches(point)) {
+                buckets.add(point, point.getPosition().latitude, point.getPosition().longitude);
+            }
+        }
+
+        // Terminate here, if there are no children.
+        if (northWest == null) {
+            return;
+        }
+
+        // Otherwise, aggregate the points from the children.
+        northWest.aggregateTiles(buckets, filter);
+        northEast.aggregateTiles(buckets, filter);
+        southWest.aggregateTiles(buckets, filter);
+        southEast.aggregateTiles(buckets, filter);
+    }
+
+    int countRegion(@NonNull Region region, @NonNull ItemFilter filter) {
+        // Automatically abort if no point in this quad matches the filter or the quad lies outside the region.
+        if (count == 0 || !filter.matchesSome(someCategories, minTimestamp, maxTimestamp)) {
+            return 0;
+        }
+        int location = region.classify(bounds.north, bounds.west, bounds.south, bounds.east);
+        if (location == Region.OUTSIDE) {
+            return 0;
+        }
+
+        // Use the count of the whole subtree, if this quad lies inside the region and all points match the filter.
+        boolean allMatch = filter.matchesAll(allCategories, minTimestamp, maxTimestamp);
+        if (allMatch && location == Region.INSIDE) {
+            return count;
+        }
+
+        // Otherwise, count the points at this quad level and in the children.
+        int pointCount = 0;
+        for (int i = 0, size = points.size(); i < size; i++) {
+            T point = points.get(i);
+            if ((allMatch || filter.matches(point)) && (location == Region.INSIDE
+                    || region.contains(point.getPosition().latitude, point.getPosition().longitude))) {
+                pointCount++;
+            }
+        }
+
+        if (northWest == null) {
+            return pointCount;
+        }
+
+        return pointCount
+                + northWest.countRegion(region, filter)
+                + northEast.countRegion(region, filter)
+                + southWest.countRegion(region, filter)
+                + southEast.countRegion(region, filter);
+    }
+
+    void queryRegion(@NonNull Region region, @NonNull ItemFilter filter, @NonNull List<T> pointsInRegion) {
+        if (count == 0 || !filter.matchesSome(someCategories, minTimestamp, maxTimestamp)) {
+            return;
+        }
+        int location = region.classify(bounds.north, bounds.west, bounds.south, bounds.east);
+        if (location == Region.OUTSIDE) {
+            return;
+        }
+
+        // Add the whole subtree, if this quad lies inside the region and all points match the filter.
+        boolean allMatch = filter.matchesAll(allCategories, minTimestamp, maxTimestamp);
+        if (allMatch && location == Region.INSIDE) {
+            collectPoints(pointsInRegion);
+            return;
+        }
+
+        for (int i = 0, size = points.size(); i < size; i++) {
+            T point = points.get(i);
+            if ((allMatch || filter.matches(point)) && (location == Region.INSIDE
+                    || region.contains(point.getPosition().latitude, point.getPosition().longitude))) {
+                pointsInRegion.add(point);
+            }
+        }
+
+        if (northWest == null) {
+            return;
+        }
+
+        northWest.queryRegion(region, filter, pointsInRegion);
+        northEast.queryRegion(region, filter, pointsInRegion);
+        southWest.queryRegion(region, filter, pointsInRegion);
+        southEast.queryRegion(region, filter, pointsInRegion);
+    }
+
+    /**
+     * Returns a search that expands quad tree nodes and finds the points that match the filter.
+     */
+    @NonNull
+    static <T extends ClusterItem> NearestSearch<T> nearestSearch(double latitude, double longitude,
+                                                                  int count, double maxDistance,
+                                                                  @NonNull final ItemFilter filter) {
+        return new NearestSearch<T>(latitude, longitude, count, maxDistance) {
+            @Override
+            void expand(@NonNull Object node) {
+                //noinspection unchecked
+                ((QuadTreeNode<T>) node).expandNearest(this, filter);
+            }
+        };
+    }
+
+    void addToSearch(@NonNull NearestSearch<T> search, @NonNull ItemFilter filter) {
+        if (count > 0 && filter.matchesSome(someCategories, minTimestamp, maxTimestamp)) {
+            search.addNode(this, bounds.north, bounds.west, bounds.south, bounds.east);
+        }
+    }
+
+    private void expandNearest(@NonNull NearestSearch<T> search, @NonNull ItemFilter filter) {
+        boolean allMatch = filter.matchesAll(allCategories, minTimestamp, maxTimestamp);
+        for (int i = 0, size = points.size(); i < size; i++) {
+            T point = points.get(i);
+            if (allMatch || filter.matches(point)) {
+                search.addItem(point, point.getPosition().latitude, point.getPosition().longitude);
+            }
+        }
+
+        if (northWest == null) {
+            return;
+        }
+
+        northWest.addToSearch(search, filter);
+        northEast.addToSearch(search, filter);
+        southWest.addToSearch(search, filter);
+        southEast.addToSearch(search, filter);
+    }
+
+    private void collectPoints(@NonNull List<T> pointsInRange) {
+        pointsInRange.addAll(points);
+
+        if (northWest == null) {
+            return;
+        }
+
+        northWest.collectPoints(pointsInRange);
+        northEast.collectPoints(pointsInRange);
+        southWest.collectPoints(pointsInRange);
+        southEast.collectPoints(pointsInRange);
+    }
+
+    private void addToAggregates(@NonNull T point, double latitude, double longitude) {
+        count++;
+        latitudeSum += latitude;
+        longitudeSum += longitude;
+        long categories = ItemFilter.categoriesOf(point);
+        someCategories |= categories;
+        allCategories &= categories;
+        minTimestamp = Math.min(minTimestamp, ItemFilter.minTimestampOf(point));
+        maxTimestamp = Math.max(maxTimestamp, ItemFilter.maxTimestampOf(point));
+        if (reducer != null) {
+            aggregate = reducer.combine(aggregate, reducer.extract(point));
+        }
     }
 
     private void subdivide() {
         double northSouthHalf = bounds.north - (bounds.north - bounds.south) / 2.0;
         double eastWestHalf = bounds.east - (bounds.east - bounds.west) / 2.0;
 
-        northWest = new QuadTreeNode<>(bounds.north, bounds.west, northSouthHalf, eastWestHalf, bucketSize);
-        northEast = new QuadTreeNode<>(bounds.north, eastWestHalf, northSouthHalf, bounds.east, bucketSize);
-        southWest = new QuadTreeNode<>(northSouthHalf, bounds.west, bounds.south, eastWestHalf, bucketSize);
-        southEast = new QuadTreeNode<>(northSouthHalf, eastWestHalf, bounds.south, bounds.east, bucketSize);
+        int depth = remainingDepth - 1;
+        northWest = new QuadTreeNode<>(bounds.north, bounds.west, northSouthHalf, eastWestHalf,
+                bucketSize, depth, reducer);
+        northEast = new QuadTreeNode<>(bounds.north, eastWestHalf, northSouthHalf, bounds.east,
+                bucketSize, depth, reducer);
+        southWest = new QuadTreeNode<>(northSouthHalf, bounds.west, bounds.south, eastWestHalf,
+                bucketSize, depth, reducer);
+        southEast = new QuadTreeNode<>(northSouthHalf, eastWestHalf, bounds.south, bounds.east,
+                bucketSize, depth, reducer);
     }
 }
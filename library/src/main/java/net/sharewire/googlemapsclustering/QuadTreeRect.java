@@ -1,7 +1,5 @@
 package net.sharewire.googlemapsclustering;
 
-import android.support.annotation.NonNull;
-
 class QuadTreeRect {
 
     final double north;
@@ -17,10 +15,19 @@ class QuadTreeRect {
     }
 
     boolean contains(double latitude, double longitude) {
-        return longitude >= west && longitude <= east && latitude <= north && latitude >= south;
+        return contains(north, west, south, east, latitude, longitude);
+    }
+
+    boolean intersects(double north, double west, double south, double east) {
+        return this.west <= east && this.east >= west && this.north >= south && this.south <= north;
     }
 
-    boolean intersects(@NonNull QuadTreeRect bounds) {
-        return west <= bounds.east && east >= bounds.west && north >= bounds.south && south <= bounds.north;
+    boolean isInside(double north, double west, double south, double east) {
+        return this.west >= west && this.east <= east && this.north <= north && this.south >= south;
+    }
+
+    static boolean contains(double north, double west, double south, double east,
+                            double latitude, double longitude) {
+        return longitude >= west && longitude <= east && latitude <= north && latitude >= south;
     }
 }
@@ -0,0 +1,66 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * A lazy view of the points of a quad tree that belong to a tile. The points are queried
+ * from the tree and not from its current root, so that a view doesn't keep a tree
+ * that has been trimmed or replaced reachable.
+ */
+class QuadTreeTileList<T extends ClusterItem> extends LazyItemList<T> {
+
+    private final QuadTree<T> tree;
+    private final double stepLatitude;
+    private final double stepLongitude;
+    private final long tileX;
+    private final long tileY;
+    private final ItemFilter filter;
+
+    QuadTreeTileList(@NonNull QuadTree<T> tree, double stepLatitude, double stepLongitude,
+                     long tileX, long tileY, @NonNull ItemFilter filter, int expectedSize) {
+        super(expectedSize);
+        this.tree = tree;
+        this.stepLatitude = stepLatitude;
+        this.stepLongitude = stepLongitude;
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.filter = filter;
+    }
+
+    @Override
+    void queryItems(@NonNull List<T> items) {
+        synchronized (tree) {
+            tree.queryTile(stepLatitude, stepLongitude, tileX, tileY, filter, items);
+        }
+    }
+
+    /**
+     * Adds the points that match the filter and belong to the given tile to the given list.
+     * Points on the border of two tiles belong to only one of them, the same as in {@link TileBuckets}.
+     */
+    static <T extends ClusterItem> void queryTile(@NonNull QuadTreeNode<T> root,
+                                                  double stepLatitude, double stepLongitude,
+                                                  long tileX, long tileY, @NonNull ItemFilter filter,
+                                                  @NonNull List<T> points) {
+        double north = 90.0 - tileY * stepLatitude;
+        double west = tileX * stepLongitude - 180.0;
+        double south = north - stepLatitude;
+        double east = west + stepLongitude;
+
+        int start = points.size();
+        root.queryRange(north, west, south, east, filter, points);
+
+        // Drop the points that lie on the border and belong to the neighboring tiles.
+        int end = start;
+        for (int i = start, size = points.size(); i < size; i++) {
+            T point = points.get(i);
+            if (TileBuckets.tileX(point.getPosition().longitude, stepLongitude) == tileX
+                    && TileBuckets.tileY(point.getPosition().latitude, stepLatitude) == tileY) {
+                points.set(end++, point);
+            }
+        }
+        points.subList(end, points.size()).clear();
+    }
+}
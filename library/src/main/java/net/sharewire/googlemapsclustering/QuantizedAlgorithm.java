@@ -0,0 +1,19 @@
+package net.sharewire.googlemapsclustering;
+
+/**
+ * A clustering algorithm that clusters on discrete zoom levels.
+ * {@link ClusterLayer} checks for this interface, so it's optional for custom algorithms.
+ *
+ * @see ClusterLayer#setZoomQuantization(double, double)
+ */
+public interface QuantizedAlgorithm {
+    /**
+     * Clusters items on discrete zoom levels with the given step and hysteresis.
+     *
+     * @param zoomStep   the difference between two zoom levels clustered on,
+     *                   or 0 to cluster on the exact zoom level of the camera
+     * @param hysteresis how far the camera zoom may leave the current zoom level before
+     *                   the next one is used
+     */
+    void setZoomQuantization(double zoomStep, double hysteresis);
+}
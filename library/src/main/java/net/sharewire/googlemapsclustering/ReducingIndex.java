@@ -0,0 +1,17 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.Nullable;
+
+/**
+ * An index that keeps its items in memory, so that it can reduce their values.
+ * Indexes that load items only when they are accessed don't implement it.
+ */
+interface ReducingIndex<T extends ClusterItem> extends ClusterIndex<T> {
+
+    /**
+     * Sets the reducer of the values of items, which the index may keep per node, and recomputes
+     * the values of the indexed items. The same reducer is set on the buckets passed to
+     * {@link #aggregateTiles}.
+     */
+    void setReducer(@Nullable ClusterReducer<T, Object> reducer);
+}
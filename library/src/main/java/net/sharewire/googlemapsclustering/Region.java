@@ -0,0 +1,21 @@
+package net.sharewire.googlemapsclustering;
+
+/**
+ * A region of the map that selects items. Indexes classify their nodes against the region,
+ * skip the nodes outside of it, count the nodes inside of it using their aggregates and check
+ * the items of the other nodes one by one.
+ */
+interface Region {
+
+    int OUTSIDE = 0;
+    int PARTIAL = 1;
+    int INSIDE = 2;
+
+    /**
+     * Returns whether the given rectangle lies {@link #INSIDE} or {@link #OUTSIDE} the region.
+     * If it's not known, it returns {@link #PARTIAL}, so the items inside are checked one by one.
+     */
+    int classify(double north, double west, double south, double east);
+
+    boolean contains(double latitude, double longitude);
+}
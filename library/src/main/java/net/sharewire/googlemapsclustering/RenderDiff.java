@@ -0,0 +1,101 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The changes of markers needed to go from the displayed clusters to new ones. Clusters that
+ * are displayed already keep their markers, which are updated in place if their position,
+ * size or reduced value has changed. A removed cluster moves into the new cluster that
+ * contains it, if any, and an added cluster moves out of the removed cluster that contains it.
+ * It doesn't touch the map, so that rendering can be replayed without one.
+ */
+final class RenderDiff<T extends ClusterItem> {
+
+    final List<MarkerCluster<T>> kept = new ArrayList<>();
+    final List<MarkerCluster<T>> added = new ArrayList<>();
+    final List<MarkerCluster<T>> removed = new ArrayList<>();
+    // The clusters the markers of the added clusters move from and the removed ones move to,
+    // or null for the markers that fade in or disappear.
+    final List<MarkerCluster<T>> addedParents = new ArrayList<>();
+    final List<MarkerCluster<T>> removedParents = new ArrayList<>();
+
+    private RenderDiff() {
+    }
+
+    /**
+     * Returns whether the marker of a kept cluster needs a new icon. Icons may show the reduced value
+     * of the items, which changes without the size, e.g. when the reducer is replaced.
+     */
+    static boolean needsNewIcon(@NonNull MarkerCluster<?> displayedCluster, @NonNull MarkerCluster<?> cluster) {
+        if (displayedCluster.getSize() != cluster.getSize()) {
+            return true;
+        }
+        return displayedCluster instanceof MapCluster && cluster instanceof MapCluster
+                && !((MapCluster<?>) displayedCluster).hasSameAggregate((MapCluster<?>) cluster);
+    }
+
+    /**
+     * Returns whether the marker of a kept cluster needs to be moved.
+     */
+    static boolean needsNewPosition(@NonNull MarkerCluster<?> displayedCluster, @NonNull MarkerCluster<?> cluster) {
+        return !displayedCluster.getPosition().equals(cluster.getPosition());
+    }
+
+    /**
+     * The displayed clusters must be a set, e.g. the keys of the markers.
+     */
+    @NonNull
+    static <T extends ClusterItem> RenderDiff<T> compute(@NonNull Collection<MarkerCluster<T>> displayedClusters,
+                                                         @NonNull List<MarkerCluster<T>> clusters) {
+        RenderDiff<T> diff = new RenderDiff<>();
+
+        for (MarkerCluster<T> cluster : clusters) {
+            if (displayedClusters.contains(cluster)) {
+                diff.kept.add(cluster);
+            } else {
+                diff.added.add(cluster);
+            }
+        }
+
+        // Only look up the clusters to be removed in a set, if any of the displayed ones are left.
+        if (diff.kept.size() < displayedClusters.size()) {
+            Set<MarkerCluster<T>> keptClusters = new HashSet<>(diff.kept);
+            for (MarkerCluster<T> cluster : displayedClusters) {
+                if (!keptClusters.contains(cluster)) {
+                    diff.removed.add(cluster);
+                }
+            }
+        }
+
+        for (MarkerCluster<T> cluster : diff.removed) {
+            diff.removedParents.add(findParentCluster(clusters,
+                    cluster.getPosition().latitude, cluster.getPosition().longitude));
+        }
+
+        for (MarkerCluster<T> cluster : diff.added) {
+            diff.addedParents.add(findParentCluster(diff.removed,
+                    cluster.getPosition().latitude, cluster.getPosition().longitude));
+        }
+
+        return diff;
+    }
+
+    @Nullable
+    private static <T extends ClusterItem> MarkerCluster<T> findParentCluster(@NonNull List<MarkerCluster<T>> clusters,
+                                                                             double latitude, double longitude) {
+        for (MarkerCluster<T> cluster : clusters) {
+            if (cluster.contains(latitude, longitude)) {
+                return cluster;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,43 @@
+package net.sharewire.googlemapsclustering;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.List;
+
+/**
+ * A clustering algorithm that finds and selects items by their positions.
+ * {@link ClusterLayer} checks for this interface, so it's optional for custom algorithms.
+ *
+ * @param <T> the type of an item to be clustered
+ */
+public interface SearchableAlgorithm<T extends ClusterItem> {
+    /**
+     * Returns up to the given number of items nearest to the given position,
+     * from the nearest to the farthest one.
+     *
+     * @param maxDistance the maximum distance of items in meters
+     */
+    List<T> getNearestItems(LatLng position, int count, double maxDistance);
+
+    /**
+     * Returns the items within the given distance of the given position,
+     * from the nearest to the farthest one.
+     *
+     * @param distance the distance in meters
+     */
+    List<T> getItemsWithinDistance(LatLng position, double distance);
+
+    /**
+     * Selects the items within the given distance of the given center.
+     *
+     * @param radius the radius of the circle in meters
+     */
+    ItemSelection<T> selectItemsInCircle(LatLng center, double radius);
+
+    /**
+     * Selects the items inside the given polygon.
+     *
+     * @param vertices the vertices of a simple polygon
+     */
+    ItemSelection<T> selectItemsInPolygon(List<LatLng> vertices);
+}
@@ -0,0 +1,70 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the tasks of a cluster manager on the shared {@link ClusterWorkerPool} one at a time,
+ * in the order they were submitted, so that clustering always sees the items set before it.
+ */
+class SerialExecutor implements Executor {
+
+    private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+    private Runnable mActiveTask;
+    private boolean mForeground = true;
+    private boolean mShutdown;
+
+    @Override
+    public synchronized void execute(@NonNull final Runnable task) {
+        // Tasks submitted after the manager has been destroyed are dropped.
+        if (mShutdown) {
+            return;
+        }
+
+        mTasks.offer(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (mActiveTask == null) {
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Sets whether the map of the manager is in the foreground. Its tasks that haven't been
+     * submitted to the pool yet run before the tasks of managers in the background.
+     */
+    synchronized void setForeground(boolean foreground) {
+        mForeground = foreground;
+    }
+
+    /**
+     * Drops the tasks that haven't started yet and any tasks submitted later.
+     */
+    synchronized void shutdown() {
+        mShutdown = true;
+        mTasks.clear();
+    }
+
+    /**
+     * Returns the number of tasks waiting for the running one to complete.
+     */
+    synchronized int getQueueSize() {
+        return mTasks.size();
+    }
+
+    private synchronized void scheduleNext() {
+        mActiveTask = mTasks.poll();
+        if (mActiveTask != null) {
+            ClusterWorkerPool.execute(mActiveTask, mForeground);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+import static net.sharewire.googlemapsclustering.Preconditions.checkNotNull;
+
+/**
+ * The clustering algorithm that clusters a {@link SharedClusterIndex}, so that several maps
+ * showing the same items don't each build an index of their own. The filters, the zoom
+ * quantization and the marker budget are set per algorithm, while the items and the reducer
+ * are the ones of the index.
+ *
+ * @param <T> the type of an item to be clustered
+ */
+public class SharedClusterAlgorithm<T extends ClusterItem> extends BaseClusterAlgorithm<T>
+        implements FilterableAlgorithm {
+
+    /**
+     * Creates a new algorithm that clusters the given index.
+     *
+     * @param index the index, which may be shared by any number of algorithms
+     */
+    @SuppressWarnings("WeakerAccess")
+    public SharedClusterAlgorithm(@NonNull SharedClusterIndex<T> index) {
+        super(checkNotNull(index).getIndex());
+        if (index.getIndex().getReducer() != null) {
+            setReducer(index.getIndex().getReducer());
+        }
+    }
+
+    /**
+     * Not supported, because the index is immutable.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setItems(List<T> items) {
+        throw new UnsupportedOperationException("A shared index is immutable");
+    }
+
+    @Override
+    public void setCategoryFilter(long categoryFilter) {
+        super.setCategoryFilter(categoryFilter);
+    }
+
+    @Override
+    public void setTimeWindow(long startTime, long endTime) {
+        super.setTimeWindow(startTime, endTime);
+    }
+
+    @Override
+    public void clearTimeWindow() {
+        super.clearTimeWindow();
+    }
+}
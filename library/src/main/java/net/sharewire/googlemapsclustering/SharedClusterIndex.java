@@ -0,0 +1,58 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+import static net.sharewire.googlemapsclustering.Preconditions.checkNotNull;
+
+/**
+ * An immutable index of items that is built once and shared by several maps, e.g. a main map
+ * and a mini-map showing the same data set. Each map clusters the index with its own
+ * {@link SharedClusterAlgorithm}, which keeps its own filters and buffers, so the maps can
+ * query the index on their own threads at the same time without locking.
+ * <p>
+ * Building the index takes as long as setting the items of a {@link ClusterAlgorithm},
+ * so create it on a background thread.
+ *
+ * @param <T> the type of an item to be clustered
+ */
+public final class SharedClusterIndex<T extends ClusterItem> {
+
+    private final ImmutableQuadTree<T> mIndex;
+
+    /**
+     * Builds an index of the given items.
+     *
+     * @param items the items to index, which may be modified afterwards
+     */
+    public SharedClusterIndex(@NonNull List<T> items) {
+        this(items, null);
+    }
+
+    /**
+     * Builds an index of the given items that keeps the values of its nodes reduced by the given
+     * reducer, see {@link ClusterAlgorithm#setReducer(ClusterReducer)}. The algorithms that share
+     * the index use the same reducer.
+     *
+     * @param items   the items to index, which may be modified afterwards
+     * @param reducer the reducer of the values of items, or <code>null</code> to not reduce them
+     */
+    @SuppressWarnings({"unchecked", "WeakerAccess"})
+    public SharedClusterIndex(@NonNull List<T> items, @Nullable ClusterReducer<T, ?> reducer) {
+        mIndex = new ImmutableQuadTree<>(checkNotNull(items), (ClusterReducer<T, Object>) reducer);
+    }
+
+    /**
+     * Returns the number of indexed items.
+     */
+    public int size() {
+        return mIndex.size();
+    }
+
+    @NonNull
+    ImmutableQuadTree<T> getIndex() {
+        return mIndex;
+    }
+}
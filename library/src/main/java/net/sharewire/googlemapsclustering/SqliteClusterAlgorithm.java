@@ -0,0 +1,104 @@
+package net.sharewire.googlemapsclustering;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+import static net.sharewire.googlemapsclustering.Preconditions.checkNotNull;
+
+/**
+ * The clustering algorithm that queries an SQLite R*Tree table, so that data sets too large
+ * for the heap can be clustered. The visible tiles are counted and averaged by aggregate SQL
+ * and items are loaded with {@link MappedClusterAlgorithm.ItemLoader} only when a cluster
+ * needs them, e.g. to display an individual marker or when the items of a cluster are accessed.
+ * <p>
+ * The table is created if it doesn't exist. It can be filled using {@link #setItems(List)},
+ * in which case the id of an item is its index in the list, or by the app itself using
+ * <pre>
+ * INSERT INTO table VALUES (id, latitude, latitude, longitude, longitude)
+ * </pre>
+ * Positions are stored with the precision of 32-bit floats, which is about a meter. The table
+ * doesn't store categories or timestamps, so items can't be filtered, and their values can't be reduced.
+ * Aggregating a whole country of items on every camera change is still slow, so low zoom
+ * levels are best precomputed, see {@link PreclusteredClusterAlgorithm}.
+ *
+ * @param <T> the type of an item to be clustered
+ */
+public class SqliteClusterAlgorithm<T extends ClusterItem> extends BaseClusterAlgorithm<T>
+        implements IncrementalAlgorithm<T> {
+
+    /**
+     * Creates a new algorithm that queries the given table of the given database.
+     *
+     * @param database   the database that contains the table
+     * @param table      the name of the R*Tree table
+     * @param itemLoader the loader of items by their ids
+     */
+    @SuppressWarnings("WeakerAccess")
+    public SqliteClusterAlgorithm(@NonNull SQLiteDatabase database, @NonNull String table,
+                                  @NonNull MappedClusterAlgorithm.ItemLoader<T> itemLoader) {
+        this(new AndroidDatabase(checkNotNull(database)), checkNotNull(table), checkNotNull(itemLoader));
+    }
+
+    SqliteClusterAlgorithm(@NonNull SqliteIndex.Database database, @NonNull String table,
+                           @NonNull MappedClusterAlgorithm.ItemLoader<T> itemLoader) {
+        super(new SqliteIndex<>(database, table, itemLoader));
+        SqliteIndex.createTable(database, table);
+    }
+
+    /**
+     * Inserts the given items into the table, with ids that follow the largest id in the table
+     * in the order of the list.
+     */
+    @Override
+    public void addItems(List<T> items) {
+        super.addItems(items);
+    }
+
+    private static class AndroidDatabase implements SqliteIndex.Database {
+
+        private final SQLiteDatabase mDatabase;
+
+        AndroidDatabase(@NonNull SQLiteDatabase database) {
+            mDatabase = database;
+        }
+
+        @Override
+        public void beginTransaction() {
+            mDatabase.beginTransaction();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            mDatabase.setTransactionSuccessful();
+        }
+
+        @Override
+        public void endTransaction() {
+            mDatabase.endTransaction();
+        }
+
+        @Override
+        public void execute(@NonNull String sql, @NonNull Object... args) {
+            mDatabase.execSQL(sql, args);
+        }
+
+        @Override
+        public void query(@NonNull String sql, @NonNull SqliteIndex.RowHandler handler) {
+            Cursor cursor = mDatabase.rawQuery(sql, null);
+            try {
+                double[] values = new double[cursor.getColumnCount()];
+                while (cursor.moveToNext()) {
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = cursor.getDouble(i);
+                    }
+                    handler.onRow(values);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+}
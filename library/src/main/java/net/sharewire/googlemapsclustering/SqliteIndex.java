@@ -0,0 +1,358 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An index that is stored in an SQLite R*Tree table and queried with SQL, so that neither
+ * the items nor the index have to be kept on the heap. The counts and the coordinate sums
+ * of tiles are aggregated by the database and items are loaded with
+ * {@link MappedClusterAlgorithm.ItemLoader} only when a cluster needs them.
+ * <p>
+ * The table has the columns <code>id, min_latitude, max_latitude, min_longitude, max_longitude</code>,
+ * where both minimum and maximum are the position of the item. An R*Tree stores coordinates as
+ * 32-bit floats, rounding the minimum down and the maximum up, so positions are taken from
+ * the middle of the stored ranges and are precise to about a meter.
+ */
+class SqliteIndex<T extends ClusterItem> implements ClusterIndex<T> {
+
+    // Regions are split until the items of a partially covered rectangle are few enough to be checked one by one.
+    private static final int REGION_LEAF_SIZE = 256;
+    private static final int MAX_REGION_DEPTH = 16;
+
+    private static final double INITIAL_SEARCH_RADIUS = 1000.0;
+
+    /**
+     * The connection to the database that contains the table.
+     */
+    interface Database {
+
+        void beginTransaction();
+
+        void setTransactionSuccessful();
+
+        void endTransaction();
+
+        /**
+         * Executes the given statement with the given arguments, which are {@link Long} or {@link Double}.
+         */
+        void execute(@NonNull String sql, @NonNull Object... args);
+
+        /**
+         * Runs the given query, whose columns are all numbers, and passes each row to the handler.
+         */
+        void query(@NonNull String sql, @NonNull RowHandler handler);
+    }
+
+    interface RowHandler {
+        /**
+         * @param values the values of the columns of the row, reused between rows
+         */
+        void onRow(@NonNull double[] values);
+    }
+
+    private final Database database;
+    private final String table;
+    private final MappedClusterAlgorithm.ItemLoader<T> itemLoader;
+
+    SqliteIndex(@NonNull Database database, @NonNull String table,
+                @NonNull MappedClusterAlgorithm.ItemLoader<T> itemLoader) {
+        this.database = database;
+        this.table = table;
+        this.itemLoader = itemLoader;
+    }
+
+    /**
+     * Creates the table, unless it already exists.
+     */
+    static void createTable(@NonNull Database database, @NonNull String table) {
+        database.execute("CREATE VIRTUAL TABLE IF NOT EXISTS " + table
+                + " USING rtree(id, min_latitude, max_latitude, min_longitude, max_longitude)");
+    }
+
+    /**
+     * Replaces the rows of the table with the given items. The id of an item is its index in the list.
+     */
+    @Override
+    public void setItems(@NonNull List<T> items) {
+        database.beginTransaction();
+        try {
+            database.execute("DELETE FROM " + table);
+            insert(items, 0);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Adds rows for the given items. Their ids follow the largest id of the table.
+     */
+    @Override
+    public void addItems(@NonNull List<T> items) {
+        final long[] firstId = new long[1];
+        database.beginTransaction();
+        try {
+            database.query("SELECT IFNULL(MAX(id) + 1, 0) FROM " + table, new RowHandler() {
+                @Override
+                public void onRow(@NonNull double[] values) {
+                    firstId[0] = (long) values[0];
+                }
+            });
+            insert(items, firstId[0]);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Does nothing, because the items are kept in the database.
+     */
+    @Override
+    public long trimMemory(int level) {
+        return 0;
+    }
+
+    @Override
+    public void aggregateTiles(@NonNull final TileBuckets buckets, @NonNull ItemFilter filter) {
+        database.query("SELECT " + tileColumns(buckets.getStepLatitude(), buckets.getStepLongitude())
+                        + ", COUNT(*), SUM(latitude), SUM(longitude) FROM (" + selectPositions()
+                        + " WHERE " + overlaps(buckets.north, buckets.west, buckets.south, buckets.east)
+                        + ") GROUP BY 1, 2",
+                new RowHandler() {
+                    @Override
+                    public void onRow(@NonNull double[] values) {
+                        buckets.addToTile((long) values[0], (long) values[1], (int) values[2], values[3], values[4]);
+                    }
+                });
+    }
+
+    @Override
+    public void queryTile(double stepLatitude, double stepLongitude, long tileX, long tileY,
+                          @NonNull ItemFilter filter, @NonNull final List<T> items) {
+        double north = 90.0 - tileY * stepLatitude;
+        double west = tileX * stepLongitude - 180.0;
+        database.query("SELECT id FROM (" + selectPositions()
+                        + " WHERE " + overlaps(north, west, north - stepLatitude, west + stepLongitude)
+                        + ") WHERE " + tileXColumn(stepLongitude) + " = " + tileX
+                        + " AND " + tileYColumn(stepLatitude) + " = " + tileY,
+                new RowHandler() {
+                    @Override
+                    public void onRow(@NonNull double[] values) {
+                        items.add(itemLoader.loadItem((int) values[0]));
+                    }
+                });
+    }
+
+    @NonNull
+    @Override
+    public List<T> tileView(final double stepLatitude, final double stepLongitude,
+                            final long tileX, final long tileY, @NonNull final ItemFilter filter, int expectedSize) {
+        return new LazyItemList<T>(expectedSize) {
+            @Override
+            void queryItems(@NonNull List<T> items) {
+                queryTile(stepLatitude, stepLongitude, tileX, tileY, filter, items);
+            }
+        };
+    }
+
+    /**
+     * Queries the items inside the bounding box of circles of growing radius,
+     * until the box contains enough items within the radius.
+     */
+    @Override
+    public void queryNearest(final double latitude, final double longitude, int count, double maxDistance,
+                             @NonNull ItemFilter filter, @NonNull List<T> items) {
+        final List<double[]> found = new ArrayList<>();
+        double radius = Math.min(INITIAL_SEARCH_RADIUS, maxDistance);
+        while (true) {
+            found.clear();
+            final double searchRadius = radius;
+            RowHandler handler = new RowHandler() {
+                @Override
+                public void onRow(@NonNull double[] values) {
+                    double distance = Distances.distance(latitude, longitude, values[1], values[2]);
+                    if (distance <= searchRadius) {
+                        found.add(new double[]{distance, values[0]});
+                    }
+                }
+            };
+
+            double angle = Math.toDegrees(radius / Distances.EARTH_RADIUS_METERS);
+            double north = latitude + angle;
+            double south = latitude - angle;
+            if (north >= 90.0 || south <= -90.0 || angle >= 90.0) {
+                // The circle contains a pole, so it spans all longitudes.
+                queryPositions(Math.min(north, 90.0), -180.0, Math.max(south, -90.0), 180.0, handler);
+            } else {
+                double longitudeDelta = Math.toDegrees(Math.asin(Math.min(1.0,
+                        Math.sin(Math.toRadians(angle)) / Math.cos(Math.toRadians(latitude)))));
+                double west = longitude - longitudeDelta;
+                double east = longitude + longitudeDelta;
+                if (west < -180.0) {
+                    queryPositions(north, west + 360.0, south, 180.0, handler);
+                    west = -180.0;
+                }
+                if (east > 180.0) {
+                    queryPositions(north, -180.0, south, east - 360.0, handler);
+                    east = 180.0;
+                }
+                queryPositions(north, west, south, east, handler);
+            }
+
+            if (found.size() >= count || radius >= maxDistance || angle >= 180.0) {
+                break;
+            }
+            radius = Math.min(radius * 4.0, maxDistance);
+        }
+
+        Collections.sort(found, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] first, double[] second) {
+                return Double.compare(first[0], second[0]);
+            }
+        });
+        for (int i = 0, size = Math.min(count, found.size()); i < size; i++) {
+            items.add(itemLoader.loadItem((int) found.get(i)[1]));
+        }
+    }
+
+    @Override
+    public int countRegion(@NonNull Region region, @NonNull ItemFilter filter) {
+        return queryRegion(region, null, 90.0, -180.0, -90.0, 180.0, 0);
+    }
+
+    @Override
+    public void queryRegion(@NonNull Region region, @NonNull ItemFilter filter, @NonNull List<T> items) {
+        queryRegion(region, items, 90.0, -180.0, -90.0, 180.0, 0);
+    }
+
+    /**
+     * Counts the items inside the region and the given rectangle, and adds them to the given list
+     * unless it's <code>null</code>. Rectangles inside the region are counted by the database,
+     * rectangles that are partially covered are split into quarters until they contain few items.
+     */
+    private int queryRegion(@NonNull final Region region, final List<T> items,
+                            double north, double west, double south, double east, int depth) {
+        int classification = region.classify(north, west, south, east);
+        if (classification == Region.OUTSIDE) {
+            return 0;
+        }
+
+        final int[] count = new int[1];
+        if (items == null || classification == Region.PARTIAL) {
+            database.query("SELECT COUNT(*) FROM (" + selectPositions() + " WHERE "
+                            + overlaps(north, west, south, east) + ") WHERE " + contains(north, west, south, east),
+                    new RowHandler() {
+                        @Override
+                        public void onRow(@NonNull double[] values) {
+                            count[0] = (int) values[0];
+                        }
+                    });
+            if (count[0] == 0 || (classification == Region.INSIDE && items == null)) {
+                return count[0];
+            }
+        }
+
+        if (classification == Region.PARTIAL && count[0] > REGION_LEAF_SIZE && depth < MAX_REGION_DEPTH) {
+            double latitude = (north + south) / 2.0;
+            double longitude = (west + east) / 2.0;
+            return queryRegion(region, items, north, west, latitude, longitude, depth + 1)
+                    + queryRegion(region, items, north, longitude, latitude, east, depth + 1)
+                    + queryRegion(region, items, latitude, west, south, longitude, depth + 1)
+                    + queryRegion(region, items, latitude, longitude, south, east, depth + 1);
+        }
+
+        final boolean checkItems = classification == Region.PARTIAL;
+        count[0] = 0;
+        database.query("SELECT * FROM (" + selectPositions() + " WHERE "
+                        + overlaps(north, west, south, east) + ") WHERE " + contains(north, west, south, east),
+                new RowHandler() {
+                    @Override
+                    public void onRow(@NonNull double[] values) {
+                        if (!checkItems || region.contains(values[1], values[2])) {
+                            count[0]++;
+                            if (items != null) {
+                                items.add(itemLoader.loadItem((int) values[0]));
+                            }
+                        }
+                    }
+                });
+        return count[0];
+    }
+
+    private void insert(@NonNull List<T> items, long firstId) {
+        String sql = "INSERT INTO " + table + " VALUES (?, ?, ?, ?, ?)";
+        long id = firstId;
+        for (T item : items) {
+            double latitude = item.getPosition().latitude;
+            double longitude = item.getPosition().longitude;
+            database.execute(sql, id++, latitude, latitude, longitude, longitude);
+        }
+    }
+
+    /**
+     * Passes the id, the latitude and the longitude of each item inside the given rectangle to the handler.
+     */
+    private void queryPositions(double north, double west, double south, double east, @NonNull RowHandler handler) {
+        database.query(selectPositions() + " WHERE " + overlaps(north, west, south, east), handler);
+    }
+
+    @NonNull
+    private String selectPositions() {
+        return "SELECT id, (min_latitude + max_latitude) / 2.0 AS latitude,"
+                + " (min_longitude + max_longitude) / 2.0 AS longitude FROM " + table;
+    }
+
+    /**
+     * Returns the condition on the stored ranges that the R*Tree uses to find the rows inside a rectangle.
+     */
+    @NonNull
+    private static String overlaps(double north, double west, double south, double east) {
+        return "max_latitude >= " + south + " AND min_latitude <= " + north
+                + " AND max_longitude >= " + west + " AND min_longitude <= " + east;
+    }
+
+    /**
+     * Returns the condition on positions that assigns a position on the border of two quarters of a
+     * rectangle to only one of them: a rectangle contains its north and west borders, and its south
+     * and east borders only at the south pole and the antimeridian.
+     */
+    @NonNull
+    private static String contains(double north, double west, double south, double east) {
+        return "latitude " + (south == -90.0 ? ">= " : "> ") + south + " AND latitude <= " + north
+                + " AND longitude >= " + west + " AND longitude " + (east == 180.0 ? "<= " : "< ") + east;
+    }
+
+    @NonNull
+    private static String tileColumns(double stepLatitude, double stepLongitude) {
+        return tileXColumn(stepLongitude) + ", " + tileYColumn(stepLatitude);
+    }
+
+    /**
+     * Returns the column of the tile x of positions, the same as {@link TileBuckets#tileX(double, double)}.
+     */
+    @NonNull
+    private static String tileXColumn(double stepLongitude) {
+        return tileColumn("longitude + 180.0", stepLongitude, Math.round(360.0 / stepLongitude) - 1);
+    }
+
+    /**
+     * Returns the column of the tile y of positions, the same as {@link TileBuckets#tileY(double, double)}.
+     */
+    @NonNull
+    private static String tileYColumn(double stepLatitude) {
+        return tileColumn("90.0 - latitude", stepLatitude, Math.round(180.0 / stepLatitude) - 1);
+    }
+
+    @NonNull
+    private static String tileColumn(@NonNull String offset, double step, long maxTile) {
+        // The south pole and the antimeridian belong to the last tile, not to one past it.
+        return "MIN(CAST((" + offset + ") / " + step + " AS INTEGER), " + maxTile + ")";
+    }
+}
@@ -0,0 +1,33 @@
+package net.sharewire.googlemapsclustering;
+
+import static net.sharewire.googlemapsclustering.Preconditions.checkArgument;
+
+/**
+ * The clustering algorithm for large sets of timestamped items that are displayed in a moving
+ * time window, e.g. for playback. Items are split into buckets of the given duration by their
+ * timestamps, and each bucket has its own index, so the clusters of a time window are computed
+ * mostly from the aggregates of whole buckets. A window that starts and ends at bucket boundaries
+ * is the fastest to cluster.
+ *
+ * @param <T> the type of an item to be clustered
+ * @see TimedClusterItem
+ * @see ClusterManager#setTimeWindow(long, long)
+ */
+public class TemporalClusterAlgorithm<T extends ClusterItem> extends ClusterAlgorithm<T> {
+
+    /**
+     * Creates a new algorithm with the given bucket duration.
+     *
+     * @param bucketDuration the duration of a bucket in the unit of the timestamps of items,
+     *                       e.g. a minute for the playback of a day of vehicle positions
+     */
+    @SuppressWarnings("WeakerAccess")
+    public TemporalClusterAlgorithm(long bucketDuration) {
+        super(new TemporalIndex<T>(checkPositive(bucketDuration), QUAD_TREE_BUCKET_CAPACITY));
+    }
+
+    private static long checkPositive(long bucketDuration) {
+        checkArgument(bucketDuration > 0);
+        return bucketDuration;
+    }
+}
@@ -0,0 +1,176 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * An index that splits items into buckets of a fixed duration by their timestamps and keeps
+ * a quad tree per bucket. A time window uses the aggregates of the buckets that lie inside it
+ * as they are and filters only the buckets at its edges, so moving the window never rebuilds
+ * the index. Items without a timestamp are kept in a separate tree.
+ */
+class TemporalIndex<T extends ClusterItem> implements ReducingIndex<T> {
+
+    private final long bucketDuration;
+    private final int bucketSize;
+
+    // The trees of the buckets by the start of their time range.
+    private final TreeMap<Long, QuadTree<T>> timeBuckets = new TreeMap<>();
+    private final QuadTree<T> untimedItems;
+    private ClusterReducer<T, Object> reducer;
+
+    TemporalIndex(long bucketDuration, int bucketSize) {
+        this.bucketDuration = bucketDuration;
+        this.bucketSize = bucketSize;
+        this.untimedItems = new QuadTree<>(bucketSize);
+    }
+
+    // Lazy views may query the trees from another thread while items are being added.
+    @Override
+    public synchronized void setItems(@NonNull List<T> items) {
+        timeBuckets.clear();
+        untimedItems.clear();
+        addItems(items);
+    }
+
+    @Override
+    public synchronized void addItems(@NonNull List<T> items) {
+        for (T item : items) {
+            if (item instanceof TimedClusterItem) {
+                getTimeBucket(((TimedClusterItem) item).getTimestamp()).insert(item);
+            } else {
+                untimedItems.insert(item);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setReducer(@Nullable ClusterReducer<T, Object> reducer) {
+        this.reducer = reducer;
+        untimedItems.setReducer(reducer);
+        for (QuadTree<T> timeBucket : timeBuckets.values()) {
+            timeBucket.setReducer(reducer);
+        }
+    }
+
+    @Override
+    public synchronized long trimMemory(int level) {
+        long freedBytes = untimedItems.trimMemory(level);
+        for (QuadTree<T> timeBucket : timeBuckets.values()) {
+            freedBytes += timeBucket.trimMemory(level);
+        }
+        return freedBytes;
+    }
+
+    @Override
+    public synchronized void aggregateTiles(@NonNull TileBuckets buckets, @NonNull ItemFilter filter) {
+        ItemFilter filterInsideWindow = filter.withoutTimeWindow();
+        untimedItems.aggregateTiles(buckets, filterInsideWindow);
+
+        for (Map.Entry<Long, QuadTree<T>> timeBucket : getTimeBuckets(filter).entrySet()) {
+            timeBucket.getValue().aggregateTiles(buckets,
+                    isInsideTimeWindow(timeBucket.getKey(), filter) ? filterInsideWindow : filter);
+        }
+    }
+
+    @Override
+    public synchronized void queryTile(double stepLatitude, double stepLongitude, long tileX, long tileY,
+                                       @NonNull ItemFilter filter, @NonNull List<T> items) {
+        ItemFilter filterInsideWindow = filter.withoutTimeWindow();
+        untimedItems.queryTile(stepLatitude, stepLongitude, tileX, tileY, filterInsideWindow, items);
+
+        for (Map.Entry<Long, QuadTree<T>> timeBucket : getTimeBuckets(filter).entrySet()) {
+            timeBucket.getValue().queryTile(stepLatitude, stepLongitude, tileX, tileY,
+                    isInsideTimeWindow(timeBucket.getKey(), filter) ? filterInsideWindow : filter, items);
+        }
+    }
+
+    @Override
+    public synchronized void queryNearest(double latitude, double longitude, int count, double maxDistance,
+                                          @NonNull ItemFilter filter, @NonNull List<T> items) {
+        // The trees are searched together, so that only the nodes nearest to the position are expanded.
+        NearestSearch<T> search = QuadTreeNode.nearestSearch(latitude, longitude, count, maxDistance, filter);
+        untimedItems.addToSearch(search, filter);
+        for (QuadTree<T> timeBucket : getTimeBuckets(filter).values()) {
+            timeBucket.addToSearch(search, filter);
+        }
+        search.run(items);
+    }
+
+    @Override
+    public synchronized int countRegion(@NonNull Region region, @NonNull ItemFilter filter) {
+        ItemFilter filterInsideWindow = filter.withoutTimeWindow();
+        int count = untimedItems.countRegion(region, filterInsideWindow);
+
+        for (Map.Entry<Long, QuadTree<T>> timeBucket : getTimeBuckets(filter).entrySet()) {
+            count += timeBucket.getValue().countRegion(region,
+                    isInsideTimeWindow(timeBucket.getKey(), filter) ? filterInsideWindow : filter);
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void queryRegion(@NonNull Region region, @NonNull ItemFilter filter,
+                                         @NonNull List<T> items) {
+        ItemFilter filterInsideWindow = filter.withoutTimeWindow();
+        untimedItems.queryRegion(region, filterInsideWindow, items);
+
+        for (Map.Entry<Long, QuadTree<T>> timeBucket : getTimeBuckets(filter).entrySet()) {
+            timeBucket.getValue().queryRegion(region,
+                    isInsideTimeWindow(timeBucket.getKey(), filter) ? filterInsideWindow : filter, items);
+        }
+    }
+
+    @NonNull
+    @Override
+    public List<T> tileView(final double stepLatitude, final double stepLongitude,
+                            final long tileX, final long tileY, @NonNull final ItemFilter filter, int expectedSize) {
+        return new LazyItemList<T>(expectedSize) {
+            @Override
+            void queryItems(@NonNull List<T> items) {
+                queryTile(stepLatitude, stepLongitude, tileX, tileY, filter, items);
+            }
+        };
+    }
+
+    @NonNull
+    private QuadTree<T> getTimeBucket(long timestamp) {
+        long bucketStart = timestamp - mod(timestamp, bucketDuration);
+        QuadTree<T> timeBucket = timeBuckets.get(bucketStart);
+        if (timeBucket == null) {
+            timeBucket = new QuadTree<>(bucketSize);
+            timeBucket.setReducer(reducer);
+            timeBuckets.put(bucketStart, timeBucket);
+        }
+        return timeBucket;
+    }
+
+    /**
+     * Returns the buckets that overlap the time window of the given filter.
+     */
+    @NonNull
+    private NavigableMap<Long, QuadTree<T>> getTimeBuckets(@NonNull ItemFilter filter) {
+        if (!filter.hasTimeWindow()) {
+            return timeBuckets;
+        }
+
+        Long firstBucketStart = timeBuckets.floorKey(filter.getStartTime());
+        return timeBuckets.subMap(firstBucketStart != null ? firstBucketStart : filter.getStartTime(), true,
+                filter.getEndTime(), false);
+    }
+
+    private boolean isInsideTimeWindow(long bucketStart, @NonNull ItemFilter filter) {
+        return !filter.hasTimeWindow()
+                || (bucketStart >= filter.getStartTime() && bucketStart + bucketDuration <= filter.getEndTime());
+    }
+
+    private static long mod(long value, long divisor) {
+        long remainder = value % divisor;
+        return remainder < 0 ? remainder + divisor : remainder;
+    }
+}
@@ -0,0 +1,268 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the number of points and the sums of their coordinates for each tile
+ * of a grid, so that all visible tiles are aggregated in a single traversal of the index.
+ * If a reducer is set, the values of the points of each tile are reduced as well.
+ * The arrays are reused between traversals.
+ */
+class TileBuckets {
+
+    private static final int[] EMPTY_COUNTS = new int[0];
+    private static final double[] EMPTY_SUMS = new double[0];
+    private static final Object[] EMPTY_AGGREGATES = new Object[0];
+
+    double north;
+    double west;
+    double south;
+    double east;
+
+    private double stepLatitude;
+    private double stepLongitude;
+    private long startX;
+    private long startY;
+    private int columns;
+    private int rows;
+
+    private int[] counts = EMPTY_COUNTS;
+    private double[] latitudeSums = EMPTY_SUMS;
+    private double[] longitudeSums = EMPTY_SUMS;
+
+    private ClusterReducer<ClusterItem, Object> reducer;
+    private Object[] aggregates = EMPTY_AGGREGATES;
+
+    /**
+     * Returns the column of the tile containing the given longitude. Points on the antimeridian
+     * belong to the last column, the same as in the precluster tool.
+     */
+    static long tileX(double longitude, double stepLongitude) {
+        long tileX = (long) ((longitude + 180.0) / stepLongitude);
+        if (tileX * stepLongitude < 360.0 - stepLongitude) {
+            return tileX;
+        }
+        return Math.min(tileX, Math.round(360.0 / stepLongitude) - 1);
+    }
+
+    /**
+     * Returns the row of the tile containing the given latitude. Points on the south pole
+     * belong to the last row, the same as in the precluster tool.
+     */
+    static long tileY(double latitude, double stepLatitude) {
+        long tileY = (long) ((90.0 - latitude) / stepLatitude);
+        if (tileY * stepLatitude < 180.0 - stepLatitude) {
+            return tileY;
+        }
+        return Math.min(tileY, Math.round(180.0 / stepLatitude) - 1);
+    }
+
+    /**
+     * Resets the buckets to cover the tiles from (startX, startY) to (endX, endY) inclusive.
+     */
+    void reset(long startX, long startY, long endX, long endY, double stepLatitude, double stepLongitude) {
+        this.stepLatitude = stepLatitude;
+        this.stepLongitude = stepLongitude;
+        this.startX = startX;
+        this.startY = startY;
+        this.columns = (int) (endX - startX + 1);
+        this.rows = (int) (endY - startY + 1);
+
+        north = 90.0 - startY * stepLatitude;
+        west = startX * stepLongitude - 180.0;
+        south = 90.0 - (endY + 1) * stepLatitude;
+        east = (endX + 1) * stepLongitude - 180.0;
+
+        int size = columns * rows;
+        if (counts.length < size) {
+            counts = new int[size];
+            latitudeSums = new double[size];
+            longitudeSums = new double[size];
+        } else {
+            for (int i = 0; i < size; i++) {
+                counts[i] = 0;
+                latitudeSums[i] = 0;
+                longitudeSums[i] = 0;
+            }
+        }
+
+        if (reducer != null) {
+            if (aggregates.length < size) {
+                aggregates = new Object[counts.length];
+            }
+            Arrays.fill(aggregates, 0, size, reducer.identity());
+        }
+    }
+
+    /**
+     * Sets the reducer of the values of points, which must be the one the index was built with.
+     */
+    @SuppressWarnings("unchecked")
+    void setReducer(@Nullable ClusterReducer<?, ?> reducer) {
+        this.reducer = (ClusterReducer<ClusterItem, Object>) reducer;
+        if (reducer == null) {
+            aggregates = EMPTY_AGGREGATES;
+        }
+    }
+
+    boolean hasReducer() {
+        return reducer != null;
+    }
+
+    /**
+     * Returns the value of no points, or <code>null</code> if there is no reducer.
+     */
+    @Nullable
+    Object identity() {
+        return reducer != null ? reducer.identity() : null;
+    }
+
+    /**
+     * Returns the given value combined with the value of the given point,
+     * or <code>null</code> if there is no reducer.
+     */
+    @Nullable
+    Object reduce(@Nullable Object aggregate, @NonNull ClusterItem point) {
+        return reducer != null ? reducer.combine(aggregate, reducer.extract(point)) : null;
+    }
+
+    void add(double latitude, double longitude) {
+        int index = indexOf(tileX(longitude, stepLongitude), tileY(latitude, stepLatitude));
+        if (index >= 0) {
+            counts[index]++;
+            latitudeSums[index] += latitude;
+            longitudeSums[index] += longitude;
+        }
+    }
+
+    /**
+     * Adds the given point to its tile, reducing its value if there is a reducer.
+     */
+    void add(@NonNull ClusterItem point, double latitude, double longitude) {
+        int index = indexOf(tileX(longitude, stepLongitude), tileY(latitude, stepLatitude));
+        if (index >= 0) {
+            counts[index]++;
+            latitudeSums[index] += latitude;
+            longitudeSums[index] += longitude;
+            if (reducer != null) {
+                aggregates[index] = reducer.combine(aggregates[index], reducer.extract(point));
+            }
+        }
+    }
+
+    /**
+     * Checks whether all points inside the given bounds belong to the same tile.
+     */
+    boolean isInsideTile(double north, double west, double south, double east) {
+        return tileX(west, stepLongitude) == tileX(east, stepLongitude)
+                && tileY(north, stepLatitude) == tileY(south, stepLatitude);
+    }
+
+    /**
+     * Adds the aggregates of a node to the tile containing the node.
+     *
+     * @param aggregate the reduced value of the points of the node, ignored if there is no reducer
+     * @return <code>true</code> if the node lies inside a single tile;
+     * <code>false</code> if it spans multiple tiles and has to be split
+     */
+    boolean addIfInsideTile(double north, double west, double south, double east,
+                            int count, double latitudeSum, double longitudeSum, @Nullable Object aggregate) {
+        if (!isInsideTile(north, west, south, east)) {
+            return false;
+        }
+
+        int index = indexOf(tileX(west, stepLongitude), tileY(north, stepLatitude));
+        if (index >= 0) {
+            counts[index] += count;
+            latitudeSums[index] += latitudeSum;
+            longitudeSums[index] += longitudeSum;
+            if (reducer != null) {
+                aggregates[index] = reducer.combine(aggregates[index], aggregate);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the aggregates of the given tile, if it's one of the tiles of the buckets.
+     */
+    void addToTile(long tileX, long tileY, int count, double latitudeSum, double longitudeSum) {
+        int index = indexOf(tileX, tileY);
+        if (index >= 0) {
+            counts[index] += count;
+            latitudeSums[index] += latitudeSum;
+            longitudeSums[index] += longitudeSum;
+        }
+    }
+
+    /**
+     * Drops the arrays, which are allocated again by the next reset.
+     *
+     * @return the estimated number of bytes freed
+     */
+    long release() {
+        long bytes = MemorySizes.arrayBytes(counts.length, 4) + 2 * MemorySizes.arrayBytes(latitudeSums.length, 8)
+                + MemorySizes.arrayBytes(aggregates.length, MemorySizes.REFERENCE_BYTES);
+        counts = EMPTY_COUNTS;
+        latitudeSums = EMPTY_SUMS;
+        longitudeSums = EMPTY_SUMS;
+        aggregates = EMPTY_AGGREGATES;
+        return bytes;
+    }
+
+    double getStepLatitude() {
+        return stepLatitude;
+    }
+
+    double getStepLongitude() {
+        return stepLongitude;
+    }
+
+    long getStartX() {
+        return startX;
+    }
+
+    long getStartY() {
+        return startY;
+    }
+
+    long getEndX() {
+        return startX + columns - 1;
+    }
+
+    long getEndY() {
+        return startY + rows - 1;
+    }
+
+    int getCount(long tileX, long tileY) {
+        return counts[indexOf(tileX, tileY)];
+    }
+
+    double getLatitudeSum(long tileX, long tileY) {
+        return latitudeSums[indexOf(tileX, tileY)];
+    }
+
+    double getLongitudeSum(long tileX, long tileY) {
+        return longitudeSums[indexOf(tileX, tileY)];
+    }
+
+    /**
+     * Returns the reduced value of the points of the given tile, or <code>null</code> if there is no reducer.
+     */
+    @Nullable
+    Object getAggregate(long tileX, long tileY) {
+        return reducer != null ? aggregates[indexOf(tileX, tileY)] : null;
+    }
+
+    private int indexOf(long tileX, long tileY) {
+        long column = tileX - startX;
+        long row = tileY - startY;
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            return -1;
+        }
+        return (int) (column * rows + row);
+    }
+}
@@ -0,0 +1,15 @@
+package net.sharewire.googlemapsclustering;
+
+/**
+ * A cluster item with a timestamp, so it can be shown or hidden
+ * by a time window without rebuilding the index.
+ *
+ * @see ClusterManager#setTimeWindow(long, long)
+ */
+public interface TimedClusterItem extends ClusterItem {
+
+    /**
+     * Returns the timestamp of the item, in any unit as long as it's the same for all items and time windows.
+     */
+    long getTimestamp();
+}
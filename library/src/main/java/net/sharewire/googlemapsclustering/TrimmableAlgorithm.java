@@ -0,0 +1,17 @@
+package net.sharewire.googlemapsclustering;
+
+/**
+ * A clustering algorithm that releases memory when the system runs low on it.
+ * {@link ClusterManager} checks for this interface, so it's optional for custom algorithms.
+ *
+ * @see ClusterManager#onTrimMemory(int)
+ */
+public interface TrimmableAlgorithm {
+    /**
+     * Releases memory depending on the given level of {@link android.content.ComponentCallbacks2}
+     * and restores what it released when it's needed again.
+     *
+     * @return the estimated number of bytes freed
+     */
+    long trimMemory(int level);
+}
@@ -0,0 +1,74 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recorded camera session: the visible bounds and the zoom level of every camera idle event.
+ * A trace is a text file with one event per line, <code>north west south east zoom</code>,
+ * and comment lines starting with <code>#</code>.
+ */
+final class CameraTrace {
+
+    final String name;
+    final List<LatLngBounds> bounds;
+    final List<Float> zoomLevels;
+
+    private CameraTrace(@NonNull String name, @NonNull List<LatLngBounds> bounds, @NonNull List<Float> zoomLevels) {
+        this.name = name;
+        this.bounds = Collections.unmodifiableList(bounds);
+        this.zoomLevels = Collections.unmodifiableList(zoomLevels);
+    }
+
+    int size() {
+        return bounds.size();
+    }
+
+    /**
+     * Reads the trace with the given name from the <code>traces</code> directory of the test resources.
+     */
+    @NonNull
+    static CameraTrace load(@NonNull String name) throws IOException {
+        InputStream input = CameraTrace.class.getClassLoader().getResourceAsStream("traces/" + name + ".trace");
+        if (input == null) {
+            throw new IOException("No camera trace " + name);
+        }
+
+        List<LatLngBounds> bounds = new ArrayList<>();
+        List<Float> zoomLevels = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] values = line.split("\\s+");
+                if (values.length != 5) {
+                    throw new IOException("Malformed camera event in " + name + ": " + line);
+                }
+                double north = Double.parseDouble(values[0]);
+                double west = Double.parseDouble(values[1]);
+                double south = Double.parseDouble(values[2]);
+                double east = Double.parseDouble(values[3]);
+                bounds.add(new LatLngBounds(new LatLng(south, west), new LatLng(north, east)));
+                zoomLevels.add(Float.parseFloat(values[4]));
+            }
+        } finally {
+            reader.close();
+        }
+        return new CameraTrace(name, bounds, zoomLevels);
+    }
+}
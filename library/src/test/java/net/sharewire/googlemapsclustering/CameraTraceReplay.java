@@ -0,0 +1,207 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Replays a camera trace the way {@link ClusterManager} handles camera idle events: clusters
+ * the items for every event and renders the clusters onto a fake map surface that records
+ * the marker calls {@link ClusterRenderer} would make. The latency of an event is the time
+ * from the camera idle event to the last marker call, without the thread hop and animations.
+ */
+final class CameraTraceReplay<T extends ClusterItem> {
+
+    private final ClusteringAlgorithm<T> algorithm;
+    private final RecordingMapSurface<T> surface = new RecordingMapSurface<>();
+
+    CameraTraceReplay(@NonNull ClusteringAlgorithm<T> algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    @NonNull
+    Report replay(@NonNull CameraTrace trace) {
+        long[] latencies = new long[trace.size()];
+        long allocatedBytes = 0;
+        RecordingMapSurface.Counts startCounts = surface.counts();
+
+        for (int i = 0; i < trace.size(); i++) {
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+
+            List<MarkerCluster<T>> clusters = algorithm.getClusters(trace.bounds.get(i), trace.zoomLevels.get(i));
+            surface.render(clusters);
+
+            latencies[i] = System.nanoTime() - start;
+            allocatedBytes += getAllocatedBytes() - allocatedBefore;
+        }
+
+        return new Report(trace.name, latencies, surface.counts().minus(startCounts), allocatedBytes,
+                surface.getMarkerCount());
+    }
+
+    /**
+     * Renders the given camera event again, e.g. after the items have changed,
+     * and returns the marker calls it took.
+     */
+    @NonNull
+    RecordingMapSurface.Counts replayEvent(@NonNull CameraTrace trace, int event) {
+        RecordingMapSurface.Counts startCounts = surface.counts();
+        surface.render(algorithm.getClusters(trace.bounds.get(event), trace.zoomLevels.get(event)));
+        return surface.counts().minus(startCounts);
+    }
+
+    int getMarkerCount() {
+        return surface.getMarkerCount();
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * The latency percentiles, marker churn and allocations of a replayed trace.
+     */
+    static final class Report {
+
+        final String traceName;
+        final int eventCount;
+        final double p50Millis;
+        final double p95Millis;
+        final double p99Millis;
+        final double maxMillis;
+        final RecordingMapSurface.Counts counts;
+        final long allocatedBytes;
+        final int finalMarkerCount;
+
+        private Report(@NonNull String traceName, @NonNull long[] latencies, @NonNull RecordingMapSurface.Counts counts,
+                       long allocatedBytes, int finalMarkerCount) {
+            long[] sortedLatencies = latencies.clone();
+            Arrays.sort(sortedLatencies);
+            this.traceName = traceName;
+            this.eventCount = latencies.length;
+            this.p50Millis = percentile(sortedLatencies, 0.50);
+            this.p95Millis = percentile(sortedLatencies, 0.95);
+            this.p99Millis = percentile(sortedLatencies, 0.99);
+            this.maxMillis = sortedLatencies[sortedLatencies.length - 1] / 1e6;
+            this.counts = counts;
+            this.allocatedBytes = allocatedBytes;
+            this.finalMarkerCount = finalMarkerCount;
+        }
+
+        /**
+         * Returns the number of markers added and removed per camera idle event.
+         */
+        double getChurnPerEvent() {
+            return (double) (counts.addMarkerCalls + counts.removeCalls) / eventCount;
+        }
+
+        private static double percentile(@NonNull long[] sortedLatencies, double fraction) {
+            int index = (int) Math.ceil(fraction * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(index, 0)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: %d events, latency p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms; "
+                            + "addMarker %d, remove %d, setPosition %d, setIcon %d, animations %d, "
+                            + "churn %.1f markers per event; "
+                            + "allocated %.1f KB per event; %d markers at the end",
+                    traceName, eventCount, p50Millis, p95Millis, p99Millis, maxMillis,
+                    counts.addMarkerCalls, counts.removeCalls, counts.setPositionCalls, counts.setIconCalls,
+                    counts.animations,
+                    getChurnPerEvent(), allocatedBytes / 1024.0 / eventCount, finalMarkerCount);
+        }
+    }
+
+    /**
+     * A fake map that applies the same {@link RenderDiff} as {@link ClusterRenderer}
+     * and counts the marker calls instead of making them.
+     */
+    static final class RecordingMapSurface<T extends ClusterItem> {
+
+        // The clusters the markers were created or last updated for, the same as their tags.
+        private final Map<MarkerCluster<T>, MarkerCluster<T>> markers = new HashMap<>();
+
+        long addMarkerCalls;
+        long removeCalls;
+        long setPositionCalls;
+        long setIconCalls;
+        long animations;
+
+        void render(@NonNull List<MarkerCluster<T>> clusters) {
+            RenderDiff<T> diff = RenderDiff.compute(markers.keySet(), clusters);
+
+            for (MarkerCluster<T> cluster : diff.kept) {
+                MarkerCluster<T> displayedCluster = markers.remove(cluster);
+                if (RenderDiff.needsNewPosition(displayedCluster, cluster)) {
+                    setPositionCalls++;
+                }
+                if (RenderDiff.needsNewIcon(displayedCluster, cluster)) {
+                    setIconCalls++;
+                }
+                markers.put(cluster, cluster);
+            }
+
+            for (int i = 0; i < diff.removed.size(); i++) {
+                markers.remove(diff.removed.get(i));
+                if (diff.removedParents.get(i) != null) {
+                    animations++;
+                }
+                removeCalls++;
+            }
+
+            for (MarkerCluster<T> cluster : diff.added) {
+                // Every added marker is animated, either out of its parent or by fading in.
+                markers.put(cluster, cluster);
+                addMarkerCalls++;
+                animations++;
+            }
+        }
+
+        int getMarkerCount() {
+            return markers.size();
+        }
+
+        @NonNull
+        Counts counts() {
+            return new Counts(addMarkerCalls, removeCalls, setPositionCalls, setIconCalls, animations);
+        }
+
+        static final class Counts {
+
+            final long addMarkerCalls;
+            final long removeCalls;
+            final long setPositionCalls;
+            final long setIconCalls;
+            final long animations;
+
+            Counts(long addMarkerCalls, long removeCalls, long setPositionCalls, long setIconCalls, long animations) {
+                this.addMarkerCalls = addMarkerCalls;
+                this.removeCalls = removeCalls;
+                this.setPositionCalls = setPositionCalls;
+                this.setIconCalls = setIconCalls;
+                this.animations = animations;
+            }
+
+            @NonNull
+            Counts minus(@NonNull Counts other) {
+                return new Counts(addMarkerCalls - other.addMarkerCalls, removeCalls - other.removeCalls,
+                        setPositionCalls - other.setPositionCalls, setIconCalls - other.setIconCalls,
+                        animations - other.animations);
+            }
+        }
+    }
+}
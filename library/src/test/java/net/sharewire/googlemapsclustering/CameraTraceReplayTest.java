@@ -0,0 +1,131 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the recorded camera traces against the items of the sample app and prints
+ * the latency, marker churn and allocations of each trace, e.g. using
+ * <code>./gradlew :library:testDebugUnitTest --tests '*CameraTraceReplayTest' -i</code>.
+ */
+public class CameraTraceReplayTest {
+
+    static final String[] TRACES = {"netherlands_explore", "netherlands_pan", "utrecht_pinch"};
+
+    // The bounds and the number of the random items of the sample app.
+    private static final double SOUTH = 50.77083;
+    private static final double WEST = 3.57361;
+    private static final double NORTH = 53.35917;
+    private static final double EAST = 7.10833;
+    private static final int ITEM_COUNT = 20000;
+
+    @Test
+    public void replayTraces() throws IOException {
+        List<TestItem> items = generateItems(ITEM_COUNT, new Random(42));
+
+        for (String traceName : TRACES) {
+            CameraTrace trace = CameraTrace.load(traceName);
+            ClusterAlgorithm<TestItem> algorithm = new ClusterAlgorithm<>();
+            algorithm.setItems(items);
+            CameraTraceReplay<TestItem> replay = new CameraTraceReplay<>(algorithm);
+
+            // Warm up the JIT with a first pass, then measure a second one.
+            replay.replay(trace);
+            CameraTraceReplay.Report report = replay.replay(trace);
+            System.out.println(report);
+
+            // The fake map must end up with a marker per cluster of the last camera event.
+            int lastEvent = trace.size() - 1;
+            assertEquals(algorithm.getClusters(trace.bounds.get(lastEvent), trace.zoomLevels.get(lastEvent)).size(),
+                    replay.getMarkerCount());
+            assertTrue(report.p99Millis >= report.p50Millis);
+        }
+    }
+
+    @Test
+    public void addingItemUpdatesMarkersInPlace() throws IOException {
+        List<TestItem> items = generateItems(ITEM_COUNT, new Random(42));
+        CameraTrace trace = CameraTrace.load(TRACES[0]);
+        ClusterAlgorithm<TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+        CameraTraceReplay<TestItem> replay = new CameraTraceReplay<>(algorithm);
+
+        // The first event shows the whole country, so the new item joins an existing cluster.
+        replay.replayEvent(trace, 0);
+        algorithm.addItems(generateItems(1, new Random(7)));
+        CameraTraceReplay.RecordingMapSurface.Counts counts = replay.replayEvent(trace, 0);
+
+        assertEquals(0, counts.addMarkerCalls);
+        assertEquals(0, counts.removeCalls);
+        assertEquals(1, counts.setIconCalls);
+        assertEquals(1, counts.setPositionCalls);
+    }
+
+    @Test
+    public void zoomQuantizationReducesChurnOnPinch() throws IOException {
+        List<TestItem> items = generateItems(ITEM_COUNT, new Random(42));
+        CameraTrace trace = CameraTrace.load("utrecht_pinch");
+
+        ClusterAlgorithm<TestItem> exactAlgorithm = new ClusterAlgorithm<>();
+        exactAlgorithm.setItems(items);
+        CameraTraceReplay.Report exactReport = new CameraTraceReplay<>(exactAlgorithm).replay(trace);
+
+        ClusterAlgorithm<TestItem> quantizedAlgorithm = new ClusterAlgorithm<>();
+        quantizedAlgorithm.setItems(items);
+        quantizedAlgorithm.setZoomQuantization(0.5, 0.15);
+        CameraTraceReplay.Report quantizedReport = new CameraTraceReplay<>(quantizedAlgorithm).replay(trace);
+
+        System.out.println("Exact zoom: " + exactReport);
+        System.out.println("Quantized zoom: " + quantizedReport);
+        assertTrue(quantizedReport.getChurnPerEvent() < exactReport.getChurnPerEvent() / 2);
+    }
+
+    @NonNull
+    static List<TestItem> generateItems(int count, @NonNull Random random) {
+        List<TestItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new TestItem(new LatLng(
+                    SOUTH + (NORTH - SOUTH) * random.nextDouble(),
+                    WEST + (EAST - WEST) * random.nextDouble())));
+        }
+        return items;
+    }
+
+    static class TestItem implements ClusterItem {
+
+        private final LatLng position;
+
+        TestItem(@NonNull LatLng position) {
+            this.position = position;
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return position;
+        }
+
+        @Nullable
+        @Override
+        public String getTitle() {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public String getSnippet() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Clusters items of two categories and checks that the category filter keeps
+ * only the items of the filtered categories and the ones that are not categorized.
+ */
+public class CategoryFilterTest {
+
+    private static final int ITEM_COUNT = 4000;
+    private static final long FIRST_CATEGORY = 1L;
+    private static final long SECOND_CATEGORY = 1L << 1;
+    private static final LatLngBounds NETHERLANDS = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+
+    @Test
+    public void clustersOnlyTheItemsOfTheFilteredCategories() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems(false));
+        algorithm.setCategoryFilter(FIRST_CATEGORY);
+
+        int count = 0;
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : algorithm.getClusters(NETHERLANDS, 7.0)) {
+            for (CameraTraceReplayTest.TestItem item : cluster.getItems()) {
+                assertTrue(((CategorizedItem) item).getCategories() == FIRST_CATEGORY);
+            }
+            count += cluster.getSize();
+        }
+        assertEquals(ITEM_COUNT / 2, count);
+    }
+
+    @Test
+    public void uncategorizedItemsMatchEveryCategory() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems(true));
+        algorithm.setCategoryFilter(SECOND_CATEGORY);
+
+        int count = 0;
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : algorithm.getClusters(NETHERLANDS, 7.0)) {
+            for (CameraTraceReplayTest.TestItem item : cluster.getItems()) {
+                assertTrue(!(item instanceof CategorizedItem));
+            }
+            count += cluster.getSize();
+        }
+        assertEquals(ITEM_COUNT / 2, count);
+    }
+
+    @Test
+    public void matchesItemsOfAnyOfTheFilteredCategories() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems(false));
+        algorithm.setCategoryFilter(FIRST_CATEGORY | SECOND_CATEGORY);
+
+        assertEquals(ITEM_COUNT, sumSizes(algorithm.getClusters(NETHERLANDS, 7.0)));
+    }
+
+    @Test
+    public void filtersTheNearestItems() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems(false));
+        algorithm.setCategoryFilter(SECOND_CATEGORY);
+
+        List<CameraTraceReplayTest.TestItem> items =
+                algorithm.getNearestItems(new LatLng(52.09, 5.12), 20, Double.MAX_VALUE);
+        assertEquals(20, items.size());
+        for (CameraTraceReplayTest.TestItem item : items) {
+            assertEquals(SECOND_CATEGORY, ((CategorizedItem) item).getCategories());
+        }
+    }
+
+    /**
+     * Returns items whose even ones belong to the first category and whose odd ones
+     * either belong to the second category or, if asked, are not categorized.
+     */
+    @NonNull
+    private static List<CameraTraceReplayTest.TestItem> generateItems(boolean uncategorized) {
+        List<CameraTraceReplayTest.TestItem> positions =
+                CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        List<CameraTraceReplayTest.TestItem> items = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            LatLng position = positions.get(i).getPosition();
+            if (i % 2 == 0) {
+                items.add(new CategorizedItem(position, FIRST_CATEGORY));
+            } else if (uncategorized) {
+                items.add(new CameraTraceReplayTest.TestItem(position));
+            } else {
+                items.add(new CategorizedItem(position, SECOND_CATEGORY));
+            }
+        }
+        return items;
+    }
+
+    private static int sumSizes(@NonNull List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters) {
+        int count = 0;
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : clusters) {
+            count += cluster.getSize();
+        }
+        return count;
+    }
+
+    private static class CategorizedItem extends CameraTraceReplayTest.TestItem implements CategorizedClusterItem {
+
+        private final long categories;
+
+        CategorizedItem(@NonNull LatLng position, long categories) {
+            super(position);
+            this.categories = categories;
+        }
+
+        @Override
+        public long getCategories() {
+            return categories;
+        }
+    }
+}
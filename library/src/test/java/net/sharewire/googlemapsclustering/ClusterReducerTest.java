@@ -0,0 +1,189 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reduces the values of items and checks the aggregates of clusters against the values
+ * of their items, and that markers get new icons when the aggregates change.
+ */
+public class ClusterReducerTest {
+
+    private static final int ITEM_COUNT = 4000;
+    private static final LatLngBounds NETHERLANDS = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+
+    @Test
+    public void updatesTheAggregatesWhenItemsAreAdded() {
+        List<ValueItem> items = generateItems();
+        ClusterAlgorithm<ValueItem> algorithm = new ClusterAlgorithm<>();
+        SumReducer reducer = new SumReducer();
+        algorithm.setReducer(reducer);
+        algorithm.setItems(items.subList(0, ITEM_COUNT / 2));
+        algorithm.getClusters(NETHERLANDS, 7.0);
+        algorithm.addItems(items.subList(ITEM_COUNT / 2, ITEM_COUNT));
+
+        int total = 0;
+        for (MarkerCluster<ValueItem> cluster : algorithm.getClusters(NETHERLANDS, 7.0)) {
+            int aggregate = ((MapCluster<ValueItem>) cluster).getAggregate(reducer);
+            assertEquals(sum(cluster.getItems()), aggregate);
+            total += aggregate;
+        }
+        assertEquals(sum(items), total);
+    }
+
+    @Test
+    public void reducesTheIndexedItemsWhenTheReducerIsSet() {
+        ClusterAlgorithm<ValueItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems());
+        algorithm.getClusters(NETHERLANDS, 7.0);
+        SumReducer reducer = new SumReducer();
+        algorithm.setReducer(reducer);
+
+        for (MarkerCluster<ValueItem> cluster : algorithm.getClusters(NETHERLANDS, 7.0)) {
+            assertEquals(sum(cluster.getItems()), (int) ((MapCluster<ValueItem>) cluster).getAggregate(reducer));
+        }
+    }
+
+    @Test
+    public void returnsNoAggregateOfAnotherReducer() {
+        ClusterAlgorithm<ValueItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems());
+        algorithm.setReducer(new SumReducer());
+
+        for (MarkerCluster<ValueItem> cluster : algorithm.getClusters(NETHERLANDS, 7.0)) {
+            assertNull(((MapCluster<ValueItem>) cluster).getAggregate(new SumReducer()));
+        }
+    }
+
+    @Test
+    public void returnsNoAggregateOfAReplacedReducer() {
+        ClusterAlgorithm<ValueItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems());
+        SumReducer reducer = new SumReducer();
+        algorithm.setReducer(reducer);
+        algorithm.getClusters(NETHERLANDS, 7.0);
+        algorithm.setReducer(null);
+
+        for (MarkerCluster<ValueItem> cluster : algorithm.getClusters(NETHERLANDS, 7.0)) {
+            assertNull(((MapCluster<ValueItem>) cluster).getAggregate(reducer));
+        }
+    }
+
+    @Test
+    public void reducesTilesLikeTheirItems() {
+        List<ValueItem> items = generateItems();
+        QuadTree<ValueItem> tree = new QuadTree<>(QuadTree.AUTO_BUCKET_SIZE);
+        SumReducer reducer = new SumReducer();
+        tree.setReducer(castReducer(reducer));
+        tree.setItems(items);
+
+        // The tiles of zoom level 6 around the Netherlands.
+        double stepLatitude = 180.0 / 128;
+        double stepLongitude = 360.0 / 128;
+        long startX = TileBuckets.tileX(3.0, stepLongitude);
+        long startY = TileBuckets.tileY(54.0, stepLatitude);
+        long endX = TileBuckets.tileX(8.0, stepLongitude);
+        long endY = TileBuckets.tileY(50.0, stepLatitude);
+        TileBuckets buckets = new TileBuckets();
+        buckets.setReducer(reducer);
+        buckets.reset(startX, startY, endX, endY, stepLatitude, stepLongitude);
+        tree.aggregateTiles(buckets, ItemFilter.ALL);
+
+        for (long tileX = startX; tileX <= endX; tileX++) {
+            for (long tileY = startY; tileY <= endY; tileY++) {
+                int expected = 0;
+                for (ValueItem item : items) {
+                    if (TileBuckets.tileX(item.getPosition().longitude, stepLongitude) == tileX
+                            && TileBuckets.tileY(item.getPosition().latitude, stepLatitude) == tileY) {
+                        expected += item.value;
+                    }
+                }
+                assertEquals(expected, (int) (Integer) buckets.getAggregate(tileX, tileY));
+            }
+        }
+    }
+
+    @Test
+    public void keptMarkersGetNewIconsWhenTheAggregateChanges() {
+        List<ValueItem> items = Collections.emptyList();
+        SumReducer reducer = new SumReducer();
+        MapCluster<ValueItem> cluster = new MapCluster<>(52.0, 5.0, 3, items, reducer, 10, 53.0, 4.0, 51.0, 6.0);
+        MapCluster<ValueItem> sameCluster = new MapCluster<>(52.0, 5.0, 3, items, reducer, 10, 53.0, 4.0, 51.0, 6.0);
+        MapCluster<ValueItem> changedCluster =
+                new MapCluster<>(52.0, 5.0, 3, items, reducer, 12, 53.0, 4.0, 51.0, 6.0);
+        MapCluster<ValueItem> otherReducerCluster =
+                new MapCluster<>(52.0, 5.0, 3, items, new SumReducer(), 10, 53.0, 4.0, 51.0, 6.0);
+
+        assertEquals(cluster, changedCluster);
+        assertFalse(RenderDiff.needsNewIcon(cluster, sameCluster));
+        assertTrue(RenderDiff.needsNewIcon(cluster, changedCluster));
+        assertTrue(RenderDiff.needsNewIcon(cluster, otherReducerCluster));
+    }
+
+    @NonNull
+    private static List<ValueItem> generateItems() {
+        List<CameraTraceReplayTest.TestItem> positions =
+                CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        List<ValueItem> items = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(new ValueItem(positions.get(i).getPosition(), i % 10 + 1));
+        }
+        return items;
+    }
+
+    private static int sum(@NonNull List<ValueItem> items) {
+        int sum = 0;
+        for (ValueItem item : items) {
+            sum += item.value;
+        }
+        return sum;
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private static ClusterReducer<ValueItem, Object> castReducer(@NonNull ClusterReducer<ValueItem, ?> reducer) {
+        return (ClusterReducer<ValueItem, Object>) reducer;
+    }
+
+    private static class ValueItem extends CameraTraceReplayTest.TestItem {
+
+        final int value;
+
+        ValueItem(@NonNull LatLng position, int value) {
+            super(position);
+            this.value = value;
+        }
+    }
+
+    private static class SumReducer implements ClusterReducer<ValueItem, Integer> {
+
+        @Override
+        public Integer identity() {
+            return 0;
+        }
+
+        @Override
+        public Integer extract(@NonNull ValueItem item) {
+            return item.value;
+        }
+
+        @Override
+        public Integer combine(Integer first, Integer second) {
+            return first + second;
+        }
+    }
+}
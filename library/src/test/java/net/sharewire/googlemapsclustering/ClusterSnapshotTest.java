@@ -0,0 +1,94 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Saves the clusters of a camera position and checks that they are restored as placeholders
+ * equal to the clusters computed from the items, which keep their icons unless they show reduced values.
+ */
+public class ClusterSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoredClustersArePlaceholders() throws IOException {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(CameraTraceReplayTest.generateItems(2000, new Random(42)));
+        LatLngBounds netherlands = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(netherlands, 7.0F);
+
+        File file = folder.newFile("snapshot.bin");
+        new ClusterSnapshot<>(netherlands, 7.0F, clusters).write(file);
+        ClusterSnapshot<CameraTraceReplayTest.TestItem> snapshot = ClusterSnapshot.read(file);
+
+        assertEquals(clusters.size(), snapshot.clusters.size());
+        for (int i = 0; i < clusters.size(); i++) {
+            MapCluster<CameraTraceReplayTest.TestItem> restored =
+                    (MapCluster<CameraTraceReplayTest.TestItem>) snapshot.clusters.get(i);
+            assertTrue(restored.isPlaceholder());
+            assertEquals(Collections.emptyList(), restored.getItems());
+            assertEquals(clusters.get(i), restored);
+            assertFalse(((MapCluster<CameraTraceReplayTest.TestItem>) clusters.get(i)).isPlaceholder());
+        }
+        assertEquals(netherlands.southwest.latitude, snapshot.latLngBounds.southwest.latitude, 0.0);
+        assertEquals(netherlands.northeast.longitude, snapshot.latLngBounds.northeast.longitude, 0.0);
+    }
+
+    @Test
+    public void restoredClustersKeepTheirIconsUnlessTheyShowReducedValues() throws IOException {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(CameraTraceReplayTest.generateItems(2000, new Random(42)));
+        LatLngBounds netherlands = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(netherlands, 7.0F);
+
+        File file = folder.newFile("snapshot.bin");
+        new ClusterSnapshot<>(netherlands, 7.0F, clusters).write(file);
+        ClusterSnapshot<CameraTraceReplayTest.TestItem> snapshot = ClusterSnapshot.read(file);
+        for (int i = 0; i < clusters.size(); i++) {
+            assertFalse(RenderDiff.needsNewIcon(snapshot.clusters.get(i), clusters.get(i)));
+        }
+
+        algorithm.setReducer(new CountReducer());
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> reducedClusters =
+                algorithm.getClusters(netherlands, 7.0F);
+        for (int i = 0; i < reducedClusters.size(); i++) {
+            assertTrue(RenderDiff.needsNewIcon(snapshot.clusters.get(i), reducedClusters.get(i)));
+        }
+    }
+
+    private static class CountReducer implements ClusterReducer<CameraTraceReplayTest.TestItem, Integer> {
+
+        @Override
+        public Integer identity() {
+            return 0;
+        }
+
+        @Override
+        public Integer extract(@NonNull CameraTraceReplayTest.TestItem item) {
+            return 1;
+        }
+
+        @Override
+        public Integer combine(Integer first, Integer second) {
+            return first + second;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.TileProvider;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the cache keys of the tiles of a tile provider, the tiles without clusters
+ * and which clusters are found at the positions of clicks.
+ */
+public class ClusterTileProviderTest {
+
+    // Clusters are circles with a radius of 20 pixels, since the labels have no width in unit tests.
+    private static final int MIN_ICON_SIZE = 40;
+    private static final int ZOOM = 10;
+    // The width of a pixel in degrees of longitude at the zoom level.
+    private static final double PIXEL_LONGITUDE = 360.0 / (256 << ZOOM);
+
+    private static final LatLng UTRECHT = new LatLng(52.09, 5.12);
+
+    @Test
+    public void keepsTheTileKeyWhileNothingChanges() {
+        ClusterTileProvider<CameraTraceReplayTest.TestItem> provider = createProvider();
+        provider.setItems(CameraTraceReplayTest.generateItems(100, new Random(42)));
+
+        assertEquals(provider.getTileKey(1, 2, 3), provider.getTileKey(1, 2, 3));
+        assertNotEquals(provider.getTileKey(1, 2, 3), provider.getTileKey(2, 1, 3));
+    }
+
+    @Test
+    public void changesTheTileKeyWhenItemsAreSet() {
+        ClusterTileProvider<CameraTraceReplayTest.TestItem> provider = createProvider();
+        String key = provider.getTileKey(1, 2, 3);
+        provider.setItems(CameraTraceReplayTest.generateItems(100, new Random(42)));
+
+        assertNotEquals(key, provider.getTileKey(1, 2, 3));
+    }
+
+    @Test
+    public void changesTheTileKeyWhenTheMinClusterSizeIsSet() {
+        ClusterTileProvider<CameraTraceReplayTest.TestItem> provider = createProvider();
+        String key = provider.getTileKey(1, 2, 3);
+        provider.setMinClusterSize(5);
+
+        assertNotEquals(key, provider.getTileKey(1, 2, 3));
+    }
+
+    @Test
+    public void changesTheTileKeyWhenTheCategoryFilterIsSet() {
+        ClusterTileProvider<CameraTraceReplayTest.TestItem> provider = createProvider();
+        String key = provider.getTileKey(1, 2, 3);
+        provider.setCategoryFilter(1L);
+
+        assertNotEquals(key, provider.getTileKey(1, 2, 3));
+    }
+
+    @Test
+    public void returnsNoTileWithoutItems() {
+        ClusterTileProvider<CameraTraceReplayTest.TestItem> provider = createProvider();
+
+        assertSame(TileProvider.NO_TILE, provider.getTile(0, 0, 0));
+    }
+
+    @Test
+    public void returnsNoTileWhereThereAreNoClusters() {
+        ClusterTileProvider<CameraTraceReplayTest.TestItem> provider = createProvider();
+        provider.setItems(CameraTraceReplayTest.generateItems(100, new Random(42)));
+
+        // The tile of the South Pacific at zoom level 3, far from the items in the Netherlands.
+        assertSame(TileProvider.NO_TILE, provider.getTile(0, 6, 3));
+    }
+
+    @Test
+    public void findsTheItemInsideItsCircle() {
+        ClusterTileProvider<CameraTraceReplayTest.TestItem> provider = createProvider();
+        CameraTraceReplayTest.TestItem item = new CameraTraceReplayTest.TestItem(UTRECHT);
+        provider.setItems(Collections.singletonList(item));
+
+        MarkerCluster<CameraTraceReplayTest.TestItem> cluster = provider.findCluster(
+                new LatLng(UTRECHT.latitude, UTRECHT.longitude + 15 * PIXEL_LONGITUDE), ZOOM);
+        assertNotNull(cluster);
+        assertEquals(Collections.singletonList(item), cluster.getItems());
+    }
+
+    @Test
+    public void findsNoClusterOutsideItsCircle() {
+        ClusterTileProvider<CameraTraceReplayTest.TestItem> provider = createProvider();
+        provider.setItems(Collections.singletonList(new CameraTraceReplayTest.TestItem(UTRECHT)));
+
+        assertNull(provider.findCluster(
+                new LatLng(UTRECHT.latitude, UTRECHT.longitude + 25 * PIXEL_LONGITUDE), ZOOM));
+    }
+
+    @Test
+    public void findsTheClusterOfItemsAtTheSamePosition() {
+        ClusterTileProvider<CameraTraceReplayTest.TestItem> provider = createProvider();
+        List<CameraTraceReplayTest.TestItem> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            items.add(new CameraTraceReplayTest.TestItem(UTRECHT));
+        }
+        provider.setItems(items);
+
+        MarkerCluster<CameraTraceReplayTest.TestItem> cluster = provider.findCluster(
+                new LatLng(UTRECHT.latitude, UTRECHT.longitude - 10 * PIXEL_LONGITUDE), ZOOM);
+        assertNotNull(cluster);
+        assertEquals(5, cluster.getSize());
+    }
+
+    @NonNull
+    private static ClusterTileProvider<CameraTraceReplayTest.TestItem> createProvider() {
+        return new ClusterTileProvider<>(null, new ClusterAlgorithm<CameraTraceReplayTest.TestItem>(),
+                1.0F, MIN_ICON_SIZE, 0);
+    }
+}
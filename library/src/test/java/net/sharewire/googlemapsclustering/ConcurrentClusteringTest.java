@@ -0,0 +1,66 @@
+package net.sharewire.googlemapsclustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Clusters different bounds of the same algorithm on two threads at the same time, like the tiles
+ * of an overlay, and checks that each thread gets the clusters it gets when clustering alone.
+ */
+public class ConcurrentClusteringTest {
+
+    private static final int ITEM_COUNT = 5000;
+    private static final int ITERATIONS = 300;
+
+    @Test
+    public void concurrentCallsGetTheirOwnClusters() throws InterruptedException {
+        final ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42)));
+
+        final LatLngBounds north = new LatLngBounds(new LatLng(52.0, 3.5), new LatLng(53.4, 7.2));
+        final LatLngBounds south = new LatLngBounds(new LatLng(50.7, 3.5), new LatLng(52.0, 7.2));
+        final List<Integer> expectedNorth = getSizes(algorithm.getClusters(north, 8.0));
+        List<Integer> expectedSouth = getSizes(algorithm.getClusters(south, 9.0));
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        assertEquals(expectedNorth, getSizes(algorithm.getClusters(north, 8.0)));
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        thread.start();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                assertEquals(expectedSouth, getSizes(algorithm.getClusters(south, 9.0)));
+            }
+        } finally {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    private static List<Integer> getSizes(List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters) {
+        List<Integer> sizes = new ArrayList<>(clusters.size());
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : clusters) {
+            sizes.add(cluster.getSize());
+        }
+        return sizes;
+    }
+}
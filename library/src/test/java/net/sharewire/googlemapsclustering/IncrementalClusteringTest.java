@@ -0,0 +1,87 @@
+package net.sharewire.googlemapsclustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Adds items after clustering and checks that the items of the clusters computed before
+ * either still match their sizes or can't be accessed at all.
+ */
+public class IncrementalClusteringTest {
+
+    private static final int ITEM_COUNT = 2000;
+
+    // The items are generated inside the Netherlands.
+    private static final LatLngBounds NETHERLANDS = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+
+    @Test
+    public void accessedClusterItemsMatchSizeAfterItemsAreAdded() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items.subList(0, ITEM_COUNT / 2));
+
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(NETHERLANDS, 7.0);
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : clusters) {
+            cluster.getItems().size();
+        }
+        algorithm.addItems(items.subList(ITEM_COUNT / 2, ITEM_COUNT));
+
+        int count = 0;
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : clusters) {
+            assertEquals(cluster.getSize(), cluster.getItems().size());
+            count += cluster.getSize();
+        }
+        assertEquals(ITEM_COUNT / 2, count);
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void clusterItemsFailAfterItemsAreAdded() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items.subList(0, ITEM_COUNT / 2));
+
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(NETHERLANDS, 7.0);
+        algorithm.addItems(items.subList(ITEM_COUNT / 2, ITEM_COUNT));
+
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : clusters) {
+            cluster.getItems().size();
+        }
+    }
+
+    @Test
+    public void singleItemsMatchAfterItemsAreAdded() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items.subList(0, ITEM_COUNT / 2));
+
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(NETHERLANDS, 14.0);
+        algorithm.addItems(items.subList(ITEM_COUNT / 2, ITEM_COUNT));
+
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : clusters) {
+            if (cluster.getSize() == 1) {
+                CameraTraceReplayTest.TestItem item = cluster.getItems().get(0);
+                assertEquals(item.getPosition(), cluster.getPosition());
+            }
+        }
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void selectedItemsFailAfterItemsAreSet() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        ItemSelection<CameraTraceReplayTest.TestItem> selection =
+                algorithm.selectItemsInCircle(new LatLng(52.09, 5.12), 40000.0);
+        algorithm.setItems(items.subList(0, ITEM_COUNT / 2));
+        selection.getItems().size();
+    }
+}
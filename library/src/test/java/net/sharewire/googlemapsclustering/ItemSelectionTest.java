@@ -0,0 +1,101 @@
+package net.sharewire.googlemapsclustering;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Selects the items inside polygons and circles and checks them against the items
+ * whose positions are known to lie inside.
+ */
+public class ItemSelectionTest {
+
+    private static final int ITEM_COUNT = 5000;
+
+    // An L-shaped polygon, which is the rectangle from 51 to 53 degrees north and from 4 to 7 degrees east
+    // without its north-eastern quarter.
+    private static final List<LatLng> L_SHAPE = Arrays.asList(
+            new LatLng(51.0, 4.0), new LatLng(51.0, 7.0), new LatLng(52.0, 7.0),
+            new LatLng(52.0, 5.5), new LatLng(53.0, 5.5), new LatLng(53.0, 4.0));
+
+    @Test
+    public void selectsTheItemsInsideAConcavePolygon() {
+        // The items lie on a grid whose lines are between the edges of the polygon.
+        List<CameraTraceReplayTest.TestItem> items = new ArrayList<>();
+        List<CameraTraceReplayTest.TestItem> insideItems = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 40; j++) {
+                double latitude = 50.55 + 0.1 * i;
+                double longitude = 3.55 + 0.1 * j;
+                CameraTraceReplayTest.TestItem item =
+                        new CameraTraceReplayTest.TestItem(new LatLng(latitude, longitude));
+                items.add(item);
+                if (latitude > 51.0 && latitude < 53.0 && longitude > 4.0 && longitude < 7.0
+                        && (latitude < 52.0 || longitude < 5.5)) {
+                    insideItems.add(item);
+                }
+            }
+        }
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        ItemSelection<CameraTraceReplayTest.TestItem> selection = algorithm.selectItemsInPolygon(L_SHAPE);
+        assertEquals(insideItems.size(), selection.getCount());
+        assertEquals(new HashSet<>(insideItems), new HashSet<>(selection.getItems()));
+    }
+
+    @Test
+    public void selectsTheItemsInsideACircle() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        LatLng center = new LatLng(52.09, 5.12);
+        List<CameraTraceReplayTest.TestItem> insideItems = new ArrayList<>();
+        for (CameraTraceReplayTest.TestItem item : items) {
+            if (Distances.distance(center.latitude, center.longitude,
+                    item.getPosition().latitude, item.getPosition().longitude) <= 40000.0) {
+                insideItems.add(item);
+            }
+        }
+        assertTrue(!insideItems.isEmpty());
+
+        ItemSelection<CameraTraceReplayTest.TestItem> selection = algorithm.selectItemsInCircle(center, 40000.0);
+        assertEquals(insideItems.size(), selection.getCount());
+        assertEquals(new HashSet<>(insideItems), new HashSet<>(selection.getItems()));
+    }
+
+    @Test
+    public void selectsNoItemsOutsideOfThem() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        // A triangle in the Atlantic.
+        ItemSelection<CameraTraceReplayTest.TestItem> selection = algorithm.selectItemsInPolygon(
+                Arrays.asList(new LatLng(40.0, -30.0), new LatLng(40.0, -20.0), new LatLng(45.0, -25.0)));
+        assertEquals(0, selection.getCount());
+        assertTrue(selection.getItems().isEmpty());
+    }
+
+    @Test
+    public void selectsAllItemsInsideALargeCircle() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        ItemSelection<CameraTraceReplayTest.TestItem> selection = algorithm.selectItemsInCircle(
+                new LatLng(52.09, 5.12), 1000000.0);
+        assertEquals(ITEM_COUNT, selection.getCount());
+        assertEquals(new HashSet<>(items), new HashSet<>(selection.getItems()));
+    }
+}
@@ -0,0 +1,101 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the queries of {@link SqliteIndex} using JDBC, so that the index can be tested
+ * and benchmarked on the JVM with sqlite-jdbc instead of the SQLite of the device.
+ */
+final class JdbcDatabase implements SqliteIndex.Database {
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private boolean transactionSuccessful;
+
+    JdbcDatabase(@NonNull String url) throws SQLException {
+        connection = DriverManager.getConnection(url);
+    }
+
+    @Override
+    public void beginTransaction() {
+        try {
+            connection.setAutoCommit(false);
+            transactionSuccessful = false;
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        transactionSuccessful = true;
+    }
+
+    @Override
+    public void endTransaction() {
+        try {
+            if (transactionSuccessful) {
+                connection.commit();
+            } else {
+                connection.rollback();
+            }
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void execute(@NonNull String sql, @NonNull Object... args) {
+        try {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            statement.execute();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void query(@NonNull String sql, @NonNull SqliteIndex.RowHandler handler) {
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet resultSet = statement.executeQuery(sql);
+                double[] values = new double[resultSet.getMetaData().getColumnCount()];
+                while (resultSet.next()) {
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = resultSet.getDouble(i + 1);
+                    }
+                    handler.onRow(values);
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void close() throws SQLException {
+        for (PreparedStatement statement : statements.values()) {
+            statement.close();
+        }
+        connection.close();
+    }
+}
@@ -0,0 +1,182 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Clusters two layers of items at the same positions in one pass, the way the cluster manager
+ * clusters its layers after a camera change, and checks that the clusters of each layer hold
+ * only its own items and don't depend on the items, filters or algorithm of the other layer.
+ */
+public class LayerClusteringTest {
+
+    private static final int ITEM_COUNT = 4000;
+    private static final long FIRST_CATEGORY = 1L;
+    private static final long SECOND_CATEGORY = 1L << 1;
+    private static final LatLngBounds NETHERLANDS = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+
+    @Test
+    public void clustersEachLayerWithItsOwnItems() {
+        ClusterAlgorithm<ShopItem> shops = new ClusterAlgorithm<>();
+        shops.setItems(generateShops());
+        ClusterAlgorithm<StationItem> stations = new ClusterAlgorithm<>();
+        stations.setItems(generateStations());
+
+        List<List<? extends MarkerCluster<?>>> layerClusters = clusterInOnePass(shops, stations);
+
+        assertEquals(ITEM_COUNT, countItems(layerClusters.get(0), ShopItem.class));
+        assertEquals(ITEM_COUNT, countItems(layerClusters.get(1), StationItem.class));
+        assertEquals(describe(clusterAlone(generateShops())), describe(layerClusters.get(0)));
+        assertEquals(describe(clusterAlone(generateStations())), describe(layerClusters.get(1)));
+    }
+
+    @Test
+    public void filtersEachLayerOnItsOwn() {
+        ClusterAlgorithm<ShopItem> shops = new ClusterAlgorithm<>();
+        shops.setItems(generateShops());
+        shops.setCategoryFilter(FIRST_CATEGORY);
+        ClusterAlgorithm<StationItem> stations = new ClusterAlgorithm<>();
+        stations.setItems(generateStations());
+
+        List<List<? extends MarkerCluster<?>>> layerClusters = clusterInOnePass(shops, stations);
+
+        assertEquals(ITEM_COUNT / 2, countItems(layerClusters.get(0), ShopItem.class));
+        assertEquals(ITEM_COUNT, countItems(layerClusters.get(1), StationItem.class));
+        assertEquals(describe(clusterAlone(generateStations())), describe(layerClusters.get(1)));
+    }
+
+    @Test
+    public void clustersLayersWithDifferentAlgorithms() {
+        SharedClusterAlgorithm<ShopItem> shops =
+                new SharedClusterAlgorithm<>(new SharedClusterIndex<>(generateShops()));
+        ClusterAlgorithm<StationItem> stations = new ClusterAlgorithm<>();
+        stations.setItems(generateStations());
+        stations.setCategoryFilter(SECOND_CATEGORY);
+
+        List<List<? extends MarkerCluster<?>>> layerClusters = clusterInOnePass(shops, stations);
+
+        assertEquals(ITEM_COUNT, countItems(layerClusters.get(0), ShopItem.class));
+        assertEquals(ITEM_COUNT / 2, countItems(layerClusters.get(1), StationItem.class));
+        assertEquals(describe(clusterAlone(generateShops())), describe(layerClusters.get(0)));
+    }
+
+    @Test
+    public void clearingALayerKeepsTheOtherLayer() {
+        ClusterAlgorithm<ShopItem> shops = new ClusterAlgorithm<>();
+        shops.setItems(generateShops());
+        ClusterAlgorithm<StationItem> stations = new ClusterAlgorithm<>();
+        stations.setItems(generateStations());
+        List<String> expectedStations = describe(clusterInOnePass(shops, stations).get(1));
+
+        shops.setItems(new ArrayList<ShopItem>());
+        List<List<? extends MarkerCluster<?>>> layerClusters = clusterInOnePass(shops, stations);
+
+        assertTrue(layerClusters.get(0).isEmpty());
+        assertEquals(expectedStations, describe(layerClusters.get(1)));
+    }
+
+    /**
+     * Clusters the given layers one after the other for the same camera, like the cluster task.
+     */
+    @NonNull
+    private static List<List<? extends MarkerCluster<?>>> clusterInOnePass(
+            @NonNull ClusteringAlgorithm<?>... layers) {
+        List<List<? extends MarkerCluster<?>>> layerClusters = new ArrayList<>(layers.length);
+        for (ClusteringAlgorithm<?> layer : layers) {
+            layerClusters.add(layer.getClusters(NETHERLANDS, 7.0));
+        }
+        return layerClusters;
+    }
+
+    @NonNull
+    private static <T extends ClusterItem> List<MarkerCluster<T>> clusterAlone(@NonNull List<T> items) {
+        ClusterAlgorithm<T> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+        return algorithm.getClusters(NETHERLANDS, 7.0);
+    }
+
+    private static int countItems(@NonNull List<? extends MarkerCluster<?>> clusters,
+                                  @NonNull Class<? extends ClusterItem> itemClass) {
+        int count = 0;
+        for (MarkerCluster<?> cluster : clusters) {
+            for (ClusterItem item : cluster.getItems()) {
+                assertTrue(itemClass.isInstance(item));
+                count++;
+            }
+            assertEquals(cluster.getSize(), cluster.getItems().size());
+        }
+        return count;
+    }
+
+    @NonNull
+    private static List<String> describe(@NonNull List<? extends MarkerCluster<?>> clusters) {
+        List<String> descriptions = new ArrayList<>(clusters.size());
+        for (MarkerCluster<?> cluster : clusters) {
+            LatLng position = cluster.getPosition();
+            descriptions.add(cluster.getSize() + "@" + position.latitude + "," + position.longitude);
+        }
+        return descriptions;
+    }
+
+    @NonNull
+    private static List<ShopItem> generateShops() {
+        List<ShopItem> items = new ArrayList<>(ITEM_COUNT);
+        int index = 0;
+        for (CameraTraceReplayTest.TestItem item : CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42))) {
+            items.add(new ShopItem(item.getPosition(), index++ % 2 == 0 ? FIRST_CATEGORY : SECOND_CATEGORY));
+        }
+        return items;
+    }
+
+    @NonNull
+    private static List<StationItem> generateStations() {
+        // The stations are at the positions of the shops, so that both layers have clusters in the same tiles.
+        List<StationItem> items = new ArrayList<>(ITEM_COUNT);
+        int index = 0;
+        for (CameraTraceReplayTest.TestItem item : CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42))) {
+            items.add(new StationItem(item.getPosition(), index++ % 2 == 0 ? FIRST_CATEGORY : SECOND_CATEGORY));
+        }
+        return items;
+    }
+
+    private static class ShopItem extends CameraTraceReplayTest.TestItem implements CategorizedClusterItem {
+
+        private final long categories;
+
+        ShopItem(@NonNull LatLng position, long categories) {
+            super(position);
+            this.categories = categories;
+        }
+
+        @Override
+        public long getCategories() {
+            return categories;
+        }
+    }
+
+    private static class StationItem extends CameraTraceReplayTest.TestItem implements CategorizedClusterItem {
+
+        private final long categories;
+
+        StationItem(@NonNull LatLng position, long categories) {
+            super(position);
+            this.categories = categories;
+        }
+
+        @Override
+        public long getCategories() {
+            return categories;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package net.sharewire.googlemapsclustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the items of clusters are queried only when they are accessed, and that
+ * each item belongs to exactly one cluster, including the items on the borders of tiles.
+ */
+public class LazyItemListTest {
+
+    @Test
+    public void queriesTheItemsOnceWhenAccessed() {
+        final CameraTraceReplayTest.TestItem item = new CameraTraceReplayTest.TestItem(new LatLng(52.0, 5.0));
+        final int[] queries = new int[1];
+        LazyItemList<CameraTraceReplayTest.TestItem> items = new LazyItemList<CameraTraceReplayTest.TestItem>(1) {
+            @Override
+            void queryItems(List<CameraTraceReplayTest.TestItem> items) {
+                queries[0]++;
+                items.add(item);
+            }
+        };
+        assertEquals(0, queries[0]);
+
+        assertEquals(1, items.size());
+        assertEquals(item, items.get(0));
+        assertEquals(1, queries[0]);
+    }
+
+    @Test
+    public void putsEveryItemIntoOneCluster() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(2000, new Random(42));
+        // Items on the corner of four tiles of 2.8125 x 1.40625 degrees, the tiles of the zoom level of 6.
+        for (int i = 0; i < 10; i++) {
+            items.add(new CameraTraceReplayTest.TestItem(new LatLng(52.03125, 5.625)));
+        }
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        LatLngBounds netherlands = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+        Map<CameraTraceReplayTest.TestItem, MarkerCluster<CameraTraceReplayTest.TestItem>> clusterOfItem =
+                new IdentityHashMap<>();
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : algorithm.getClusters(netherlands, 6.0)) {
+            assertEquals(cluster.getSize(), cluster.getItems().size());
+            for (CameraTraceReplayTest.TestItem item : cluster.getItems()) {
+                assertTrue(cluster.contains(item.getPosition().latitude, item.getPosition().longitude));
+                assertNull(clusterOfItem.put(item, cluster));
+            }
+        }
+        assertEquals(items.size(), clusterOfItem.size());
+    }
+}
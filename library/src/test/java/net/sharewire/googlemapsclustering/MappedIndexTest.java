@@ -0,0 +1,93 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Writes an index file and checks that {@link MappedClusterAlgorithm} reads back
+ * the clusters, the items and the nearest items of the quad tree.
+ */
+public class MappedIndexTest {
+
+    private static final int ITEM_COUNT = 5000;
+    private static final LatLngBounds NETHERLANDS = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheClustersOfTheItemsWritten() throws IOException {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        MappedClusterAlgorithm<CameraTraceReplayTest.TestItem> mappedAlgorithm = createAlgorithm(items);
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        for (int zoomLevel = 0; zoomLevel <= 12; zoomLevel++) {
+            assertEquals(algorithm.getClusters(NETHERLANDS, zoomLevel),
+                    mappedAlgorithm.getClusters(NETHERLANDS, zoomLevel));
+        }
+    }
+
+    @Test
+    public void loadsTheItemsOfClustersById() throws IOException {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        MappedClusterAlgorithm<CameraTraceReplayTest.TestItem> mappedAlgorithm = createAlgorithm(items);
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> expected = algorithm.getClusters(NETHERLANDS, 8.0);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> actual = mappedAlgorithm.getClusters(NETHERLANDS, 8.0);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(new HashSet<>(expected.get(i).getItems()), new HashSet<>(actual.get(i).getItems()));
+        }
+    }
+
+    @Test
+    public void findsTheNearestItems() throws IOException {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        MappedClusterAlgorithm<CameraTraceReplayTest.TestItem> mappedAlgorithm = createAlgorithm(items);
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        LatLng utrecht = new LatLng(52.09, 5.12);
+        assertEquals(algorithm.getNearestItems(utrecht, 10, Double.MAX_VALUE),
+                mappedAlgorithm.getNearestItems(utrecht, 10, Double.MAX_VALUE));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void rejectsAddingItems() throws IOException {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        createAlgorithm(items).addItems(Collections.singletonList(items.get(0)));
+    }
+
+    private MappedClusterAlgorithm<CameraTraceReplayTest.TestItem> createAlgorithm(
+            final List<CameraTraceReplayTest.TestItem> items) throws IOException {
+        File indexFile = new File(folder.getRoot(), "index.bin");
+        MappedClusterAlgorithm.writeIndex(items, indexFile);
+        MappedClusterAlgorithm.ItemLoader<CameraTraceReplayTest.TestItem> itemLoader =
+                new MappedClusterAlgorithm.ItemLoader<CameraTraceReplayTest.TestItem>() {
+                    @NonNull
+                    @Override
+                    public CameraTraceReplayTest.TestItem loadItem(int id) {
+                        return items.get(id);
+                    }
+                };
+        return new MappedClusterAlgorithm<>(indexFile, itemLoader);
+    }
+}
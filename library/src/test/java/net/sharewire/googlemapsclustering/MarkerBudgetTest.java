@@ -0,0 +1,84 @@
+package net.sharewire.googlemapsclustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the marker budget first merges neighboring tiles and then drops the smallest
+ * clusters and the individual items of the lowest priority.
+ */
+public class MarkerBudgetTest {
+
+    private static final int ITEM_COUNT = 2000;
+    private static final LatLngBounds NETHERLANDS = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+
+    @Test
+    public void halvesTheTileCountUntilTheClustersFit() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> unlimited = new ClusterAlgorithm<>();
+        unlimited.setItems(items);
+        int fineCount = unlimited.getClusters(NETHERLANDS, 8.0).size();
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> coarse = unlimited.getClusters(NETHERLANDS, 7.0);
+        assertTrue(coarse.size() < fineCount);
+
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> budgeted = new ClusterAlgorithm<>();
+        budgeted.setItems(items);
+        budgeted.setMaxMarkers(fineCount - 1);
+
+        // Halving the tile count is the same as clustering one zoom level lower.
+        assertEquals(coarse, budgeted.getClusters(NETHERLANDS, 8.0));
+    }
+
+    @Test
+    public void keepsTheLargestClusters() {
+        // Items in the two hemispheres still form two clusters at the lowest tile count.
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        for (int i = 0; i < 10; i++) {
+            items.add(new CameraTraceReplayTest.TestItem(new LatLng(-33.9, 18.4 + i * 0.01)));
+        }
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+        algorithm.setMaxMarkers(1);
+
+        LatLngBounds world = new LatLngBounds(new LatLng(-80.0, -170.0), new LatLng(80.0, 170.0));
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(world, 3.0);
+        assertEquals(1, clusters.size());
+        assertEquals(ITEM_COUNT, clusters.get(0).getSize());
+    }
+
+    @Test
+    public void dropsTheItemsOfTheLowestPriority() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+        // Every item gets a marker of its own.
+        algorithm.setMinClusterSize(Integer.MAX_VALUE);
+        algorithm.setMaxMarkers(10);
+        Comparator<CameraTraceReplayTest.TestItem> northFirst = new Comparator<CameraTraceReplayTest.TestItem>() {
+            @Override
+            public int compare(CameraTraceReplayTest.TestItem first, CameraTraceReplayTest.TestItem second) {
+                return Double.compare(first.getPosition().latitude, second.getPosition().latitude);
+            }
+        };
+        algorithm.setItemPriority(northFirst);
+
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(NETHERLANDS, 8.0);
+        List<CameraTraceReplayTest.TestItem> expected = new ArrayList<>(items);
+        Collections.sort(expected, Collections.reverseOrder(northFirst));
+        assertEquals(10, clusters.size());
+        for (int i = 0; i < clusters.size(); i++) {
+            assertEquals(expected.get(i), clusters.get(i).getItems().get(0));
+        }
+    }
+}
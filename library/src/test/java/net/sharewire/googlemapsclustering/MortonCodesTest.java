@@ -0,0 +1,128 @@
+package net.sharewire.googlemapsclustering;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that Morton codes keep positions to their precision, including the poles and the antimeridian,
+ * and that the sorted codes split into the intervals of the quadrants.
+ */
+public class MortonCodesTest {
+
+    private static final int POINT_COUNT = 10000;
+
+    @Test
+    public void decodesEncodedPositions() {
+        Random random = new Random(42);
+        for (int i = 0; i < POINT_COUNT; i++) {
+            double latitude = random.nextDouble() * 180.0 - 90.0;
+            double longitude = random.nextDouble() * 360.0 - 180.0;
+            long code = MortonCodes.encode(latitude, longitude);
+
+            // Quantizing rounds down, so a decoded position lies at most one unit south-west.
+            double decodedLatitude = MortonCodes.decodeLatitude(code);
+            double decodedLongitude = MortonCodes.decodeLongitude(code);
+            assertTrue(decodedLatitude <= latitude && latitude - decodedLatitude < MortonCodes.LATITUDE_SCALE);
+            assertTrue(decodedLongitude <= longitude && longitude - decodedLongitude < MortonCodes.LONGITUDE_SCALE);
+        }
+    }
+
+    @Test
+    public void decodesThePolesAndTheAntimeridian() {
+        long southWest = MortonCodes.encode(-90.0, -180.0);
+        assertEquals(-90.0, MortonCodes.decodeLatitude(southWest), 0.0);
+        assertEquals(-180.0, MortonCodes.decodeLongitude(southWest), 0.0);
+
+        // The north pole and the eastern antimeridian are clamped to the last quantized unit.
+        long northEast = MortonCodes.encode(90.0, 180.0);
+        assertEquals(90.0 - MortonCodes.LATITUDE_SCALE, MortonCodes.decodeLatitude(northEast), 0.0);
+        assertEquals(180.0 - MortonCodes.LONGITUDE_SCALE, MortonCodes.decodeLongitude(northEast), 0.0);
+    }
+
+    @Test
+    public void clampsPositionsOutsideTheWorld() {
+        assertEquals(MortonCodes.encode(-90.0, -180.0), MortonCodes.encode(-91.0, -181.0));
+        assertEquals(MortonCodes.encode(90.0, 180.0), MortonCodes.encode(91.0, 181.0));
+    }
+
+    @Test
+    public void ordersTheCornersFirstAndLast() {
+        assertEquals(Long.MIN_VALUE, MortonCodes.encode(-90.0, -180.0));
+        assertEquals(Long.MAX_VALUE, MortonCodes.encode(90.0, 180.0));
+    }
+
+    @Test
+    public void ordersTheQuadrantsInZOrder() {
+        long southWest = MortonCodes.encode(-45.0, -90.0);
+        long southEast = MortonCodes.encode(-45.0, 90.0);
+        long northWest = MortonCodes.encode(45.0, -90.0);
+        long northEast = MortonCodes.encode(45.0, 90.0);
+        assertTrue(southWest < southEast);
+        assertTrue(southEast < northWest);
+        assertTrue(northWest < northEast);
+    }
+
+    @Test
+    public void sortsCodesAndReturnsTheirOriginalIndices() {
+        long[] codes = randomCodes(new Random(42));
+        long[] unsorted = codes.clone();
+        int[] order = MortonCodes.sort(codes);
+
+        long[] expected = unsorted.clone();
+        Arrays.sort(expected);
+        assertTrue(Arrays.equals(expected, codes));
+        for (int i = 0; i < codes.length; i++) {
+            assertEquals(unsorted[order[i]], codes[i]);
+        }
+    }
+
+    @Test
+    public void splitsIntervalsIntoQuadrants() {
+        long[] codes = randomCodes(new Random(42));
+        MortonCodes.sort(codes);
+        assertEquals(codes.length, assertQuadrants(codes, 0, 0, 0, 0, codes.length));
+    }
+
+    private static long[] randomCodes(Random random) {
+        long[] codes = new long[POINT_COUNT];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = MortonCodes.encode(random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+        }
+        return codes;
+    }
+
+    /**
+     * Splits the interval of a quad the same way {@link MortonIndex} does, down to the level of 6,
+     * and checks that the positions of each child interval lie inside the child quad.
+     *
+     * @return the number of codes checked
+     */
+    private static int assertQuadrants(long[] codes, int level, long quadX, long quadY, int from, int to) {
+        if (level == 6) {
+            for (int i = from; i < to; i++) {
+                double latitude = MortonCodes.decodeLatitude(codes[i]);
+                double longitude = MortonCodes.decodeLongitude(codes[i]);
+                assertTrue(latitude >= MortonCodes.quadSouth(quadY) && latitude <= MortonCodes.quadNorth(quadY, level));
+                assertTrue(longitude >= MortonCodes.quadWest(quadX) && longitude <= MortonCodes.quadEast(quadX, level));
+            }
+            return to - from;
+        }
+
+        long half = MortonCodes.quadSize(level) >>> 1;
+        int southEastFrom = MortonCodes.lowerBound(codes, from, to, MortonCodes.interleave(quadX + half, quadY));
+        int northWestFrom = MortonCodes.lowerBound(codes, southEastFrom, to,
+                MortonCodes.interleave(quadX, quadY + half));
+        int northEastFrom = MortonCodes.lowerBound(codes, northWestFrom, to,
+                MortonCodes.interleave(quadX + half, quadY + half));
+
+        return assertQuadrants(codes, level + 1, quadX, quadY, from, southEastFrom)
+                + assertQuadrants(codes, level + 1, quadX + half, quadY, southEastFrom, northWestFrom)
+                + assertQuadrants(codes, level + 1, quadX, quadY + half, northWestFrom, northEastFrom)
+                + assertQuadrants(codes, level + 1, quadX + half, quadY + half, northEastFrom, to);
+    }
+}
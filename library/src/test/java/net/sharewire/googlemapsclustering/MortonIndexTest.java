@@ -0,0 +1,78 @@
+package net.sharewire.googlemapsclustering;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link MortonIndex} counts the same items per tile as the quad tree,
+ * including items on the poles and next to the antimeridian.
+ */
+public class MortonIndexTest {
+
+    private static final int MAX_ZOOM_LEVEL = 8;
+
+    // LatLng wraps a longitude of 180 to -180, so this is the easternmost longitude of an item.
+    private static final double EAST = Math.nextAfter(180.0, 0.0);
+
+    @Test
+    public void aggregatesTheTilesOfTheQuadTree() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(5000, new Random(42));
+        for (double latitude : new double[]{-90.0, 0.0, 90.0}) {
+            for (double longitude : new double[]{-180.0, 0.0, EAST}) {
+                items.add(new CameraTraceReplayTest.TestItem(new LatLng(latitude, longitude)));
+            }
+        }
+
+        QuadTree<CameraTraceReplayTest.TestItem> tree = new QuadTree<>(QuadTree.AUTO_BUCKET_SIZE);
+        tree.setItems(items);
+        MortonIndex<CameraTraceReplayTest.TestItem> index = new MortonIndex<>();
+        index.setItems(items);
+
+        for (int zoomLevel = 0; zoomLevel <= MAX_ZOOM_LEVEL; zoomLevel++) {
+            long tileCount = 2L << zoomLevel;
+            TileBuckets expected = new TileBuckets();
+            expected.reset(0, 0, tileCount - 1, tileCount - 1, 180.0 / tileCount, 360.0 / tileCount);
+            tree.aggregateTiles(expected, ItemFilter.ALL);
+            TileBuckets actual = new TileBuckets();
+            actual.reset(0, 0, tileCount - 1, tileCount - 1, 180.0 / tileCount, 360.0 / tileCount);
+            index.aggregateTiles(actual, ItemFilter.ALL);
+
+            int count = 0;
+            for (long tileX = 0; tileX < tileCount; tileX++) {
+                for (long tileY = 0; tileY < tileCount; tileY++) {
+                    assertEquals(expected.getCount(tileX, tileY), actual.getCount(tileX, tileY));
+                    count += actual.getCount(tileX, tileY);
+                }
+            }
+            assertEquals(items.size(), count);
+        }
+    }
+
+    @Test
+    public void queriesTheItemsOfTheTilesOnTheEdges() {
+        List<CameraTraceReplayTest.TestItem> items = new ArrayList<>();
+        items.add(new CameraTraceReplayTest.TestItem(new LatLng(-90.0, -180.0)));
+        items.add(new CameraTraceReplayTest.TestItem(new LatLng(-90.0, EAST)));
+        items.add(new CameraTraceReplayTest.TestItem(new LatLng(90.0, EAST)));
+        MortonIndex<CameraTraceReplayTest.TestItem> index = new MortonIndex<>();
+        index.setItems(items);
+
+        // Four tiles of 90 x 180 degrees.
+        List<CameraTraceReplayTest.TestItem> southWest = new ArrayList<>();
+        index.queryTile(90.0, 180.0, 0, 1, ItemFilter.ALL, southWest);
+        assertEquals(1, southWest.size());
+        List<CameraTraceReplayTest.TestItem> southEast = new ArrayList<>();
+        index.queryTile(90.0, 180.0, 1, 1, ItemFilter.ALL, southEast);
+        assertEquals(1, southEast.size());
+        List<CameraTraceReplayTest.TestItem> northEast = new ArrayList<>();
+        index.queryTile(90.0, 180.0, 1, 0, ItemFilter.ALL, northEast);
+        assertEquals(1, northEast.size());
+    }
+}
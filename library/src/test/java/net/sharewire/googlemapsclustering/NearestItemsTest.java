@@ -0,0 +1,96 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Searches the nearest items of a position and checks them against the items
+ * sorted by their distance.
+ */
+public class NearestItemsTest {
+
+    private static final int ITEM_COUNT = 5000;
+    private static final LatLng UTRECHT = new LatLng(52.09, 5.12);
+
+    @Test
+    public void returnsTheNearestItemsInOrder() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        List<CameraTraceReplayTest.TestItem> expected = sortByDistance(items, UTRECHT).subList(0, 25);
+        assertEquals(expected, algorithm.getNearestItems(UTRECHT, 25, Double.MAX_VALUE));
+    }
+
+    @Test
+    public void returnsNoItemsBeyondTheMaxDistance() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        List<CameraTraceReplayTest.TestItem> nearestItems = algorithm.getNearestItems(UTRECHT, ITEM_COUNT, 20000.0);
+        assertEquals(withinDistance(sortByDistance(items, UTRECHT), UTRECHT, 20000.0), nearestItems);
+        assertTrue(nearestItems.size() < ITEM_COUNT);
+    }
+
+    @Test
+    public void returnsAllItemsWithinDistance() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        assertEquals(withinDistance(sortByDistance(items, UTRECHT), UTRECHT, 50000.0),
+                algorithm.getItemsWithinDistance(UTRECHT, 50000.0));
+    }
+
+    @Test
+    public void returnsFewerItemsThanAskedForIfThereAreNoMore() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(10, new Random(42));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        assertEquals(sortByDistance(items, UTRECHT), algorithm.getNearestItems(UTRECHT, 100, Double.MAX_VALUE));
+    }
+
+    @NonNull
+    private static List<CameraTraceReplayTest.TestItem> sortByDistance(
+            @NonNull List<CameraTraceReplayTest.TestItem> items, @NonNull final LatLng position) {
+        List<CameraTraceReplayTest.TestItem> sortedItems = new ArrayList<>(items);
+        Collections.sort(sortedItems, new Comparator<CameraTraceReplayTest.TestItem>() {
+            @Override
+            public int compare(CameraTraceReplayTest.TestItem first, CameraTraceReplayTest.TestItem second) {
+                return Double.compare(distance(first, position), distance(second, position));
+            }
+        });
+        return sortedItems;
+    }
+
+    @NonNull
+    private static List<CameraTraceReplayTest.TestItem> withinDistance(
+            @NonNull List<CameraTraceReplayTest.TestItem> items, @NonNull LatLng position, double maxDistance) {
+        List<CameraTraceReplayTest.TestItem> nearItems = new ArrayList<>();
+        for (CameraTraceReplayTest.TestItem item : items) {
+            if (distance(item, position) <= maxDistance) {
+                nearItems.add(item);
+            }
+        }
+        return nearItems;
+    }
+
+    private static double distance(@NonNull ClusterItem item, @NonNull LatLng position) {
+        return Distances.distance(item.getPosition().latitude, item.getPosition().longitude,
+                position.latitude, position.longitude);
+    }
+}
@@ -0,0 +1,221 @@
+package net.sharewire.googlemapsclustering;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import net.sharewire.googlemapsclustering.precluster.Precluster;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the precluster tool and checks that {@link PreclusteredIndex} reads the same tiles
+ * the quad tree computes on the device, and never the ones of an earlier run.
+ */
+public class PreclusteredIndexTest {
+
+    private static final int ITEM_COUNT = 2000;
+    private static final int MAX_ZOOM_LEVEL = 6;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheTilesTheToolWrote() throws Exception {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        File output = precluster(items, MAX_ZOOM_LEVEL);
+
+        PreclusteredIndex<CameraTraceReplayTest.TestItem> index = createIndex(output, items);
+        for (int zoomLevel = 0; zoomLevel <= MAX_ZOOM_LEVEL; zoomLevel++) {
+            assertTrue(index.isPreclustered(zoomLevel));
+            assertSameTiles(items, index, zoomLevel);
+        }
+        assertFalse(index.isPreclustered(MAX_ZOOM_LEVEL + 1));
+    }
+
+    @Test
+    public void countsItemsOnTheEdgesInTheSameTiles() throws Exception {
+        List<CameraTraceReplayTest.TestItem> items = new ArrayList<>();
+        for (double latitude : new double[]{-90.0, 0.0, 90.0}) {
+            for (double longitude : new double[]{-180.0, 0.0, 180.0}) {
+                items.add(new CameraTraceReplayTest.TestItem(new LatLng(latitude, longitude)));
+            }
+        }
+        File output = precluster(items, MAX_ZOOM_LEVEL);
+
+        PreclusteredIndex<CameraTraceReplayTest.TestItem> index = createIndex(output, items);
+        for (int zoomLevel = 0; zoomLevel <= MAX_ZOOM_LEVEL; zoomLevel++) {
+            assertEquals(items.size(), assertSameTiles(items, index, zoomLevel));
+        }
+    }
+
+    @Test
+    public void wrapsPositionsLikeLatLng() throws Exception {
+        double[][] positions = {{0.0, 180.0}, {-90.0, 180.0}, {95.0, 190.0}, {-95.0, -190.0}, {10.0, 540.0}};
+        List<String> lines = new ArrayList<>();
+        List<CameraTraceReplayTest.TestItem> items = new ArrayList<>();
+        for (double[] position : positions) {
+            lines.add(position[0] + "," + position[1]);
+            items.add(new CameraTraceReplayTest.TestItem(new LatLng(position[0], position[1])));
+        }
+        File output = preclusterLines(lines, MAX_ZOOM_LEVEL);
+
+        PreclusteredIndex<CameraTraceReplayTest.TestItem> index = createIndex(output, items);
+        for (int zoomLevel = 0; zoomLevel <= MAX_ZOOM_LEVEL; zoomLevel++) {
+            assertEquals(items.size(), assertSameTiles(items, index, zoomLevel));
+        }
+    }
+
+    @Test
+    public void ignoresZoomLevelsOfAnEarlierRun() throws Exception {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        precluster(items, MAX_ZOOM_LEVEL);
+        File output = precluster(items, 3);
+
+        PreclusteredIndex<CameraTraceReplayTest.TestItem> index = createIndex(output, items);
+        assertTrue(index.isPreclustered(3));
+        assertFalse(index.isPreclustered(4));
+    }
+
+    @Test
+    public void ignoresTilesOfAnEarlierRun() throws Exception {
+        precluster(CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42)), MAX_ZOOM_LEVEL);
+        List<CameraTraceReplayTest.TestItem> items = new ArrayList<>();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(new CameraTraceReplayTest.TestItem(new LatLng(-33.9, 18.4)));
+        }
+        File output = precluster(items, MAX_ZOOM_LEVEL);
+
+        PreclusteredIndex<CameraTraceReplayTest.TestItem> index = createIndex(output, items);
+        for (int zoomLevel = 0; zoomLevel <= MAX_ZOOM_LEVEL; zoomLevel++) {
+            assertEquals(ITEM_COUNT, assertSameTiles(items, index, zoomLevel));
+        }
+    }
+
+    @Test
+    public void ignoresClustersOfOtherItems() throws Exception {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        File output = precluster(items, MAX_ZOOM_LEVEL);
+
+        PreclusteredIndex<CameraTraceReplayTest.TestItem> index = createIndex(output, items.subList(0, ITEM_COUNT / 2));
+        assertFalse(index.isPreclustered(0));
+    }
+
+    @Test
+    public void ignoresClustersOfOtherItemsOfTheSameCount() throws Exception {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        File output = precluster(items, MAX_ZOOM_LEVEL);
+
+        List<CameraTraceReplayTest.TestItem> editedItems = new ArrayList<>(items);
+        LatLng position = items.get(0).getPosition();
+        editedItems.set(0, new CameraTraceReplayTest.TestItem(
+                new LatLng(position.latitude + 1e-6, position.longitude)));
+        PreclusteredIndex<CameraTraceReplayTest.TestItem> index = createIndex(output, editedItems);
+        assertFalse(index.isPreclustered(0));
+    }
+
+    @Test
+    public void readsTheClustersOfReorderedItems() throws Exception {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        File output = precluster(items, MAX_ZOOM_LEVEL);
+
+        List<CameraTraceReplayTest.TestItem> reorderedItems = new ArrayList<>(items);
+        Collections.shuffle(reorderedItems, new Random(7));
+        PreclusteredIndex<CameraTraceReplayTest.TestItem> index = createIndex(output, reorderedItems);
+        assertTrue(index.isPreclustered(0));
+        assertSameTiles(reorderedItems, index, 0);
+    }
+
+    @Test
+    public void readsTheManifestAgainWhenItemsAreSet() throws Exception {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        File output = new File(folder.getRoot(), "clusters");
+        PreclusteredIndex<CameraTraceReplayTest.TestItem> index = createIndex(output, items);
+        assertFalse(index.isPreclustered(0));
+
+        precluster(items, MAX_ZOOM_LEVEL);
+        index.setItems(items);
+        assertTrue(index.isPreclustered(0));
+        assertSameTiles(items, index, 0);
+    }
+
+    private File precluster(List<CameraTraceReplayTest.TestItem> items, int maxZoomLevel)
+            throws IOException, ExecutionException, InterruptedException {
+        List<String> lines = new ArrayList<>();
+        for (CameraTraceReplayTest.TestItem item : items) {
+            lines.add(item.getPosition().latitude + "," + item.getPosition().longitude);
+        }
+        return preclusterLines(lines, maxZoomLevel);
+    }
+
+    private File preclusterLines(List<String> lines, int maxZoomLevel)
+            throws IOException, ExecutionException, InterruptedException {
+        File input = new File(folder.getRoot(), "points.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(input), "UTF-8");
+        try {
+            writer.write("latitude,longitude\n");
+            for (String line : lines) {
+                writer.write(line + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        File output = new File(folder.getRoot(), "clusters");
+        Precluster.run(input, output, maxZoomLevel, 2);
+        return output;
+    }
+
+    private static PreclusteredIndex<CameraTraceReplayTest.TestItem> createIndex(
+            File directory, List<CameraTraceReplayTest.TestItem> items) {
+        QuadTree<CameraTraceReplayTest.TestItem> tree = new QuadTree<>(QuadTree.AUTO_BUCKET_SIZE);
+        PreclusteredIndex<CameraTraceReplayTest.TestItem> index = new PreclusteredIndex<>(directory, tree);
+        index.setItems(items);
+        return index;
+    }
+
+    /**
+     * Checks that the index has the same tiles as a quad tree of the given items at the given zoom level.
+     *
+     * @return the number of items counted in all tiles
+     */
+    private static int assertSameTiles(List<CameraTraceReplayTest.TestItem> items,
+                                       PreclusteredIndex<CameraTraceReplayTest.TestItem> index, int zoomLevel) {
+        QuadTree<CameraTraceReplayTest.TestItem> tree = new QuadTree<>(QuadTree.AUTO_BUCKET_SIZE);
+        tree.setItems(items);
+
+        long tileCount = 2L << zoomLevel;
+        TileBuckets expected = new TileBuckets();
+        expected.reset(0, 0, tileCount - 1, tileCount - 1, 180.0 / tileCount, 360.0 / tileCount);
+        tree.aggregateTiles(expected, ItemFilter.ALL);
+        TileBuckets actual = new TileBuckets();
+        actual.reset(0, 0, tileCount - 1, tileCount - 1, 180.0 / tileCount, 360.0 / tileCount);
+        index.aggregateTiles(actual, ItemFilter.ALL);
+
+        int count = 0;
+        for (long tileX = 0; tileX < tileCount; tileX++) {
+            for (long tileY = 0; tileY < tileCount; tileY++) {
+                assertEquals(expected.getCount(tileX, tileY), actual.getCount(tileX, tileY));
+                assertEquals(expected.getLatitudeSum(tileX, tileY), actual.getLatitudeSum(tileX, tileY), 1e-6);
+                assertEquals(expected.getLongitudeSum(tileX, tileY), actual.getLongitudeSum(tileX, tileY), 1e-6);
+                count += actual.getCount(tileX, tileY);
+            }
+        }
+        return count;
+    }
+}
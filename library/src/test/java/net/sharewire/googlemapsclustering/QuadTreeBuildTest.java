@@ -0,0 +1,64 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Builds the quad tree of a million items on a single thread and in parallel
+ * and checks that both trees are identical.
+ */
+public class QuadTreeBuildTest {
+
+    private static final int ITEM_COUNT = 1000000;
+
+    private static final LatLngBounds NETHERLANDS = new LatLngBounds(new LatLng(50.5, 3.0), new LatLng(53.5, 7.5));
+
+    @Test
+    public void parallelBuildIsIdentical() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+
+        QuadTree<CameraTraceReplayTest.TestItem> sequentialTree = new QuadTree<>(QuadTree.AUTO_BUCKET_SIZE);
+        sequentialTree.setItems(items);
+        QuadTree<CameraTraceReplayTest.TestItem> parallelTree = new QuadTree<>(QuadTree.AUTO_BUCKET_SIZE);
+        parallelTree.buildInParallel(items);
+
+        // A query of the whole world lists the points node by node, so it reflects the structure of the tree.
+        assertEquals(queryAll(sequentialTree), queryAll(parallelTree));
+
+        // The aggregates are summed up in the same order, so the centroids are exactly the same.
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> sequentialAlgorithm = new ClusterAlgorithm<>(sequentialTree);
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> parallelAlgorithm = new ClusterAlgorithm<>(parallelTree);
+        for (int zoomLevel = 3; zoomLevel <= 12; zoomLevel += 3) {
+            assertEquals(describe(sequentialAlgorithm.getClusters(NETHERLANDS, zoomLevel)),
+                    describe(parallelAlgorithm.getClusters(NETHERLANDS, zoomLevel)));
+        }
+    }
+
+    @NonNull
+    private static List<CameraTraceReplayTest.TestItem> queryAll(
+            @NonNull QuadTree<CameraTraceReplayTest.TestItem> tree) {
+        List<CameraTraceReplayTest.TestItem> points = new ArrayList<>();
+        tree.queryRange(90.0, -180.0, -90.0, 180.0, ItemFilter.ALL, points);
+        return points;
+    }
+
+    @NonNull
+    private static List<String> describe(@NonNull List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters) {
+        List<String> descriptions = new ArrayList<>(clusters.size());
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : clusters) {
+            LatLng position = cluster.getPosition();
+            descriptions.add(cluster.getSize() + "@" + position.latitude + "," + position.longitude);
+        }
+        return descriptions;
+    }
+}
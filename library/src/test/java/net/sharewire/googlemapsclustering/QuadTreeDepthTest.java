@@ -0,0 +1,94 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Inserts many items at the same position and checks that the quad tree stops subdividing
+ * at its maximum depth and keeps the remaining items in the nodes there.
+ */
+public class QuadTreeDepthTest {
+
+    private static final int ITEM_COUNT = 10000;
+    private static final LatLng AMSTERDAM = new LatLng(52.37, 4.89);
+
+    @Test
+    public void stopsSubdividingAtTheMaximumDepth() {
+        QuadTree<CameraTraceReplayTest.TestItem> tree = new QuadTree<>(4, QuadTree.DEFAULT_MAX_DEPTH);
+        tree.setItems(generateItems(AMSTERDAM, ITEM_COUNT));
+
+        assertEquals(QuadTree.DEFAULT_MAX_DEPTH, getDepth(tree.getRoot()));
+        assertEquals(ITEM_COUNT, tree.getRoot().getCount());
+    }
+
+    @Test
+    public void queriesAllItemsOfTheOverflowBucket() {
+        QuadTree<CameraTraceReplayTest.TestItem> tree = new QuadTree<>(4, QuadTree.DEFAULT_MAX_DEPTH);
+        tree.setItems(generateItems(AMSTERDAM, ITEM_COUNT));
+
+        List<CameraTraceReplayTest.TestItem> items = new ArrayList<>();
+        tree.queryRange(52.38, 4.88, 52.36, 4.90, ItemFilter.ALL, items);
+        assertEquals(ITEM_COUNT, items.size());
+    }
+
+    @Test
+    public void keepsAllItemsInTheRootWithoutDepth() {
+        QuadTree<CameraTraceReplayTest.TestItem> tree = new QuadTree<>(4, 0);
+        tree.setItems(generateItems(AMSTERDAM, 100));
+
+        assertTrue(tree.getRoot().getChildren().isEmpty());
+        assertEquals(100, tree.getRoot().getCount());
+    }
+
+    @Test
+    public void buildsTheSameOverflowBucketsInParallel() {
+        List<CameraTraceReplayTest.TestItem> items =
+                generateItems(AMSTERDAM, 2 * QuadTreeBuildTask.SEQUENTIAL_THRESHOLD);
+        QuadTree<CameraTraceReplayTest.TestItem> tree = new QuadTree<>(4, QuadTree.DEFAULT_MAX_DEPTH);
+        tree.setItems(items);
+        QuadTree<CameraTraceReplayTest.TestItem> parallelTree = new QuadTree<>(4, QuadTree.DEFAULT_MAX_DEPTH);
+        parallelTree.buildInParallel(items);
+
+        assertEquals(getDepth(tree.getRoot()), getDepth(parallelTree.getRoot()));
+        assertEquals(tree.getRoot().getCount(), parallelTree.getRoot().getCount());
+    }
+
+    @Test
+    public void clustersTheItemsOfTheOverflowBucket() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm =
+                new ClusterAlgorithm<>(4, QuadTree.DEFAULT_MAX_DEPTH);
+        algorithm.setItems(generateItems(AMSTERDAM, ITEM_COUNT));
+
+        LatLngBounds bounds = new LatLngBounds(new LatLng(52.3, 4.8), new LatLng(52.4, 5.0));
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(bounds, 20.0);
+        assertEquals(1, clusters.size());
+        assertEquals(ITEM_COUNT, clusters.get(0).getSize());
+    }
+
+    @NonNull
+    private static List<CameraTraceReplayTest.TestItem> generateItems(@NonNull LatLng position, int count) {
+        List<CameraTraceReplayTest.TestItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new CameraTraceReplayTest.TestItem(position));
+        }
+        return items;
+    }
+
+    private static int getDepth(@NonNull QuadTreeNode<CameraTraceReplayTest.TestItem> node) {
+        int depth = 0;
+        for (QuadTreeNode<CameraTraceReplayTest.TestItem> child : node.getChildren()) {
+            depth = Math.max(depth, getDepth(child) + 1);
+        }
+        return depth;
+    }
+}
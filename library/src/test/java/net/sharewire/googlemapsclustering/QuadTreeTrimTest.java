@@ -0,0 +1,63 @@
+package net.sharewire.googlemapsclustering;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Trims the memory of a quad tree on one thread while another one queries it,
+ * and checks that no query misses any item.
+ */
+public class QuadTreeTrimTest {
+
+    private static final int ITEM_COUNT = 5000;
+    private static final int QUERIES = 2000;
+
+    @Test
+    public void queriesSeeAllItemsWhileTreeIsTrimmed() throws InterruptedException {
+        final QuadTree<CameraTraceReplayTest.TestItem> tree = new QuadTree<>(QuadTree.AUTO_BUCKET_SIZE);
+        tree.setItems(CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42)));
+
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread trimmer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int level = ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+                while (!done.get()) {
+                    tree.trimMemory(level);
+                    level = level == ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                            ? ComponentCallbacks2.TRIM_MEMORY_MODERATE : ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+                    Thread.yield();
+                }
+            }
+        });
+        trimmer.start();
+
+        // A single tile covers the whole world.
+        TileBuckets buckets = new TileBuckets();
+        Region world = new CircleRegion(0.0, 0.0, Double.MAX_VALUE);
+        try {
+            for (int i = 0; i < QUERIES; i++) {
+                buckets.reset(0, 0, 0, 0, 180.0, 360.0);
+                tree.aggregateTiles(buckets, ItemFilter.ALL);
+                assertEquals(ITEM_COUNT, buckets.getCount(0, 0));
+
+                List<CameraTraceReplayTest.TestItem> items = new ArrayList<>();
+                tree.queryTile(180.0, 360.0, 0, 0, ItemFilter.ALL, items);
+                assertEquals(ITEM_COUNT, items.size());
+
+                assertEquals(ITEM_COUNT, tree.countRegion(world, ItemFilter.ALL));
+            }
+        } finally {
+            done.set(true);
+            trimmer.join();
+        }
+    }
+}
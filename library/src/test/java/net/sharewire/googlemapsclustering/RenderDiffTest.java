@@ -0,0 +1,156 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Computes the changes of markers between the clusters of two camera positions and checks which
+ * clusters keep their markers and which markers move into and out of which clusters.
+ */
+public class RenderDiffTest {
+
+    private static final int ITEM_COUNT = 5000;
+    private static final LatLngBounds WEST = new LatLngBounds(new LatLng(50.5, 3.0), new LatLng(53.5, 6.0));
+    private static final LatLngBounds EAST = new LatLngBounds(new LatLng(50.5, 4.5), new LatLng(53.5, 7.5));
+
+    @Test
+    public void clustersOfTheSameTileAreEqual() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(2, new Random(42));
+        MapCluster<CameraTraceReplayTest.TestItem> cluster = new MapCluster<>(52.0, 5.0, items, 53.0, 4.0, 51.0, 6.0);
+        MapCluster<CameraTraceReplayTest.TestItem> movedCluster =
+                new MapCluster<>(52.5, 4.5, Collections.<CameraTraceReplayTest.TestItem>emptyList(),
+                        53.0, 4.0, 51.0, 6.0);
+        MapCluster<CameraTraceReplayTest.TestItem> otherTileCluster =
+                new MapCluster<>(52.0, 5.0, items, 53.0, 5.0, 51.0, 7.0);
+
+        assertEquals(cluster, movedCluster);
+        assertEquals(cluster.hashCode(), movedCluster.hashCode());
+        assertNotEquals(cluster, otherTileCluster);
+    }
+
+    @Test
+    public void singleItemClustersDifferFromClustersOfTheSameTile() {
+        List<CameraTraceReplayTest.TestItem> items = CameraTraceReplayTest.generateItems(2, new Random(42));
+        CameraTraceReplayTest.TestItem item = items.get(0);
+        MapCluster<CameraTraceReplayTest.TestItem> single = new MapCluster<>(item, null, null, 54.0, 3.0, 50.0, 8.0);
+        MapCluster<CameraTraceReplayTest.TestItem> sameSingle =
+                new MapCluster<>(item, null, null, 54.0, 3.0, 50.0, 8.0);
+        MapCluster<CameraTraceReplayTest.TestItem> otherSingle =
+                new MapCluster<>(items.get(1), null, null, 54.0, 3.0, 50.0, 8.0);
+        MapCluster<CameraTraceReplayTest.TestItem> multiple = new MapCluster<>(
+                item.getPosition().latitude, item.getPosition().longitude, items, 54.0, 3.0, 50.0, 8.0);
+
+        assertEquals(single, sameSingle);
+        assertEquals(single.hashCode(), sameSingle.hashCode());
+        assertNotEquals(single, otherSingle);
+        assertNotEquals(single, multiple);
+        assertNotEquals(multiple, single);
+
+        // An item joining another one in its tile replaces its marker by the one of the cluster.
+        RenderDiff<CameraTraceReplayTest.TestItem> diff = RenderDiff.compute(
+                Collections.<MarkerCluster<CameraTraceReplayTest.TestItem>>singleton(single),
+                Collections.<MarkerCluster<CameraTraceReplayTest.TestItem>>singletonList(multiple));
+        assertTrue(diff.kept.isEmpty());
+        assertEquals(Collections.singletonList(multiple), diff.added);
+        assertEquals(Collections.singletonList(single), diff.removed);
+        assertSame(single, diff.addedParents.get(0));
+        assertSame(multiple, diff.removedParents.get(0));
+    }
+
+    @Test
+    public void panningKeepsTheClustersOfBothViews() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = createAlgorithm();
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> westClusters = algorithm.getClusters(WEST, 8.0);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> eastClusters = algorithm.getClusters(EAST, 8.0);
+
+        RenderDiff<CameraTraceReplayTest.TestItem> diff =
+                RenderDiff.compute(new HashSet<>(westClusters), eastClusters);
+
+        Set<MarkerCluster<CameraTraceReplayTest.TestItem>> kept = new HashSet<>(eastClusters);
+        kept.retainAll(westClusters);
+        Set<MarkerCluster<CameraTraceReplayTest.TestItem>> added = new HashSet<>(eastClusters);
+        added.removeAll(westClusters);
+        Set<MarkerCluster<CameraTraceReplayTest.TestItem>> removed = new HashSet<>(westClusters);
+        removed.removeAll(eastClusters);
+        assertFalse(kept.isEmpty());
+        assertFalse(added.isEmpty());
+        assertFalse(removed.isEmpty());
+        assertEquals(kept, new HashSet<>(diff.kept));
+        assertEquals(added, new HashSet<>(diff.added));
+        assertEquals(removed, new HashSet<>(diff.removed));
+        assertEquals(eastClusters.size(), diff.kept.size() + diff.added.size());
+        assertEquals(westClusters.size(), diff.kept.size() + diff.removed.size());
+
+        // The tiles of the same zoom level don't overlap, so no marker moves into another cluster.
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> parent : diff.addedParents) {
+            assertNull(parent);
+        }
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> parent : diff.removedParents) {
+            assertNull(parent);
+        }
+    }
+
+    @Test
+    public void zoomingInMovesMarkersOutOfTheirParents() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = createAlgorithm();
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> parents = algorithm.getClusters(WEST, 7.0);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> children = algorithm.getClusters(WEST, 8.0);
+
+        RenderDiff<CameraTraceReplayTest.TestItem> diff = RenderDiff.compute(new HashSet<>(parents), children);
+
+        assertTrue(diff.kept.isEmpty());
+        assertEquals(children, diff.added);
+        assertParents(diff.added, diff.addedParents);
+    }
+
+    @Test
+    public void zoomingOutMovesMarkersIntoTheirParents() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = createAlgorithm();
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> children = algorithm.getClusters(WEST, 8.0);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> parents = algorithm.getClusters(WEST, 7.0);
+
+        RenderDiff<CameraTraceReplayTest.TestItem> diff = RenderDiff.compute(new HashSet<>(children), parents);
+
+        assertTrue(diff.kept.isEmpty());
+        assertEquals(new HashSet<>(children), new HashSet<>(diff.removed));
+        assertParents(diff.removed, diff.removedParents);
+    }
+
+    private static void assertParents(@NonNull List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters,
+                                      @NonNull List<MarkerCluster<CameraTraceReplayTest.TestItem>> parents) {
+        assertEquals(clusters.size(), parents.size());
+        for (int i = 0; i < clusters.size(); i++) {
+            LatLng position = clusters.get(i).getPosition();
+            MarkerCluster<CameraTraceReplayTest.TestItem> parent = parents.get(i);
+            assertNotNull(parent);
+            assertTrue(parent.contains(position.latitude, position.longitude));
+            assertTrue(parent.getSize() >= clusters.get(i).getSize());
+        }
+    }
+
+    @NonNull
+    private static ClusterAlgorithm<CameraTraceReplayTest.TestItem> createAlgorithm() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(new ArrayList<>(CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42))));
+        return algorithm;
+    }
+}
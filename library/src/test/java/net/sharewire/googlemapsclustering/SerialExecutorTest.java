@@ -0,0 +1,168 @@
+package net.sharewire.googlemapsclustering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Submits tasks to serial executors on the shared worker pool and checks that each executor
+ * runs its tasks one at a time in the order they were submitted.
+ */
+public class SerialExecutorTest {
+
+    private static final int TASK_COUNT = 200;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Test
+    public void runsTasksInTheOrderTheyWereSubmitted() throws InterruptedException {
+        SerialExecutor executor = new SerialExecutor();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            final int index = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < TASK_COUNT; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void runsOneTaskAtATime() throws InterruptedException {
+        // Two executors keep more than one thread of the pool busy.
+        SerialExecutor firstExecutor = new SerialExecutor();
+        SerialExecutor secondExecutor = new SerialExecutor();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(2 * TASK_COUNT);
+        Runnable firstTask = new Runnable() {
+            @Override
+            public void run() {
+                int count = running.incrementAndGet();
+                while (count > maxRunning.get()) {
+                    maxRunning.compareAndSet(maxRunning.get(), count);
+                }
+                Thread.yield();
+                running.decrementAndGet();
+                done.countDown();
+            }
+        };
+        Runnable secondTask = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < TASK_COUNT; i++) {
+            firstExecutor.execute(firstTask);
+            secondExecutor.execute(secondTask);
+        }
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void runsTasksSubmittedByATaskAfterTheWaitingOnes() throws InterruptedException {
+        final SerialExecutor executor = new SerialExecutor();
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                awaitQuietly(started, release);
+                order.add("first");
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        order.add("third");
+                        done.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                order.add("second");
+            }
+        });
+        release.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "second", "third"), order);
+    }
+
+    @Test
+    public void dropsWaitingTasksOnShutdown() throws InterruptedException {
+        SerialExecutor executor = new SerialExecutor();
+        final AtomicInteger runCount = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                awaitQuietly(started, release);
+            }
+        });
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runCount.incrementAndGet();
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            executor.execute(task);
+        }
+        assertEquals(10, executor.getQueueSize());
+
+        executor.shutdown();
+        executor.execute(task);
+        assertEquals(0, executor.getQueueSize());
+        release.countDown();
+
+        // Tasks submitted to another executor afterwards run while the dropped ones would have.
+        final CountDownLatch done = new CountDownLatch(1);
+        new SerialExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, runCount.get());
+    }
+
+    /**
+     * Signals that the calling task has started and blocks it until it's released.
+     */
+    private static void awaitQuietly(CountDownLatch started, CountDownLatch release) {
+        started.countDown();
+        try {
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
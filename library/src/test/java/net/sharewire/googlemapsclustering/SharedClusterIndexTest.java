@@ -0,0 +1,165 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Queries one shared index from several algorithms on their own threads at the same time, like
+ * a main map and its mini-maps, and checks that each query gets the results it gets when the
+ * index is queried on a single thread. Also checks that the index can't be modified.
+ */
+public class SharedClusterIndexTest {
+
+    private static final int ITEM_COUNT = 5000;
+    private static final int THREAD_COUNT = 4;
+    private static final int ITERATIONS = 100;
+    private static final LatLngBounds NETHERLANDS = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+    private static final LatLng UTRECHT = new LatLng(52.09, 5.12);
+    private static final LatLng GRONINGEN = new LatLng(53.22, 6.57);
+
+    @Test
+    public void concurrentQueriesGetTheResultsOfASingleThread() throws InterruptedException {
+        final SharedClusterIndex<CameraTraceReplayTest.TestItem> index =
+                new SharedClusterIndex<>(CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42)));
+        final List<List<String>> expected = new ArrayList<>(THREAD_COUNT);
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            expected.add(query(new SharedClusterAlgorithm<>(index), i));
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>(THREAD_COUNT);
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            final int queryIndex = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        SharedClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm =
+                                new SharedClusterAlgorithm<>(index);
+                        for (int j = 0; j < ITERATIONS; j++) {
+                            assertEquals(expected.get(queryIndex), query(algorithm, queryIndex));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void rejectsNewItems() {
+        SharedClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new SharedClusterAlgorithm<>(
+                new SharedClusterIndex<>(CameraTraceReplayTest.generateItems(100, new Random(42))));
+        List<CameraTraceReplayTest.TestItem> items =
+                Collections.singletonList(new CameraTraceReplayTest.TestItem(UTRECHT));
+
+        try {
+            algorithm.setItems(items);
+            fail("Expected an UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+            // The index is immutable.
+        }
+        assertFalse(algorithm instanceof IncrementalAlgorithm);
+    }
+
+    @Test
+    public void keepsTheReducerOfTheIndex() {
+        CountReducer reducer = new CountReducer();
+        SharedClusterIndex<CameraTraceReplayTest.TestItem> index =
+                new SharedClusterIndex<>(CameraTraceReplayTest.generateItems(100, new Random(42)), reducer);
+        SharedClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new SharedClusterAlgorithm<>(index);
+
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : algorithm.getClusters(NETHERLANDS, 6.0)) {
+            Integer count = ((MapCluster<CameraTraceReplayTest.TestItem>) cluster).getAggregate(reducer);
+            assertEquals(Integer.valueOf(cluster.getSize()), count);
+        }
+
+        index.getIndex().setReducer(castReducer(reducer));
+        try {
+            index.getIndex().setReducer(castReducer(new CountReducer()));
+            fail("Expected an UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+            // The index is reduced when it's built.
+        }
+        try {
+            index.getIndex().setReducer(null);
+            fail("Expected an UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+            // The index is reduced when it's built.
+        }
+    }
+
+    /**
+     * Runs the clustering and search queries of the given thread, which differ per thread.
+     */
+    @NonNull
+    private static List<String> query(@NonNull SharedClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm,
+                                      int queryIndex) {
+        List<String> results = new ArrayList<>();
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster
+                : algorithm.getClusters(NETHERLANDS, 6.0 + queryIndex)) {
+            results.add(cluster.getSize() + "@" + cluster.getPosition() + describe(cluster.getItems()));
+        }
+        LatLng position = queryIndex % 2 == 0 ? UTRECHT : GRONINGEN;
+        results.add(describe(algorithm.getNearestItems(position, 10 + queryIndex, Double.MAX_VALUE)));
+        results.add(describe(algorithm.getItemsWithinDistance(position, 5000.0 * (queryIndex + 1))));
+        results.add(describe(algorithm.selectItemsInCircle(position, 10000.0).getItems()));
+        return results;
+    }
+
+    @NonNull
+    private static String describe(@NonNull List<CameraTraceReplayTest.TestItem> items) {
+        StringBuilder description = new StringBuilder();
+        for (CameraTraceReplayTest.TestItem item : items) {
+            description.append(' ').append(System.identityHashCode(item));
+        }
+        return description.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private static ClusterReducer<CameraTraceReplayTest.TestItem, Object> castReducer(
+            @NonNull ClusterReducer<CameraTraceReplayTest.TestItem, ?> reducer) {
+        return (ClusterReducer<CameraTraceReplayTest.TestItem, Object>) reducer;
+    }
+
+    private static class CountReducer implements ClusterReducer<CameraTraceReplayTest.TestItem, Integer> {
+
+        @Override
+        public Integer identity() {
+            return 0;
+        }
+
+        @Override
+        public Integer extract(@NonNull CameraTraceReplayTest.TestItem item) {
+            return 1;
+        }
+
+        @Override
+        public Integer combine(Integer first, Integer second) {
+            return first + second;
+        }
+    }
+}
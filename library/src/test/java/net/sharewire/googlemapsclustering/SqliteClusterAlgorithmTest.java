@@ -0,0 +1,128 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays the camera traces against {@link SqliteClusterAlgorithm} on sqlite-jdbc, prints
+ * the latency of each trace and checks that the clusters match the ones of the quad tree.
+ */
+public class SqliteClusterAlgorithmTest {
+
+    private static final int ITEM_COUNT = 20000;
+
+    private JdbcDatabase database;
+    private List<CameraTraceReplayTest.TestItem> items;
+
+    @Before
+    public void setUp() throws SQLException {
+        database = new JdbcDatabase("jdbc:sqlite::memory:");
+
+        // Positions that are exact as floats are stored by the R*Tree without rounding.
+        items = new ArrayList<>();
+        for (CameraTraceReplayTest.TestItem item : CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42))) {
+            LatLng position = item.getPosition();
+            items.add(new CameraTraceReplayTest.TestItem(
+                    new LatLng((float) position.latitude, (float) position.longitude)));
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        database.close();
+    }
+
+    @Test
+    public void replayTraces() throws IOException {
+        SqliteClusterAlgorithm<CameraTraceReplayTest.TestItem> sqliteAlgorithm = createAlgorithm();
+        sqliteAlgorithm.setItems(items);
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        for (String traceName : CameraTraceReplayTest.TRACES) {
+            CameraTrace trace = CameraTrace.load(traceName);
+            System.out.println(new CameraTraceReplay<>(sqliteAlgorithm).replay(trace));
+
+            for (int i = 0; i < trace.size(); i++) {
+                List<MarkerCluster<CameraTraceReplayTest.TestItem>> expected =
+                        algorithm.getClusters(trace.bounds.get(i), trace.zoomLevels.get(i));
+                List<MarkerCluster<CameraTraceReplayTest.TestItem>> actual =
+                        sqliteAlgorithm.getClusters(trace.bounds.get(i), trace.zoomLevels.get(i));
+                assertEquals(getSizes(expected), getSizes(actual));
+            }
+        }
+    }
+
+    @Test
+    public void selectsAndFindsTheSameItems() {
+        SqliteClusterAlgorithm<CameraTraceReplayTest.TestItem> sqliteAlgorithm = createAlgorithm();
+        sqliteAlgorithm.setItems(items.subList(0, ITEM_COUNT / 2));
+        sqliteAlgorithm.addItems(items.subList(ITEM_COUNT / 2, ITEM_COUNT));
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        LatLng utrecht = new LatLng(52.09, 5.12);
+        assertEquals(algorithm.selectItemsInCircle(utrecht, 20000).getCount(),
+                sqliteAlgorithm.selectItemsInCircle(utrecht, 20000).getCount());
+        assertEquals(algorithm.getNearestItems(utrecht, 10, Double.MAX_VALUE),
+                sqliteAlgorithm.getNearestItems(utrecht, 10, Double.MAX_VALUE));
+    }
+
+    @Test
+    public void clustersItemsAtTheSouthPole() {
+        items.add(new CameraTraceReplayTest.TestItem(new LatLng(-90.0, 0.0)));
+        items.add(new CameraTraceReplayTest.TestItem(new LatLng(-90.0, 10.0)));
+        items.add(new CameraTraceReplayTest.TestItem(new LatLng(-89.5, 0.0)));
+        SqliteClusterAlgorithm<CameraTraceReplayTest.TestItem> sqliteAlgorithm = createAlgorithm();
+        sqliteAlgorithm.setItems(items);
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(items);
+
+        LatLngBounds world = new LatLngBounds(new LatLng(-90.0, -179.0), new LatLng(90.0, 179.0));
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> expected = algorithm.getClusters(world, 3.0);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> actual = sqliteAlgorithm.getClusters(world, 3.0);
+        assertEquals(getSizes(expected), getSizes(actual));
+
+        int count = 0;
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : actual) {
+            assertEquals(cluster.getSize(), cluster.getItems().size());
+            count += cluster.getSize();
+        }
+        assertEquals(items.size(), count);
+    }
+
+    @NonNull
+    private SqliteClusterAlgorithm<CameraTraceReplayTest.TestItem> createAlgorithm() {
+        return new SqliteClusterAlgorithm<>(database, "positions",
+                new MappedClusterAlgorithm.ItemLoader<CameraTraceReplayTest.TestItem>() {
+                    @NonNull
+                    @Override
+                    public CameraTraceReplayTest.TestItem loadItem(int id) {
+                        return items.get(id);
+                    }
+                });
+    }
+
+    @NonNull
+    private static List<Integer> getSizes(@NonNull List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters) {
+        List<Integer> sizes = new ArrayList<>(clusters.size());
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : clusters) {
+            sizes.add(cluster.getSize());
+        }
+        return sizes;
+    }
+}
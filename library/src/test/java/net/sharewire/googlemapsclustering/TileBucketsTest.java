@@ -0,0 +1,88 @@
+package net.sharewire.googlemapsclustering;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which tiles points on the borders of tiles and on the edges of the world are counted in.
+ */
+public class TileBucketsTest {
+
+    // The tiles of the zoom level of 6.
+    private static final long TILE_COUNT = 128;
+    private static final double STEP_LATITUDE = 180.0 / TILE_COUNT;
+    private static final double STEP_LONGITUDE = 360.0 / TILE_COUNT;
+
+    @Test
+    public void putsPointsOnBordersIntoTheSouthEasternTile() {
+        TileBuckets buckets = new TileBuckets();
+        buckets.reset(65, 26, 66, 27, STEP_LATITUDE, STEP_LONGITUDE);
+
+        // The corner of the tiles (65, 26), (66, 26), (65, 27) and (66, 27).
+        buckets.add(52.03125, 5.625);
+
+        assertEquals(1, buckets.getCount(66, 27));
+        assertEquals(0, buckets.getCount(65, 26));
+        assertEquals(0, buckets.getCount(66, 26));
+        assertEquals(0, buckets.getCount(65, 27));
+    }
+
+    @Test
+    public void putsTheEdgesOfTheWorldIntoTheOuterTiles() {
+        assertEquals(0, TileBuckets.tileX(-180.0, STEP_LONGITUDE));
+        assertEquals(TILE_COUNT - 1, TileBuckets.tileX(180.0, STEP_LONGITUDE));
+        assertEquals(0, TileBuckets.tileY(90.0, STEP_LATITUDE));
+        assertEquals(TILE_COUNT - 1, TileBuckets.tileY(-90.0, STEP_LATITUDE));
+    }
+
+    @Test
+    public void putsTheEdgesOfTheWorldIntoTheOuterTilesOfFractionalZoomLevels() {
+        // The tile count of the zoom level of 0.6.
+        long tileCount = (long) (Math.pow(2, 0.6) * 2);
+        assertEquals(tileCount - 1, TileBuckets.tileX(180.0, 360.0 / tileCount));
+        assertEquals(tileCount - 1, TileBuckets.tileY(-90.0, 180.0 / tileCount));
+    }
+
+    @Test
+    public void countsThePointsOnTheSouthPoleAndTheAntimeridian() {
+        TileBuckets buckets = new TileBuckets();
+        buckets.reset(0, 0, TILE_COUNT - 1, TILE_COUNT - 1, STEP_LATITUDE, STEP_LONGITUDE);
+
+        buckets.add(-90.0, 180.0);
+        buckets.add(90.0, -180.0);
+
+        assertEquals(1, buckets.getCount(TILE_COUNT - 1, TILE_COUNT - 1));
+        assertEquals(1, buckets.getCount(0, 0));
+    }
+
+    @Test
+    public void ignoresPointsOutsideTheTiles() {
+        TileBuckets buckets = new TileBuckets();
+        buckets.reset(65, 26, 66, 27, STEP_LATITUDE, STEP_LONGITUDE);
+
+        buckets.add(0.0, 0.0);
+
+        for (long tileX = 65; tileX <= 66; tileX++) {
+            for (long tileY = 26; tileY <= 27; tileY++) {
+                assertEquals(0, buckets.getCount(tileX, tileY));
+            }
+        }
+    }
+
+    @Test
+    public void addsNodesOnlyIfTheyLieInsideATile() {
+        TileBuckets buckets = new TileBuckets();
+        buckets.reset(65, 26, 66, 27, STEP_LATITUDE, STEP_LONGITUDE);
+
+        // A node inside the tile (65, 26) and one that spans the border to (66, 26).
+        assertTrue(buckets.addIfInsideTile(53.0, 3.0, 52.5, 3.5, 3, 157.5, 9.75, null));
+        assertFalse(buckets.addIfInsideTile(53.0, 5.0, 52.5, 6.0, 3, 157.5, 16.5, null));
+
+        assertEquals(3, buckets.getCount(65, 26));
+        assertEquals(157.5, buckets.getLatitudeSum(65, 26), 0.0);
+        assertEquals(0, buckets.getCount(66, 26));
+    }
+}
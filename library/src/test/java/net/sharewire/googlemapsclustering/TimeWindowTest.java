@@ -0,0 +1,131 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Clusters items with and without timestamps and checks that a time window keeps
+ * the items whose timestamps lie inside it and all items without a timestamp.
+ */
+public class TimeWindowTest {
+
+    private static final int ITEM_COUNT = 4000;
+    private static final LatLngBounds NETHERLANDS = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+
+    @Test
+    public void clustersTheItemsInsideTheWindow() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems(false));
+        algorithm.setTimeWindow(1000, 2000);
+
+        int count = 0;
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : algorithm.getClusters(NETHERLANDS, 7.0)) {
+            for (CameraTraceReplayTest.TestItem item : cluster.getItems()) {
+                long timestamp = ((TimedItem) item).getTimestamp();
+                assertTrue(timestamp >= 1000 && timestamp < 2000);
+            }
+            count += cluster.getSize();
+        }
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void excludesTheEndOfTheWindow() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems(false));
+        algorithm.setTimeWindow(1000, 1001);
+
+        assertEquals(1, sumSizes(algorithm.getClusters(NETHERLANDS, 7.0)));
+    }
+
+    @Test
+    public void keepsTheItemsWithoutTimestamp() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems(true));
+        algorithm.setTimeWindow(0, 1);
+
+        int count = 0;
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : algorithm.getClusters(NETHERLANDS, 7.0)) {
+            for (CameraTraceReplayTest.TestItem item : cluster.getItems()) {
+                assertTrue(!(item instanceof TimedItem) || ((TimedItem) item).getTimestamp() == 0);
+            }
+            count += cluster.getSize();
+        }
+        assertEquals(ITEM_COUNT / 2 + 1, count);
+    }
+
+    @Test
+    public void clearingTheWindowRestoresAllItems() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems(false));
+        algorithm.setTimeWindow(1000, 2000);
+        algorithm.getClusters(NETHERLANDS, 7.0);
+        algorithm.clearTimeWindow();
+
+        assertEquals(ITEM_COUNT, sumSizes(algorithm.getClusters(NETHERLANDS, 7.0)));
+    }
+
+    @Test
+    public void filtersTheItemsWithinDistance() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(generateItems(false));
+        algorithm.setTimeWindow(0, 100);
+
+        List<CameraTraceReplayTest.TestItem> items =
+                algorithm.getItemsWithinDistance(new LatLng(52.09, 5.12), Double.MAX_VALUE);
+        assertEquals(100, items.size());
+    }
+
+    /**
+     * Returns items whose timestamps are their indexes or, if asked, whose odd ones have no timestamp.
+     */
+    @NonNull
+    private static List<CameraTraceReplayTest.TestItem> generateItems(boolean untimed) {
+        List<CameraTraceReplayTest.TestItem> positions =
+                CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42));
+        List<CameraTraceReplayTest.TestItem> items = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            LatLng position = positions.get(i).getPosition();
+            if (untimed && i % 2 == 1) {
+                items.add(new CameraTraceReplayTest.TestItem(position));
+            } else {
+                items.add(new TimedItem(position, i));
+            }
+        }
+        return items;
+    }
+
+    private static int sumSizes(@NonNull List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters) {
+        int count = 0;
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : clusters) {
+            count += cluster.getSize();
+        }
+        return count;
+    }
+
+    private static class TimedItem extends CameraTraceReplayTest.TestItem implements TimedClusterItem {
+
+        private final long timestamp;
+
+        TimedItem(@NonNull LatLng position, long timestamp) {
+            super(position);
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
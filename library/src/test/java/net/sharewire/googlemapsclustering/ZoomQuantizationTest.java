@@ -0,0 +1,155 @@
+package net.sharewire.googlemapsclustering;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Clusters items on quantized zoom levels and checks that the zoom level snaps to the step,
+ * that the last clusters are reused while they still cover the camera and that anything
+ * changing the clusters invalidates them.
+ */
+public class ZoomQuantizationTest {
+
+    private static final int ITEM_COUNT = 5000;
+    private static final LatLngBounds NETHERLANDS = new LatLngBounds(new LatLng(50.0, 3.0), new LatLng(54.0, 8.0));
+    private static final LatLngBounds UTRECHT = new LatLngBounds(new LatLng(51.9, 4.9), new LatLng(52.3, 5.3));
+    private static final LatLngBounds GERMANY = new LatLngBounds(new LatLng(50.0, 7.0), new LatLng(54.0, 12.0));
+
+    @Test
+    public void snapsTheZoomLevelToTheStep() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> exact = createAlgorithm();
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> quantized = createAlgorithm();
+        quantized.setZoomQuantization(0.5, 0.0);
+
+        assertEquals(describe(exact.getClusters(NETHERLANDS, 7.0)), describe(quantized.getClusters(NETHERLANDS, 7.3)));
+        assertEquals(describe(exact.getClusters(NETHERLANDS, 7.5)), describe(quantized.getClusters(NETHERLANDS, 7.9)));
+        assertEquals(describe(exact.getClusters(NETHERLANDS, 6.5)), describe(quantized.getClusters(NETHERLANDS, 6.5)));
+    }
+
+    @Test
+    public void keepsTheZoomLevelWithinTheHysteresis() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> exact = createAlgorithm();
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> quantized = createAlgorithm();
+        quantized.setZoomQuantization(1.0, 0.2);
+        List<String> zoomLevel7 = describe(exact.getClusters(NETHERLANDS, 7.0));
+        List<String> zoomLevel8 = describe(exact.getClusters(NETHERLANDS, 8.0));
+        assertNotEquals(zoomLevel7, zoomLevel8);
+
+        assertEquals(zoomLevel7, describe(quantized.getClusters(NETHERLANDS, 7.5)));
+        assertEquals(zoomLevel7, describe(quantized.getClusters(NETHERLANDS, 8.1)));
+        assertEquals(zoomLevel8, describe(quantized.getClusters(NETHERLANDS, 8.3)));
+        assertEquals(zoomLevel8, describe(quantized.getClusters(NETHERLANDS, 7.9)));
+        assertEquals(zoomLevel7, describe(quantized.getClusters(NETHERLANDS, 7.7)));
+    }
+
+    @Test
+    public void reusesTheClustersOfBoundsContainingTheCamera() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = createAlgorithm();
+        algorithm.setZoomQuantization(0.5, 0.1);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(NETHERLANDS, 7.2);
+
+        assertSame(clusters, algorithm.getClusters(NETHERLANDS, 7.2));
+        assertSame(clusters, algorithm.getClusters(UTRECHT, 7.4));
+        assertNotSame(clusters, algorithm.getClusters(GERMANY, 7.2));
+    }
+
+    @Test
+    public void doesNotReuseTheClustersOfAnotherZoomLevel() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = createAlgorithm();
+        algorithm.setZoomQuantization(0.5, 0.1);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(NETHERLANDS, 7.2);
+
+        assertNotSame(clusters, algorithm.getClusters(UTRECHT, 7.8));
+    }
+
+    @Test
+    public void doesNotReuseTheClustersOfOtherItems() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = createAlgorithm();
+        algorithm.setZoomQuantization(0.5, 0.1);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(NETHERLANDS, 7.2);
+
+        algorithm.setItems(CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(43)));
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> newClusters = algorithm.getClusters(NETHERLANDS, 7.2);
+        assertNotSame(clusters, newClusters);
+
+        algorithm.addItems(CameraTraceReplayTest.generateItems(10, new Random(44)));
+        assertNotSame(newClusters, algorithm.getClusters(NETHERLANDS, 7.2));
+    }
+
+    @Test
+    public void doesNotReuseTheClustersOfAnotherReducer() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = createAlgorithm();
+        algorithm.setZoomQuantization(0.5, 0.1);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(NETHERLANDS, 7.2);
+
+        algorithm.setReducer(new CountReducer());
+        assertNotSame(clusters, algorithm.getClusters(NETHERLANDS, 7.2));
+    }
+
+    @Test
+    public void doesNotReuseTheClustersOfOtherFilters() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = createAlgorithm();
+        algorithm.setZoomQuantization(0.5, 0.1);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters = algorithm.getClusters(NETHERLANDS, 7.2);
+
+        algorithm.setCategoryFilter(1);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> categoryClusters =
+                algorithm.getClusters(NETHERLANDS, 7.2);
+        assertNotSame(clusters, categoryClusters);
+
+        algorithm.setTimeWindow(0, 1000);
+        List<MarkerCluster<CameraTraceReplayTest.TestItem>> windowClusters = algorithm.getClusters(NETHERLANDS, 7.2);
+        assertNotSame(categoryClusters, windowClusters);
+
+        algorithm.clearTimeWindow();
+        assertNotSame(windowClusters, algorithm.getClusters(NETHERLANDS, 7.2));
+    }
+
+    @NonNull
+    private static ClusterAlgorithm<CameraTraceReplayTest.TestItem> createAlgorithm() {
+        ClusterAlgorithm<CameraTraceReplayTest.TestItem> algorithm = new ClusterAlgorithm<>();
+        algorithm.setItems(CameraTraceReplayTest.generateItems(ITEM_COUNT, new Random(42)));
+        return algorithm;
+    }
+
+    @NonNull
+    private static List<String> describe(@NonNull List<MarkerCluster<CameraTraceReplayTest.TestItem>> clusters) {
+        List<String> descriptions = new ArrayList<>(clusters.size());
+        for (MarkerCluster<CameraTraceReplayTest.TestItem> cluster : clusters) {
+            LatLng position = cluster.getPosition();
+            descriptions.add(cluster.getSize() + "@" + position.latitude + "," + position.longitude);
+        }
+        return descriptions;
+    }
+
+    private static class CountReducer implements ClusterReducer<CameraTraceReplayTest.TestItem, Integer> {
+
+        @Override
+        public Integer identity() {
+            return 0;
+        }
+
+        @Override
+        public Integer extract(@NonNull CameraTraceReplayTest.TestItem item) {
+            return 1;
+        }
+
+        @Override
+        public Integer combine(Integer first, Integer second) {
+            return first + second;
+        }
+    }
+}
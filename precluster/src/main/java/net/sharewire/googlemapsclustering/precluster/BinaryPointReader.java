@@ -0,0 +1,42 @@
+package net.sharewire.googlemapsclustering.precluster;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads points from a binary file of big-endian latitude and longitude pairs of doubles.
+ */
+final class BinaryPointReader implements PointReader {
+
+    private final DataInputStream input;
+
+    BinaryPointReader(File file) throws IOException {
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    @Override
+    public int read(double[] latitudes, double[] longitudes) throws IOException {
+        int count = 0;
+        while (count < latitudes.length) {
+            double latitude;
+            try {
+                latitude = input.readDouble();
+            } catch (EOFException e) {
+                break;
+            }
+            latitudes[count] = latitude;
+            longitudes[count] = input.readDouble();
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,53 @@
+package net.sharewire.googlemapsclustering.precluster;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Reads points from a CSV file whose lines start with the latitude and the longitude.
+ * Other columns, empty lines and a header line are ignored.
+ */
+final class CsvPointReader implements PointReader {
+
+    private final BufferedReader reader;
+    private long lineNumber;
+
+    CsvPointReader(File file) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+    }
+
+    @Override
+    public int read(double[] latitudes, double[] longitudes) throws IOException {
+        int count = 0;
+        String line;
+        while (count < latitudes.length && (line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            int firstSeparator = line.indexOf(',');
+            int secondSeparator = firstSeparator < 0 ? -1 : line.indexOf(',', firstSeparator + 1);
+            try {
+                latitudes[count] = Double.parseDouble(line.substring(0, Math.max(firstSeparator, 0)));
+                longitudes[count] = Double.parseDouble(secondSeparator < 0
+                        ? line.substring(firstSeparator + 1) : line.substring(firstSeparator + 1, secondSeparator));
+            } catch (NumberFormatException e) {
+                if (lineNumber == 1) {
+                    continue; // The header line.
+                }
+                throw new IOException("Invalid point on line " + lineNumber + ": " + line);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,17 @@
+package net.sharewire.googlemapsclustering.precluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the positions of points from an input file in batches.
+ */
+interface PointReader extends Closeable {
+
+    /**
+     * Reads the next points into the given arrays.
+     *
+     * @return the number of points read, 0 if the end of the input has been reached
+     */
+    int read(double[] latitudes, double[] longitudes) throws IOException;
+}
@@ -0,0 +1,332 @@
+package net.sharewire.googlemapsclustering.precluster;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The command line tool that clusters a large point file for a range of zoom levels and writes the
+ * clusters to files read by <code>PreclusteredClusterAlgorithm</code>.
+ * <p>
+ * The input is read in a single streaming pass. While a batch of points is being read,
+ * the previous batch is added to the clusters of every zoom level in parallel.
+ * <p>
+ * The clusters of earlier runs are deleted from the output directory first. When all files have been
+ * written, a manifest named <code>manifest.bin</code> is written, which consists of the following
+ * big-endian values:
+ * <pre>
+ * int      magic number "GMCM"
+ * int      format version
+ * long     point count
+ * long     fingerprint of the positions
+ * int      zoom level count n
+ * int[n]   zoom levels
+ * </pre>
+ * The fingerprint is the sum of the hashes of the normalized positions of all points. The library
+ * only reads the clusters of the zoom levels listed in the manifest, and only if the number and
+ * the fingerprint of the items set match the ones of the manifest.
+ */
+public final class Precluster {
+
+    private static final int MAX_ZOOM_LEVEL = 24;
+    private static final int DEFAULT_MAX_ZOOM_LEVEL = 15;
+
+    private static final int BATCH_SIZE = 1 << 16;
+
+    private static final String MANIFEST_NAME = "manifest.bin";
+    private static final int MANIFEST_MAGIC = 0x474D434D;
+    private static final int MANIFEST_VERSION = 2;
+
+    private static final String USAGE = "Usage: precluster --input <points.csv|points.bin> --output <directory>"
+            + " [--max-zoom <zoom level>] [--threads <thread count>]\n"
+            + "\n"
+            + "  --input     CSV file with latitude,longitude lines, or binary file of latitude/longitude doubles\n"
+            + "  --output    directory to write the cluster files to\n"
+            + "  --max-zoom  highest zoom level to write clusters for, 0.." + MAX_ZOOM_LEVEL
+            + " (default " + DEFAULT_MAX_ZOOM_LEVEL + ")\n"
+            + "  --threads   number of worker threads (default: number of processors)";
+
+    private Precluster() {
+    }
+
+    public static void main(String[] args) {
+        File input = null;
+        File output = null;
+        int maxZoomLevel = DEFAULT_MAX_ZOOM_LEVEL;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + args[i]);
+                }
+                switch (args[i]) {
+                    case "--input":
+                        input = new File(args[i + 1]);
+                        break;
+                    case "--output":
+                        output = new File(args[i + 1]);
+                        break;
+                    case "--max-zoom":
+                        maxZoomLevel = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--threads":
+                        threadCount = Integer.parseInt(args[i + 1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (input == null || output == null) {
+                throw new IllegalArgumentException("The input and the output are required");
+            }
+            if (maxZoomLevel < 0 || maxZoomLevel > MAX_ZOOM_LEVEL) {
+                throw new IllegalArgumentException("The max zoom level must be between 0 and " + MAX_ZOOM_LEVEL);
+            }
+            if (threadCount < 1) {
+                throw new IllegalArgumentException("The thread count must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            Result result = run(input, output, maxZoomLevel, threadCount);
+            System.out.println("Clustered " + result.getPointCount() + " points in "
+                    + result.getElapsedMillis() + " ms");
+            for (int zoomLevel = 0; zoomLevel <= maxZoomLevel; zoomLevel++) {
+                System.out.println("  zoom " + zoomLevel + ": " + result.getClusterCount(zoomLevel)
+                        + " clusters in " + result.getFileCount(zoomLevel) + " files");
+            }
+        } catch (IOException | ExecutionException | InterruptedException e) {
+            System.err.println("Failed to precluster " + input + ": " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Clusters the points of the given input file and writes the clusters of the zoom levels
+     * from 0 to the given one to the given output directory, replacing the clusters of earlier runs.
+     *
+     * @return the numbers of points clustered and of clusters and files written
+     */
+    public static Result run(File input, File output, int maxZoomLevel, int threadCount)
+            throws IOException, ExecutionException, InterruptedException {
+        long startTime = System.nanoTime();
+
+        // The manifest is deleted first, so that the output of an interrupted run is never read.
+        clearOutput(output);
+
+        final List<ZoomLevelClusters> zoomLevels = new ArrayList<>();
+        for (int zoomLevel = 0; zoomLevel <= maxZoomLevel; zoomLevel++) {
+            zoomLevels.add(new ZoomLevelClusters(zoomLevel));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            long pointCount = 0;
+            long fingerprint = 0;
+            Batch batch = new Batch();
+            Batch nextBatch = new Batch();
+            PointReader reader = input.getName().endsWith(".csv")
+                    ? new CsvPointReader(input) : new BinaryPointReader(input);
+            try {
+                batch.read(reader);
+                while (batch.size > 0) {
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (final ZoomLevelClusters clusters : zoomLevels) {
+                        final Batch points = batch;
+                        futures.add(executor.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                clusters.add(points.latitudes, points.longitudes, points.size);
+                            }
+                        }));
+                    }
+                    pointCount += batch.size;
+                    fingerprint += batch.fingerprint();
+
+                    nextBatch.read(reader);
+                    waitFor(futures);
+
+                    Batch readBatch = batch;
+                    batch = nextBatch;
+                    nextBatch = readBatch;
+                }
+            } finally {
+                reader.close();
+            }
+
+            final File directory = output;
+            List<Future<?>> futures = new ArrayList<>();
+            final int[] fileCounts = new int[zoomLevels.size()];
+            for (final ZoomLevelClusters clusters : zoomLevels) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        fileCounts[clusters.getZoomLevel()] = clusters.write(directory);
+                        return null;
+                    }
+                }));
+            }
+            waitFor(futures);
+            writeManifest(output, pointCount, fingerprint, maxZoomLevel);
+
+            int[] clusterCounts = new int[zoomLevels.size()];
+            for (ZoomLevelClusters clusters : zoomLevels) {
+                clusterCounts[clusters.getZoomLevel()] = clusters.getTileCount();
+            }
+            return new Result(pointCount, (System.nanoTime() - startTime) / 1000000, clusterCounts, fileCounts);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Deletes the manifest and the clusters of all zoom levels, but no other files of the directory.
+     */
+    private static void clearOutput(File directory) throws IOException {
+        File manifest = new File(directory, MANIFEST_NAME);
+        if (manifest.exists() && !manifest.delete()) {
+            throw new IOException("Failed to delete " + manifest);
+        }
+        for (int zoomLevel = 0; zoomLevel <= MAX_ZOOM_LEVEL; zoomLevel++) {
+            delete(new File(directory, String.valueOf(zoomLevel)));
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    private static void writeManifest(File directory, long pointCount, long fingerprint, int maxZoomLevel)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(directory, MANIFEST_NAME))));
+        try {
+            output.writeInt(MANIFEST_MAGIC);
+            output.writeInt(MANIFEST_VERSION);
+            output.writeLong(pointCount);
+            output.writeLong(fingerprint);
+            output.writeInt(maxZoomLevel + 1);
+            for (int zoomLevel = 0; zoomLevel <= maxZoomLevel; zoomLevel++) {
+                output.writeInt(zoomLevel);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Returns the hash of a position, which must be the same as the one <code>PreclusteredIndex</code>
+     * computes for an item.
+     */
+    private static long hashPosition(double latitude, double longitude) {
+        // Adding 0.0 turns -0.0 into 0.0, which is the same position.
+        long hash = Double.doubleToLongBits(latitude + 0.0) * 0x9E3779B97F4A7C15L
+                + Double.doubleToLongBits(longitude + 0.0);
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB93FE5C6BE53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static void waitFor(List<Future<?>> futures) throws ExecutionException, InterruptedException {
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    /**
+     * The numbers of points clustered and of clusters and files written by a run.
+     */
+    public static final class Result {
+
+        private final long pointCount;
+        private final long elapsedMillis;
+        private final int[] clusterCounts;
+        private final int[] fileCounts;
+
+        private Result(long pointCount, long elapsedMillis, int[] clusterCounts, int[] fileCounts) {
+            this.pointCount = pointCount;
+            this.elapsedMillis = elapsedMillis;
+            this.clusterCounts = clusterCounts;
+            this.fileCounts = fileCounts;
+        }
+
+        public long getPointCount() {
+            return pointCount;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Returns the number of non-empty tiles of the given zoom level.
+         */
+        public int getClusterCount(int zoomLevel) {
+            return clusterCounts[zoomLevel];
+        }
+
+        /**
+         * Returns the number of cluster files written for the given zoom level.
+         */
+        public int getFileCount(int zoomLevel) {
+            return fileCounts[zoomLevel];
+        }
+    }
+
+    private static final class Batch {
+
+        final double[] latitudes = new double[BATCH_SIZE];
+        final double[] longitudes = new double[BATCH_SIZE];
+        int size;
+
+        void read(PointReader reader) throws IOException {
+            size = reader.read(latitudes, longitudes);
+
+            // Normalize the positions the same way as LatLng does for the items in the app,
+            // which clamps the latitude to the poles and wraps a longitude of 180 to -180.
+            for (int i = 0; i < size; i++) {
+                latitudes[i] = Math.max(-90.0, Math.min(90.0, latitudes[i]));
+                if (longitudes[i] < -180.0 || longitudes[i] >= 180.0) {
+                    longitudes[i] = ((longitudes[i] - 180.0) % 360.0 + 360.0) % 360.0 - 180.0;
+                }
+            }
+        }
+
+        long fingerprint() {
+            long fingerprint = 0;
+            for (int i = 0; i < size; i++) {
+                fingerprint += hashPosition(latitudes[i], longitudes[i]);
+            }
+            return fingerprint;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package net.sharewire.googlemapsclustering.precluster;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from tile keys to the number of points inside a tile and the sums of their positions.
+ * It uses open addressing over primitive arrays, which keeps millions of tiles in a few dozen
+ * bytes each.
+ */
+final class TileAggregates {
+
+    private static final long EMPTY = -1L;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] keys;
+    private int[] counts;
+    private double[] latitudeSums;
+    private double[] longitudeSums;
+    private int size;
+
+    TileAggregates() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    void add(long key, double latitude, double longitude) {
+        int slot = find(key);
+        if (keys[slot] == EMPTY) {
+            if ((size + 1) * 4L > keys.length * 3L) {
+                grow();
+                slot = find(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        counts[slot]++;
+        latitudeSums[slot] += latitude;
+        longitudeSums[slot] += longitude;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the slot of the given key, or -1 if there are no points in that tile.
+     */
+    int get(long key) {
+        int slot = find(key);
+        return keys[slot] == EMPTY ? -1 : slot;
+    }
+
+    /**
+     * Returns the keys of all tiles in no particular order.
+     */
+    long[] keys() {
+        long[] result = new long[size];
+        int index = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                result[index++] = key;
+            }
+        }
+        return result;
+    }
+
+    int getCount(int slot) {
+        return counts[slot];
+    }
+
+    double getLatitudeSum(int slot) {
+        return latitudeSums[slot];
+    }
+
+    double getLongitudeSum(int slot) {
+        return longitudeSums[slot];
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        double[] oldLatitudeSums = latitudeSums;
+        double[] oldLongitudeSums = longitudeSums;
+
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+                latitudeSums[slot] = oldLatitudeSums[i];
+                longitudeSums[slot] = oldLongitudeSums[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new int[capacity];
+        latitudeSums = new double[capacity];
+        longitudeSums = new double[capacity];
+    }
+}
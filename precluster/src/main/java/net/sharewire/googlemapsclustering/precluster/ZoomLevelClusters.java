@@ -0,0 +1,130 @@
+package net.sharewire.googlemapsclustering.precluster;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The clusters of a zoom level. The tiles are the same as the ones the library
+ * uses for the zoom level, so a point is counted in the same tile on both sides.
+ * The positions must have been normalized like the ones of LatLng.
+ * <p>
+ * The clusters are written to files of 64 x 64 tiles named <code>zoom/x/y.bin</code>, where
+ * x and y are the tile coordinates divided by 64. A file consists of the following big-endian values:
+ * <pre>
+ * int      magic number "GMCT"
+ * int      format version
+ * int      zoom level
+ * int      tile count n
+ * tile[n]  non-empty tiles
+ * </pre>
+ * Each tile consists of <code>int x, int y, int count, double latitude, double longitude</code>,
+ * where the latitude and the longitude are the average of the positions inside the tile.
+ */
+final class ZoomLevelClusters {
+
+    private static final int MAGIC = 0x474D4354;
+    private static final int VERSION = 1;
+
+    private static final int FILE_TILE_SHIFT = 6;
+    private static final long FILE_TILE_MASK = (1 << FILE_TILE_SHIFT) - 1;
+
+    private final int zoomLevel;
+    private final long tileCount;
+    private final double stepLatitude;
+    private final double stepLongitude;
+    private final TileAggregates tiles = new TileAggregates();
+
+    ZoomLevelClusters(int zoomLevel) {
+        this.zoomLevel = zoomLevel;
+        // Same computation as in ClusterAlgorithm to get exactly the same tiles.
+        this.tileCount = (long) (Math.pow(2, zoomLevel) * 2);
+        this.stepLatitude = 180.0 / tileCount;
+        this.stepLongitude = 360.0 / tileCount;
+    }
+
+    int getZoomLevel() {
+        return zoomLevel;
+    }
+
+    int getTileCount() {
+        return tiles.size();
+    }
+
+    void add(double[] latitudes, double[] longitudes, int count) {
+        for (int i = 0; i < count; i++) {
+            // Points on the south pole, and points rounded onto the antimeridian, belong to the last tiles,
+            // as in the library.
+            long tileX = Math.min((long) ((longitudes[i] + 180.0) / stepLongitude), tileCount - 1);
+            long tileY = Math.min((long) ((90.0 - latitudes[i]) / stepLatitude), tileCount - 1);
+            tiles.add(tileX * tileCount + tileY, latitudes[i], longitudes[i]);
+        }
+    }
+
+    /**
+     * Writes the clusters to files inside the given directory.
+     *
+     * @return the number of files written
+     */
+    int write(File directory) throws IOException {
+        // Sort the tiles by file first, so every file is written in one go.
+        long fileCount = Math.max(tileCount >> FILE_TILE_SHIFT, 1);
+        long[] keys = tiles.keys();
+        long[] sortKeys = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            long tileX = keys[i] / tileCount;
+            long tileY = keys[i] % tileCount;
+            long fileKey = (tileX >> FILE_TILE_SHIFT) * fileCount + (tileY >> FILE_TILE_SHIFT);
+            sortKeys[i] = fileKey << (2 * FILE_TILE_SHIFT)
+                    | (tileX & FILE_TILE_MASK) << FILE_TILE_SHIFT | (tileY & FILE_TILE_MASK);
+        }
+        Arrays.sort(sortKeys);
+
+        int files = 0;
+        int from = 0;
+        while (from < sortKeys.length) {
+            long fileKey = sortKeys[from] >>> (2 * FILE_TILE_SHIFT);
+            int to = from + 1;
+            while (to < sortKeys.length && sortKeys[to] >>> (2 * FILE_TILE_SHIFT) == fileKey) {
+                to++;
+            }
+            writeFile(directory, fileKey / fileCount, fileKey % fileCount, sortKeys, from, to);
+            files++;
+            from = to;
+        }
+        return files;
+    }
+
+    private void writeFile(File directory, long fileX, long fileY, long[] sortKeys, int from, int to)
+            throws IOException {
+        File fileDirectory = new File(directory, zoomLevel + File.separator + fileX);
+        if (!fileDirectory.isDirectory() && !fileDirectory.mkdirs()) {
+            throw new IOException("Failed to create " + fileDirectory);
+        }
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(fileDirectory, fileY + ".bin"))));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(zoomLevel);
+            output.writeInt(to - from);
+            for (int i = from; i < to; i++) {
+                long tileX = fileX << FILE_TILE_SHIFT | (sortKeys[i] >>> FILE_TILE_SHIFT & FILE_TILE_MASK);
+                long tileY = fileY << FILE_TILE_SHIFT | (sortKeys[i] & FILE_TILE_MASK);
+                int slot = tiles.get(tileX * tileCount + tileY);
+                int count = tiles.getCount(slot);
+                output.writeInt((int) tileX);
+                output.writeInt((int) tileY);
+                output.writeInt(count);
+                output.writeDouble(tiles.getLatitudeSum(slot) / count);
+                output.writeDouble(tiles.getLongitudeSum(slot) / count);
+            }
+        } finally {
+            output.close();
+        }
+    }
+}